@@ -0,0 +1,54 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.benchmark;
+
+import java.util.Random;
+
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.SequentialAccessSparseVector;
+import org.apache.mahout.math.Vector;
+
+/** Creates the seeded random vectors shared by the vector benchmarks. */
+final class BenchmarkVectors {
+
+  static final String DENSE = "dense";
+  static final String RANDOM_ACCESS = "randomAccess";
+  static final String SEQUENTIAL = "sequential";
+
+  private BenchmarkVectors() {
+  }
+
+  static Vector create(String type, int cardinality, int numNonZero, Random random) {
+    Vector vector;
+    if (DENSE.equals(type)) {
+      vector = new DenseVector(cardinality);
+    } else if (RANDOM_ACCESS.equals(type)) {
+      vector = new RandomAccessSparseVector(cardinality, numNonZero);
+    } else if (SEQUENTIAL.equals(type)) {
+      vector = new SequentialAccessSparseVector(cardinality, numNonZero);
+    } else {
+      throw new IllegalArgumentException("Unknown vector type: " + type);
+    }
+    for (int i = 0; i < numNonZero; i++) {
+      vector.setQuick(random.nextInt(cardinality), random.nextGaussian());
+    }
+    return vector;
+  }
+
+}
@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.recommender.slopeone.CompactDiffStorage;
+import org.apache.mahout.cf.taste.impl.recommender.slopeone.MemoryDiffStorage;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.slopeone.DiffStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building slope-one diffs with {@link MemoryDiffStorage} against {@link CompactDiffStorage}, on one thread and on
+ * all of them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiffStorageBenchmark {
+
+  private static final int NUM_ITEMS = 2000;
+  private static final int PREFS_PER_USER = 40;
+
+  @Param({"2000", "10000"})
+  private int numUsers;
+
+  private DataModel dataModel;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42L);
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>(numUsers);
+    for (int u = 0; u < numUsers; u++) {
+      FastIDSet itemIDs = new FastIDSet(PREFS_PER_USER);
+      while (itemIDs.size() < PREFS_PER_USER) {
+        // popular items are rated more often
+        itemIDs.add((long) (NUM_ITEMS * Math.pow(random.nextDouble(), 2.0)));
+      }
+      PreferenceArray prefs = new GenericUserPreferenceArray(PREFS_PER_USER);
+      prefs.setUserID(0, u);
+      int i = 0;
+      for (long itemID : itemIDs.toArray()) {
+        prefs.setItemID(i, itemID);
+        prefs.setValue(i, 1 + random.nextInt(5));
+        i++;
+      }
+      prefs.sortByItem();
+      userData.put(u, prefs);
+    }
+    dataModel = new GenericDataModel(userData);
+  }
+
+  @Benchmark
+  public DiffStorage memory() throws TasteException {
+    return new MemoryDiffStorage(dataModel, Weighting.WEIGHTED, Long.MAX_VALUE);
+  }
+
+  @Benchmark
+  public DiffStorage compact() throws TasteException {
+    return new CompactDiffStorage(dataModel, Weighting.WEIGHTED, CompactDiffStorage.DEFAULT_MIN_COUNT, 1);
+  }
+
+  @Benchmark
+  public DiffStorage compactParallel() throws TasteException {
+    return new CompactDiffStorage(dataModel, Weighting.WEIGHTED);
+  }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.math.Vector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** {@link DistanceMeasure#distance(Vector, Vector)} for the unweighted measures over each vector type. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DistanceMeasureBenchmark {
+
+  @Param({"Chebyshev", "Cosine", "Euclidean", "Manhattan", "Minkowski", "SquaredEuclidean", "Tanimoto"})
+  private String measure;
+
+  @Param({BenchmarkVectors.DENSE, BenchmarkVectors.RANDOM_ACCESS, BenchmarkVectors.SEQUENTIAL})
+  private String vectorType;
+
+  @Param("10000")
+  private int cardinality;
+
+  @Param("100")
+  private int numNonZero;
+
+  private DistanceMeasure distanceMeasure;
+  private Vector a;
+  private Vector b;
+
+  @Setup
+  public void setUp() throws Exception {
+    distanceMeasure = (DistanceMeasure) Class.forName(
+        "org.apache.mahout.common.distance." + measure + "DistanceMeasure").newInstance();
+    Random random = new Random(42L);
+    a = BenchmarkVectors.create(vectorType, cardinality, numNonZero, random);
+    b = BenchmarkVectors.create(vectorType, cardinality, numNonZero, random);
+  }
+
+  @Benchmark
+  public double distance() {
+    return distanceMeasure.distance(a, b);
+  }
+
+  @Benchmark
+  public double distanceWithCachedLength() {
+    return distanceMeasure.distance(a.getLengthSquared(), a, b);
+  }
+
+}
@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.benchmark;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.recommender.TopItems;
+import org.apache.mahout.cf.taste.impl.recommender.svd.Factorization;
+import org.apache.mahout.cf.taste.impl.recommender.svd.FloatFactorization;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Top-N over all items of a factorization: estimating each item through {@link Factorization} as
+ * SVDRecommender used to, against the row scan of {@link FloatFactorization}, one user and a batch of users at
+ * a time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FactorizationTopItemsBenchmark {
+
+  private static final int NUM_USERS = 1000;
+  private static final int NUM_FEATURES = 32;
+  private static final int HOW_MANY = 10;
+  private static final int BATCH_SIZE = 16;
+
+  @Param({"100000", "1000000"})
+  private int numItems;
+
+  private Factorization factorization;
+  private FloatFactorization floatFactorization;
+  private FastIDSet allItemIDs;
+  private int next;
+
+  @Setup
+  public void setUp() throws TasteException {
+    Random random = new Random(42L);
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>(NUM_USERS);
+    double[][] userFeatures = new double[NUM_USERS][NUM_FEATURES];
+    for (int u = 0; u < NUM_USERS; u++) {
+      userIDMapping.put(u, u);
+      for (int feature = 0; feature < NUM_FEATURES; feature++) {
+        userFeatures[u][feature] = random.nextGaussian();
+      }
+    }
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>(numItems);
+    allItemIDs = new FastIDSet(numItems);
+    double[][] itemFeatures = new double[numItems][NUM_FEATURES];
+    for (int i = 0; i < numItems; i++) {
+      itemIDMapping.put(i, i);
+      allItemIDs.add(i);
+      for (int feature = 0; feature < NUM_FEATURES; feature++) {
+        itemFeatures[i][feature] = random.nextGaussian();
+      }
+    }
+    factorization = new Factorization(userIDMapping, itemIDMapping, userFeatures, itemFeatures);
+    floatFactorization = FloatFactorization.copyOf(factorization);
+  }
+
+  private long nextUserID() {
+    next = (next + 1) % NUM_USERS;
+    return next;
+  }
+
+  @Benchmark
+  public List<RecommendedItem> estimates() throws TasteException {
+    final double[] userFeatures = factorization.getUserFeatures(nextUserID());
+    return TopItems.getTopItems(HOW_MANY, allItemIDs.iterator(), null, new TopItems.IDEstimator() {
+      @Override
+      public double estimate(long itemID) throws TasteException {
+        double[] itemFeatures = factorization.getItemFeatures(itemID);
+        double sum = 0.0;
+        for (int feature = 0; feature < NUM_FEATURES; feature++) {
+          sum += userFeatures[feature] * itemFeatures[feature];
+        }
+        return sum;
+      }
+    });
+  }
+
+  @Benchmark
+  public List<RecommendedItem> scan() throws TasteException {
+    return floatFactorization.recommend(nextUserID(), HOW_MANY, null, null);
+  }
+
+  /** Per user, divide by the batch size to compare. */
+  @Benchmark
+  public List<List<RecommendedItem>> batchScan() throws TasteException {
+    long[] userIDs = new long[BATCH_SIZE];
+    for (int u = 0; u < BATCH_SIZE; u++) {
+      userIDs[u] = nextUserID();
+    }
+    return floatFactorization.recommend(userIDs, HOW_MANY, null, null);
+  }
+
+}
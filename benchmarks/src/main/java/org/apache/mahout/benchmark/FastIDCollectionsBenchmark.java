@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Building, probing and iterating {@link FastByIDMap} and {@link FastIDSet}. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FastIDCollectionsBenchmark {
+
+  @Param({"1000", "100000"})
+  private int size;
+
+  private long[] ids;
+  private long[] probes;
+  private FastByIDMap<Double> map;
+  private FastIDSet set;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42L);
+    ids = new long[size];
+    probes = new long[size];
+    map = new FastByIDMap<Double>(size);
+    set = new FastIDSet(size);
+    for (int i = 0; i < size; i++) {
+      ids[i] = random.nextInt(Integer.MAX_VALUE);
+      // every other probe is a hit
+      probes[i] = (i & 1) == 0 ? ids[i] : -1L - i;
+      map.put(ids[i], (double) i);
+      set.add(ids[i]);
+    }
+  }
+
+  @Benchmark
+  public FastByIDMap<Double> mapPut() {
+    FastByIDMap<Double> result = new FastByIDMap<Double>();
+    for (long id : ids) {
+      result.put(id, 1.0);
+    }
+    return result;
+  }
+
+  @Benchmark
+  public int mapGet() {
+    int hits = 0;
+    for (long probe : probes) {
+      if (map.get(probe) != null) {
+        hits++;
+      }
+    }
+    return hits;
+  }
+
+  @Benchmark
+  public FastIDSet setAdd() {
+    FastIDSet result = new FastIDSet();
+    for (long id : ids) {
+      result.add(id);
+    }
+    return result;
+  }
+
+  @Benchmark
+  public int setContains() {
+    int hits = 0;
+    for (long probe : probes) {
+      if (set.contains(probe)) {
+        hits++;
+      }
+    }
+    return hits;
+  }
+
+  @Benchmark
+  public long setIterate() {
+    long sum = 0L;
+    LongPrimitiveIterator it = set.iterator();
+    while (it.hasNext()) {
+      sum += it.nextLong();
+    }
+    return sum;
+  }
+
+}
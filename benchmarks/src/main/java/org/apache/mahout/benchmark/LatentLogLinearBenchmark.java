@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.classifier.sgd.LatentLogLinear;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** {@link LatentLogLinear#train(int, int, int)} on random dyads. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LatentLogLinearBenchmark {
+
+  private static final int NUM_EXAMPLES = 1000;
+
+  @Param({"5", "20"})
+  private int factors;
+
+  @Param("1000")
+  private int numIds;
+
+  private LatentLogLinear model;
+  private int[] leftIds;
+  private int[] rightIds;
+  private int[] actuals;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42L);
+    model = new LatentLogLinear(factors);
+    leftIds = new int[NUM_EXAMPLES];
+    rightIds = new int[NUM_EXAMPLES];
+    actuals = new int[NUM_EXAMPLES];
+    for (int i = 0; i < NUM_EXAMPLES; i++) {
+      leftIds[i] = random.nextInt(numIds);
+      rightIds[i] = random.nextInt(numIds);
+      actuals[i] = random.nextInt(2);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_EXAMPLES)
+  public LatentLogLinear train() {
+    for (int i = 0; i < NUM_EXAMPLES; i++) {
+      model.train(leftIds[i], rightIds[i], actuals[i]);
+    }
+    return model;
+  }
+
+}
@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericPreference;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.recommender.AllUnknownItemsCandidateItemsStrategy;
+import org.apache.mahout.cf.taste.impl.recommender.svd.Factorization;
+import org.apache.mahout.cf.taste.impl.recommender.svd.Factorizer;
+import org.apache.mahout.cf.taste.impl.recommender.svd.MaximumInnerProductIndex;
+import org.apache.mahout.cf.taste.impl.recommender.svd.ParallelSGDFactorizer;
+import org.apache.mahout.cf.taste.impl.recommender.svd.SVDRecommender;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.common.iterator.FileLineIterable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Latency of {@link SVDRecommender} scoring all unknown items against scoring the candidates of a
+ * {@link MaximumInnerProductIndex}. The ratings are read from the GroupLens ratings.dat file named by the
+ * {@code mahout.benchmark.grouplens} system property, or generated with a similar shape when it is not set.
+ * The precision of the approximate top items is printed during setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MaximumInnerProductBenchmark {
+
+  private static final Logger log = LoggerFactory.getLogger(MaximumInnerProductBenchmark.class);
+
+  private static final String GROUPLENS_PROPERTY = "mahout.benchmark.grouplens";
+  private static final Pattern COLON_DELIMITER_PATTERN = Pattern.compile("::");
+  private static final int NUM_FEATURES = 20;
+  private static final int NUM_EPOCHS = 20;
+  private static final int NUM_CLUSTERS = 64;
+  private static final int HOW_MANY = 10;
+
+  @Param({"4", "8", "16"})
+  private int numProbes;
+
+  private long[] userIDs;
+  private Recommender exact;
+  private Recommender approximate;
+  private int next;
+
+  @Setup
+  public void setUp() throws TasteException, IOException {
+    String ratingsFile = System.getProperty(GROUPLENS_PROPERTY);
+    DataModel dataModel = ratingsFile == null ? syntheticDataModel() : groupLensDataModel(new File(ratingsFile));
+    final Factorization factorization =
+        new ParallelSGDFactorizer(dataModel, NUM_FEATURES, NUM_EPOCHS).factorize();
+    Factorizer trained = new Factorizer() {
+      @Override
+      public Factorization factorize() {
+        return factorization;
+      }
+      @Override
+      public void refresh(Collection<Refreshable> alreadyRefreshed) {
+      }
+    };
+    exact = new SVDRecommender(dataModel, trained, new AllUnknownItemsCandidateItemsStrategy());
+    approximate = new SVDRecommender(dataModel, trained,
+        MaximumInnerProductIndex.build(factorization, NUM_CLUSTERS, numProbes));
+
+    userIDs = new long[dataModel.getNumUsers()];
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    for (int u = 0; it.hasNext(); u++) {
+      userIDs[u] = it.nextLong();
+    }
+    log.info("Precision@{}: {}", HOW_MANY, precision());
+  }
+
+  /** Fraction of the exact top items also recommended by the index, over sampled users. */
+  private double precision() throws TasteException {
+    int found = 0;
+    int total = 0;
+    for (int u = 0; u < userIDs.length; u += Math.max(1, userIDs.length / 200)) {
+      FastIDSet approximateIDs = new FastIDSet();
+      for (RecommendedItem item : approximate.recommend(userIDs[u], HOW_MANY)) {
+        approximateIDs.add(item.getItemID());
+      }
+      for (RecommendedItem item : exact.recommend(userIDs[u], HOW_MANY)) {
+        if (approximateIDs.contains(item.getItemID())) {
+          found++;
+        }
+        total++;
+      }
+    }
+    return (double) found / total;
+  }
+
+  private long nextUserID() {
+    next = (next + 1) % userIDs.length;
+    return userIDs[next];
+  }
+
+  @Benchmark
+  public List<RecommendedItem> exhaustive() throws TasteException {
+    return exact.recommend(nextUserID(), HOW_MANY);
+  }
+
+  @Benchmark
+  public List<RecommendedItem> index() throws TasteException {
+    return approximate.recommend(nextUserID(), HOW_MANY);
+  }
+
+  /** Reads userID::itemID::rating::timestamp lines. */
+  private static DataModel groupLensDataModel(File ratingsFile) throws IOException {
+    FastByIDMap<List<Preference>> prefsByUser = new FastByIDMap<List<Preference>>();
+    for (String line : new FileLineIterable(ratingsFile, false)) {
+      String[] tokens = COLON_DELIMITER_PATTERN.split(line);
+      long userID = Long.parseLong(tokens[0]);
+      List<Preference> prefs = prefsByUser.get(userID);
+      if (prefs == null) {
+        prefs = Lists.newArrayList();
+        prefsByUser.put(userID, prefs);
+      }
+      prefs.add(new GenericPreference(userID, Long.parseLong(tokens[1]), Float.parseFloat(tokens[2])));
+    }
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>(prefsByUser.size());
+    for (Map.Entry<Long,List<Preference>> entry : prefsByUser.entrySet()) {
+      userData.put(entry.getKey(), new GenericUserPreferenceArray(entry.getValue()));
+    }
+    return new GenericDataModel(userData);
+  }
+
+  /** About as many users, items and ratings as the 1M GroupLens data, from rank 5 tastes. */
+  private static DataModel syntheticDataModel() {
+    Random random = new Random(42L);
+    int numUsers = 6000;
+    int numItems = 3700;
+    int prefsPerUser = 160;
+    double[][] itemFeatures = new double[numItems][5];
+    for (double[] features : itemFeatures) {
+      for (int feature = 0; feature < features.length; feature++) {
+        features[feature] = random.nextGaussian();
+      }
+    }
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>(numUsers);
+    double[] userFeatures = new double[5];
+    for (int u = 0; u < numUsers; u++) {
+      for (int feature = 0; feature < userFeatures.length; feature++) {
+        userFeatures[feature] = random.nextGaussian() * 0.5;
+      }
+      FastIDSet itemIDs = new FastIDSet(prefsPerUser);
+      while (itemIDs.size() < prefsPerUser) {
+        itemIDs.add(random.nextInt(numItems));
+      }
+      PreferenceArray prefs = new GenericUserPreferenceArray(prefsPerUser);
+      prefs.setUserID(0, u);
+      int i = 0;
+      for (long itemID : itemIDs.toArray()) {
+        double rating = 3.5;
+        for (int feature = 0; feature < userFeatures.length; feature++) {
+          rating += userFeatures[feature] * itemFeatures[(int) itemID][feature];
+        }
+        prefs.setItemID(i, itemID);
+        prefs.setValue(i, (float) Math.max(1.0, Math.min(5.0, Math.rint(rating))));
+        i++;
+      }
+      prefs.sortByItem();
+      userData.put(u, prefs);
+    }
+    return new GenericDataModel(userData);
+  }
+
+}
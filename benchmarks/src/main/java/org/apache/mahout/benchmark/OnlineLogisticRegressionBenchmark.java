@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.classifier.sgd.L1;
+import org.apache.mahout.classifier.sgd.OnlineLogisticRegression;
+import org.apache.mahout.math.Vector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** {@link OnlineLogisticRegression#train(int, Vector)} on sparse, hashed-style feature vectors. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OnlineLogisticRegressionBenchmark {
+
+  private static final int NUM_EXAMPLES = 1000;
+
+  @Param({"2", "20"})
+  private int numCategories;
+
+  @Param("10000")
+  private int numFeatures;
+
+  @Param("50")
+  private int numNonZero;
+
+  private OnlineLogisticRegression learner;
+  private Vector[] instances;
+  private int[] targets;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42L);
+    learner = new OnlineLogisticRegression(numCategories, numFeatures, new L1());
+    instances = new Vector[NUM_EXAMPLES];
+    targets = new int[NUM_EXAMPLES];
+    for (int i = 0; i < NUM_EXAMPLES; i++) {
+      instances[i] = BenchmarkVectors.create(BenchmarkVectors.RANDOM_ACCESS, numFeatures, numNonZero, random);
+      targets[i] = random.nextInt(numCategories);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_EXAMPLES)
+  public OnlineLogisticRegression train() {
+    for (int i = 0; i < NUM_EXAMPLES; i++) {
+      learner.train(targets[i], instances[i]);
+    }
+    return learner;
+  }
+
+}
@@ -0,0 +1,193 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.benchmark;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.list.IntArrayList;
+import org.apache.mahout.math.map.OpenIntDoubleHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link RandomAccessSparseVector}'s table-scanning iteration, dot, distance, plus and add-into-dense, each next to
+ * the way it used to be done over the same {@link OpenIntDoubleHashMap}: copying the keys into an
+ * {@link IntArrayList} and looking every one up again, element by element. The {@code legacy} methods are that
+ * baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RandomAccessSparseVectorBenchmark {
+
+  @Param("50000")
+  private int cardinality;
+
+  @Param({"50", "500"})
+  private int numNonZero;
+
+  private RandomAccessSparseVector a;
+  private RandomAccessSparseVector b;
+  private OpenIntDoubleHashMap mapA;
+  private OpenIntDoubleHashMap mapB;
+  private Vector dense;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42L);
+    a = (RandomAccessSparseVector) BenchmarkVectors.create(BenchmarkVectors.RANDOM_ACCESS, cardinality, numNonZero,
+        random);
+    b = (RandomAccessSparseVector) BenchmarkVectors.create(BenchmarkVectors.RANDOM_ACCESS, cardinality, numNonZero,
+        random);
+    mapA = toMap(a);
+    mapB = toMap(b);
+    dense = BenchmarkVectors.create(BenchmarkVectors.DENSE, cardinality, cardinality, random);
+  }
+
+  private static OpenIntDoubleHashMap toMap(Vector vector) {
+    OpenIntDoubleHashMap map = new OpenIntDoubleHashMap(vector.getNumNondefaultElements());
+    Iterator<Vector.Element> it = vector.iterateNonZero();
+    while (it.hasNext()) {
+      Vector.Element e = it.next();
+      map.put(e.index(), e.get());
+    }
+    return map;
+  }
+
+  @Benchmark
+  public double iterateNonZero() {
+    double sum = 0.0;
+    Iterator<Vector.Element> it = a.iterateNonZero();
+    while (it.hasNext()) {
+      sum += it.next().get();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double legacyIterateNonZero() {
+    IntArrayList keys = new IntArrayList(mapA.size());
+    mapA.keys(keys);
+    double sum = 0.0;
+    for (int i = 0; i < keys.size(); i++) {
+      sum += mapA.get(keys.getQuick(i));
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double dotSparse() {
+    return a.dot(b);
+  }
+
+  @Benchmark
+  public double legacyDotSparse() {
+    IntArrayList keys = mapA.keys();
+    double result = 0.0;
+    for (int i = 0; i < keys.size(); i++) {
+      int index = keys.getQuick(i);
+      result += mapA.get(index) * mapB.get(index);
+    }
+    return result;
+  }
+
+  @Benchmark
+  public double dotDense() {
+    return a.dot(dense);
+  }
+
+  @Benchmark
+  public double legacyDotDense() {
+    IntArrayList keys = mapA.keys();
+    double result = 0.0;
+    for (int i = 0; i < keys.size(); i++) {
+      int index = keys.getQuick(i);
+      result += mapA.get(index) * dense.getQuick(index);
+    }
+    return result;
+  }
+
+  @Benchmark
+  public double distanceSquaredDense() {
+    return a.getDistanceSquared(dense);
+  }
+
+  @Benchmark
+  public double legacyDistanceSquaredDense() {
+    IntArrayList keys = mapA.keys();
+    double result = dense.getLengthSquared();
+    for (int i = 0; i < keys.size(); i++) {
+      int index = keys.getQuick(i);
+      double value = mapA.get(index);
+      result += value * (value - 2.0 * dense.getQuick(index));
+    }
+    return result;
+  }
+
+  @Benchmark
+  public Vector plusSparse() {
+    return a.plus(b);
+  }
+
+  @Benchmark
+  public OpenIntDoubleHashMap legacyPlusSparse() {
+    OpenIntDoubleHashMap result = (OpenIntDoubleHashMap) mapA.clone();
+    IntArrayList keys = mapB.keys();
+    for (int i = 0; i < keys.size(); i++) {
+      int index = keys.getQuick(i);
+      result.put(index, result.get(index) + mapB.get(index));
+    }
+    return result;
+  }
+
+  @Benchmark
+  public Vector addToDense() {
+    Vector target = new DenseVector(cardinality);
+    a.addTo(target);
+    return target;
+  }
+
+  @Benchmark
+  public Vector legacyAddToDense() {
+    Vector target = new DenseVector(cardinality);
+    IntArrayList keys = mapA.keys();
+    for (int i = 0; i < keys.size(); i++) {
+      int index = keys.getQuick(i);
+      target.setQuick(index, target.getQuick(index) + mapA.get(index));
+    }
+    return target;
+  }
+
+}
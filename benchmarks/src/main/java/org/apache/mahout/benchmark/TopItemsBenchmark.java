@@ -0,0 +1,90 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.benchmark;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.recommender.TopItems;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Top-N selection with {@link TopItems#getTopItems} over a candidate set with a cheap estimator. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopItemsBenchmark {
+
+  @Param({"1000", "100000"})
+  private int numCandidates;
+
+  @Param({"10", "100"})
+  private int howMany;
+
+  private FastIDSet candidates;
+
+  private final TopItems.Estimator<Long> estimator = new TopItems.Estimator<Long>() {
+    @Override
+    public double estimate(Long itemID) {
+      // cheap, deterministic and scattered so that the heap sees churn
+      return (itemID * 2654435761L & 0xFFFFL) / 65536.0;
+    }
+  };
+
+  private final TopItems.IDEstimator idEstimator = new TopItems.IDEstimator() {
+    @Override
+    public double estimate(long itemID) {
+      return (itemID * 2654435761L & 0xFFFFL) / 65536.0;
+    }
+  };
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42L);
+    candidates = new FastIDSet(numCandidates);
+    while (candidates.size() < numCandidates) {
+      candidates.add(random.nextInt(Integer.MAX_VALUE));
+    }
+  }
+
+  @Benchmark
+  public List<RecommendedItem> topItems() throws Exception {
+    return TopItems.getTopItems(howMany, candidates.iterator(), null, estimator);
+  }
+
+  @Benchmark
+  public List<RecommendedItem> topItemsPrimitive() throws Exception {
+    return TopItems.getTopItems(howMany, candidates.iterator(), null, idEstimator);
+  }
+
+}
@@ -0,0 +1,153 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.neighborhood.LSHUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.similarity.UncenteredCosineSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Latency of {@link LSHUserNeighborhood} against the exact {@link NearestNUserNeighborhood}, over users with
+ * clustered tastes. The recall of the approximate neighborhood is printed during setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserNeighborhoodBenchmark {
+
+  private static final Logger log = LoggerFactory.getLogger(UserNeighborhoodBenchmark.class);
+
+  private static final int NUM_NEIGHBORS = 20;
+  private static final int USERS_PER_CLUSTER = 200;
+  private static final int ITEMS_PER_CLUSTER = 100;
+  private static final int PREFS_PER_USER = 40;
+
+  @Param({"2000", "20000"})
+  private int numUsers;
+
+  @Param({"10", "20"})
+  private int numTables;
+
+  private long[] userIDs;
+  private UserNeighborhood exact;
+  private UserNeighborhood approximate;
+  private int next;
+
+  @Setup
+  public void setUp() throws TasteException {
+    Random random = new Random(42L);
+    int numClusters = numUsers / USERS_PER_CLUSTER;
+    int numItems = numClusters * ITEMS_PER_CLUSTER;
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>(numUsers);
+    userIDs = new long[numUsers];
+    for (int u = 0; u < numUsers; u++) {
+      int cluster = u % numClusters;
+      FastIDSet itemIDs = new FastIDSet();
+      while (itemIDs.size() < PREFS_PER_USER * 3 / 4) {
+        itemIDs.add(cluster * ITEMS_PER_CLUSTER + random.nextInt(ITEMS_PER_CLUSTER));
+      }
+      while (itemIDs.size() < PREFS_PER_USER) {
+        itemIDs.add(random.nextInt(numItems));
+      }
+      PreferenceArray prefs = new GenericUserPreferenceArray(itemIDs.size());
+      prefs.setUserID(0, u);
+      int i = 0;
+      LongPrimitiveIterator it = itemIDs.iterator();
+      while (it.hasNext()) {
+        long itemID = it.nextLong();
+        prefs.setItemID(i, itemID);
+        prefs.setValue(i, itemID / ITEMS_PER_CLUSTER == cluster ? 3 + random.nextInt(3) : 1 + random.nextInt(2));
+        i++;
+      }
+      prefs.sortByItem();
+      userData.put(u, prefs);
+      userIDs[u] = u;
+    }
+    DataModel dataModel = new GenericDataModel(userData);
+    UserSimilarity similarity = new UncenteredCosineSimilarity(dataModel);
+    exact = new NearestNUserNeighborhood(NUM_NEIGHBORS, similarity, dataModel);
+    approximate = new LSHUserNeighborhood(NUM_NEIGHBORS, Double.NEGATIVE_INFINITY, similarity, dataModel,
+        LSHUserNeighborhood.Signature.HYPERPLANE, numTables, 8);
+    log.info("Recall@{}: {}", NUM_NEIGHBORS, recall(similarity));
+  }
+
+  /** Fraction of exact neighbors matched by an approximate neighbor at least as similar, over sampled users. */
+  private double recall(UserSimilarity similarity) throws TasteException {
+    int found = 0;
+    int total = 0;
+    for (int u = 0; u < userIDs.length; u += userIDs.length / 100) {
+      long userID = userIDs[u];
+      double threshold = Double.POSITIVE_INFINITY;
+      for (long neighborID : exact.getUserNeighborhood(userID)) {
+        threshold = Math.min(threshold, similarity.userSimilarity(userID, neighborID));
+        total++;
+      }
+      for (long neighborID : approximate.getUserNeighborhood(userID)) {
+        if (similarity.userSimilarity(userID, neighborID) >= threshold) {
+          found++;
+        }
+      }
+    }
+    return (double) found / total;
+  }
+
+  private long nextUserID() {
+    next = (next + 7919) % userIDs.length;
+    return userIDs[next];
+  }
+
+  @Benchmark
+  public long[] exact() throws TasteException {
+    return exact.getUserNeighborhood(nextUserID());
+  }
+
+  @Benchmark
+  public long[] approximate() throws TasteException {
+    return approximate.getUserNeighborhood(nextUserID());
+  }
+
+}
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.benchmark;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.function.Functions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Binary and unary {@link Vector} operations for every pair of vector implementations. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VectorOpsBenchmark {
+
+  @Param({BenchmarkVectors.DENSE, BenchmarkVectors.RANDOM_ACCESS, BenchmarkVectors.SEQUENTIAL})
+  private String left;
+
+  @Param({BenchmarkVectors.DENSE, BenchmarkVectors.RANDOM_ACCESS, BenchmarkVectors.SEQUENTIAL})
+  private String right;
+
+  @Param("10000")
+  private int cardinality;
+
+  @Param("100")
+  private int numNonZero;
+
+  private Vector a;
+  private Vector b;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42L);
+    a = BenchmarkVectors.create(left, cardinality, numNonZero, random);
+    b = BenchmarkVectors.create(right, cardinality, numNonZero, random);
+  }
+
+  @Benchmark
+  public double dot() {
+    return a.dot(b);
+  }
+
+  @Benchmark
+  public Vector plus() {
+    return a.plus(b);
+  }
+
+  @Benchmark
+  public Vector minus() {
+    return a.minus(b);
+  }
+
+  @Benchmark
+  public Vector times() {
+    return a.times(b);
+  }
+
+  @Benchmark
+  public double distanceSquared() {
+    return a.getDistanceSquared(b);
+  }
+
+  @Benchmark
+  public Vector assignPlusMult() {
+    return a.clone().assign(b, Functions.plusMult(0.5));
+  }
+
+  @Benchmark
+  public double iterateNonZero() {
+    double sum = 0.0;
+    Iterator<Vector.Element> it = a.iterateNonZero();
+    while (it.hasNext()) {
+      sum += it.next().get();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public Vector cloneVector() {
+    return a.clone();
+  }
+
+}
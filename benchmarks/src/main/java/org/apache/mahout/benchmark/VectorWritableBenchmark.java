@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorWritable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Serialization round trips through {@link VectorWritable}. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VectorWritableBenchmark {
+
+  @Param({BenchmarkVectors.DENSE, BenchmarkVectors.RANDOM_ACCESS, BenchmarkVectors.SEQUENTIAL})
+  private String vectorType;
+
+  @Param("10000")
+  private int cardinality;
+
+  @Param("100")
+  private int numNonZero;
+
+  private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+  private final VectorWritable writable = new VectorWritable();
+  private Vector vector;
+  private byte[] serialized;
+
+  @Setup
+  public void setUp() throws IOException {
+    vector = BenchmarkVectors.create(vectorType, cardinality, numNonZero, new Random(42L));
+    serialized = write();
+  }
+
+  @Benchmark
+  public byte[] write() throws IOException {
+    buffer.reset();
+    VectorWritable.writeVector(new DataOutputStream(buffer), vector);
+    return buffer.toByteArray();
+  }
+
+  @Benchmark
+  public Vector read() throws IOException {
+    writable.readFields(new DataInputStream(new ByteArrayInputStream(serialized)));
+    return writable.get();
+  }
+
+}
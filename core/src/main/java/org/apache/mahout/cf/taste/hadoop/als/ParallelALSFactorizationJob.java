@@ -37,18 +37,14 @@ import org.apache.mahout.cf.taste.impl.common.RunningAverage;
 import org.apache.mahout.common.AbstractJob;
 import org.apache.mahout.common.RandomUtils;
 import org.apache.mahout.math.DenseVector;
-import org.apache.mahout.math.RandomAccessSparseVector;
-import org.apache.mahout.math.SequentialAccessSparseVector;
 import org.apache.mahout.math.VarIntWritable;
 import org.apache.mahout.math.VarLongWritable;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.VectorWritable;
-import org.apache.mahout.math.als.AlternateLeastSquaresSolver;
+import org.apache.mahout.math.als.InPlaceAlternateLeastSquaresSolver;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
@@ -233,32 +229,31 @@ public class ParallelALSFactorizationJob extends AbstractJob {
   static class SolvingReducer
       extends Reducer<IndexedVarIntWritable,FeatureVectorWithRatingWritable,VarIntWritable,FeatureVectorWithRatingWritable> {
 
-    private int numFeatures;
     private double lambda;
-    private AlternateLeastSquaresSolver solver;
+    private InPlaceAlternateLeastSquaresSolver solver;
+    private double[] solution;
 
     @Override
     protected void setup(Context ctx) throws IOException, InterruptedException {
       super.setup(ctx);
       lambda = Double.parseDouble(ctx.getConfiguration().get(LAMBDA));
-      numFeatures = ctx.getConfiguration().getInt(NUM_FEATURES, -1);
+      int numFeatures = ctx.getConfiguration().getInt(NUM_FEATURES, -1);
       if (numFeatures < 1) {
         throw new IllegalStateException("numFeatures was not set correctly!");
       }
-      solver = new AlternateLeastSquaresSolver();
+      solver = new InPlaceAlternateLeastSquaresSolver(numFeatures);
+      solution = new double[numFeatures];
     }
 
     @Override
     protected void reduce(IndexedVarIntWritable key, Iterable<FeatureVectorWithRatingWritable> values, Context ctx)
       throws IOException, InterruptedException {
-      List<Vector> UorMColumns = new ArrayList<Vector>();
-      Vector ratingVector = new RandomAccessSparseVector(Integer.MAX_VALUE);
-      int n = 0;
+      /* accumulate the normal equations as the feature vectors stream in, no need to buffer them */
+      solver.reset();
       for (FeatureVectorWithRatingWritable value : values) {
-        ratingVector.setQuick(n++, value.getRating());
-        UorMColumns.add(value.getFeatureVector());
+        solver.addExplicit(value.getFeatureVector(), value.getRating());
       }
-      Vector uiOrmj = solver.solve(UorMColumns, new SequentialAccessSparseVector(ratingVector), lambda, numFeatures);
+      Vector uiOrmj = new DenseVector(solver.solve(lambda * solver.getNumExamples(), solution), true);
       ctx.write(new VarIntWritable(key.getValue()), new FeatureVectorWithRatingWritable(key.getValue(), uiOrmj));
     }
   }
@@ -21,18 +21,34 @@ import com.google.common.base.Preconditions;
 import org.apache.mahout.cf.taste.common.TasteException;
 
 import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * <p>
- * An efficient Map-like class which caches values for keys. Values are not "put" into a ;
+ * An efficient Map-like class which caches values for keys. Values are not "put" into a cache;
  * instead the caller supplies the instance with an implementation of {@link Retriever} which can load the
  * value for a given key.
  * </p>
- * 
+ *
  * <p>
  * The cache does not support <code>null</code> keys.
  * </p>
- * 
+ *
+ * <p>
+ * Lookups of cached values do not lock. Concurrent misses for the same key call the {@link Retriever} only
+ * once; the other callers wait for and share its result. A bounded cache is split into up to four segments per
+ * processor, of at least {@value #MIN_SEGMENT_SIZE} entries each, which evict independently, each using
+ * W-TinyLFU: new entries go to a small admission window, and an entry leaving the window only displaces an
+ * entry of the main region if it has been requested more often recently, as estimated by a small count-min
+ * sketch. Both regions pick their victims with the CLOCK algorithm. This keeps one-off keys, such as those of a
+ * scan, from flushing frequently used entries.
+ * </p>
+ *
  * <p>
  * Thanks to Amila Jayasooriya for helping evaluate performance of the rewrite of this class, as part of a
  * Google Summer of Code 2007 project.
@@ -40,28 +56,34 @@ import java.util.Iterator;
  */
 public final class Cache<K,V> implements Retriever<K,V> {
 
-  private static final Object NULL = new Object();
-  
-  private final FastMap<K,V> cache;
+  private static final int MAX_SEGMENTS = 64;
+  /** fewer entries than this per segment leave too little room for each segment's eviction policy to work */
+  private static final int MIN_SEGMENT_SIZE = 128;
+
+  private final ConcurrentMap<K,Node<K,V>> cache;
+  private final Segment<K,V>[] segments;
+  private final int segmentMask;
   private final Retriever<? super K,? extends V> retriever;
-  
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
   /**
    * <p>
    * Creates a new cache based on the given {@link Retriever}.
    * </p>
-   * 
+   *
    * @param retriever
    *          object which can retrieve values for keys
    */
   public Cache(Retriever<? super K,? extends V> retriever) {
     this(retriever, FastMap.NO_MAX_SIZE);
   }
-  
+
   /**
    * <p>
    * Creates a new cache based on the given {@link Retriever} and with given maximum size.
    * </p>
-   * 
+   *
    * @param retriever
    *          object which can retrieve values for keys
    * @param maxEntries
@@ -70,15 +92,32 @@ public final class Cache<K,V> implements Retriever<K,V> {
   public Cache(Retriever<? super K,? extends V> retriever, int maxEntries) {
     Preconditions.checkArgument(retriever != null, "retriever is null");
     Preconditions.checkArgument(maxEntries >= 1, "maxEntries must be at least 1");
-    cache = new FastMap<K, V>(11, maxEntries);
     this.retriever = retriever;
+    int numSegments = 1;
+    int concurrency = Math.min(MAX_SEGMENTS, 4 * Runtime.getRuntime().availableProcessors());
+    while (numSegments < concurrency && maxEntries / (numSegments * 2) >= MIN_SEGMENT_SIZE) {
+      numSegments <<= 1;
+    }
+    segmentMask = numSegments - 1;
+    cache = new ConcurrentHashMap<K,Node<K,V>>(Math.min(maxEntries, 1024), 0.75f, numSegments);
+    segments = newSegmentArray(numSegments);
+    boolean bounded = maxEntries != FastMap.NO_MAX_SIZE;
+    for (int i = 0; i < numSegments; i++) {
+      // spread maxEntries exactly over the segments
+      segments[i] = new Segment<K,V>(bounded ? maxEntries / numSegments + (i < maxEntries % numSegments ? 1 : 0) : 0);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K,V> Segment<K,V>[] newSegmentArray(int size) {
+    return (Segment<K,V>[]) new Segment<?,?>[size];
   }
-  
+
   /**
    * <p>
    * Returns cached value for a key. If it does not exist, it is loaded using a {@link Retriever}.
    * </p>
-   * 
+   *
    * @param key
    *          cache key
    * @return value for that key
@@ -87,27 +126,66 @@ public final class Cache<K,V> implements Retriever<K,V> {
    */
   @Override
   public V get(K key) throws TasteException {
-    V value;
-    synchronized (cache) {
-      value = cache.get(key);
+    int hash = spread(key.hashCode());
+    Segment<K,V> segment = segments[hash & segmentMask];
+    segment.recordAccess(hash);
+    Node<K,V> node = cache.get(key);
+    if (node == null) {
+      Node<K,V> loading = new Node<K,V>(key, hash);
+      node = cache.putIfAbsent(key, loading);
+      if (node == null) {
+        misses.incrementAndGet();
+        return load(loading, segment);
+      }
+    }
+    hits.incrementAndGet();
+    if (!node.referenced) {
+      node.referenced = true;
     }
-    if (value == null) {
-      return getAndCacheValue(key);
+    boolean succeeded = false;
+    try {
+      V value = node.awaitValue();
+      succeeded = true;
+      return value;
+    } finally {
+      if (!succeeded) {
+        // waiting on a load that failed got nothing from the cache
+        hits.decrementAndGet();
+        misses.incrementAndGet();
+      }
     }
-    return value == NULL ? null : value;
   }
-  
+
+  private V load(Node<K,V> node, Segment<K,V> segment) throws TasteException {
+    V value;
+    try {
+      value = retriever.get(node.key);
+    } catch (TasteException te) {
+      cache.remove(node.key, node);
+      node.fail(te);
+      throw te;
+    } catch (RuntimeException re) {
+      cache.remove(node.key, node);
+      node.fail(re);
+      throw re;
+    }
+    node.complete(value);
+    segment.admit(node, cache);
+    return value;
+  }
+
   /**
    * <p>
    * Uncaches any existing value for a given key.
    * </p>
-   * 
+   *
    * @param key
    *          cache key
    */
   public void remove(K key) {
-    synchronized (cache) {
-      cache.remove(key);
+    Node<K,V> node = cache.remove(key);
+    if (node != null) {
+      segments[node.hash & segmentMask].unlink(node);
     }
   }
 
@@ -115,64 +193,374 @@ public final class Cache<K,V> implements Retriever<K,V> {
    * Clears all cache entries whose key matches the given predicate.
    */
   public void removeKeysMatching(MatchPredicate<K> predicate) {
-    synchronized (cache) {
-      Iterator<K> it = cache.keySet().iterator();
-      while (it.hasNext()) {
-        K key = it.next();
-        if (predicate.matches(key)) {
-          it.remove();
-        }
+    Iterator<Map.Entry<K,Node<K,V>>> it = cache.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<K,Node<K,V>> entry = it.next();
+      if (predicate.matches(entry.getKey())) {
+        removeNode(entry.getValue());
       }
     }
   }
 
   /**
-   * Clears all cache entries whose value matches the given predicate.
+   * Clears all cache entries whose value matches the given predicate. Values still being loaded are not
+   * considered.
    */
   public void removeValueMatching(MatchPredicate<V> predicate) {
-    synchronized (cache) {
-      Iterator<V> it = cache.values().iterator();
-      while (it.hasNext()) {
-        V value = it.next();
-        if (predicate.matches(value)) {
-          it.remove();
-        }
+    Iterator<Node<K,V>> it = cache.values().iterator();
+    while (it.hasNext()) {
+      Node<K,V> node = it.next();
+      if (node.isDone() && predicate.matches(node.value)) {
+        removeNode(node);
       }
     }
   }
-  
+
+  private void removeNode(Node<K,V> node) {
+    if (cache.remove(node.key, node)) {
+      segments[node.hash & segmentMask].unlink(node);
+    }
+  }
+
   /**
    * <p>
    * Clears the cache.
    * </p>
    */
   public void clear() {
-    synchronized (cache) {
-      cache.clear();
+    cache.clear();
+    for (Segment<K,V> segment : segments) {
+      segment.clear();
     }
   }
-  
-  private V getAndCacheValue(K key) throws TasteException {
-    V value = retriever.get(key);
-    if (value == null) {
-      value = (V) NULL;
-    }
-    synchronized (cache) {
-      cache.put(key, value);
+
+  /**
+   * @return number of calls to {@link #get(Object)} answered without calling the {@link Retriever}, including
+   *  those that waited for another thread's load of the same key
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /** @return number of calls to {@link #get(Object)} that called the {@link Retriever} */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /** @return number of entries evicted to stay within the maximum size */
+  public long getEvictionCount() {
+    long evictions = 0L;
+    for (Segment<K,V> segment : segments) {
+      evictions += segment.evictions.get();
     }
-    return value;
+    return evictions;
+  }
+
+  /** @return number of cached entries, including those still being loaded */
+  public int size() {
+    return cache.size();
   }
-  
+
   @Override
   public String toString() {
     return "Cache[retriever:" + retriever + ']';
   }
 
+  /** Supplemental hash, see {@link java.util.HashMap}. */
+  private static int spread(int h) {
+    h ^= (h >>> 20) ^ (h >>> 12);
+    return h ^ (h >>> 7) ^ (h >>> 4);
+  }
+
   /**
    * Used by {#link #removeKeysMatching(Object)} to decide things that are matching.
    */
   public interface MatchPredicate<T> {
     boolean matches(T thing);
   }
-  
+
+  /**
+   * A cached value, or the promise of one while its key is being loaded. {@link #slot} and {@link #inMain} are
+   * guarded by the lock of the node's segment.
+   */
+  private static final class Node<K,V> {
+
+    private final K key;
+    private final int hash;
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    private volatile boolean done;
+    /* published by the write to done */
+    private V value;
+    private Exception failure;
+    volatile boolean referenced;
+    int slot = -1;
+    boolean inMain;
+
+    private Node(K key, int hash) {
+      this.key = key;
+      this.hash = hash;
+    }
+
+    boolean isDone() {
+      return done;
+    }
+
+    void complete(V value) {
+      this.value = value;
+      done = true;
+      loaded.countDown();
+    }
+
+    void fail(Exception failure) {
+      this.failure = failure;
+      done = true;
+      loaded.countDown();
+    }
+
+    V awaitValue() throws TasteException {
+      if (!done) {
+        try {
+          loaded.await();
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw new TasteException(ie);
+        }
+      }
+      if (failure != null) {
+        if (failure instanceof TasteException) {
+          throw (TasteException) failure;
+        }
+        throw (RuntimeException) failure;
+      }
+      return value;
+    }
+  }
+
+  /**
+   * Eviction state for a share of the keys: W-TinyLFU with a window of about 1% of the segment's capacity,
+   * both regions kept as CLOCK rings. Unbounded segments only keep the frequency sketch, which is never
+   * consulted.
+   */
+  private static final class Segment<K,V> {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Ring<K,V> window;
+    private final Ring<K,V> main;
+    private final FrequencySketch sketch;
+    private final AtomicLong evictions = new AtomicLong();
+
+    private Segment(int capacity) {
+      if (capacity > 0) {
+        int windowCapacity = Math.max(1, capacity / 100);
+        window = new Ring<K,V>(windowCapacity, false);
+        main = new Ring<K,V>(capacity - windowCapacity, true);
+        sketch = new FrequencySketch(capacity);
+      } else {
+        window = null;
+        main = null;
+        sketch = null;
+      }
+    }
+
+    void recordAccess(int hash) {
+      if (sketch != null) {
+        sketch.increment(hash);
+      }
+    }
+
+    void admit(Node<K,V> node, ConcurrentMap<K,Node<K,V>> map) {
+      if (window == null) {
+        return;
+      }
+      lock.lock();
+      try {
+        if (map.get(node.key) != node) {
+          // removed or cleared while loading
+          return;
+        }
+        if (!window.isFull()) {
+          window.add(node);
+          return;
+        }
+        Node<K,V> candidate = window.removeVictim();
+        window.add(node);
+        if (!main.isFull()) {
+          main.add(candidate);
+          return;
+        }
+        Node<K,V> victim = main.peekVictim();
+        if (victim != null && sketch.frequency(candidate.hash) > sketch.frequency(victim.hash)) {
+          main.remove(victim);
+          main.add(candidate);
+          evict(victim, map);
+        } else {
+          evict(candidate, map);
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void evict(Node<K,V> node, ConcurrentMap<K,Node<K,V>> map) {
+      map.remove(node.key, node);
+      evictions.incrementAndGet();
+    }
+
+    void unlink(Node<K,V> node) {
+      if (window == null) {
+        return;
+      }
+      lock.lock();
+      try {
+        if (node.slot >= 0) {
+          (node.inMain ? main : window).remove(node);
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    void clear() {
+      if (window == null) {
+        return;
+      }
+      lock.lock();
+      try {
+        window.clear();
+        main.clear();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /** Fixed size CLOCK ring of nodes; free slots are kept on a stack. */
+  private static final class Ring<K,V> {
+
+    private final Node<K,V>[] slots;
+    private final int[] free;
+    private final boolean isMain;
+    private int numFree;
+    private int hand;
+
+    @SuppressWarnings("unchecked")
+    private Ring(int capacity, boolean isMain) {
+      slots = (Node<K,V>[]) new Node<?,?>[capacity];
+      free = new int[capacity];
+      this.isMain = isMain;
+      clear();
+    }
+
+    boolean isFull() {
+      return numFree == 0;
+    }
+
+    void add(Node<K,V> node) {
+      int slot = free[--numFree];
+      slots[slot] = node;
+      node.slot = slot;
+      node.inMain = isMain;
+    }
+
+    void remove(Node<K,V> node) {
+      slots[node.slot] = null;
+      free[numFree++] = node.slot;
+      node.slot = -1;
+    }
+
+    /** @return the entry the clock hand stops at, clearing reference bits on the way, or null if empty */
+    Node<K,V> peekVictim() {
+      if (numFree == slots.length) {
+        return null;
+      }
+      while (true) {
+        Node<K,V> node = slots[hand];
+        if (node != null) {
+          if (!node.referenced) {
+            return node;
+          }
+          node.referenced = false;
+        }
+        hand = hand + 1 == slots.length ? 0 : hand + 1;
+      }
+    }
+
+    Node<K,V> removeVictim() {
+      Node<K,V> victim = peekVictim();
+      remove(victim);
+      return victim;
+    }
+
+    void clear() {
+      for (int i = 0; i < slots.length; i++) {
+        if (slots[i] != null) {
+          slots[i].slot = -1;
+          slots[i] = null;
+        }
+        free[i] = slots.length - 1 - i;
+      }
+      numFree = slots.length;
+      hand = 0;
+    }
+  }
+
+  /**
+   * Count-min sketch of 4 rows of 4 bit counters, estimating how often a key was requested recently. All
+   * counters are halved after a number of increments proportional to the capacity, so that the estimate follows
+   * changes in popularity. Increments are not synchronized; lost updates only make the estimate a bit lower.
+   */
+  private static final class FrequencySketch {
+
+    private static final int[] SEEDS = {0x97cb3127, 0xb7e15163, 0x9e3779b9, 0x85ebca6b};
+
+    private final byte[] counters;
+    private final int mask;
+    private final int resetThreshold;
+    private int increments;
+
+    private FrequencySketch(int capacity) {
+      int width = 16;
+      while (width < 4 * capacity) {
+        width <<= 1;
+      }
+      // each of the 4 rows is width counters
+      counters = new byte[4 * width];
+      mask = width - 1;
+      resetThreshold = 10 * Math.max(capacity, 16);
+    }
+
+    void increment(int hash) {
+      for (int row = 0; row < 4; row++) {
+        int index = indexOf(hash, row);
+        if (counters[index] < 15) {
+          counters[index]++;
+        }
+      }
+      if (++increments >= resetThreshold) {
+        halve();
+      }
+    }
+
+    int frequency(int hash) {
+      int min = 15;
+      for (int row = 0; row < 4; row++) {
+        min = Math.min(min, counters[indexOf(hash, row)]);
+      }
+      return min;
+    }
+
+    private int indexOf(int hash, int row) {
+      int h = hash * SEEDS[row];
+      h ^= h >>> 16;
+      return row * (mask + 1) + (h & mask);
+    }
+
+    private void halve() {
+      increments = 0;
+      for (int i = 0; i < counters.length; i++) {
+        counters[i] = (byte) (counters[i] >>> 1);
+      }
+    }
+  }
+
 }
@@ -0,0 +1,394 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * A {@link Cache} specialized for symmetric functions of two IDs, such as similarities. Keys are unordered
+ * pairs of <code>long</code> IDs and values are <code>double</code>s, stored in open-addressed primitive
+ * arrays, so that neither a lookup nor a cached value allocates an object.
+ * </p>
+ *
+ * <p>
+ * The cache is split into segments, each guarded by its own lock and evicting with the CLOCK algorithm once it
+ * holds its share of the maximum number of entries. Unlike {@link Cache}, concurrent misses for the same pair
+ * may each call the {@link PairRetriever}; its result must therefore only depend on the pair.
+ * </p>
+ */
+public final class LongPairDoubleCache {
+
+  private static final int MAX_SEGMENTS = 64;
+
+  private final Segment[] segments;
+  private final int segmentShift;
+  private final PairRetriever retriever;
+
+  /**
+   * @param retriever
+   *          object which can compute values for pairs of IDs
+   * @param maxEntries
+   *          maximum number of pairs the cache will store before evicting some
+   */
+  public LongPairDoubleCache(PairRetriever retriever, int maxEntries) {
+    Preconditions.checkArgument(retriever != null, "retriever is null");
+    Preconditions.checkArgument(maxEntries >= 1, "maxEntries must be at least 1");
+    this.retriever = retriever;
+    int numSegments = 1;
+    int concurrency = Math.min(MAX_SEGMENTS, 4 * Runtime.getRuntime().availableProcessors());
+    while (numSegments < concurrency && numSegments * 2 <= maxEntries) {
+      numSegments <<= 1;
+    }
+    segmentShift = 32 - Integer.numberOfTrailingZeros(numSegments);
+    segments = new Segment[numSegments];
+    for (int i = 0; i < numSegments; i++) {
+      segments[i] = new Segment(maxEntries / numSegments + (i < maxEntries % numSegments ? 1 : 0));
+    }
+  }
+
+  /**
+   * @return cached value for the unordered pair of IDs, computed with the {@link PairRetriever} if absent
+   */
+  public double get(long id1, long id2) throws TasteException {
+    long first = Math.min(id1, id2);
+    long second = Math.max(id1, id2);
+    int hash = hash(first, second);
+    Segment segment = segmentFor(hash);
+    segment.lock();
+    try {
+      int slot = segment.find(first, second, hash);
+      if (slot >= 0) {
+        return segment.valueAt(slot);
+      }
+    } finally {
+      segment.unlock();
+    }
+    double value = retriever.get(first, second);
+    segment.lock();
+    try {
+      segment.put(first, second, hash, value);
+    } finally {
+      segment.unlock();
+    }
+    return value;
+  }
+
+  /**
+   * @return cached values for the pairs of <code>id</code> with each of <code>otherIDs</code>, in order. Pairs
+   *  which are not cached are computed as {@link #get(long, long)} would, smaller ID first: those where
+   *  <code>id</code> is the smaller with one call to {@link PairRetriever#get(long, long[])}, the rest with
+   *  {@link PairRetriever#get(long, long)}.
+   */
+  public double[] get(long id, long[] otherIDs) throws TasteException {
+    int length = otherIDs.length;
+    double[] result = new double[length];
+    int[] missing = null;
+    int numMissing = 0;
+    for (int i = 0; i < length; i++) {
+      long first = Math.min(id, otherIDs[i]);
+      long second = Math.max(id, otherIDs[i]);
+      int hash = hash(first, second);
+      Segment segment = segmentFor(hash);
+      segment.lock();
+      try {
+        int slot = segment.find(first, second, hash);
+        if (slot >= 0) {
+          result[i] = segment.valueAt(slot);
+          continue;
+        }
+      } finally {
+        segment.unlock();
+      }
+      if (missing == null) {
+        missing = new int[length - i];
+      }
+      missing[numMissing++] = i;
+    }
+    if (numMissing > 0) {
+      // like the single pair path, compute every pair smaller ID first: pairs where id is the smaller one
+      // go in one batch, the others one by one
+      int numBatched = 0;
+      for (int j = 0; j < numMissing; j++) {
+        if (id <= otherIDs[missing[j]]) {
+          numBatched++;
+        }
+      }
+      long[] batchedIDs = new long[numBatched];
+      int b = 0;
+      for (int j = 0; j < numMissing; j++) {
+        long otherID = otherIDs[missing[j]];
+        if (id <= otherID) {
+          batchedIDs[b++] = otherID;
+        }
+      }
+      double[] computed = numBatched == 0 ? null : retriever.get(id, batchedIDs);
+      b = 0;
+      for (int j = 0; j < numMissing; j++) {
+        int i = missing[j];
+        long otherID = otherIDs[i];
+        double value = id <= otherID ? computed[b++] : retriever.get(otherID, id);
+        result[i] = value;
+        long first = Math.min(id, otherID);
+        long second = Math.max(id, otherID);
+        int hash = hash(first, second);
+        Segment segment = segmentFor(hash);
+        segment.lock();
+        try {
+          segment.put(first, second, hash, value);
+        } finally {
+          segment.unlock();
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Uncaches all pairs containing the given ID.
+   */
+  public void removeKeysContaining(long id) {
+    for (Segment segment : segments) {
+      segment.lock();
+      try {
+        segment.removeContaining(id);
+      } finally {
+        segment.unlock();
+      }
+    }
+  }
+
+  public void clear() {
+    for (Segment segment : segments) {
+      segment.lock();
+      try {
+        segment.clear();
+      } finally {
+        segment.unlock();
+      }
+    }
+  }
+
+  public int size() {
+    int size = 0;
+    for (Segment segment : segments) {
+      segment.lock();
+      try {
+        size += segment.size;
+      } finally {
+        segment.unlock();
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public String toString() {
+    return "LongPairDoubleCache[retriever:" + retriever + ']';
+  }
+
+  private Segment segmentFor(int hash) {
+    return segmentShift == 32 ? segments[0] : segments[hash >>> segmentShift];
+  }
+
+  private static int hash(long first, long second) {
+    long h = first * 0x9E3779B97F4A7C15L + second;
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    return (int) h;
+  }
+
+  /**
+   * Computes the values cached by a {@link LongPairDoubleCache}.
+   */
+  public interface PairRetriever {
+
+    double get(long id1, long id2) throws TasteException;
+
+    /**
+     * @return values for the pairs of <code>id</code> with each of <code>otherIDs</code>, in order
+     */
+    double[] get(long id, long[] otherIDs) throws TasteException;
+
+  }
+
+  /**
+   * Linear probing table of at most <code>maxSize</code> pairs. Slots are freed by shifting later entries of
+   * the same probe sequence back, so there are no tombstones. Accessed only while holding the lock.
+   */
+  private static final class Segment {
+
+    private static final byte FREE = 0;
+    private static final byte FULL = 1;
+    private static final byte REFERENCED = 2;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int maxSize;
+    private final int maxTableSize;
+    /** first and second ID of the pair in each slot, interleaved */
+    private long[] keys;
+    private double[] values;
+    private byte[] states;
+    private int size;
+    private int hand;
+
+    private Segment(int maxSize) {
+      this.maxSize = maxSize;
+      int tableSize = 2;
+      while (tableSize < 2 * maxSize) {
+        tableSize <<= 1;
+      }
+      maxTableSize = tableSize;
+      allocate(Math.min(maxTableSize, 16));
+    }
+
+    void lock() {
+      lock.lock();
+    }
+
+    void unlock() {
+      lock.unlock();
+    }
+
+    private void allocate(int tableSize) {
+      keys = new long[2 * tableSize];
+      values = new double[tableSize];
+      states = new byte[tableSize];
+      size = 0;
+      hand = 0;
+    }
+
+    /** @return slot holding the pair, marking it as recently used, or -1 if absent */
+    int find(long first, long second, int hash) {
+      int mask = states.length - 1;
+      for (int slot = hash & mask; states[slot] != FREE; slot = (slot + 1) & mask) {
+        if (keys[2 * slot] == first && keys[2 * slot + 1] == second) {
+          states[slot] = REFERENCED;
+          return slot;
+        }
+      }
+      return -1;
+    }
+
+    double valueAt(int slot) {
+      return values[slot];
+    }
+
+    void put(long first, long second, int hash, double value) {
+      if (find(first, second, hash) >= 0) {
+        // cached by another thread meanwhile
+        return;
+      }
+      if (size >= maxSize) {
+        evict();
+      } else if (2 * size >= states.length && states.length < maxTableSize) {
+        rehash(2 * states.length);
+      }
+      int mask = states.length - 1;
+      int slot = hash & mask;
+      while (states[slot] != FREE) {
+        slot = (slot + 1) & mask;
+      }
+      keys[2 * slot] = first;
+      keys[2 * slot + 1] = second;
+      values[slot] = value;
+      states[slot] = FULL;
+      size++;
+    }
+
+    private void rehash(int tableSize) {
+      long[] oldKeys = keys;
+      double[] oldValues = values;
+      byte[] oldStates = states;
+      allocate(tableSize);
+      int mask = tableSize - 1;
+      for (int i = 0; i < oldStates.length; i++) {
+        if (oldStates[i] != FREE) {
+          long first = oldKeys[2 * i];
+          long second = oldKeys[2 * i + 1];
+          int slot = hash(first, second) & mask;
+          while (states[slot] != FREE) {
+            slot = (slot + 1) & mask;
+          }
+          keys[2 * slot] = first;
+          keys[2 * slot + 1] = second;
+          values[slot] = oldValues[i];
+          states[slot] = oldStates[i];
+          size++;
+        }
+      }
+    }
+
+    /** Removes the first entry the clock hand finds not recently used. */
+    private void evict() {
+      int mask = states.length - 1;
+      while (true) {
+        byte state = states[hand];
+        if (state == FULL) {
+          delete(hand);
+          return;
+        }
+        if (state == REFERENCED) {
+          states[hand] = FULL;
+        }
+        hand = (hand + 1) & mask;
+      }
+    }
+
+    void removeContaining(long id) {
+      for (int slot = 0; slot < states.length; slot++) {
+        // a deleted slot may be refilled by a shifted entry, so look at it again
+        while (states[slot] != FREE && (keys[2 * slot] == id || keys[2 * slot + 1] == id)) {
+          delete(slot);
+        }
+      }
+    }
+
+    private void delete(int slot) {
+      int mask = states.length - 1;
+      int free = slot;
+      for (int next = (free + 1) & mask; states[next] != FREE; next = (next + 1) & mask) {
+        int home = hash(keys[2 * next], keys[2 * next + 1]) & mask;
+        // the entry at next may move back to free only if its home slot is not cyclically in (free, next]
+        boolean stays = free <= next ? free < home && home <= next : free < home || home <= next;
+        if (!stays) {
+          keys[2 * free] = keys[2 * next];
+          keys[2 * free + 1] = keys[2 * next + 1];
+          values[free] = values[next];
+          states[free] = states[next];
+          free = next;
+        }
+      }
+      states[free] = FREE;
+      size--;
+    }
+
+    void clear() {
+      Arrays.fill(states, FREE);
+      size = 0;
+      hand = 0;
+    }
+  }
+
+}
@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ * Writes primitive arrays to a {@link FileChannel} in big-endian binary form, and reads them back through
+ * memory mappings of the file. This is the format of the binary files in this package and its neighbors, such
+ * as model snapshots, whose readers check a header and then read each array in turn.
+ * </p>
+ */
+public final class MappedArrays {
+
+  /** largest part of a file mapped at once, well below the 2GB limit of a MappedByteBuffer */
+  private static final int MAX_MAPPING = 1 << 28;
+
+  private MappedArrays() {
+  }
+
+  /**
+   * @param buffer scratch space, whose capacity must be a multiple of 8
+   */
+  public static void writeLongs(FileChannel channel, ByteBuffer buffer, long[] values) throws IOException {
+    int chunk = buffer.capacity() / 8;
+    for (int from = 0; from < values.length; from += chunk) {
+      int length = Math.min(chunk, values.length - from);
+      buffer.clear();
+      buffer.asLongBuffer().put(values, from, length);
+      buffer.limit(8 * length);
+      writeFully(channel, buffer);
+    }
+  }
+
+  /**
+   * @param buffer scratch space, whose capacity must be a multiple of 8
+   */
+  public static void writeInts(FileChannel channel, ByteBuffer buffer, int[] values) throws IOException {
+    int chunk = buffer.capacity() / 4;
+    for (int from = 0; from < values.length; from += chunk) {
+      int length = Math.min(chunk, values.length - from);
+      buffer.clear();
+      buffer.asIntBuffer().put(values, from, length);
+      buffer.limit(4 * length);
+      writeFully(channel, buffer);
+    }
+  }
+
+  /**
+   * @param buffer scratch space, whose capacity must be a multiple of 8
+   */
+  public static void writeFloats(FileChannel channel, ByteBuffer buffer, float[] values) throws IOException {
+    int chunk = buffer.capacity() / 4;
+    for (int from = 0; from < values.length; from += chunk) {
+      int length = Math.min(chunk, values.length - from);
+      buffer.clear();
+      buffer.asFloatBuffer().put(values, from, length);
+      buffer.limit(4 * length);
+      writeFully(channel, buffer);
+    }
+  }
+
+  public static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * Fills the array from the file, starting at the given position.
+   *
+   * @return position just after the array
+   */
+  public static long readLongs(FileChannel channel, long position, long[] values) throws IOException {
+    int chunk = MAX_MAPPING / 8;
+    for (int from = 0; from < values.length; from += chunk) {
+      int length = Math.min(chunk, values.length - from);
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, 8L * length);
+      mapped.asLongBuffer().get(values, from, length);
+      position += 8L * length;
+    }
+    return position;
+  }
+
+  /** See {@link #readLongs(FileChannel, long, long[])}. */
+  public static long readInts(FileChannel channel, long position, int[] values) throws IOException {
+    int chunk = MAX_MAPPING / 4;
+    for (int from = 0; from < values.length; from += chunk) {
+      int length = Math.min(chunk, values.length - from);
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * length);
+      mapped.asIntBuffer().get(values, from, length);
+      position += 4L * length;
+    }
+    return position;
+  }
+
+  /** See {@link #readLongs(FileChannel, long, long[])}. */
+  public static long readFloats(FileChannel channel, long position, float[] values) throws IOException {
+    int chunk = MAX_MAPPING / 4;
+    for (int from = 0; from < values.length; from += chunk) {
+      int length = Math.min(chunk, values.length - from);
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * length);
+      mapped.asFloatBuffer().get(values, from, length);
+      position += 4L * length;
+    }
+    return position;
+  }
+
+  /**
+   * Maps floats of the file read-only, without copying them, as consecutive buffers of at most
+   * {@code chunkLength} floats each. The buffers stay valid after the channel is closed.
+   *
+   * @param chunkLength floats per buffer, at most 2<sup>26</sup>
+   */
+  public static FloatBuffer[] mapFloats(FileChannel channel, long position, long length, int chunkLength)
+    throws IOException {
+    if (chunkLength <= 0 || chunkLength > MAX_MAPPING / 4) {
+      throw new IllegalArgumentException("Bad chunk length " + chunkLength);
+    }
+    FloatBuffer[] chunks = new FloatBuffer[(int) ((length + chunkLength - 1) / chunkLength)];
+    for (int chunk = 0; chunk < chunks.length; chunk++) {
+      long from = (long) chunk * chunkLength;
+      int size = (int) Math.min(chunkLength, length - from);
+      chunks[chunk] = channel.map(FileChannel.MapMode.READ_ONLY, position + 4L * from, 4L * size).asFloatBuffer();
+    }
+    return chunks;
+  }
+
+}
@@ -0,0 +1,166 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Keeps the N highest scoring IDs seen so far, in a min-heap over parallel <code>long</code> and
+ * <code>double</code> arrays, so that nothing is allocated per candidate. Once full, a candidate is kept only
+ * if it scores at least the lowest kept score. Ties are broken in favor of the higher ID, so the result does not
+ * depend on the order in which candidates are offered.
+ * </p>
+ *
+ * <p>
+ * Call {@link #sort()} when done to read the kept IDs from highest to lowest score. Not thread-safe.
+ * </p>
+ */
+public final class TopNHeap {
+
+  private final long[] ids;
+  private final double[] scores;
+  private int size;
+  private boolean sorted;
+
+  /**
+   * @param n maximum number of IDs to keep
+   */
+  public TopNHeap(int n) {
+    Preconditions.checkArgument(n >= 0, "n must be at least 0");
+    ids = new long[n];
+    scores = new double[n];
+  }
+
+  /**
+   * @return true if the candidate is now among the top N; NaN scores are never kept
+   */
+  public boolean offer(long id, double score) {
+    Preconditions.checkState(!sorted, "Already sorted");
+    if (Double.isNaN(score)) {
+      return false;
+    }
+    if (size < ids.length) {
+      ids[size] = id;
+      scores[size] = score;
+      siftUp(size++);
+      return true;
+    }
+    if (size == 0 || score < scores[0] || (score == scores[0] && id <= ids[0])) {
+      return false;
+    }
+    ids[0] = id;
+    scores[0] = score;
+    siftDown(0, size);
+    return true;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Orders the kept IDs from highest to lowest score, for {@link #getID(int)} and {@link #getScore(int)}.
+   * No more candidates may be offered afterwards, until {@link #clear()}.
+   */
+  public void sort() {
+    if (sorted) {
+      return;
+    }
+    // Heapsort: repeatedly move the lowest to the end, leaving the highest first
+    for (int end = size - 1; end > 0; end--) {
+      swap(0, end);
+      siftDown(0, end);
+    }
+    sorted = true;
+  }
+
+  /** @return the i-th highest scoring ID, after {@link #sort()} */
+  public long getID(int i) {
+    Preconditions.checkState(sorted, "Not sorted");
+    return ids[i];
+  }
+
+  /** @return the i-th highest score, after {@link #sort()} */
+  public double getScore(int i) {
+    Preconditions.checkState(sorted, "Not sorted");
+    return scores[i];
+  }
+
+  /** @return the kept IDs, from highest to lowest score */
+  public long[] toIDArray() {
+    sort();
+    long[] result = new long[size];
+    System.arraycopy(ids, 0, result, 0, size);
+    return result;
+  }
+
+  public void clear() {
+    size = 0;
+    sorted = false;
+  }
+
+  /** @return true if the entry at i should be nearer the root, that is, evicted before the one at j */
+  private boolean lower(int i, int j) {
+    double scoreI = scores[i];
+    double scoreJ = scores[j];
+    return scoreI < scoreJ || (scoreI == scoreJ && ids[i] < ids[j]);
+  }
+
+  private void siftUp(int i) {
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (!lower(i, parent)) {
+        break;
+      }
+      swap(i, parent);
+      i = parent;
+    }
+  }
+
+  private void siftDown(int i, int end) {
+    while (true) {
+      int child = (i << 1) + 1;
+      if (child >= end) {
+        break;
+      }
+      if (child + 1 < end && lower(child + 1, child)) {
+        child++;
+      }
+      if (!lower(child, i)) {
+        break;
+      }
+      swap(i, child);
+      i = child;
+    }
+  }
+
+  private void swap(int i, int j) {
+    long id = ids[i];
+    ids[i] = ids[j];
+    ids[j] = id;
+    double score = scores[i];
+    scores[i] = scores[j];
+    scores[j] = score;
+  }
+
+}
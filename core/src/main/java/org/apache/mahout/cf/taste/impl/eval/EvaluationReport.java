@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Result of a {@link ParallelRecommenderEvaluator} run: the quality of the estimates and recommendations over all
+ * folds, and what they cost, as the time to build each fold's recommender, the evaluation throughput and the
+ * distributions of per-user latencies.
+ * </p>
+ */
+public final class EvaluationReport {
+
+  private final int numFolds;
+  private final int numUsers;
+  private final long numEstimates;
+  private final long numNoEstimates;
+  private final double rmse;
+  private final double averageAbsoluteDifference;
+  private final double precision;
+  private final double recall;
+  private final double normalizedDiscountedCumulativeGain;
+  private final long[] buildMillis;
+  private final long evaluationMillis;
+  private final LatencyHistogram estimateLatencies;
+  private final LatencyHistogram recommendLatencies;
+
+  EvaluationReport(int numFolds,
+                   int numUsers,
+                   long numEstimates,
+                   long numNoEstimates,
+                   double rmse,
+                   double averageAbsoluteDifference,
+                   double precision,
+                   double recall,
+                   double normalizedDiscountedCumulativeGain,
+                   long[] buildMillis,
+                   long evaluationMillis,
+                   LatencyHistogram estimateLatencies,
+                   LatencyHistogram recommendLatencies) {
+    this.numFolds = numFolds;
+    this.numUsers = numUsers;
+    this.numEstimates = numEstimates;
+    this.numNoEstimates = numNoEstimates;
+    this.rmse = rmse;
+    this.averageAbsoluteDifference = averageAbsoluteDifference;
+    this.precision = precision;
+    this.recall = recall;
+    this.normalizedDiscountedCumulativeGain = normalizedDiscountedCumulativeGain;
+    this.buildMillis = buildMillis;
+    this.evaluationMillis = evaluationMillis;
+    this.estimateLatencies = estimateLatencies;
+    this.recommendLatencies = recommendLatencies;
+  }
+
+  public int getNumFolds() {
+    return numFolds;
+  }
+
+  /** @return number of test users evaluated, summed over folds */
+  public int getNumUsers() {
+    return numUsers;
+  }
+
+  /** @return number of test preferences that were estimated */
+  public long getNumEstimates() {
+    return numEstimates;
+  }
+
+  /** @return number of test preferences the recommender could not estimate */
+  public long getNumNoEstimates() {
+    return numNoEstimates;
+  }
+
+  /** @return root mean squared difference between estimated and actual test preferences */
+  public double getRMSE() {
+    return rmse;
+  }
+
+  public double getAverageAbsoluteDifference() {
+    return averageAbsoluteDifference;
+  }
+
+  /** @return average precision at the evaluated number of recommendations, over users with relevant items */
+  public double getPrecision() {
+    return precision;
+  }
+
+  public double getRecall() {
+    return recall;
+  }
+
+  public double getNormalizedDiscountedCumulativeGain() {
+    return normalizedDiscountedCumulativeGain;
+  }
+
+  /** @return time to build the training data model and recommender of each fold */
+  public long[] getBuildMillis() {
+    return buildMillis.clone();
+  }
+
+  /** @return time spent evaluating test users, over all folds */
+  public long getEvaluationMillis() {
+    return evaluationMillis;
+  }
+
+  /** @return test users evaluated per second */
+  public double getThroughput() {
+    return evaluationMillis == 0L ? Double.NaN : 1000.0 * numUsers / evaluationMillis;
+  }
+
+  /** @return per-user time to estimate the user's test preferences */
+  public LatencyHistogram getEstimateLatencies() {
+    return estimateLatencies;
+  }
+
+  /** @return per-user time to recommend */
+  public LatencyHistogram getRecommendLatencies() {
+    return recommendLatencies;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder();
+    result.append("folds: ").append(numFolds).append('\n');
+    result.append("users: ").append(numUsers).append('\n');
+    result.append("estimates: ").append(numEstimates).append(", no estimate: ").append(numNoEstimates).append('\n');
+    result.append("RMSE: ").append(rmse).append('\n');
+    result.append("average absolute difference: ").append(averageAbsoluteDifference).append('\n');
+    result.append("precision: ").append(precision).append('\n');
+    result.append("recall: ").append(recall).append('\n');
+    result.append("nDCG: ").append(normalizedDiscountedCumulativeGain).append('\n');
+    result.append("build time (ms): ").append(Arrays.toString(buildMillis)).append('\n');
+    result.append("evaluation time (ms): ").append(evaluationMillis).append('\n');
+    result.append("throughput (users/s): ").append(getThroughput()).append('\n');
+    result.append("estimate latency: ").append(estimateLatencies).append('\n');
+    result.append("recommend latency: ").append(recommendLatencies).append('\n');
+    return result.toString();
+  }
+
+}
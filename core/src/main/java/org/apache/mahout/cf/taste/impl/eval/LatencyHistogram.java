@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * A histogram of latencies in the manner of HdrHistogram: latencies under 64ns are counted exactly, and each
+ * larger power of two nanoseconds is split into 32 equal sub-buckets, so that percentiles, reported as the upper
+ * bound of their sub-bucket, are within about 3% whatever the scale. Not thread-safe; give each thread its own and
+ * combine them with {@link #addAll(LatencyHistogram)}.
+ * </p>
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int LINEAR_LIMIT = SUB_BUCKETS << 1;
+  private static final int NUM_BUCKETS = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+  private final long[] counts;
+  private long count;
+  private long totalNanos;
+  private long maxNanos;
+
+  public LatencyHistogram() {
+    counts = new long[NUM_BUCKETS];
+  }
+
+  public void add(long nanos) {
+    Preconditions.checkArgument(nanos >= 0L, "nanos must be at least 0");
+    counts[bucketOf(nanos)]++;
+    count++;
+    totalNanos += nanos;
+    maxNanos = Math.max(maxNanos, nanos);
+  }
+
+  private static int bucketOf(long nanos) {
+    if (nanos < LINEAR_LIMIT) {
+      return (int) nanos;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+    int shift = exponent - SUB_BUCKET_BITS;
+    int subBucket = (int) (nanos >>> shift) - SUB_BUCKETS;
+    return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /** @return the smallest latency, in nanoseconds, above those counted in the given bucket */
+  private static long upperBoundOf(int bucket) {
+    if (bucket < LINEAR_LIMIT) {
+      return bucket + 1L;
+    }
+    int shift = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+    int subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+    return (long) (SUB_BUCKETS + subBucket + 1) << shift;
+  }
+
+  public void addAll(LatencyHistogram other) {
+    for (int bucket = 0; bucket < NUM_BUCKETS; bucket++) {
+      counts[bucket] += other.counts[bucket];
+    }
+    count += other.count;
+    totalNanos += other.totalNanos;
+    maxNanos = Math.max(maxNanos, other.maxNanos);
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public double getMeanMicros() {
+    return count == 0L ? Double.NaN : totalNanos / 1000.0 / count;
+  }
+
+  public double getMaxMicros() {
+    return maxNanos / 1000.0;
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return upper bound of the sub-bucket holding the given percentile, or NaN if there are no latencies
+   */
+  public double getPercentileMicros(double percentile) {
+    Preconditions.checkArgument(percentile >= 0.0 && percentile <= 100.0, "percentile must be between 0 and 100");
+    if (count == 0L) {
+      return Double.NaN;
+    }
+    long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+    long seen = 0L;
+    for (int bucket = 0; bucket < NUM_BUCKETS; bucket++) {
+      seen += counts[bucket];
+      if (seen >= rank) {
+        return Math.min(maxNanos, upperBoundOf(bucket)) / 1000.0;
+      }
+    }
+    return getMaxMicros();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus", count,
+        getMeanMicros(), getPercentileMicros(50.0), getPercentileMicros(90.0), getPercentileMicros(99.0),
+        getPercentileMicros(99.9), getMaxMicros());
+  }
+
+}
@@ -29,7 +29,8 @@ import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.recommender.Recommender;
 
 /**
- * Simple helper class for running load on a Recommender.
+ * Simple helper class for running load on a Recommender. See {@link LoadGenerator} for a configurable mix of
+ * requests, concurrency and arrival rate, with latency percentiles.
  */
 public final class LoadEvaluator {
   
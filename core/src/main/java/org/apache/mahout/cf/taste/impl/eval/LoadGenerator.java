@@ -0,0 +1,297 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.ItemBasedRecommender;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.common.RandomUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Generates load on a {@link Recommender} and measures its latency. Requests are a weighted mix of
+ * {@link Operation}s on random users and items of the recommender's {@link DataModel}, issued by a number of
+ * threads for a warmup period, which is not measured, and then for a measured period.
+ * </p>
+ *
+ * <p>
+ * By default each thread issues its next request as soon as the previous one returns. With
+ * {@link #setRequestsPerSecond(double)} requests are instead due at a fixed rate whether or not earlier ones have
+ * returned, and latency is measured from when a request was due rather than from when a thread got to it, so that
+ * a recommender which falls behind is charged for the queueing it causes.
+ * </p>
+ *
+ * @see LoadEvaluator
+ */
+public final class LoadGenerator {
+
+  private static final Logger log = LoggerFactory.getLogger(LoadGenerator.class);
+
+  public enum Operation {
+    RECOMMEND,
+    ESTIMATE_PREFERENCE,
+    MOST_SIMILAR_ITEMS
+  }
+
+  /** {@link Operation#values()} copies the array on each call, which the request loop shouldn't pay for. */
+  private static final Operation[] OPERATIONS = Operation.values();
+
+  private final Recommender recommender;
+  private final long[] userIDs;
+  private final long[] itemIDs;
+  private final int[] weights;
+  private int numThreads;
+  private double requestsPerSecond;
+  private long warmupMillis;
+  private long durationMillis;
+  private int howMany;
+  private long seed;
+
+  public LoadGenerator(Recommender recommender) throws TasteException {
+    Preconditions.checkArgument(recommender != null, "recommender is null");
+    this.recommender = recommender;
+    DataModel dataModel = recommender.getDataModel();
+    userIDs = toArray(dataModel.getUserIDs(), dataModel.getNumUsers());
+    itemIDs = toArray(dataModel.getItemIDs(), dataModel.getNumItems());
+    Preconditions.checkArgument(userIDs.length > 0 && itemIDs.length > 0, "No users or items");
+    weights = new int[OPERATIONS.length];
+    weights[Operation.RECOMMEND.ordinal()] = 1;
+    numThreads = Runtime.getRuntime().availableProcessors();
+    warmupMillis = 5000L;
+    durationMillis = 30000L;
+    howMany = 10;
+    seed = RandomUtils.getRandom().nextLong();
+  }
+
+  private static long[] toArray(LongPrimitiveIterator it, int size) {
+    long[] ids = new long[size];
+    for (int i = 0; i < size; i++) {
+      ids[i] = it.nextLong();
+    }
+    return ids;
+  }
+
+  /**
+   * Sets the relative frequency of an operation among requests; initially only {@link Operation#RECOMMEND} is
+   * issued.
+   */
+  public void setWeight(Operation operation, int weight) {
+    Preconditions.checkArgument(weight >= 0, "weight must be at least 0");
+    Preconditions.checkArgument(weight == 0 || operation != Operation.MOST_SIMILAR_ITEMS
+        || recommender instanceof ItemBasedRecommender, "Recommender is not an ItemBasedRecommender");
+    weights[operation.ordinal()] = weight;
+  }
+
+  public int getWeight(Operation operation) {
+    return weights[operation.ordinal()];
+  }
+
+  public void setNumThreads(int numThreads) {
+    Preconditions.checkArgument(numThreads >= 1, "numThreads must be at least 1");
+    this.numThreads = numThreads;
+  }
+
+  /**
+   * @param requestsPerSecond rate at which requests are due across all threads, or 0 to issue them back to back
+   */
+  public void setRequestsPerSecond(double requestsPerSecond) {
+    Preconditions.checkArgument(requestsPerSecond >= 0.0, "requestsPerSecond must be at least 0");
+    this.requestsPerSecond = requestsPerSecond;
+  }
+
+  public void setWarmupMillis(long warmupMillis) {
+    Preconditions.checkArgument(warmupMillis >= 0L, "warmupMillis must be at least 0");
+    this.warmupMillis = warmupMillis;
+  }
+
+  public void setDurationMillis(long durationMillis) {
+    Preconditions.checkArgument(durationMillis > 0L, "durationMillis must be positive");
+    this.durationMillis = durationMillis;
+  }
+
+  /** @param howMany number of items to ask for from {@code recommend} and {@code mostSimilarItems} */
+  public void setHowMany(int howMany) {
+    Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
+    this.howMany = howMany;
+  }
+
+  /** @param seed seeds the choice of operations, users and items */
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  public LoadReport run() throws TasteException {
+    int totalWeight = 0;
+    for (int weight : weights) {
+      totalWeight += weight;
+    }
+    Preconditions.checkState(totalWeight > 0, "All operations have weight 0");
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      if (warmupMillis > 0L) {
+        log.info("Warming up for {}ms", warmupMillis);
+        runPhase(executor, totalWeight, warmupMillis, seed - 1L);
+      }
+      log.info("Measuring for {}ms with {} threads", durationMillis, numThreads);
+      long start = System.nanoTime();
+      List<Worker> workers = runPhase(executor, totalWeight, durationMillis, seed);
+      long elapsedNanos = System.nanoTime() - start;
+
+      LatencyHistogram[] latencies = new LatencyHistogram[weights.length];
+      long[] errors = new long[weights.length];
+      for (int op = 0; op < weights.length; op++) {
+        latencies[op] = new LatencyHistogram();
+        for (Worker worker : workers) {
+          latencies[op].addAll(worker.latencies[op]);
+          errors[op] += worker.errors[op];
+        }
+      }
+      LoadReport report = new LoadReport(numThreads, requestsPerSecond, elapsedNanos / 1000000L, latencies, errors);
+      log.info("Load result:\n{}", report);
+      return report;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private List<Worker> runPhase(ExecutorService executor, int totalWeight, long millis, long phaseSeed)
+    throws TasteException {
+    long start = System.nanoTime();
+    long end = start + millis * 1000000L;
+    AtomicLong nextRequest = new AtomicLong();
+    List<Worker> workers = Lists.newArrayListWithCapacity(numThreads);
+    for (int t = 0; t < numThreads; t++) {
+      workers.add(new Worker(RandomUtils.getRandom(phaseSeed + t), totalWeight, start, end, nextRequest));
+    }
+    try {
+      for (Future<Void> future : executor.invokeAll(workers)) {
+        future.get();
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new TasteException(cause);
+    }
+    return workers;
+  }
+
+  private final class Worker implements Callable<Void> {
+
+    private final Random random;
+    private final int totalWeight;
+    private final long start;
+    private final long end;
+    private final AtomicLong nextRequest;
+    private final LatencyHistogram[] latencies;
+    private final long[] errors;
+
+    private Worker(Random random, int totalWeight, long start, long end, AtomicLong nextRequest) {
+      this.random = random;
+      this.totalWeight = totalWeight;
+      this.start = start;
+      this.end = end;
+      this.nextRequest = nextRequest;
+      latencies = new LatencyHistogram[weights.length];
+      for (int op = 0; op < weights.length; op++) {
+        latencies[op] = new LatencyHistogram();
+      }
+      errors = new long[weights.length];
+    }
+
+    @Override
+    public Void call() {
+      double nanosPerRequest = requestsPerSecond > 0.0 ? 1.0e9 / requestsPerSecond : 0.0;
+      while (!Thread.currentThread().isInterrupted()) {
+        long due;
+        if (nanosPerRequest > 0.0) {
+          due = start + (long) (nextRequest.getAndIncrement() * nanosPerRequest);
+          if (due >= end) {
+            break;
+          }
+          long wait;
+          while ((wait = due - System.nanoTime()) > 0L) {
+            LockSupport.parkNanos(wait);
+          }
+        } else {
+          due = System.nanoTime();
+          if (due >= end) {
+            break;
+          }
+        }
+        int op = chooseOperation();
+        try {
+          issue(op);
+        } catch (TasteException te) {
+          errors[op]++;
+        }
+        latencies[op].add(System.nanoTime() - due);
+      }
+      return null;
+    }
+
+    private int chooseOperation() {
+      int r = random.nextInt(totalWeight);
+      int op = 0;
+      while (r >= weights[op]) {
+        r -= weights[op];
+        op++;
+      }
+      return op;
+    }
+
+    private void issue(int op) throws TasteException {
+      switch (OPERATIONS[op]) {
+        case RECOMMEND:
+          recommender.recommend(userIDs[random.nextInt(userIDs.length)], howMany);
+          break;
+        case ESTIMATE_PREFERENCE:
+          recommender.estimatePreference(userIDs[random.nextInt(userIDs.length)],
+              itemIDs[random.nextInt(itemIDs.length)]);
+          break;
+        case MOST_SIMILAR_ITEMS:
+          ((ItemBasedRecommender) recommender).mostSimilarItems(itemIDs[random.nextInt(itemIDs.length)], howMany);
+          break;
+        default:
+          throw new IllegalStateException();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+/**
+ * Result of a {@link LoadGenerator} run: the latencies and errors of each {@link LoadGenerator.Operation} over the
+ * measured period, and the throughput achieved.
+ */
+public final class LoadReport {
+
+  private final int numThreads;
+  private final double requestsPerSecond;
+  private final long elapsedMillis;
+  private final LatencyHistogram[] latencies;
+  private final long[] errors;
+
+  LoadReport(int numThreads,
+             double requestsPerSecond,
+             long elapsedMillis,
+             LatencyHistogram[] latencies,
+             long[] errors) {
+    this.numThreads = numThreads;
+    this.requestsPerSecond = requestsPerSecond;
+    this.elapsedMillis = elapsedMillis;
+    this.latencies = latencies;
+    this.errors = errors;
+  }
+
+  public int getNumThreads() {
+    return numThreads;
+  }
+
+  /** @return rate at which requests were due, or 0 if they were issued back to back */
+  public double getRequestsPerSecond() {
+    return requestsPerSecond;
+  }
+
+  public long getElapsedMillis() {
+    return elapsedMillis;
+  }
+
+  public LatencyHistogram getLatencies(LoadGenerator.Operation operation) {
+    return latencies[operation.ordinal()];
+  }
+
+  /** @return number of requests of the operation that threw an exception */
+  public long getErrors(LoadGenerator.Operation operation) {
+    return errors[operation.ordinal()];
+  }
+
+  public long getNumRequests() {
+    long numRequests = 0L;
+    for (LatencyHistogram histogram : latencies) {
+      numRequests += histogram.getCount();
+    }
+    return numRequests;
+  }
+
+  /** @return requests completed per second */
+  public double getThroughput() {
+    return elapsedMillis == 0L ? Double.NaN : 1000.0 * getNumRequests() / elapsedMillis;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder();
+    result.append("threads: ").append(numThreads).append('\n');
+    result.append("offered rate (requests/s): ")
+        .append(requestsPerSecond > 0.0 ? String.valueOf(requestsPerSecond) : "unbounded").append('\n');
+    result.append("elapsed time (ms): ").append(elapsedMillis).append('\n');
+    result.append("throughput (requests/s): ").append(getThroughput()).append('\n');
+    for (LoadGenerator.Operation operation : LoadGenerator.Operation.values()) {
+      LatencyHistogram histogram = latencies[operation.ordinal()];
+      if (histogram.getCount() > 0L) {
+        result.append(operation).append(": ").append(histogram)
+            .append(" errors=").append(errors[operation.ordinal()]).append('\n');
+      }
+    }
+    return result.toString();
+  }
+
+}
@@ -0,0 +1,553 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.DataModelBuilder;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.FullRunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.common.RandomUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Evaluates a recommender on both the quality and the cost of its results. The preferences are split into training
+ * and test preferences, either into k folds at random ({@link #evaluateFolds}) or at a point in time
+ * ({@link #evaluateByTime}). For each fold the training {@link DataModel} and the {@link Recommender} are built
+ * once, then the test users are evaluated in parallel on a shared pool: their test preferences are estimated, as
+ * by {@link RMSRecommenderEvaluator} and {@link AverageAbsoluteDifferenceRecommenderEvaluator}, and their top
+ * recommendations are compared to their most preferred test items, as by
+ * {@link GenericRecommenderIRStatsEvaluator}.
+ * </p>
+ *
+ * <p>
+ * Splits only depend on the seed and the data, and results are combined in user ID order, so two runs with the same
+ * seed report the same quality whatever the number of threads. The {@link EvaluationReport} also holds each fold's
+ * build time, the throughput and histograms of per-user latencies.
+ * </p>
+ */
+public final class ParallelRecommenderEvaluator {
+
+  private static final Logger log = LoggerFactory.getLogger(ParallelRecommenderEvaluator.class);
+
+  /**
+   * Pass as "relevanceThreshold" to count a user's test items as relevant when the preference is at least one
+   * standard deviation above the user's average.
+   */
+  public static final double CHOOSE_THRESHOLD = Double.NaN;
+
+  private static final double LOG2 = Math.log(2.0);
+
+  private static ExecutorService sharedExecutor;
+
+  private final ExecutorService executor;
+  private final int numThreads;
+  private final long seed;
+  private float maxPreference;
+  private float minPreference;
+
+  /**
+   * Uses a pool of daemon threads shared by all instances, with one thread per processor.
+   *
+   * @param seed seeds the random splits
+   */
+  public ParallelRecommenderEvaluator(long seed) {
+    this(getSharedExecutor(), Runtime.getRuntime().availableProcessors(), seed);
+  }
+
+  /**
+   * @param executor runs the evaluation of test users; it is not shut down
+   * @param numThreads how many tasks to split the test users of a fold into
+   * @param seed seeds the random splits
+   */
+  public ParallelRecommenderEvaluator(ExecutorService executor, int numThreads, long seed) {
+    Preconditions.checkArgument(executor != null, "executor is null");
+    Preconditions.checkArgument(numThreads >= 1, "numThreads must be at least 1");
+    this.executor = executor;
+    this.numThreads = numThreads;
+    this.seed = seed;
+    maxPreference = Float.NaN;
+    minPreference = Float.NaN;
+  }
+
+  /**
+   * @return a pool of daemon threads, one per processor, shared by evaluators which don't specify their own
+   */
+  public static synchronized ExecutorService getSharedExecutor() {
+    if (sharedExecutor == null) {
+      final AtomicInteger threadCount = new AtomicInteger();
+      sharedExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "ParallelRecommenderEvaluator-" + threadCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+    }
+    return sharedExecutor;
+  }
+
+  public float getMaxPreference() {
+    return maxPreference;
+  }
+
+  /** Estimates above this are capped to it. */
+  public void setMaxPreference(float maxPreference) {
+    this.maxPreference = maxPreference;
+  }
+
+  public float getMinPreference() {
+    return minPreference;
+  }
+
+  /** Estimates below this are capped to it. */
+  public void setMinPreference(float minPreference) {
+    this.minPreference = minPreference;
+  }
+
+  /**
+   * Puts each preference into one of <code>numFolds</code> folds at random, then evaluates each fold as test
+   * preferences against a recommender built on the others, so every preference is tested once.
+   *
+   * @param dataModelBuilder builds the training models, or null for {@link GenericDataModel}
+   * @param at number of recommendations to evaluate per user
+   * @param relevanceThreshold test preferences at least this high are relevant, or {@link #CHOOSE_THRESHOLD}
+   */
+  public EvaluationReport evaluateFolds(RecommenderBuilder recommenderBuilder,
+                                        DataModelBuilder dataModelBuilder,
+                                        DataModel dataModel,
+                                        int numFolds,
+                                        int at,
+                                        double relevanceThreshold) throws TasteException {
+    Preconditions.checkArgument(recommenderBuilder != null, "recommenderBuilder is null");
+    Preconditions.checkArgument(dataModel != null, "dataModel is null");
+    Preconditions.checkArgument(numFolds >= 2, "numFolds must be at least 2");
+    Preconditions.checkArgument(at >= 1, "at must be at least 1");
+
+    long[] userIDs = sortedUserIDs(dataModel);
+    Random random = RandomUtils.getRandom(seed);
+    int[][] folds = new int[userIDs.length][];
+    for (int u = 0; u < userIDs.length; u++) {
+      folds[u] = new int[dataModel.getPreferencesFromUser(userIDs[u]).length()];
+      for (int i = 0; i < folds[u].length; i++) {
+        folds[u][i] = random.nextInt(numFolds);
+      }
+    }
+
+    log.info("Beginning {}-fold evaluation of {}", numFolds, dataModel);
+    Totals totals = new Totals(numFolds);
+    for (int fold = 0; fold < numFolds; fold++) {
+      FastByIDMap<PreferenceArray> trainingUsers = new FastByIDMap<PreferenceArray>(userIDs.length);
+      FastByIDMap<PreferenceArray> testUsers = new FastByIDMap<PreferenceArray>(userIDs.length);
+      for (int u = 0; u < userIDs.length; u++) {
+        PreferenceArray prefs = dataModel.getPreferencesFromUser(userIDs[u]);
+        boolean[] test = new boolean[prefs.length()];
+        for (int i = 0; i < test.length; i++) {
+          test[i] = folds[u][i] == fold;
+        }
+        split(userIDs[u], prefs, test, trainingUsers, testUsers);
+      }
+      evaluateFold(recommenderBuilder, dataModelBuilder, dataModel, trainingUsers, testUsers, at,
+          relevanceThreshold, totals);
+    }
+    EvaluationReport report = totals.report();
+    log.info("Evaluation result:\n{}", report);
+    return report;
+  }
+
+  /**
+   * Trains on the earliest preferences and tests on the later ones. Preferences without a time are always
+   * training preferences.
+   *
+   * @param trainingPercentage fraction of the preferences with a time that are training preferences
+   * @param dataModelBuilder builds the training model, or null for {@link GenericDataModel}
+   * @param at number of recommendations to evaluate per user
+   * @param relevanceThreshold test preferences at least this high are relevant, or {@link #CHOOSE_THRESHOLD}
+   * @see DataModel#getPreferenceTime(long, long)
+   */
+  public EvaluationReport evaluateByTime(RecommenderBuilder recommenderBuilder,
+                                         DataModelBuilder dataModelBuilder,
+                                         DataModel dataModel,
+                                         double trainingPercentage,
+                                         int at,
+                                         double relevanceThreshold) throws TasteException {
+    Preconditions.checkArgument(recommenderBuilder != null, "recommenderBuilder is null");
+    Preconditions.checkArgument(dataModel != null, "dataModel is null");
+    Preconditions.checkArgument(trainingPercentage > 0.0 && trainingPercentage < 1.0,
+        "Invalid trainingPercentage: " + trainingPercentage);
+    Preconditions.checkArgument(at >= 1, "at must be at least 1");
+
+    long[] userIDs = sortedUserIDs(dataModel);
+    Long[][] times = new Long[userIDs.length][];
+    int numTimes = 0;
+    for (int u = 0; u < userIDs.length; u++) {
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(userIDs[u]);
+      times[u] = new Long[prefs.length()];
+      for (int i = 0; i < times[u].length; i++) {
+        times[u][i] = dataModel.getPreferenceTime(userIDs[u], prefs.getItemID(i));
+        if (times[u][i] != null) {
+          numTimes++;
+        }
+      }
+    }
+    long[] allTimes = new long[numTimes];
+    int n = 0;
+    for (Long[] userTimes : times) {
+      for (Long time : userTimes) {
+        if (time != null) {
+          allTimes[n++] = time;
+        }
+      }
+    }
+    Arrays.sort(allTimes);
+    int cutoffIndex = (int) (trainingPercentage * numTimes);
+    long cutoff = cutoffIndex < numTimes ? allTimes[cutoffIndex] : Long.MAX_VALUE;
+    log.info("Beginning evaluation of {} on preferences from time {}", dataModel, cutoff);
+
+    FastByIDMap<PreferenceArray> trainingUsers = new FastByIDMap<PreferenceArray>(userIDs.length);
+    FastByIDMap<PreferenceArray> testUsers = new FastByIDMap<PreferenceArray>(userIDs.length);
+    for (int u = 0; u < userIDs.length; u++) {
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(userIDs[u]);
+      boolean[] test = new boolean[prefs.length()];
+      for (int i = 0; i < test.length; i++) {
+        test[i] = times[u][i] != null && times[u][i] >= cutoff;
+      }
+      split(userIDs[u], prefs, test, trainingUsers, testUsers);
+    }
+    Totals totals = new Totals(1);
+    evaluateFold(recommenderBuilder, dataModelBuilder, dataModel, trainingUsers, testUsers, at, relevanceThreshold,
+        totals);
+    EvaluationReport report = totals.report();
+    log.info("Evaluation result:\n{}", report);
+    return report;
+  }
+
+  private static long[] sortedUserIDs(DataModel dataModel) throws TasteException {
+    long[] userIDs = new long[dataModel.getNumUsers()];
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    for (int u = 0; u < userIDs.length; u++) {
+      userIDs[u] = it.nextLong();
+    }
+    Arrays.sort(userIDs);
+    return userIDs;
+  }
+
+  private static void split(long userID,
+                            PreferenceArray prefs,
+                            boolean[] test,
+                            FastByIDMap<PreferenceArray> trainingUsers,
+                            FastByIDMap<PreferenceArray> testUsers) {
+    int numTest = 0;
+    for (boolean isTest : test) {
+      if (isTest) {
+        numTest++;
+      }
+    }
+    PreferenceArray trainingPrefs = new GenericUserPreferenceArray(test.length - numTest);
+    PreferenceArray testPrefs = new GenericUserPreferenceArray(numTest);
+    int training = 0;
+    int tested = 0;
+    for (int i = 0; i < test.length; i++) {
+      PreferenceArray to = test[i] ? testPrefs : trainingPrefs;
+      int index = test[i] ? tested++ : training++;
+      to.setUserID(index, userID);
+      to.setItemID(index, prefs.getItemID(i));
+      to.setValue(index, prefs.getValue(i));
+    }
+    if (training > 0) {
+      trainingUsers.put(userID, trainingPrefs);
+    }
+    if (tested > 0) {
+      testUsers.put(userID, testPrefs);
+    }
+  }
+
+  private void evaluateFold(RecommenderBuilder recommenderBuilder,
+                            DataModelBuilder dataModelBuilder,
+                            final DataModel dataModel,
+                            FastByIDMap<PreferenceArray> trainingUsers,
+                            final FastByIDMap<PreferenceArray> testUsers,
+                            final int at,
+                            final double relevanceThreshold,
+                            Totals totals) throws TasteException {
+    long start = System.currentTimeMillis();
+    final DataModel trainingModel = dataModelBuilder == null ? new GenericDataModel(trainingUsers)
+        : dataModelBuilder.buildDataModel(trainingUsers);
+    final Recommender recommender = recommenderBuilder.buildRecommender(trainingModel);
+    long buildMillis = System.currentTimeMillis() - start;
+    log.info("Built recommender in {}ms", buildMillis);
+
+    final long[] testUserIDs = new long[testUsers.size()];
+    LongPrimitiveIterator it = testUsers.keySetIterator();
+    for (int u = 0; u < testUserIDs.length; u++) {
+      testUserIDs[u] = it.nextLong();
+    }
+    Arrays.sort(testUserIDs);
+    final UserResult[] results = new UserResult[testUserIDs.length];
+    final AtomicInteger nextUser = new AtomicInteger();
+    List<Callable<Void>> evaluators = Lists.newArrayListWithCapacity(numThreads);
+    for (int t = 0; t < numThreads; t++) {
+      evaluators.add(new Callable<Void>() {
+        @Override
+        public Void call() throws TasteException {
+          int u;
+          while ((u = nextUser.getAndIncrement()) < testUserIDs.length) {
+            long userID = testUserIDs[u];
+            results[u] = evaluateUser(recommender, trainingModel, userID, testUsers.get(userID),
+                dataModel.getPreferencesFromUser(userID), at, relevanceThreshold);
+          }
+          return null;
+        }
+      });
+    }
+    start = System.currentTimeMillis();
+    run(evaluators);
+    long evaluationMillis = System.currentTimeMillis() - start;
+    log.info("Evaluated {} users in {}ms", testUserIDs.length, evaluationMillis);
+    totals.add(buildMillis, evaluationMillis, results);
+  }
+
+  private void run(List<Callable<Void>> callables) throws TasteException {
+    try {
+      for (Future<Void> future : executor.invokeAll(callables)) {
+        future.get();
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new TasteException(cause);
+    }
+  }
+
+  private UserResult evaluateUser(Recommender recommender,
+                                  DataModel trainingModel,
+                                  long userID,
+                                  PreferenceArray testPrefs,
+                                  PreferenceArray allPrefs,
+                                  int at,
+                                  double relevanceThreshold) throws TasteException {
+    UserResult result = new UserResult();
+
+    long start = System.nanoTime();
+    for (int i = 0; i < testPrefs.length(); i++) {
+      float estimate;
+      try {
+        estimate = recommender.estimatePreference(userID, testPrefs.getItemID(i));
+      } catch (NoSuchUserException nsue) {
+        estimate = Float.NaN;
+      } catch (NoSuchItemException nsie) {
+        estimate = Float.NaN;
+      }
+      if (Float.isNaN(estimate)) {
+        result.numNoEstimates++;
+      } else {
+        double difference = capEstimatedPreference(estimate) - testPrefs.getValue(i);
+        result.sumOfSquares += difference * difference;
+        result.sumOfAbsolutes += Math.abs(difference);
+        result.numEstimates++;
+      }
+    }
+    result.estimateNanos = System.nanoTime() - start;
+
+    try {
+      trainingModel.getPreferencesFromUser(userID);
+    } catch (NoSuchUserException nsue) {
+      // all of the user's preferences are test preferences, nothing to recommend from
+      return result;
+    }
+    start = System.nanoTime();
+    List<RecommendedItem> recommendedItems = recommender.recommend(userID, at);
+    result.recommendNanos = System.nanoTime() - start;
+
+    double threshold = Double.isNaN(relevanceThreshold) ? computeThreshold(allPrefs) : relevanceThreshold;
+    PreferenceArray sortedTestPrefs = testPrefs.clone();
+    sortedTestPrefs.sortByValueReversed();
+    FastIDSet relevantItemIDs = new FastIDSet(at);
+    for (int i = 0; i < sortedTestPrefs.length() && relevantItemIDs.size() < at; i++) {
+      if (sortedTestPrefs.getValue(i) >= threshold) {
+        relevantItemIDs.add(sortedTestPrefs.getItemID(i));
+      }
+    }
+    int numRelevantItems = relevantItemIDs.size();
+    if (numRelevantItems == 0) {
+      return result;
+    }
+
+    int intersectionSize = 0;
+    double cumulativeGain = 0.0;
+    double idealizedGain = 0.0;
+    for (int i = 0; i < at; i++) {
+      // relevant items have relevance 1 and others 0
+      double discount = i == 0 ? 1.0 : 1.0 / log2(i + 1);
+      if (i < recommendedItems.size() && relevantItemIDs.contains(recommendedItems.get(i).getItemID())) {
+        intersectionSize++;
+        cumulativeGain += discount;
+      }
+      if (i < numRelevantItems) {
+        idealizedGain += discount;
+      }
+    }
+    if (!recommendedItems.isEmpty()) {
+      result.precision = (double) intersectionSize / recommendedItems.size();
+    }
+    result.recall = (double) intersectionSize / numRelevantItems;
+    result.nDCG = cumulativeGain / idealizedGain;
+    return result;
+  }
+
+  private float capEstimatedPreference(float estimate) {
+    if (estimate > maxPreference) {
+      return maxPreference;
+    }
+    if (estimate < minPreference) {
+      return minPreference;
+    }
+    return estimate;
+  }
+
+  private static double computeThreshold(PreferenceArray prefs) {
+    if (prefs.length() < 2) {
+      // Not enough data points -- return a threshold that allows everything
+      return Double.NEGATIVE_INFINITY;
+    }
+    RunningAverageAndStdDev stdDev = new FullRunningAverageAndStdDev();
+    for (int i = 0; i < prefs.length(); i++) {
+      stdDev.addDatum(prefs.getValue(i));
+    }
+    return stdDev.getAverage() + stdDev.getStandardDeviation();
+  }
+
+  private static double log2(double value) {
+    return Math.log(value) / LOG2;
+  }
+
+  /** What one test user's evaluation found, NaN or -1 where it did not apply. */
+  private static final class UserResult {
+
+    private int numEstimates;
+    private int numNoEstimates;
+    private double sumOfSquares;
+    private double sumOfAbsolutes;
+    private long estimateNanos;
+    private long recommendNanos = -1L;
+    private double precision = Double.NaN;
+    private double recall = Double.NaN;
+    private double nDCG = Double.NaN;
+  }
+
+  /** Combines users' results, in the order they are added. */
+  private static final class Totals {
+
+    private final int numFolds;
+    private final long[] buildMillis;
+    private int fold;
+    private long evaluationMillis;
+    private int numUsers;
+    private long numEstimates;
+    private long numNoEstimates;
+    private double sumOfSquares;
+    private double sumOfAbsolutes;
+    private double sumOfPrecisions;
+    private int numPrecisions;
+    private double sumOfRecalls;
+    private double sumOfNDCGs;
+    private int numRecalls;
+    private final LatencyHistogram estimateLatencies = new LatencyHistogram();
+    private final LatencyHistogram recommendLatencies = new LatencyHistogram();
+
+    private Totals(int numFolds) {
+      this.numFolds = numFolds;
+      buildMillis = new long[numFolds];
+    }
+
+    private void add(long foldBuildMillis, long foldEvaluationMillis, UserResult[] results) {
+      buildMillis[fold++] = foldBuildMillis;
+      evaluationMillis += foldEvaluationMillis;
+      for (UserResult result : results) {
+        numUsers++;
+        numEstimates += result.numEstimates;
+        numNoEstimates += result.numNoEstimates;
+        sumOfSquares += result.sumOfSquares;
+        sumOfAbsolutes += result.sumOfAbsolutes;
+        estimateLatencies.add(result.estimateNanos);
+        if (result.recommendNanos >= 0L) {
+          recommendLatencies.add(result.recommendNanos);
+        }
+        if (!Double.isNaN(result.precision)) {
+          sumOfPrecisions += result.precision;
+          numPrecisions++;
+        }
+        if (!Double.isNaN(result.recall)) {
+          sumOfRecalls += result.recall;
+          sumOfNDCGs += result.nDCG;
+          numRecalls++;
+        }
+      }
+    }
+
+    private EvaluationReport report() {
+      return new EvaluationReport(numFolds,
+                                  numUsers,
+                                  numEstimates,
+                                  numNoEstimates,
+                                  Math.sqrt(sumOfSquares / numEstimates),
+                                  sumOfAbsolutes / numEstimates,
+                                  sumOfPrecisions / numPrecisions,
+                                  sumOfRecalls / numRecalls,
+                                  sumOfNDCGs / numRecalls,
+                                  buildMillis,
+                                  evaluationMillis,
+                                  estimateLatencies,
+                                  recommendLatencies);
+    }
+  }
+
+}
@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Iterators;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.iterator.CountingIterator;
+
+/**
+ * <p>
+ * Base of read-only {@link PreferenceArray}s which are views of a range of some shared storage. Subclasses
+ * read preference i from position {@link #position(int)} of their range. Sorting does not touch the storage but
+ * orders the view through a permutation of its own, allocated only when the requested order differs from the
+ * storage order.
+ * </p>
+ *
+ * <p>
+ * All setters throw {@link UnsupportedOperationException}; {@link #clone()} should return a modifiable copy.
+ * </p>
+ */
+abstract class AbstractPreferenceArrayView implements PreferenceArray {
+
+  private final int length;
+  private int[] order;
+
+  AbstractPreferenceArrayView(int length) {
+    this.length = length;
+  }
+
+  @Override
+  public final int length() {
+    return length;
+  }
+
+  /** @return position within the underlying range of the i-th preference in the current order */
+  final int position(int i) {
+    return order == null ? i : order[i];
+  }
+
+  /** Goes back to the storage order. */
+  final void resetOrder() {
+    order = null;
+  }
+
+  @Override
+  public Preference get(int i) {
+    return new GenericPreference(getUserID(i), getItemID(i), getValue(i));
+  }
+
+  @Override
+  public void set(int i, Preference pref) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setUserID(int i, long userID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setItemID(int i, long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setValue(int i, float value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void sortByValue() {
+    sortByValue(false);
+  }
+
+  @Override
+  public void sortByValueReversed() {
+    sortByValue(true);
+  }
+
+  private void sortByValue(boolean reversed) {
+    // Sort (value, index) pairs packed so that comparing the longs compares values first
+    long[] keys = new long[length];
+    for (int i = 0; i < length; i++) {
+      int bits = Float.floatToIntBits(getValue(i));
+      int sortable = bits < 0 ? bits ^ 0x7FFFFFFF : bits;
+      keys[i] = ((long) (reversed ? ~sortable : sortable) << 32) | i;
+    }
+    Arrays.sort(keys);
+    int[] newOrder = new int[length];
+    for (int k = 0; k < length; k++) {
+      newOrder[k] = position((int) keys[k]);
+    }
+    order = newOrder;
+  }
+
+  @Override
+  public Iterator<Preference> iterator() {
+    return Iterators.transform(new CountingIterator(length()),
+                               new Function<Integer, Preference>() {
+                                 @Override
+                                 public Preference apply(Integer from) {
+                                   return get(from);
+                                 }
+                               });
+  }
+
+  @Override
+  public abstract PreferenceArray clone();
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder(10 + 20 * length);
+    result.append(getClass().getSimpleName()).append("[{");
+    for (int i = 0; i < length; i++) {
+      if (i > 0) {
+        result.append(',');
+      }
+      result.append(getUserID(i)).append(':').append(getItemID(i)).append('=').append(getValue(i));
+    }
+    result.append("}]");
+    return result.toString();
+  }
+
+}
@@ -0,0 +1,652 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.MappedArrays;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * An immutable in-memory {@link DataModel} holding the same data as {@link GenericDataModel} in a fraction of
+ * the memory. User and item IDs are stored once, sorted, and referred to by their index in that order. The
+ * preferences are stored twice in compressed sparse row layout: grouped by user, as item indices and values,
+ * and grouped by item, as user indices and values. Each preference therefore takes 16 bytes, plus 4 for an
+ * optional timestamp, against about 24 plus per-user and per-item object overhead for
+ * {@link GenericDataModel}, and over 40 more per timestamp. Preferences without values, as in
+ * {@link GenericBooleanPrefDataModel}, take 8 bytes.
+ * </p>
+ *
+ * <p>
+ * {@link #getPreferencesFromUser(long)} and {@link #getPreferencesForItem(long)} return views of these arrays
+ * rather than copies. The views can be sorted, which only reorders the view, but not modified;
+ * {@link PreferenceArray#clone()} returns a modifiable copy. Timestamps are kept with a precision of one
+ * second.
+ * </p>
+ */
+public final class CompactDataModel extends AbstractDataModel {
+
+  private static final Logger log = LoggerFactory.getLogger(CompactDataModel.class);
+
+  private static final int NO_TIME = Integer.MIN_VALUE;
+  private static final long SNAPSHOT_MAGIC = 0x4D41484F55543032L; // "MAHOUT02"
+  private static final int SNAPSHOT_HEADER_BYTES = 8 + 8 + 4 + 4 + 4 + 1 + 8;
+  private static final byte HAS_TIMES = 1;
+  private static final byte HAS_VALUES = 2;
+
+  private final long[] userIDs;
+  private final long[] itemIDs;
+  /** preferences of user u are at userOffsets[u] until userOffsets[u + 1] */
+  private final int[] userOffsets;
+  private final int[] userPrefItems;
+  /** null for preferences without values */
+  private final float[] userPrefValues;
+  private final int[] itemOffsets;
+  private final int[] itemPrefUsers;
+  private final float[] itemPrefValues;
+  /** seconds after baseTime, parallel to userPrefItems; null without timestamps */
+  private final int[] userPrefTimes;
+  private final long baseTime;
+
+  /**
+   * @param userData users to include, mapped to their preferences
+   */
+  public CompactDataModel(FastByIDMap<PreferenceArray> userData) {
+    this(userData, null);
+  }
+
+  /**
+   * @param userData users to include, mapped to their preferences
+   * @param timestamps optionally, provided timestamps of preferences as milliseconds since the epoch.
+   *  User IDs are mapped to maps of item IDs to Long timestamps.
+   */
+  public CompactDataModel(FastByIDMap<PreferenceArray> userData, FastByIDMap<FastByIDMap<Long>> timestamps) {
+    this(UserRows.fromUserData(userData, timestamps));
+  }
+
+  private CompactDataModel(UserRows rows) {
+    userIDs = rows.userIDs;
+    itemIDs = rows.itemIDs;
+    userOffsets = rows.userOffsets;
+    userPrefItems = rows.userPrefItems;
+    userPrefValues = rows.userPrefValues;
+    userPrefTimes = rows.userPrefTimes;
+    baseTime = rows.baseTime;
+
+    if (userPrefValues == null) {
+      setMinPreference(1.0f);
+      setMaxPreference(1.0f);
+    } else {
+      float maxPrefValue = Float.NEGATIVE_INFINITY;
+      float minPrefValue = Float.POSITIVE_INFINITY;
+      for (float value : userPrefValues) {
+        if (value > maxPrefValue) {
+          maxPrefValue = value;
+        }
+        if (value < minPrefValue) {
+          minPrefValue = value;
+        }
+      }
+      setMinPreference(minPrefValue);
+      setMaxPreference(maxPrefValue);
+    }
+
+    // Transpose; visiting users in order keeps each item's users sorted
+    int numUsers = userIDs.length;
+    int numItems = itemIDs.length;
+    int numPrefs = userPrefItems.length;
+    itemOffsets = new int[numItems + 1];
+    for (int item : userPrefItems) {
+      itemOffsets[item + 1]++;
+    }
+    for (int item = 0; item < numItems; item++) {
+      itemOffsets[item + 1] += itemOffsets[item];
+    }
+    itemPrefUsers = new int[numPrefs];
+    itemPrefValues = userPrefValues == null ? null : new float[numPrefs];
+    int[] next = Arrays.copyOf(itemOffsets, numItems);
+    for (int u = 0; u < numUsers; u++) {
+      for (int p = userOffsets[u]; p < userOffsets[u + 1]; p++) {
+        int at = next[userPrefItems[p]]++;
+        itemPrefUsers[at] = u;
+        if (itemPrefValues != null) {
+          itemPrefValues[at] = userPrefValues[p];
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates a model directly from preferences grouped by user, as built by loaders which never materialize
+   * {@link PreferenceArray}s. The arrays are used, not copied.
+   *
+   * @param userIDs all user IDs, ascending
+   * @param itemIDs all item IDs, ascending
+   * @param userOffsets preferences of the user at index u are at <code>userOffsets[u]</code> until
+   *  <code>userOffsets[u + 1]</code> in the following arrays
+   * @param userPrefItems index in <code>itemIDs</code> of the item of each preference, ascending for each user
+   * @param userPrefValues value of each preference, or null if preferences have no values, as in
+   *  {@link GenericBooleanPrefDataModel}
+   * @param userPrefTimes optionally, time of each preference in seconds after <code>baseTime</code>, or
+   *  {@link Integer#MIN_VALUE} for none
+   * @param baseTime seconds since the epoch that the times are relative to
+   */
+  public static CompactDataModel fromUserRows(long[] userIDs,
+                                              long[] itemIDs,
+                                              int[] userOffsets,
+                                              int[] userPrefItems,
+                                              float[] userPrefValues,
+                                              int[] userPrefTimes,
+                                              long baseTime) {
+    Preconditions.checkArgument(userOffsets.length == userIDs.length + 1, "Wrong number of user offsets");
+    int numPrefs = userOffsets[userIDs.length];
+    Preconditions.checkArgument(userPrefItems.length == numPrefs
+        && (userPrefValues == null || userPrefValues.length == numPrefs)
+        && (userPrefTimes == null || userPrefTimes.length == numPrefs), "Preference arrays differ in length");
+    return new CompactDataModel(
+        new UserRows(userIDs, itemIDs, userOffsets, userPrefItems, userPrefValues, userPrefTimes, baseTime));
+  }
+
+  /**
+   * Writes this model to a binary file which {@link #readSnapshot(File, long)} can load much faster than the
+   * model can be built from text.
+   *
+   * @param tag identifies the source of the data, such as a checksum or modification time, so that a later
+   *  read can tell whether the snapshot is still current
+   */
+  public void writeSnapshot(File file, long tag) throws IOException {
+    RandomAccessFile out = new RandomAccessFile(file, "rw");
+    try {
+      out.setLength(0L);
+      FileChannel channel = out.getChannel();
+      ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_BYTES);
+      header.putLong(SNAPSHOT_MAGIC).putLong(tag);
+      header.putInt(userIDs.length).putInt(itemIDs.length).putInt(userPrefItems.length);
+      header.put((byte) ((userPrefTimes == null ? 0 : HAS_TIMES) | (userPrefValues == null ? 0 : HAS_VALUES)));
+      header.putLong(baseTime);
+      header.flip();
+      channel.write(header);
+      ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+      MappedArrays.writeLongs(channel, buffer, userIDs);
+      MappedArrays.writeLongs(channel, buffer, itemIDs);
+      MappedArrays.writeInts(channel, buffer, userOffsets);
+      MappedArrays.writeInts(channel, buffer, userPrefItems);
+      if (userPrefValues != null) {
+        MappedArrays.writeFloats(channel, buffer, userPrefValues);
+      }
+      if (userPrefTimes != null) {
+        MappedArrays.writeInts(channel, buffer, userPrefTimes);
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Loads a model written by {@link #writeSnapshot(File, long)}, copying its arrays straight out of a memory
+   * mapping of the file.
+   *
+   * @return the model, or null if the file is not a snapshot or was written with a different tag
+   */
+  public static CompactDataModel readSnapshot(File file, long tag) throws IOException {
+    if (file.length() < SNAPSHOT_HEADER_BYTES) {
+      return null;
+    }
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = in.getChannel();
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0L, SNAPSHOT_HEADER_BYTES);
+      if (header.getLong() != SNAPSHOT_MAGIC || header.getLong() != tag) {
+        return null;
+      }
+      int numUsers = header.getInt();
+      int numItems = header.getInt();
+      int numPrefs = header.getInt();
+      byte flags = header.get();
+      boolean hasTimes = (flags & HAS_TIMES) != 0;
+      boolean hasValues = (flags & HAS_VALUES) != 0;
+      long baseTime = header.getLong();
+      long expectedLength = SNAPSHOT_HEADER_BYTES + 8L * (numUsers + numItems) + 4L * (numUsers + 1)
+          + (4L + (hasValues ? 4L : 0L) + (hasTimes ? 4L : 0L)) * numPrefs;
+      if (file.length() != expectedLength) {
+        log.warn("Ignoring truncated snapshot {}", file);
+        return null;
+      }
+      long position = SNAPSHOT_HEADER_BYTES;
+      long[] userIDs = new long[numUsers];
+      position = MappedArrays.readLongs(channel, position, userIDs);
+      long[] itemIDs = new long[numItems];
+      position = MappedArrays.readLongs(channel, position, itemIDs);
+      int[] userOffsets = new int[numUsers + 1];
+      position = MappedArrays.readInts(channel, position, userOffsets);
+      int[] userPrefItems = new int[numPrefs];
+      position = MappedArrays.readInts(channel, position, userPrefItems);
+      float[] userPrefValues = null;
+      if (hasValues) {
+        userPrefValues = new float[numPrefs];
+        position = MappedArrays.readFloats(channel, position, userPrefValues);
+      }
+      int[] userPrefTimes = null;
+      if (hasTimes) {
+        userPrefTimes = new int[numPrefs];
+        MappedArrays.readInts(channel, position, userPrefTimes);
+      }
+      return fromUserRows(userIDs, itemIDs, userOffsets, userPrefItems, userPrefValues, userPrefTimes, baseTime);
+    } finally {
+      in.close();
+    }
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() {
+    return new LongPrimitiveArrayIterator(userIDs);
+  }
+
+  /**
+   * @throws NoSuchUserException
+   *           if there is no such user
+   */
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws NoSuchUserException {
+    int u = userIndex(userID);
+    return new CompactPreferenceArray(true, u, userOffsets[u], userOffsets[u + 1]);
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    int u = userIndex(userID);
+    FastIDSet result = new FastIDSet(userOffsets[u + 1] - userOffsets[u]);
+    for (int p = userOffsets[u]; p < userOffsets[u + 1]; p++) {
+      result.add(itemIDs[userPrefItems[p]]);
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() {
+    return new LongPrimitiveArrayIterator(itemIDs);
+  }
+
+  /**
+   * @throws NoSuchItemException
+   *           if there is no such item
+   */
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws NoSuchItemException {
+    int item = itemIndex(itemID);
+    return new CompactPreferenceArray(false, item, itemOffsets[item], itemOffsets[item + 1]);
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    int p = preferenceIndex(userIndex(userID), itemID);
+    if (p < 0) {
+      return null;
+    }
+    return userPrefValues == null ? 1.0f : userPrefValues[p];
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+    if (userPrefTimes == null) {
+      return null;
+    }
+    int p = preferenceIndex(userIndex(userID), itemID);
+    if (p < 0 || userPrefTimes[p] == NO_TIME) {
+      return null;
+    }
+    return (baseTime + userPrefTimes[p]) * 1000L;
+  }
+
+  @Override
+  public int getNumItems() {
+    return itemIDs.length;
+  }
+
+  @Override
+  public int getNumUsers() {
+    return userIDs.length;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long... itemIDs) {
+    Preconditions.checkArgument(itemIDs != null, "itemIDs is null");
+    Preconditions.checkArgument(itemIDs.length == 1 || itemIDs.length == 2, "Illegal number of IDs", itemIDs.length);
+    int item1 = Arrays.binarySearch(this.itemIDs, itemIDs[0]);
+    if (item1 < 0) {
+      return 0;
+    }
+    if (itemIDs.length == 1) {
+      return itemOffsets[item1 + 1] - itemOffsets[item1];
+    }
+    int item2 = Arrays.binarySearch(this.itemIDs, itemIDs[1]);
+    if (item2 < 0) {
+      return 0;
+    }
+    // Both user lists are sorted, so merge them
+    int p1 = itemOffsets[item1];
+    int end1 = itemOffsets[item1 + 1];
+    int p2 = itemOffsets[item2];
+    int end2 = itemOffsets[item2 + 1];
+    int count = 0;
+    while (p1 < end1 && p2 < end2) {
+      int user1 = itemPrefUsers[p1];
+      int user2 = itemPrefUsers[p2];
+      if (user1 == user2) {
+        count++;
+        p1++;
+        p2++;
+      } else if (user1 < user2) {
+        p1++;
+      } else {
+        p2++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+  // Does nothing
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return userPrefValues != null;
+  }
+
+  private int userIndex(long userID) throws NoSuchUserException {
+    int u = Arrays.binarySearch(userIDs, userID);
+    if (u < 0) {
+      throw new NoSuchUserException(userID);
+    }
+    return u;
+  }
+
+  private int itemIndex(long itemID) throws NoSuchItemException {
+    int item = Arrays.binarySearch(itemIDs, itemID);
+    if (item < 0) {
+      throw new NoSuchItemException(itemID);
+    }
+    return item;
+  }
+
+  /** @return position of the user's preference for the item in the user-grouped arrays, or -1 */
+  private int preferenceIndex(int u, long itemID) {
+    int item = Arrays.binarySearch(itemIDs, itemID);
+    if (item < 0) {
+      return -1;
+    }
+    int p = Arrays.binarySearch(userPrefItems, userOffsets[u], userOffsets[u + 1], item);
+    return p < 0 ? -1 : p;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder(200);
+    result.append("CompactDataModel[users:");
+    for (int i = 0; i < Math.min(3, userIDs.length); i++) {
+      if (i > 0) {
+        result.append(',');
+      }
+      result.append(userIDs[i]);
+    }
+    if (userIDs.length > 3) {
+      result.append("...");
+    }
+    result.append(']');
+    return result.toString();
+  }
+
+  /** Preferences grouped by user; the input of the transposition in the constructor. */
+  private static final class UserRows {
+
+    private final long[] userIDs;
+    private final long[] itemIDs;
+    private final int[] userOffsets;
+    private final int[] userPrefItems;
+    private final float[] userPrefValues;
+    private final int[] userPrefTimes;
+    private final long baseTime;
+
+    private UserRows(long[] userIDs,
+                     long[] itemIDs,
+                     int[] userOffsets,
+                     int[] userPrefItems,
+                     float[] userPrefValues,
+                     int[] userPrefTimes,
+                     long baseTime) {
+      this.userIDs = userIDs;
+      this.itemIDs = itemIDs;
+      this.userOffsets = userOffsets;
+      this.userPrefItems = userPrefItems;
+      this.userPrefValues = userPrefValues;
+      this.userPrefTimes = userPrefTimes;
+      this.baseTime = baseTime;
+    }
+
+    static UserRows fromUserData(FastByIDMap<PreferenceArray> userData,
+                                 FastByIDMap<FastByIDMap<Long>> timestamps) {
+      Preconditions.checkArgument(userData != null, "userData is null");
+
+      int numUsers = userData.size();
+      long[] userIDs = new long[numUsers];
+      FastIDSet itemIDSet = new FastIDSet();
+      int numPrefs = 0;
+      int u = 0;
+      for (Map.Entry<Long,PreferenceArray> entry : userData.entrySet()) {
+        userIDs[u++] = entry.getKey();
+        PreferenceArray prefs = entry.getValue();
+        int length = prefs.length();
+        for (int i = 0; i < length; i++) {
+          itemIDSet.add(prefs.getItemID(i));
+        }
+        numPrefs += length;
+      }
+      Arrays.sort(userIDs);
+      long[] itemIDs = itemIDSet.toArray();
+      itemIDSet = null; // Might help GC -- this is big
+      Arrays.sort(itemIDs);
+
+      int[] userOffsets = new int[numUsers + 1];
+      int[] userPrefItems = new int[numPrefs];
+      float[] userPrefValues = new float[numPrefs];
+      int offset = 0;
+      for (u = 0; u < numUsers; u++) {
+        userOffsets[u] = offset;
+        PreferenceArray prefs = userData.get(userIDs[u]);
+        prefs.sortByItem();
+        int length = prefs.length();
+        for (int i = 0; i < length; i++) {
+          userPrefItems[offset] = Arrays.binarySearch(itemIDs, prefs.getItemID(i));
+          userPrefValues[offset] = prefs.getValue(i);
+          offset++;
+        }
+        if ((u + 1) % 100000 == 0) {
+          log.info("Processed {} users", u + 1);
+        }
+      }
+      userOffsets[numUsers] = offset;
+      log.info("Processed {} users", numUsers);
+
+      if (timestamps == null) {
+        return new UserRows(userIDs, itemIDs, userOffsets, userPrefItems, userPrefValues, null, 0L);
+      }
+      long minSeconds = Long.MAX_VALUE;
+      for (Map.Entry<Long,FastByIDMap<Long>> entry : timestamps.entrySet()) {
+        for (Map.Entry<Long,Long> itemTime : entry.getValue().entrySet()) {
+          minSeconds = Math.min(minSeconds, itemTime.getValue() / 1000L);
+        }
+      }
+      long baseTime = minSeconds == Long.MAX_VALUE ? 0L : minSeconds;
+      int[] userPrefTimes = new int[numPrefs];
+      Arrays.fill(userPrefTimes, NO_TIME);
+      for (u = 0; u < numUsers; u++) {
+        FastByIDMap<Long> itemTimes = timestamps.get(userIDs[u]);
+        if (itemTimes == null) {
+          continue;
+        }
+        for (int p = userOffsets[u]; p < userOffsets[u + 1]; p++) {
+          Long time = itemTimes.get(itemIDs[userPrefItems[p]]);
+          if (time != null) {
+            long relative = time / 1000L - baseTime;
+            Preconditions.checkArgument(relative < Integer.MAX_VALUE, "Timestamps span too long", time);
+            userPrefTimes[p] = (int) relative;
+          }
+        }
+      }
+      return new UserRows(userIDs, itemIDs, userOffsets, userPrefItems, userPrefValues, userPrefTimes, baseTime);
+    }
+  }
+
+  /**
+   * A read-only view of the preferences of one user or one item. Sorting it only fills in the view's own
+   * permutation of the underlying range.
+   */
+  private final class CompactPreferenceArray extends AbstractPreferenceArrayView {
+
+    private final boolean byUser;
+    private final int index;
+    private final int start;
+    private final int[] others;
+    private final float[] values;
+
+    private CompactPreferenceArray(boolean byUser, int index, int start, int end) {
+      super(end - start);
+      this.byUser = byUser;
+      this.index = index;
+      this.start = start;
+      this.others = byUser ? userPrefItems : itemPrefUsers;
+      this.values = byUser ? userPrefValues : itemPrefValues;
+    }
+
+    @Override
+    public long getUserID(int i) {
+      return byUser ? userIDs[index] : userIDs[others[start + position(i)]];
+    }
+
+    @Override
+    public long getItemID(int i) {
+      return byUser ? itemIDs[others[start + position(i)]] : itemIDs[index];
+    }
+
+    @Override
+    public float getValue(int i) {
+      return values == null ? 1.0f : values[start + position(i)];
+    }
+
+    @Override
+    public long[] getIDs() {
+      long[] ids = new long[length()];
+      long[] otherIDs = byUser ? itemIDs : userIDs;
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = otherIDs[others[start + position(i)]];
+      }
+      return ids;
+    }
+
+    @Override
+    public void sortByUser() {
+      if (byUser) {
+        // all the same user; keep the current order
+        return;
+      }
+      resetOrder();
+    }
+
+    @Override
+    public void sortByItem() {
+      if (!byUser) {
+        return;
+      }
+      resetOrder();
+    }
+
+    @Override
+    public boolean hasPrefWithUserID(long userID) {
+      if (byUser) {
+        return userIDs[index] == userID;
+      }
+      return contains(userIDs, userID);
+    }
+
+    @Override
+    public boolean hasPrefWithItemID(long itemID) {
+      if (byUser) {
+        return contains(itemIDs, itemID);
+      }
+      return itemIDs[index] == itemID;
+    }
+
+    private boolean contains(long[] otherIDs, long id) {
+      int other = Arrays.binarySearch(otherIDs, id);
+      return other >= 0 && Arrays.binarySearch(others, start, start + length(), other) >= 0;
+    }
+
+    @Override
+    public PreferenceArray clone() {
+      int length = length();
+      PreferenceArray copy;
+      if (values == null) {
+        copy = byUser ? new BooleanUserPreferenceArray(length) : new BooleanItemPreferenceArray(length);
+      } else {
+        copy = byUser ? new GenericUserPreferenceArray(length) : new GenericItemPreferenceArray(length);
+      }
+      for (int i = 0; i < length; i++) {
+        copy.setUserID(i, getUserID(i));
+        copy.setItemID(i, getItemID(i));
+        if (values != null) {
+          copy.setValue(i, getValue(i));
+        }
+      }
+      return copy;
+    }
+  }
+
+}
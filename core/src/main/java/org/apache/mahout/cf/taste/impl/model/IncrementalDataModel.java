@@ -0,0 +1,939 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * An in-memory {@link DataModel} which accepts changes while it is being read. Each user's and each item's
+ * preferences are kept in immutable arrays sorted by ID. A {@link Delta} of changes is applied by building new
+ * arrays for just the users and items it touches and swapping them in one by one, so the cost of an update is
+ * proportional to the size of the change and readers are never blocked. Readers may briefly see a user's new
+ * preferences before the matching item's, but never a half-built array.
+ * </p>
+ *
+ * <p>
+ * Arrays returned by {@link #getPreferencesFromUser(long)} and {@link #getPreferencesForItem(long)} are
+ * read-only views of one version of the data; later updates do not change them. Timestamps are kept with the
+ * user's preferences.
+ * </p>
+ */
+public final class IncrementalDataModel extends AbstractDataModel {
+
+  private static final Logger log = LoggerFactory.getLogger(IncrementalDataModel.class);
+
+  private static final long NO_TIME = Long.MIN_VALUE;
+  private static final long[] NO_IDS = new long[0];
+
+  private final boolean hasPrefValues;
+  private final ConcurrentMap<Long,Row> userRows;
+  private final ConcurrentMap<Long,Row> itemRows;
+  private volatile long[] userIDs;
+  private volatile long[] itemIDs;
+  private volatile float minPreference;
+  private volatile float maxPreference;
+  private final ReentrantLock updateLock;
+
+  /**
+   * Creates an empty model.
+   *
+   * @param hasPrefValues if false, preferences are present or absent and their values are ignored, as in
+   *  {@link GenericBooleanPrefDataModel}
+   */
+  public IncrementalDataModel(boolean hasPrefValues) {
+    this.hasPrefValues = hasPrefValues;
+    this.userRows = new ConcurrentHashMap<Long,Row>();
+    this.itemRows = new ConcurrentHashMap<Long,Row>();
+    this.userIDs = NO_IDS;
+    this.itemIDs = NO_IDS;
+    this.minPreference = Float.NaN;
+    this.maxPreference = Float.NaN;
+    this.updateLock = new ReentrantLock();
+  }
+
+  /**
+   * Builds the model directly from complete data, without going through a {@link Delta}.
+   *
+   * @param userData users to include. Each user's array is sorted by item.
+   * @param timestamps optionally, provided timestamps of preferences as milliseconds since the epoch.
+   *  User IDs are mapped to maps of item IDs to Long timestamps.
+   */
+  public IncrementalDataModel(FastByIDMap<PreferenceArray> userData, FastByIDMap<FastByIDMap<Long>> timestamps) {
+    this(true);
+    Preconditions.checkArgument(userData != null, "userData is null");
+    long[] ids = new long[userData.size()];
+    Row[] rows = new Row[ids.length];
+    int numUsers = 0;
+    for (Map.Entry<Long,PreferenceArray> entry : userData.entrySet()) {
+      long userID = entry.getKey();
+      PreferenceArray prefs = entry.getValue();
+      prefs.sortByItem();
+      int length = prefs.length();
+      if (length == 0) {
+        continue;
+      }
+      long[] itemIDs = new long[length];
+      float[] values = new float[length];
+      for (int i = 0; i < length; i++) {
+        itemIDs[i] = prefs.getItemID(i);
+        values[i] = prefs.getValue(i);
+      }
+      ids[numUsers] = userID;
+      rows[numUsers] = new Row(itemIDs, values, times(timestamps, userID, itemIDs));
+      numUsers++;
+    }
+    initialize(ids, rows, numUsers);
+  }
+
+  /**
+   * @param userData users to include, mapped to the items they express a preference for
+   * @param timestamps optionally, provided timestamps of preferences as milliseconds since the epoch.
+   *  User IDs are mapped to maps of item IDs to Long timestamps.
+   * @return a model without preference values
+   */
+  public static IncrementalDataModel withoutPreferenceValues(FastByIDMap<FastIDSet> userData,
+                                                             FastByIDMap<FastByIDMap<Long>> timestamps) {
+    Preconditions.checkArgument(userData != null, "userData is null");
+    IncrementalDataModel model = new IncrementalDataModel(false);
+    long[] ids = new long[userData.size()];
+    Row[] rows = new Row[ids.length];
+    int numUsers = 0;
+    for (Map.Entry<Long,FastIDSet> entry : userData.entrySet()) {
+      long userID = entry.getKey();
+      long[] itemIDs = entry.getValue().toArray();
+      if (itemIDs.length == 0) {
+        continue;
+      }
+      Arrays.sort(itemIDs);
+      ids[numUsers] = userID;
+      rows[numUsers] = new Row(itemIDs, null, times(timestamps, userID, itemIDs));
+      numUsers++;
+    }
+    model.initialize(ids, rows, numUsers);
+    return model;
+  }
+
+  /**
+   * Copies another model, such as a {@link CompactDataModel} which is about to receive its first changes.
+   */
+  public static IncrementalDataModel copyOf(DataModel dataModel) throws TasteException {
+    Preconditions.checkArgument(dataModel != null, "dataModel is null");
+    IncrementalDataModel model = new IncrementalDataModel(dataModel.hasPreferenceValues());
+    long[] ids = new long[dataModel.getNumUsers()];
+    Row[] rows = new Row[ids.length];
+    int numUsers = 0;
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+      int length = prefs.length();
+      if (length == 0) {
+        continue;
+      }
+      boolean sorted = true;
+      for (int i = 1; i < length && sorted; i++) {
+        sorted = prefs.getItemID(i - 1) < prefs.getItemID(i);
+      }
+      if (!sorted) {
+        prefs = prefs.clone();
+        prefs.sortByItem();
+      }
+      long[] itemIDs = new long[length];
+      float[] values = model.hasPrefValues ? new float[length] : null;
+      long[] times = null;
+      for (int i = 0; i < length; i++) {
+        itemIDs[i] = prefs.getItemID(i);
+        if (values != null) {
+          values[i] = prefs.getValue(i);
+        }
+        Long time = dataModel.getPreferenceTime(userID, itemIDs[i]);
+        if (time != null) {
+          if (times == null) {
+            times = new long[length];
+            Arrays.fill(times, NO_TIME);
+          }
+          times[i] = time;
+        }
+      }
+      ids[numUsers] = userID;
+      rows[numUsers] = new Row(itemIDs, values, times);
+      numUsers++;
+    }
+    model.initialize(ids, rows, numUsers);
+    return model;
+  }
+
+  /** @return timestamps of the user's preferences for the items, or null if none has one */
+  private static long[] times(FastByIDMap<FastByIDMap<Long>> timestamps, long userID, long[] itemIDs) {
+    FastByIDMap<Long> userTimestamps = timestamps == null ? null : timestamps.get(userID);
+    if (userTimestamps == null || userTimestamps.isEmpty()) {
+      return null;
+    }
+    long[] times = null;
+    for (int i = 0; i < itemIDs.length; i++) {
+      Long time = userTimestamps.get(itemIDs[i]);
+      if (time != null) {
+        if (times == null) {
+          times = new long[itemIDs.length];
+          Arrays.fill(times, NO_TIME);
+        }
+        times[i] = time;
+      }
+    }
+    return times;
+  }
+
+  /**
+   * Fills an empty model with the first numUsers of the given users' rows. The item rows are derived with a
+   * counting sort which visits the users in ID order, so each item's users come out sorted.
+   */
+  private void initialize(long[] ids, Row[] rows, int numUsers) {
+    // Sort the users by ID, carrying their rows along
+    long[] sortedUserIDs = Arrays.copyOf(ids, numUsers);
+    Arrays.sort(sortedUserIDs);
+    Row[] sortedRows = new Row[numUsers];
+    for (int u = 0; u < numUsers; u++) {
+      sortedRows[Arrays.binarySearch(sortedUserIDs, ids[u])] = rows[u];
+    }
+
+    FastIDSet itemIDSet = new FastIDSet();
+    int numPrefs = 0;
+    for (Row row : sortedRows) {
+      for (long itemID : row.ids) {
+        itemIDSet.add(itemID);
+      }
+      numPrefs += row.ids.length;
+    }
+    long[] sortedItemIDs = itemIDSet.toArray();
+    itemIDSet = null; // Might help GC -- this is big
+    Arrays.sort(sortedItemIDs);
+    int numItems = sortedItemIDs.length;
+
+    int[] prefItems = new int[numPrefs];
+    int[] offsets = new int[numItems + 1];
+    int p = 0;
+    for (Row row : sortedRows) {
+      for (long itemID : row.ids) {
+        int item = Arrays.binarySearch(sortedItemIDs, itemID);
+        prefItems[p++] = item;
+        offsets[item + 1]++;
+      }
+    }
+    for (int item = 0; item < numItems; item++) {
+      offsets[item + 1] += offsets[item];
+    }
+    long[] itemUsers = new long[numPrefs];
+    float[] itemValues = hasPrefValues ? new float[numPrefs] : null;
+    int[] next = Arrays.copyOf(offsets, numItems);
+    float min = Float.NaN;
+    float max = Float.NaN;
+    p = 0;
+    for (int u = 0; u < numUsers; u++) {
+      Row row = sortedRows[u];
+      for (int i = 0; i < row.ids.length; i++) {
+        int at = next[prefItems[p++]]++;
+        itemUsers[at] = sortedUserIDs[u];
+        if (itemValues != null) {
+          float value = row.values[i];
+          itemValues[at] = value;
+          if (!(value >= min)) {
+            min = value;
+          }
+          if (!(value <= max)) {
+            max = value;
+          }
+        }
+      }
+      userRows.put(sortedUserIDs[u], row);
+    }
+    for (int item = 0; item < numItems; item++) {
+      int from = offsets[item];
+      int to = offsets[item + 1];
+      itemRows.put(sortedItemIDs[item], new Row(Arrays.copyOfRange(itemUsers, from, to),
+                                                itemValues == null ? null : Arrays.copyOfRange(itemValues, from, to),
+                                                null));
+    }
+    userIDs = sortedUserIDs;
+    itemIDs = sortedItemIDs;
+    minPreference = min;
+    maxPreference = max;
+    log.info("Loaded {} preferences of {} users", numPrefs, numUsers);
+  }
+
+  /**
+   * Applies a batch of changes. Changes within the batch take effect in the order they were added. Concurrent
+   * calls are applied one after the other.
+   */
+  public void apply(Delta delta) {
+    Preconditions.checkArgument(delta != null, "delta is null");
+    int size = delta.size;
+    if (size == 0) {
+      return;
+    }
+    updateLock.lock();
+    try {
+      Resolved resolved = resolve(delta);
+
+      FastIDSet addedUsers = new FastIDSet();
+      FastIDSet removedUsers = new FastIDSet();
+      int[] byUser = resolved.sortedBy(resolved.userIDs, resolved.itemIDs);
+      updateRows(userRows, resolved, byUser, resolved.userIDs, resolved.itemIDs, true, addedUsers, removedUsers);
+
+      FastIDSet addedItems = new FastIDSet();
+      FastIDSet removedItems = new FastIDSet();
+      int[] byItem = resolved.sortedBy(resolved.itemIDs, resolved.userIDs);
+      updateRows(itemRows, resolved, byItem, resolved.itemIDs, resolved.userIDs, false, addedItems, removedItems);
+
+      if (!addedUsers.isEmpty() || !removedUsers.isEmpty()) {
+        userIDs = updateIDs(userIDs, addedUsers, removedUsers);
+      }
+      if (!addedItems.isEmpty() || !removedItems.isEmpty()) {
+        itemIDs = updateIDs(itemIDs, addedItems, removedItems);
+      }
+
+      if (hasPrefValues) {
+        // Removals don't shrink the range; it is only an estimate anyway
+        float min = minPreference;
+        float max = maxPreference;
+        for (int k = 0; k < resolved.size; k++) {
+          if (!resolved.removed[k]) {
+            float value = resolved.values[k];
+            if (!(value >= min)) {
+              min = value;
+            }
+            if (!(value <= max)) {
+              max = value;
+            }
+          }
+        }
+        minPreference = min;
+        maxPreference = max;
+      }
+      log.debug("Applied {} changes to {} users and {} items", new Object[] {size, byUser.length, byItem.length});
+    } finally {
+      updateLock.unlock();
+    }
+  }
+
+  /**
+   * Collapses the changes to each preference into one: the value of the last change, or a removal. A change
+   * without a timestamp keeps the timestamp of an earlier change, or of the existing preference.
+   */
+  private static Resolved resolve(Delta delta) {
+    long[] users = delta.userIDs;
+    long[] items = delta.itemIDs;
+    int[] order = sortedOrder(users, items, delta.size);
+    Resolved resolved = new Resolved(order.length);
+    int start = 0;
+    while (start < order.length) {
+      int end = start + 1;
+      while (end < order.length && users[order[end]] == users[order[start]]
+          && items[order[end]] == items[order[start]]) {
+        end++;
+      }
+      int last = order[end - 1];
+      boolean removed = delta.removals[last];
+      long time = NO_TIME;
+      boolean keepTime = false;
+      if (!removed) {
+        keepTime = true;
+        for (int k = end - 1; k >= start; k--) {
+          int op = order[k];
+          if (delta.removals[op]) {
+            keepTime = false;
+            break;
+          }
+          if (delta.times[op] != NO_TIME) {
+            time = delta.times[op];
+            keepTime = false;
+            break;
+          }
+        }
+      }
+      resolved.add(users[last], items[last], delta.values[last], time, keepTime, removed);
+      start = end;
+    }
+    return resolved;
+  }
+
+  /**
+   * @return 0 until size, ordered by first[i], then by second[i], then by i. This takes two stable counting
+   *  sorts over the ranks of the IDs, so nothing is boxed.
+   */
+  private static int[] sortedOrder(long[] first, long[] second, int size) {
+    int[] order = new int[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    order = countingSort(order, ranks(second, size));
+    return countingSort(order, ranks(first, size));
+  }
+
+  /** @return index of each of the first size IDs among the distinct ones, in ascending order */
+  private static int[] ranks(long[] ids, int size) {
+    long[] distinct = Arrays.copyOf(ids, size);
+    Arrays.sort(distinct);
+    int numDistinct = 0;
+    for (int i = 0; i < size; i++) {
+      if (i == 0 || distinct[i] != distinct[i - 1]) {
+        distinct[numDistinct++] = distinct[i];
+      }
+    }
+    int[] ranks = new int[size];
+    for (int i = 0; i < size; i++) {
+      ranks[i] = Arrays.binarySearch(distinct, 0, numDistinct, ids[i]);
+    }
+    return ranks;
+  }
+
+  /** @return order stably sorted by keys[order[k]], which are in [0, order.length) */
+  private static int[] countingSort(int[] order, int[] keys) {
+    int[] starts = new int[order.length + 1];
+    for (int key : keys) {
+      starts[key + 1]++;
+    }
+    for (int key = 0; key < order.length; key++) {
+      starts[key + 1] += starts[key];
+    }
+    int[] sorted = new int[order.length];
+    for (int i : order) {
+      sorted[starts[keys[i]]++] = i;
+    }
+    return sorted;
+  }
+
+  /**
+   * Builds and swaps in new rows for each owner that the changes touch.
+   *
+   * @param order indices of the changes sorted by owner, then by the other ID
+   */
+  private void updateRows(ConcurrentMap<Long,Row> rows,
+                          Resolved resolved,
+                          int[] order,
+                          long[] ownerIDs,
+                          long[] otherIDs,
+                          boolean withTimes,
+                          FastIDSet added,
+                          FastIDSet removed) {
+    int start = 0;
+    while (start < order.length) {
+      long ownerID = ownerIDs[order[start]];
+      int end = start + 1;
+      while (end < order.length && ownerIDs[order[end]] == ownerID) {
+        end++;
+      }
+      Row old = rows.get(ownerID);
+      Row row = merge(old, resolved, order, start, end, otherIDs, withTimes);
+      if (row == null) {
+        if (old != null) {
+          rows.remove(ownerID);
+          removed.add(ownerID);
+        }
+      } else {
+        rows.put(ownerID, row);
+        if (old == null) {
+          added.add(ownerID);
+        }
+      }
+      start = end;
+    }
+  }
+
+  /** @return the owner's row with the changes order[start..end) applied, or null if it ends up empty */
+  private Row merge(Row old,
+                    Resolved resolved,
+                    int[] order,
+                    int start,
+                    int end,
+                    long[] otherIDs,
+                    boolean withTimes) {
+    int oldLength = old == null ? 0 : old.ids.length;
+    int maxLength = oldLength + end - start;
+    long[] ids = new long[maxLength];
+    float[] values = hasPrefValues ? new float[maxLength] : null;
+    long[] times = withTimes ? new long[maxLength] : null;
+    boolean anyTime = false;
+    int length = 0;
+    int p = 0;
+    int k = start;
+    while (p < oldLength || k < end) {
+      int change = k < end ? order[k] : -1;
+      long oldID = p < oldLength ? old.ids[p] : Long.MAX_VALUE;
+      if (change < 0 || (p < oldLength && oldID < otherIDs[change])) {
+        ids[length] = oldID;
+        if (values != null) {
+          values[length] = old.values[p];
+        }
+        if (times != null) {
+          times[length] = old.time(p);
+          anyTime |= times[length] != NO_TIME;
+        }
+        length++;
+        p++;
+      } else {
+        boolean replacesOld = p < oldLength && oldID == otherIDs[change];
+        if (!resolved.removed[change]) {
+          ids[length] = otherIDs[change];
+          if (values != null) {
+            values[length] = resolved.values[change];
+          }
+          if (times != null) {
+            long time = resolved.times[change];
+            if (resolved.keepTimes[change] && replacesOld) {
+              time = old.time(p);
+            }
+            times[length] = time;
+            anyTime |= time != NO_TIME;
+          }
+          length++;
+        }
+        if (replacesOld) {
+          p++;
+        }
+        k++;
+      }
+    }
+    if (length == 0) {
+      return null;
+    }
+    if (length < maxLength) {
+      ids = Arrays.copyOf(ids, length);
+      if (values != null) {
+        values = Arrays.copyOf(values, length);
+      }
+      if (times != null) {
+        times = Arrays.copyOf(times, length);
+      }
+    }
+    return new Row(ids, values, anyTime ? times : null);
+  }
+
+  private static long[] updateIDs(long[] ids, FastIDSet added, FastIDSet removed) {
+    long[] addedIDs = added.toArray();
+    Arrays.sort(addedIDs);
+    long[] result = new long[ids.length - removed.size() + addedIDs.length];
+    int length = 0;
+    int a = 0;
+    for (long id : ids) {
+      if (removed.contains(id)) {
+        continue;
+      }
+      while (a < addedIDs.length && addedIDs[a] < id) {
+        result[length++] = addedIDs[a++];
+      }
+      result[length++] = id;
+    }
+    while (a < addedIDs.length) {
+      result[length++] = addedIDs[a++];
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() {
+    return new LongPrimitiveArrayIterator(userIDs);
+  }
+
+  /**
+   * @throws NoSuchUserException
+   *           if there is no such user
+   */
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws NoSuchUserException {
+    return new RowPreferenceArray(true, userID, userRow(userID));
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    long[] ids = userRow(userID).ids;
+    FastIDSet result = new FastIDSet(ids.length);
+    for (long itemID : ids) {
+      result.add(itemID);
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() {
+    return new LongPrimitiveArrayIterator(itemIDs);
+  }
+
+  /**
+   * @throws NoSuchItemException
+   *           if there is no such item
+   */
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws NoSuchItemException {
+    Row row = itemRows.get(itemID);
+    if (row == null) {
+      throw new NoSuchItemException(itemID);
+    }
+    return new RowPreferenceArray(false, itemID, row);
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    Row row = userRow(userID);
+    int p = Arrays.binarySearch(row.ids, itemID);
+    if (p < 0) {
+      return null;
+    }
+    return row.values == null ? 1.0f : row.values[p];
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+    Row row = userRow(userID);
+    int p = Arrays.binarySearch(row.ids, itemID);
+    if (p < 0) {
+      return null;
+    }
+    long time = row.time(p);
+    return time == NO_TIME ? null : time;
+  }
+
+  @Override
+  public int getNumItems() {
+    return itemIDs.length;
+  }
+
+  @Override
+  public int getNumUsers() {
+    return userIDs.length;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long... itemIDs) {
+    Preconditions.checkArgument(itemIDs != null, "itemIDs is null");
+    Preconditions.checkArgument(itemIDs.length == 1 || itemIDs.length == 2, "Illegal number of IDs", itemIDs.length);
+    Row row1 = itemRows.get(itemIDs[0]);
+    if (row1 == null) {
+      return 0;
+    }
+    if (itemIDs.length == 1) {
+      return row1.ids.length;
+    }
+    Row row2 = itemRows.get(itemIDs[1]);
+    if (row2 == null) {
+      return 0;
+    }
+    // Both user lists are sorted, so merge them
+    long[] users1 = row1.ids;
+    long[] users2 = row2.ids;
+    int p1 = 0;
+    int p2 = 0;
+    int count = 0;
+    while (p1 < users1.length && p2 < users2.length) {
+      if (users1[p1] == users2[p2]) {
+        count++;
+        p1++;
+        p2++;
+      } else if (users1[p1] < users2[p2]) {
+        p1++;
+      } else {
+        p2++;
+      }
+    }
+    return count;
+  }
+
+  /** Applies the change at once; prefer {@link #apply(Delta)} for many changes. */
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    Delta delta = new Delta();
+    delta.setPreference(userID, itemID, value);
+    apply(delta);
+  }
+
+  /** Applies the change at once; prefer {@link #apply(Delta)} for many changes. */
+  @Override
+  public void removePreference(long userID, long itemID) {
+    Delta delta = new Delta();
+    delta.removePreference(userID, itemID);
+    apply(delta);
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+  // Does nothing
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return hasPrefValues;
+  }
+
+  @Override
+  public float getMaxPreference() {
+    return maxPreference;
+  }
+
+  @Override
+  public float getMinPreference() {
+    return minPreference;
+  }
+
+  private Row userRow(long userID) throws NoSuchUserException {
+    Row row = userRows.get(userID);
+    if (row == null) {
+      throw new NoSuchUserException(userID);
+    }
+    return row;
+  }
+
+  @Override
+  public String toString() {
+    long[] ids = userIDs;
+    StringBuilder result = new StringBuilder(200);
+    result.append("IncrementalDataModel[users:");
+    for (int i = 0; i < Math.min(3, ids.length); i++) {
+      if (i > 0) {
+        result.append(',');
+      }
+      result.append(ids[i]);
+    }
+    if (ids.length > 3) {
+      result.append("...");
+    }
+    result.append(']');
+    return result.toString();
+  }
+
+  /**
+   * <p>
+   * A batch of changes for {@link IncrementalDataModel#apply(Delta)}. Not thread-safe.
+   * </p>
+   */
+  public static final class Delta {
+
+    private long[] userIDs;
+    private long[] itemIDs;
+    private float[] values;
+    private long[] times;
+    private boolean[] removals;
+    private int size;
+
+    public Delta() {
+      userIDs = new long[16];
+      itemIDs = new long[16];
+      values = new float[16];
+      times = new long[16];
+      removals = new boolean[16];
+    }
+
+    /** Sets a preference, keeping the timestamp it had, if any. */
+    public void setPreference(long userID, long itemID, float value) {
+      add(userID, itemID, value, NO_TIME, false);
+    }
+
+    /**
+     * Sets a preference and its timestamp.
+     *
+     * @param time milliseconds since the epoch
+     */
+    public void setPreference(long userID, long itemID, float value, long time) {
+      Preconditions.checkArgument(time != NO_TIME, "Illegal time: %s", time);
+      add(userID, itemID, value, time, false);
+    }
+
+    /** Removes a preference and its timestamp, if present. */
+    public void removePreference(long userID, long itemID) {
+      add(userID, itemID, Float.NaN, NO_TIME, true);
+    }
+
+    /** @return number of changes added so far */
+    public int size() {
+      return size;
+    }
+
+    private void add(long userID, long itemID, float value, long time, boolean removal) {
+      if (size == userIDs.length) {
+        int newCapacity = size << 1;
+        userIDs = Arrays.copyOf(userIDs, newCapacity);
+        itemIDs = Arrays.copyOf(itemIDs, newCapacity);
+        values = Arrays.copyOf(values, newCapacity);
+        times = Arrays.copyOf(times, newCapacity);
+        removals = Arrays.copyOf(removals, newCapacity);
+      }
+      userIDs[size] = userID;
+      itemIDs[size] = itemID;
+      values[size] = value;
+      times[size] = time;
+      removals[size] = removal;
+      size++;
+    }
+  }
+
+  /** The net change to each preference touched by a {@link Delta}. */
+  private static final class Resolved {
+
+    private final long[] userIDs;
+    private final long[] itemIDs;
+    private final float[] values;
+    private final long[] times;
+    private final boolean[] keepTimes;
+    private final boolean[] removed;
+    private int size;
+
+    private Resolved(int capacity) {
+      userIDs = new long[capacity];
+      itemIDs = new long[capacity];
+      values = new float[capacity];
+      times = new long[capacity];
+      keepTimes = new boolean[capacity];
+      removed = new boolean[capacity];
+    }
+
+    private void add(long userID, long itemID, float value, long time, boolean keepTime, boolean removal) {
+      userIDs[size] = userID;
+      itemIDs[size] = itemID;
+      values[size] = value;
+      times[size] = time;
+      keepTimes[size] = keepTime;
+      removed[size] = removal;
+      size++;
+    }
+
+    /** @return indices of the changes sorted by the first IDs, then the second */
+    private int[] sortedBy(long[] first, long[] second) {
+      return sortedOrder(first, second, size);
+    }
+  }
+
+  /** One user's or item's preferences, sorted by the other ID. Never modified once built. */
+  private static final class Row {
+
+    private final long[] ids;
+    private final float[] values;
+    private final long[] times;
+
+    private Row(long[] ids, float[] values, long[] times) {
+      this.ids = ids;
+      this.values = values;
+      this.times = times;
+    }
+
+    private long time(int p) {
+      return times == null ? NO_TIME : times[p];
+    }
+  }
+
+  /** A read-only view of one {@link Row}. */
+  private final class RowPreferenceArray extends AbstractPreferenceArrayView {
+
+    private final boolean byUser;
+    private final long ownerID;
+    private final Row row;
+
+    private RowPreferenceArray(boolean byUser, long ownerID, Row row) {
+      super(row.ids.length);
+      this.byUser = byUser;
+      this.ownerID = ownerID;
+      this.row = row;
+    }
+
+    @Override
+    public long getUserID(int i) {
+      return byUser ? ownerID : row.ids[position(i)];
+    }
+
+    @Override
+    public long getItemID(int i) {
+      return byUser ? row.ids[position(i)] : ownerID;
+    }
+
+    @Override
+    public float getValue(int i) {
+      return row.values == null ? 1.0f : row.values[position(i)];
+    }
+
+    @Override
+    public long[] getIDs() {
+      long[] ids = new long[length()];
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = row.ids[position(i)];
+      }
+      return ids;
+    }
+
+    @Override
+    public void sortByUser() {
+      if (!byUser) {
+        resetOrder();
+      }
+    }
+
+    @Override
+    public void sortByItem() {
+      if (byUser) {
+        resetOrder();
+      }
+    }
+
+    @Override
+    public boolean hasPrefWithUserID(long userID) {
+      return byUser ? ownerID == userID : Arrays.binarySearch(row.ids, userID) >= 0;
+    }
+
+    @Override
+    public boolean hasPrefWithItemID(long itemID) {
+      return byUser ? Arrays.binarySearch(row.ids, itemID) >= 0 : ownerID == itemID;
+    }
+
+    @Override
+    public PreferenceArray clone() {
+      int length = length();
+      PreferenceArray copy;
+      if (hasPrefValues) {
+        copy = byUser ? new GenericUserPreferenceArray(length) : new GenericItemPreferenceArray(length);
+      } else {
+        copy = byUser ? new BooleanUserPreferenceArray(length) : new BooleanItemPreferenceArray(length);
+      }
+      for (int i = 0; i < length; i++) {
+        copy.setUserID(i, getUserID(i));
+        copy.setItemID(i, getItemID(i));
+        if (hasPrefValues) {
+          copy.setValue(i, getValue(i));
+        }
+      }
+      return copy;
+    }
+  }
+
+}
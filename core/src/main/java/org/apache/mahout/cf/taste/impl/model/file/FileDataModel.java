@@ -34,10 +34,10 @@ import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.model.AbstractDataModel;
-import org.apache.mahout.cf.taste.impl.model.GenericBooleanPrefDataModel;
+import org.apache.mahout.cf.taste.impl.model.CompactDataModel;
 import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
 import org.apache.mahout.cf.taste.impl.model.GenericPreference;
-import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.IncrementalDataModel;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.Preference;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
@@ -90,7 +90,11 @@ import com.google.common.base.Preconditions;
  * This class will also look for update "delta" files in the same directory, with file names that start the
  * same way (up to the first period). These files have the same format, and provide updated data that
  * supersedes what is in the main data file. This is a mechanism that allows an application to push updates to
- *  without re-copying the entire data file.
+ *  without re-copying the entire data file. Update files which appear after the data file was loaded are applied
+ * to the live {@link IncrementalDataModel} as a delta, so that the cost of a refresh is proportional to the size
+ * of the updates, and readers are not blocked while they are applied. Subclasses which parse lines themselves
+ * should also override {@link #processUpdateLine(String, IncrementalDataModel.Delta)}; otherwise new update files
+ * cause a full reload.
  * </p>
  *
  * <p>
@@ -106,7 +110,9 @@ import com.google.common.base.Preconditions;
  *
  * <p>
  * This class is not intended for use with very large amounts of data (over, say, tens of millions of rows).
- * For that, a JDBC-backed {@link DataModel} and a database are more appropriate.
+ * For that, a JDBC-backed {@link DataModel} and a database are more appropriate. Alternatively, see
+ * {@link #FileDataModel(File, boolean, long, boolean)}, which loads the data file in parallel into a
+ * {@link CompactDataModel}.
  * </p>
  *
  * <p>
@@ -128,10 +134,14 @@ public class FileDataModel extends AbstractDataModel {
   private final char delimiter;
   private final Pattern delimiterPattern;
   private final boolean hasPrefValues;
-  private DataModel delegate;
+  private volatile DataModel delegate;
   private final ReentrantLock reloadLock;
   private final boolean transpose;
   private final long minReloadIntervalMS;
+  /** whether new update files can be read by processUpdateLine, or need the subclass's line parser */
+  private final boolean applyUpdatesAsDelta;
+  /** loads the data file, or null to read it line by line */
+  private final ParallelFileLoader parallelLoader;
 
   /**
    * @param dataFile
@@ -155,6 +165,20 @@ public class FileDataModel extends AbstractDataModel {
    * @see #FileDataModel(File)
    */
   public FileDataModel(File dataFile, boolean transpose, long minReloadIntervalMS) throws IOException {
+    this(dataFile, transpose, minReloadIntervalMS, false);
+  }
+
+  /**
+   * @param loadInParallel
+   *          if true, the data file is loaded by a {@link ParallelFileLoader} into a {@link CompactDataModel},
+   *          with a binary snapshot kept next to it to speed up later loads. The model is copied into an
+   *          {@link IncrementalDataModel} once update files or calls to {@link #setPreference(long, long, float)}
+   *          change it. Compressed files, and subclasses which parse lines or IDs themselves, are still read
+   *          line by line.
+   * @see #FileDataModel(File, boolean, long)
+   */
+  public FileDataModel(File dataFile, boolean transpose, long minReloadIntervalMS, boolean loadInParallel)
+    throws IOException {
     Preconditions.checkArgument(dataFile != null, "dataFile is null");
     if (!dataFile.exists() || dataFile.isDirectory()) {
       throw new FileNotFoundException(dataFile.toString());
@@ -185,6 +209,11 @@ public class FileDataModel extends AbstractDataModel {
     this.reloadLock = new ReentrantLock();
     this.transpose = transpose;
     this.minReloadIntervalMS = minReloadIntervalMS;
+    this.applyUpdatesAsDelta =
+        overrides("processUpdateLine", String.class, IncrementalDataModel.Delta.class)
+        || !(overrides("processLine", String.class, FastByIDMap.class, FastByIDMap.class, boolean.class)
+             || overrides("processLineWithoutID", String.class, FastByIDMap.class, FastByIDMap.class));
+    this.parallelLoader = loadInParallel ? createParallelLoader(this.dataFile, transpose) : null;
 
     reload();
   }
@@ -214,67 +243,124 @@ public class FileDataModel extends AbstractDataModel {
     long newLastModified = dataFile.lastModified();
     long newLastUpdateFileModified = readLastUpdateFileModified();
 
-    boolean loadFreshData = (delegate == null) || (newLastModified > lastModified + minReloadIntervalMS);
+    boolean loadFreshData = !applyUpdatesAsDelta
+        || !(delegate instanceof IncrementalDataModel || delegate instanceof CompactDataModel)
+        || (newLastModified > lastModified + minReloadIntervalMS);
 
     long oldLastUpdateFileModifieid = lastUpdateFileModified;
     lastModified = newLastModified;
     lastUpdateFileModified = newLastUpdateFileModified;
 
-    FastByIDMap<FastByIDMap<Long>> timestamps = new FastByIDMap<FastByIDMap<Long>>();
-
-    if (hasPrefValues) {
+    if (!loadFreshData) {
+      // Apply just the new update files to the live model
+      return withUpdates(delegate, findUpdateFilesAfter(Math.max(oldLastUpdateFileModifieid, newLastModified)));
+    }
 
-      if (loadFreshData) {
+    if (parallelLoader != null) {
+      DataModel model = parallelLoader.load();
+      return withUpdates(model, findUpdateFilesAfter(newLastModified));
+    }
 
-        FastByIDMap<Collection<Preference>> data = new FastByIDMap<Collection<Preference>>();
-        FileLineIterator iterator = new FileLineIterator(dataFile, false);
-        processFile(iterator, data, timestamps, false);
+    FastByIDMap<FastByIDMap<Long>> timestamps = new FastByIDMap<FastByIDMap<Long>>();
 
-        for (File updateFile : findUpdateFilesAfter(newLastModified)) {
-          processFile(new FileLineIterator(updateFile, false), data, timestamps, false);
-        }
+    if (hasPrefValues) {
 
-        return new GenericDataModel(GenericDataModel.toDataMap(data, true), timestamps);
+      FastByIDMap<Collection<Preference>> data = new FastByIDMap<Collection<Preference>>();
+      FileLineIterator iterator = new FileLineIterator(dataFile, false);
+      processFile(iterator, data, timestamps, false);
 
-      } else {
+      for (File updateFile : findUpdateFilesAfter(newLastModified)) {
+        processFile(new FileLineIterator(updateFile, false), data, timestamps, false);
+      }
 
-        FastByIDMap<PreferenceArray> rawData = ((GenericDataModel) delegate).getRawUserData();
+      return new IncrementalDataModel(GenericDataModel.toDataMap(data, true), timestamps);
 
-        for (File updateFile : findUpdateFilesAfter(Math.max(oldLastUpdateFileModifieid, newLastModified))) {
-          processFile(new FileLineIterator(updateFile, false), rawData, timestamps, true);
-        }
+    } else {
 
-        return new GenericDataModel(rawData, timestamps);
+      FastByIDMap<FastIDSet> data = new FastByIDMap<FastIDSet>();
+      FileLineIterator iterator = new FileLineIterator(dataFile, false);
+      processFileWithoutID(iterator, data, timestamps);
 
+      for (File updateFile : findUpdateFilesAfter(newLastModified)) {
+        processFileWithoutID(new FileLineIterator(updateFile, false), data, timestamps);
       }
 
-    } else {
-
-      if (loadFreshData) {
+      return IncrementalDataModel.withoutPreferenceValues(data, timestamps);
 
-        FastByIDMap<FastIDSet> data = new FastByIDMap<FastIDSet>();
-        FileLineIterator iterator = new FileLineIterator(dataFile, false);
-        processFileWithoutID(iterator, data, timestamps);
+    }
+  }
 
-        for (File updateFile : findUpdateFilesAfter(newLastModified)) {
-          processFileWithoutID(new FileLineIterator(updateFile, false), data, timestamps);
-        }
+  private ParallelFileLoader createParallelLoader(File dataFile, boolean transpose) throws IOException {
+    String name = dataFile.getName();
+    boolean customParsing =
+        overrides("processLine", String.class, FastByIDMap.class, FastByIDMap.class, boolean.class)
+        || overrides("processLineWithoutID", String.class, FastByIDMap.class, FastByIDMap.class)
+        || overrides("readUserIDFromString", String.class)
+        || overrides("readItemIDFromString", String.class)
+        || overrides("readTimestampFromString", String.class);
+    if (customParsing || name.endsWith(".gz") || name.endsWith(".zip")) {
+      log.info("Can't load {} in parallel; reading it line by line", dataFile);
+      return null;
+    }
+    ParallelFileLoader loader = new ParallelFileLoader(dataFile);
+    loader.setTranspose(transpose);
+    loader.setUseSnapshot(true);
+    return loader;
+  }
 
-        return new GenericBooleanPrefDataModel(data, timestamps);
+  /** @return true if a subclass declares the given method, overriding the one here */
+  private boolean overrides(String name, Class<?>... parameterTypes) {
+    for (Class<?> c = getClass(); c != FileDataModel.class; c = c.getSuperclass()) {
+      try {
+        c.getDeclaredMethod(name, parameterTypes);
+        return true;
+      } catch (NoSuchMethodException nsme) {
+        // look further up
+      }
+    }
+    return false;
+  }
 
-      } else {
+  /** Applies the update files to the model, or to a mutable copy of it, as one delta. */
+  private DataModel withUpdates(DataModel model, Iterable<File> updateFiles) throws IOException {
+    IncrementalDataModel.Delta delta = new IncrementalDataModel.Delta();
+    for (File updateFile : updateFiles) {
+      processUpdateFile(new FileLineIterator(updateFile, false), delta);
+    }
+    if (delta.size() == 0) {
+      return model;
+    }
+    IncrementalDataModel incrementalModel = toIncremental(model);
+    incrementalModel.apply(delta);
+    return incrementalModel;
+  }
 
-        FastByIDMap<FastIDSet> rawData = ((GenericBooleanPrefDataModel) delegate).getRawUserData();
+  private static IncrementalDataModel toIncremental(DataModel model) {
+    if (model instanceof IncrementalDataModel) {
+      return (IncrementalDataModel) model;
+    }
+    try {
+      return IncrementalDataModel.copyOf(model);
+    } catch (TasteException te) {
+      throw new IllegalStateException(te);
+    }
+  }
 
-        for (File updateFile : findUpdateFilesAfter(Math.max(oldLastUpdateFileModifieid, newLastModified))) {
-          processFileWithoutID(new FileLineIterator(updateFile, false), rawData, timestamps);
+  /** @return the delegate, first replacing a read-only {@link CompactDataModel} by a mutable copy */
+  private DataModel mutableDelegate() {
+    DataModel model = delegate;
+    if (model instanceof CompactDataModel) {
+      reloadLock.lock();
+      try {
+        if (delegate instanceof CompactDataModel) {
+          delegate = toIncremental(delegate);
         }
-
-        return new GenericBooleanPrefDataModel(rawData, timestamps);
-
+        model = delegate;
+      } finally {
+        reloadLock.unlock();
       }
-
     }
+    return model;
   }
 
   /**
@@ -352,11 +438,10 @@ public class FileDataModel extends AbstractDataModel {
    *          line from input data file
    * @param data
    *          all data read so far, as a mapping from user IDs to preferences
-   * @param fromPriorData an implementation detail -- if true, data will map IDs to
-   *  {@link PreferenceArray} since the framework is attempting to read and update raw
-   *  data that is already in memory. Otherwise it maps to {@link Collection}s of
-   *  {@link Preference}s, since it's reading fresh data. Subclasses must be prepared
-   *  to handle this wrinkle.
+   * @param fromPriorData always false: data maps IDs to {@link Collection}s of {@link Preference}s. Update files
+   *  read after the model was loaded go to {@link #processUpdateLine(String, IncrementalDataModel.Delta)}
+   *  instead, unless a subclass overrides this method but not that one, in which case they trigger a full reload
+   *  through this method.
    */
   protected void processLine(String line,
                              FastByIDMap<?> data, 
@@ -387,123 +472,109 @@ public class FileDataModel extends AbstractDataModel {
       itemID = tmp;
     }
 
-    // This is kind of gross but need to handle two types of storage
-    Object maybePrefs = data.get(userID);
-    if (fromPriorData) {
-      // Data are PreferenceArray
-
-      PreferenceArray prefs = (PreferenceArray) maybePrefs;
-      if (tokens.length == 3 && preferenceValueString.length() == 0) {
-        // Then line is of form "userID,itemID,", meaning remove
-        if (prefs != null) {
-          boolean exists = false;
-          int length = prefs.length();
-          for (int i = 0; i < length; i++) {
-            if (prefs.getItemID(i) == itemID) {
-              exists = true;
-              break;
-            }
-          }
-          if (exists) {
-            if (length == 1) {
-              data.remove(userID);
-            } else {
-              PreferenceArray newPrefs = new GenericUserPreferenceArray(length - 1);
-              for (int i = 0, j = 0; i < length; i++, j++) {
-                if (prefs.getItemID(i) == itemID) {
-                  j--;
-                } else {
-                  newPrefs.set(j, prefs.get(i));
-                }
-              }
-            }
+    Collection<Preference> prefs = (Collection<Preference>) data.get(userID);
+
+    if (tokens.length == 3 && preferenceValueString.length() == 0) {
+      // Then line is of form "userID,itemID,", meaning remove
+      if (prefs != null) {
+        // remove pref
+        Iterator<Preference> prefsIterator = prefs.iterator();
+        while (prefsIterator.hasNext()) {
+          Preference pref = prefsIterator.next();
+          if (pref.getItemID() == itemID) {
+            prefsIterator.remove();
+            break;
           }
         }
+      }
 
-        removeTimestamp(userID, itemID, timestamps);
-
-      } else {
+      removeTimestamp(userID, itemID, timestamps);
+      
+    } else {
 
-        float preferenceValue = Float.parseFloat(preferenceValueString);
+      float preferenceValue = Float.parseFloat(preferenceValueString);
 
-        boolean exists = false;
-        if (prefs != null) {
-          for (int i = 0; i < prefs.length(); i++) {
-            if (prefs.getItemID(i) == itemID) {
-              exists = true;
-              prefs.setValue(i, preferenceValue);
-              break;
-            }
+      boolean exists = false;
+      if (prefs != null) {
+        for (Preference pref : prefs) {
+          if (pref.getItemID() == itemID) {
+            exists = true;
+            pref.setValue(preferenceValue);
+            break;
           }
         }
+      }
 
-        if (!exists) {
-          if (prefs == null) {
-            prefs = new GenericUserPreferenceArray(1);
-          } else {
-            PreferenceArray newPrefs = new GenericUserPreferenceArray(prefs.length() + 1);
-            for (int i = 0, j = 1; i < prefs.length(); i++, j++) {
-              newPrefs.set(j, prefs.get(i));
-            }
-            prefs = newPrefs;
-          }
-          prefs.setUserID(0, userID);
-          prefs.setItemID(0, itemID);
-          prefs.setValue(0, preferenceValue);
-          ((FastByIDMap<PreferenceArray>) data).put(userID, prefs);          
+      if (!exists) {
+        if (prefs == null) {
+          prefs = new ArrayList<Preference>(2);
+          ((FastByIDMap<Collection<Preference>>) data).put(userID, prefs);
         }
+        prefs.add(new GenericPreference(userID, itemID, preferenceValue));
       }
 
       addTimestamp(userID, itemID, timestampString, timestamps);
 
-    } else {
-      // Data are Collection<Preference>
-
-      Collection<Preference> prefs = (Collection<Preference>) maybePrefs;
-
-      if (tokens.length == 3 && preferenceValueString.length() == 0) {
-        // Then line is of form "userID,itemID,", meaning remove
-        if (prefs != null) {
-          // remove pref
-          Iterator<Preference> prefsIterator = prefs.iterator();
-          while (prefsIterator.hasNext()) {
-            Preference pref = prefsIterator.next();
-            if (pref.getItemID() == itemID) {
-              prefsIterator.remove();
-              break;
-            }
-          }
+    }
+  }
+
+  protected void processUpdateFile(FileLineIterator updateFileIterator, IncrementalDataModel.Delta delta) {
+    log.info("Reading update file...");
+    int count = 0;
+    while (updateFileIterator.hasNext()) {
+      String line = updateFileIterator.next();
+      if (line.length() > 0) {
+        processUpdateLine(line, delta);
+        if (++count % 1000000 == 0) {
+          log.info("Processed {} lines", count);
         }
+      }
+    }
+    log.info("Read lines: {}", count);
+  }
 
-        removeTimestamp(userID, itemID, timestamps);
-        
-      } else {
+  /**
+   * Reads one line of an update file, read after the model was loaded, into a {@link IncrementalDataModel.Delta}
+   * of changes to apply to it. Subclasses which override
+   * {@link #processLine(String, FastByIDMap, FastByIDMap, boolean)} or
+   * {@link #processLineWithoutID(String, FastByIDMap, FastByIDMap)} should override this too; as long as they
+   * don't, new update files cause a full reload through their line parser instead of being applied as a delta.
+   *
+   * @param line
+   *          line from an update file
+   * @param delta
+   *          changes read so far
+   */
+  protected void processUpdateLine(String line, IncrementalDataModel.Delta delta) {
 
-        float preferenceValue = Float.parseFloat(preferenceValueString);
+    if (line.length() == 0 || line.charAt(0) == COMMENT_CHAR) {
+      return;
+    }
 
-        boolean exists = false;
-        if (prefs != null) {
-          for (Preference pref : prefs) {
-            if (pref.getItemID() == itemID) {
-              exists = true;
-              pref.setValue(preferenceValue);
-              break;
-            }
-          }
-        }
+    String[] tokens = delimiterPattern.split(line, 5);
+    Preconditions.checkArgument(tokens.length >= (hasPrefValues ? 3 : 2), "Bad line: %s", line);
+    String preferenceValueString = tokens.length >= 3 ? tokens[2] : "";
+    String timestampString = tokens.length >= 4 ? tokens[3] : null;
 
-        if (!exists) {
-          if (prefs == null) {
-            prefs = new ArrayList<Preference>(2);
-            ((FastByIDMap<Collection<Preference>>) data).put(userID, prefs);
-          }
-          prefs.add(new GenericPreference(userID, itemID, preferenceValue));
-        }
+    long userID = readUserIDFromString(tokens[0]);
+    long itemID = readItemIDFromString(tokens[1]);
 
-        addTimestamp(userID, itemID, timestampString, timestamps);
+    if (transpose) {
+      long tmp = userID;
+      userID = itemID;
+      itemID = tmp;
+    }
 
+    if (tokens.length == 3 && preferenceValueString.length() == 0) {
+      // Then line is of form "userID,itemID,", meaning remove
+      delta.removePreference(userID, itemID);
+    } else {
+      float preferenceValue = hasPrefValues ? Float.parseFloat(preferenceValueString) : 1.0f;
+      if (timestampString == null) {
+        delta.setPreference(userID, itemID, preferenceValue);
+      } else {
+        delta.setPreference(userID, itemID, preferenceValue, readTimestampFromString(timestampString));
       }
-
     }
   }
 
@@ -675,18 +746,18 @@ public class FileDataModel extends AbstractDataModel {
   /**
    * Note that this method only updates the in-memory preference data that this
    * maintains; it does not modify any data on disk. Therefore any updates from this method are only
-   * temporary, and lost when data is reloaded from a file. This method should also be considered relatively
-   * slow.
+   * temporary, and lost when data is reloaded from a file. Each call is applied to the live model on its own;
+   * to apply many changes at once, write an update file and call {@link #refresh(Collection)}.
    */
   @Override
   public void setPreference(long userID, long itemID, float value) throws TasteException {
-    delegate.setPreference(userID, itemID, value);
+    mutableDelegate().setPreference(userID, itemID, value);
   }
 
   /** See the warning at {@link #setPreference(long, long, float)}. */
   @Override
   public void removePreference(long userID, long itemID) throws TasteException {
-    delegate.removePreference(userID, itemID);
+    mutableDelegate().removePreference(userID, itemID);
   }
 
   @Override
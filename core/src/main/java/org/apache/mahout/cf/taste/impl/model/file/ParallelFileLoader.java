@@ -0,0 +1,741 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import org.apache.mahout.cf.taste.impl.model.CompactDataModel;
+import org.apache.mahout.common.iterator.FileLineIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Loads a data file in the format read by {@link FileDataModel} into a {@link CompactDataModel}, using several
+ * threads. The file is memory-mapped and split into byte ranges which are parsed in parallel, directly from
+ * the bytes, into primitive arrays; these are then merged. As in {@link FileDataModel}, later lines for the same
+ * user and item replace earlier ones, and a line with an empty preference value, like "123,456,", removes the
+ * preference. As in {@link FileDataModel}, the first line decides whether the file has preference values; if it
+ * does not, the model's preferences have none either.
+ * </p>
+ *
+ * <p>
+ * Optionally the loaded model is saved as a binary snapshot in a hidden file next to the data file. Later loads
+ * read the snapshot instead of parsing, as long as the data file's size and modification time are
+ * unchanged.
+ * </p>
+ *
+ * <p>
+ * Unlike {@link FileDataModel}, this does not support compressed files, update files, or subclasses parsing
+ * custom ID formats.
+ * </p>
+ */
+public final class ParallelFileLoader {
+
+  private static final Logger log = LoggerFactory.getLogger(ParallelFileLoader.class);
+
+  private static final byte COMMENT_CHAR = '#';
+  private static final int MIN_CHUNK = 1 << 20;
+  private static final int MAX_CHUNK = 1 << 26;
+  /** longest line that may start in one chunk and end in the next */
+  private static final int MAX_LINE = 1 << 20;
+  private static final long NO_TIME = Long.MIN_VALUE;
+
+  private final File dataFile;
+  private int numThreads;
+  private boolean transpose;
+  private boolean useSnapshot;
+
+  /**
+   * @throws FileNotFoundException
+   *           if dataFile does not exist
+   */
+  public ParallelFileLoader(File dataFile) throws FileNotFoundException {
+    Preconditions.checkArgument(dataFile != null, "dataFile is null");
+    if (!dataFile.exists() || dataFile.isDirectory()) {
+      throw new FileNotFoundException(dataFile.toString());
+    }
+    String name = dataFile.getName();
+    Preconditions.checkArgument(!name.endsWith(".gz") && !name.endsWith(".zip"),
+        "Compressed files can't be split; use FileDataModel", dataFile);
+    this.dataFile = dataFile.getAbsoluteFile();
+    this.numThreads = Runtime.getRuntime().availableProcessors();
+  }
+
+  public void setNumThreads(int numThreads) {
+    Preconditions.checkArgument(numThreads >= 1, "numThreads must be at least 1");
+    this.numThreads = numThreads;
+  }
+
+  /** @param transpose if true, swaps user IDs and item IDs, like {@link FileDataModel} */
+  public void setTranspose(boolean transpose) {
+    this.transpose = transpose;
+  }
+
+  /** @param useSnapshot if true, reads and writes the snapshot file, see {@link #getSnapshotFile()} */
+  public void setUseSnapshot(boolean useSnapshot) {
+    this.useSnapshot = useSnapshot;
+  }
+
+  /**
+   * @return file the binary snapshot is kept in: the data file's name prefixed with a period and suffixed with
+   *  ".snapshot", so that {@link FileDataModel} does not mistake it for an update file
+   */
+  public File getSnapshotFile() {
+    return new File(dataFile.getParentFile(), '.' + dataFile.getName() + ".snapshot");
+  }
+
+  public CompactDataModel load() throws IOException {
+    long tag = 31L * (31L * dataFile.lastModified() + dataFile.length()) + (transpose ? 1L : 0L);
+    File snapshotFile = getSnapshotFile();
+    if (useSnapshot && snapshotFile.exists()) {
+      CompactDataModel model = CompactDataModel.readSnapshot(snapshotFile, tag);
+      if (model != null) {
+        log.info("Read snapshot {}", snapshotFile);
+        return model;
+      }
+      log.info("Snapshot {} is out of date", snapshotFile);
+    }
+    CompactDataModel model = parse();
+    if (useSnapshot) {
+      File tempFile = new File(snapshotFile.getParentFile(), snapshotFile.getName() + ".tmp");
+      model.writeSnapshot(tempFile, tag);
+      if (!tempFile.renameTo(snapshotFile)) {
+        snapshotFile.delete();
+        if (!tempFile.renameTo(snapshotFile)) {
+          log.warn("Could not write snapshot {}", snapshotFile);
+          tempFile.delete();
+        }
+      }
+    }
+    return model;
+  }
+
+  private CompactDataModel parse() throws IOException {
+    boolean hasPrefValues = hasPreferenceValues();
+    RandomAccessFile file = new RandomAccessFile(dataFile, "r");
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      final FileChannel channel = file.getChannel();
+      final long size = channel.size();
+      Preconditions.checkArgument(size > 0L, "dataFile is empty");
+      long chunkSize = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, size / (4L * numThreads) + 1));
+      List<Callable<Chunk>> parsers = new ArrayList<Callable<Chunk>>();
+      for (long start = 0L; start < size; start += chunkSize) {
+        final long from = start;
+        final long to = Math.min(size, start + chunkSize);
+        parsers.add(new Callable<Chunk>() {
+          @Override
+          public Chunk call() throws IOException {
+            return parseChunk(channel, size, from, to);
+          }
+        });
+      }
+      log.info("Parsing {} in {} chunks", dataFile, parsers.size());
+      List<Chunk> chunks = runAll(executor, parsers);
+      return merge(executor, chunks, hasPrefValues);
+    } finally {
+      executor.shutdownNow();
+      file.close();
+    }
+  }
+
+  /** Like {@link FileDataModel}, decides from the first line whether the file has preference values. */
+  private boolean hasPreferenceValues() throws IOException {
+    FileLineIterator lines = new FileLineIterator(dataFile, false);
+    try {
+      while (lines.hasNext()) {
+        String line = lines.next();
+        if (line.length() > 0 && line.charAt(0) != COMMENT_CHAR) {
+          String delimiter = String.valueOf(FileDataModel.determineDelimiter(line));
+          String[] tokens = Pattern.compile(delimiter, Pattern.LITERAL).split(line);
+          return tokens.length >= 3 && tokens[2].length() > 0;
+        }
+      }
+      return true;
+    } finally {
+      lines.close();
+    }
+  }
+
+  private static <T> List<T> runAll(ExecutorService executor, Collection<? extends Callable<T>> tasks)
+    throws IOException {
+    List<T> results = new ArrayList<T>(tasks.size());
+    try {
+      for (Future<T> future : executor.invokeAll(tasks)) {
+        results.add(future.get());
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IOException(ie.toString());
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+    return results;
+  }
+
+  /** Parses the lines starting within [from, to). */
+  private Chunk parseChunk(FileChannel channel, long size, long from, long to) throws IOException {
+    long mapStart = Math.max(0L, from - 1);
+    long mapEnd = Math.min(size, to + MAX_LINE);
+    ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+    int limit = (int) (mapEnd - mapStart);
+    int end = (int) (to - mapStart);
+    int pos = 0;
+    if (from > 0L) {
+      // The line starting before our range belongs to the previous chunk
+      while (pos < limit && buffer.get(pos) != '\n') {
+        pos++;
+      }
+      pos++;
+    }
+    Chunk chunk = new Chunk();
+    int[] fields = new int[5];
+    while (pos < end) {
+      int lineEnd = pos;
+      while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+        lineEnd++;
+      }
+      if (lineEnd == limit && mapEnd < size) {
+        throw new IllegalArgumentException("Line longer than " + MAX_LINE + " bytes at offset " + (mapStart + pos));
+      }
+      int contentEnd = lineEnd;
+      if (contentEnd > pos && buffer.get(contentEnd - 1) == '\r') {
+        contentEnd--;
+      }
+      if (contentEnd > pos && buffer.get(pos) != COMMENT_CHAR) {
+        parseLine(buffer, pos, contentEnd, chunk, fields);
+      }
+      pos = lineEnd + 1;
+    }
+    return chunk;
+  }
+
+  private void parseLine(ByteBuffer buffer, int start, int end, Chunk chunk, int[] fields) {
+    int numFields = 0;
+    fields[numFields++] = start;
+    for (int i = start; i < end && numFields < 5; i++) {
+      byte b = buffer.get(i);
+      if (b == ',' || b == '\t') {
+        fields[numFields++] = i + 1;
+      }
+    }
+    Preconditions.checkArgument(numFields >= 2, "Bad line: %s", new LineString(buffer, start, end));
+    long userID = parseLong(buffer, fields[0], fieldEnd(fields, numFields, 0, end));
+    long itemID = parseLong(buffer, fields[1], fieldEnd(fields, numFields, 1, end));
+    if (transpose) {
+      long tmp = userID;
+      userID = itemID;
+      itemID = tmp;
+    }
+    float value = 1.0f;
+    boolean remove = false;
+    if (numFields >= 3) {
+      int valueEnd = fieldEnd(fields, numFields, 2, end);
+      if (valueEnd == fields[2]) {
+        // "userID,itemID," removes; a file without values may still have an empty value and a timestamp
+        remove = numFields == 3;
+      } else {
+        value = parseFloat(buffer, fields[2], valueEnd);
+      }
+    }
+    long time = NO_TIME;
+    if (numFields >= 4) {
+      int timeEnd = fieldEnd(fields, numFields, 3, end);
+      if (timeEnd > fields[3]) {
+        time = parseLong(buffer, fields[3], timeEnd);
+      }
+    }
+    chunk.add(userID, itemID, value, time, remove);
+  }
+
+  private static int fieldEnd(int[] fields, int numFields, int field, int lineEnd) {
+    return field + 1 < numFields ? fields[field + 1] - 1 : lineEnd;
+  }
+
+  static long parseLong(ByteBuffer buffer, int start, int end) {
+    int i = start;
+    boolean negative = false;
+    if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+      negative = buffer.get(i) == '-';
+      i++;
+    }
+    // up to 18 digits can't overflow
+    if (i == end || end - i > 18) {
+      return Long.parseLong(new LineString(buffer, start, end).toString());
+    }
+    long result = 0L;
+    for (; i < end; i++) {
+      int digit = buffer.get(i) - '0';
+      if (digit < 0 || digit > 9) {
+        return Long.parseLong(new LineString(buffer, start, end).toString());
+      }
+      result = 10L * result + digit;
+    }
+    return negative ? -result : result;
+  }
+
+  /** 10^k as floats, all exact */
+  private static final float[] POWERS_OF_TEN =
+      {1.0e0f, 1.0e1f, 1.0e2f, 1.0e3f, 1.0e4f, 1.0e5f, 1.0e6f, 1.0e7f, 1.0e8f, 1.0e9f, 1.0e10f};
+  /** integers below this are exact as floats */
+  private static final long MAX_EXACT_MANTISSA = 1L << 24;
+
+  /**
+   * Parses plain decimals whose digits form an integer below 2<sup>24</sup>, with at most 10 of them after the
+   * point. That integer and the power of ten to divide it by are then both exact floats, and a float division
+   * rounds their exact quotient to the nearest float, just as {@link Float#parseFloat(String)} rounds the
+   * decimal. Anything else, such as exponents or more digits, goes to {@link Float#parseFloat(String)}.
+   */
+  static float parseFloat(ByteBuffer buffer, int start, int end) {
+    int i = start;
+    boolean negative = false;
+    if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+      negative = buffer.get(i) == '-';
+      i++;
+    }
+    long mantissa = 0L;
+    int digits = 0;
+    int fractionDigits = -1;
+    for (; i < end; i++) {
+      byte b = buffer.get(i);
+      if (b == '.' && fractionDigits < 0) {
+        fractionDigits = 0;
+      } else if (b >= '0' && b <= '9') {
+        mantissa = 10L * mantissa + (b - '0');
+        digits++;
+        if (fractionDigits >= 0) {
+          fractionDigits++;
+        }
+        if (mantissa >= MAX_EXACT_MANTISSA || fractionDigits >= POWERS_OF_TEN.length) {
+          return Float.parseFloat(new LineString(buffer, start, end).toString());
+        }
+      } else {
+        return Float.parseFloat(new LineString(buffer, start, end).toString());
+      }
+    }
+    if (digits == 0) {
+      return Float.parseFloat(new LineString(buffer, start, end).toString());
+    }
+    float result = fractionDigits > 0 ? (float) mantissa / POWERS_OF_TEN[fractionDigits] : (float) mantissa;
+    return negative ? -result : result;
+  }
+
+  private CompactDataModel merge(ExecutorService executor, final List<Chunk> chunks, boolean hasPrefValues)
+    throws IOException {
+    // Sorted, distinct IDs of each chunk, then of all chunks
+    List<Callable<long[][]>> distinct = new ArrayList<Callable<long[][]>>();
+    for (final Chunk chunk : chunks) {
+      distinct.add(new Callable<long[][]>() {
+        @Override
+        public long[][] call() {
+          return new long[][] {sortedDistinct(chunk.userIDs, chunk.size), sortedDistinct(chunk.itemIDs, chunk.size)};
+        }
+      });
+    }
+    long[] userIDs = new long[0];
+    long[] itemIDs = new long[0];
+    for (long[][] ids : runAll(executor, distinct)) {
+      userIDs = union(userIDs, ids[0]);
+      itemIDs = union(itemIDs, ids[1]);
+    }
+    final long[] allUserIDs = userIDs;
+    final long[] allItemIDs = itemIDs;
+
+    // Replace IDs by their indices
+    List<Callable<Void>> indexers = new ArrayList<Callable<Void>>();
+    for (final Chunk chunk : chunks) {
+      indexers.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          chunk.index(allUserIDs, allItemIDs);
+          return null;
+        }
+      });
+    }
+    runAll(executor, indexers);
+
+    // Group by user, keeping lines in file order
+    int numUsers = userIDs.length;
+    long numLines = 0L;
+    long minTime = Long.MAX_VALUE;
+    boolean anyRemoved = false;
+    final int[] offsets = new int[numUsers + 1];
+    for (Chunk chunk : chunks) {
+      numLines += chunk.size;
+      minTime = Math.min(minTime, chunk.minTime);
+      anyRemoved |= chunk.removed != null;
+      for (int i = 0; i < chunk.size; i++) {
+        offsets[chunk.users[i] + 1]++;
+      }
+    }
+    Preconditions.checkArgument(numLines < Integer.MAX_VALUE, "Too many preferences", numLines);
+    for (int u = 0; u < numUsers; u++) {
+      offsets[u + 1] += offsets[u];
+    }
+    int total = (int) numLines;
+    final int[] items = new int[total];
+    final float[] values = new float[total];
+    final boolean[] removed = anyRemoved ? new boolean[total] : null;
+    final long baseTime = minTime == Long.MAX_VALUE ? 0L : minTime / 1000L;
+    final int[] times = minTime == Long.MAX_VALUE ? null : new int[total];
+    int[] next = Arrays.copyOf(offsets, numUsers);
+    for (int c = 0; c < chunks.size(); c++) {
+      Chunk chunk = chunks.get(c);
+      for (int i = 0; i < chunk.size; i++) {
+        int at = next[chunk.users[i]]++;
+        items[at] = chunk.items[i];
+        values[at] = chunk.values[i];
+        if (removed != null && chunk.removed != null) {
+          removed[at] = chunk.removed[i];
+        }
+        if (times != null) {
+          times[at] = chunk.relativeTime(i, baseTime);
+        }
+      }
+      chunks.set(c, null);
+    }
+
+    // Sort each user's preferences by item, keeping only the last line for each, in parallel by user range
+    final int[] kept = new int[numUsers];
+    List<Callable<Void>> sorters = new ArrayList<Callable<Void>>();
+    int rangeSize = Math.max(1, numUsers / (4 * numThreads));
+    for (int from = 0; from < numUsers; from += rangeSize) {
+      final int rangeFrom = from;
+      final int rangeTo = Math.min(numUsers, from + rangeSize);
+      sorters.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          long[] scratch = new long[16];
+          for (int u = rangeFrom; u < rangeTo; u++) {
+            int length = offsets[u + 1] - offsets[u];
+            if (scratch.length < length) {
+              scratch = new long[length];
+            }
+            kept[u] = sortUser(offsets[u], length, items, values, removed, times, scratch);
+          }
+          return null;
+        }
+      });
+    }
+    runAll(executor, sorters);
+
+    // Close the gaps left by duplicates and removals
+    int[] userOffsets = new int[numUsers + 1];
+    int numPrefs = 0;
+    for (int u = 0; u < numUsers; u++) {
+      userOffsets[u] = numPrefs;
+      numPrefs += kept[u];
+    }
+    userOffsets[numUsers] = numPrefs;
+    int[] prefItems = numPrefs == total ? items : new int[numPrefs];
+    float[] prefValues = null;
+    if (hasPrefValues) {
+      prefValues = numPrefs == total ? values : new float[numPrefs];
+    }
+    int[] prefTimes = times == null || numPrefs == total ? times : new int[numPrefs];
+    if (numPrefs < total) {
+      for (int u = 0; u < numUsers; u++) {
+        System.arraycopy(items, offsets[u], prefItems, userOffsets[u], kept[u]);
+        if (prefValues != null) {
+          System.arraycopy(values, offsets[u], prefValues, userOffsets[u], kept[u]);
+        }
+        if (times != null) {
+          System.arraycopy(times, offsets[u], prefTimes, userOffsets[u], kept[u]);
+        }
+      }
+    }
+    // Users and items whose every line was removed are dropped
+    if (numPrefs < total) {
+      return withoutEmptyIDs(userIDs, itemIDs, userOffsets, prefItems, prefValues, prefTimes, baseTime);
+    }
+    log.info("Loaded {} preferences of {} users", numPrefs, numUsers);
+    return CompactDataModel.fromUserRows(userIDs, itemIDs, userOffsets, prefItems, prefValues, prefTimes, baseTime);
+  }
+
+  /**
+   * Sorts the preferences at [start, start + length) by item, keeping for each item only the one from the last
+   * line, and dropping it if that line was a removal. The result is compacted at the start of the range.
+   *
+   * @return number of preferences kept
+   */
+  private static int sortUser(int start,
+                              int length,
+                              int[] items,
+                              float[] values,
+                              boolean[] removed,
+                              int[] times,
+                              long[] scratch) {
+    boolean sorted = true;
+    for (int i = start + 1; i < start + length && sorted; i++) {
+      sorted = items[i - 1] < items[i];
+    }
+    if (sorted && removed == null) {
+      return length;
+    }
+    // Sort (item, line) pairs; the line order breaks ties so the last line of an item comes last
+    for (int i = 0; i < length; i++) {
+      scratch[i] = ((long) items[start + i] << 32) | i;
+    }
+    Arrays.sort(scratch, 0, length);
+    int[] keptItems = new int[length];
+    int[] keptLines = new int[length];
+    int numKept = 0;
+    for (int k = 0; k < length; k++) {
+      int item = (int) (scratch[k] >>> 32);
+      if (k + 1 < length && (int) (scratch[k + 1] >>> 32) == item) {
+        continue;
+      }
+      int line = (int) scratch[k];
+      if (removed == null || !removed[start + line]) {
+        keptItems[numKept] = item;
+        keptLines[numKept] = line;
+        numKept++;
+      }
+    }
+    float[] keptValues = new float[numKept];
+    for (int k = 0; k < numKept; k++) {
+      keptValues[k] = values[start + keptLines[k]];
+    }
+    int[] keptTimes = null;
+    if (times != null) {
+      // Like FileDataModel, a line without a timestamp keeps the one of an earlier line, unless it was removed
+      keptTimes = new int[numKept];
+      int k = 0;
+      for (int j = 0; j < length && k < numKept; j++) {
+        int item = (int) (scratch[j] >>> 32);
+        if (item != keptItems[k]) {
+          continue;
+        }
+        int line = (int) scratch[j];
+        if (line == keptLines[k]) {
+          int time = times[start + line];
+          for (int back = j - 1;
+               time == Integer.MIN_VALUE && back >= 0 && (int) (scratch[back] >>> 32) == item; back--) {
+            int earlier = (int) scratch[back];
+            if (removed != null && removed[start + earlier]) {
+              break;
+            }
+            time = times[start + earlier];
+          }
+          keptTimes[k++] = time;
+        }
+      }
+    }
+    System.arraycopy(keptItems, 0, items, start, numKept);
+    System.arraycopy(keptValues, 0, values, start, numKept);
+    if (times != null) {
+      System.arraycopy(keptTimes, 0, times, start, numKept);
+    }
+    return numKept;
+  }
+
+  private static CompactDataModel withoutEmptyIDs(long[] userIDs,
+                                                  long[] itemIDs,
+                                                  int[] userOffsets,
+                                                  int[] prefItems,
+                                                  float[] prefValues,
+                                                  int[] prefTimes,
+                                                  long baseTime) {
+    int numUsers = userIDs.length;
+    int keptUsers = 0;
+    for (int u = 0; u < numUsers; u++) {
+      if (userOffsets[u + 1] > userOffsets[u]) {
+        userIDs[keptUsers] = userIDs[u];
+        userOffsets[keptUsers] = userOffsets[u];
+        keptUsers++;
+      }
+    }
+    userOffsets[keptUsers] = userOffsets[numUsers];
+    boolean[] used = new boolean[itemIDs.length];
+    for (int item : prefItems) {
+      used[item] = true;
+    }
+    int[] newIndex = new int[itemIDs.length];
+    int keptItems = 0;
+    for (int item = 0; item < itemIDs.length; item++) {
+      if (used[item]) {
+        newIndex[item] = keptItems;
+        itemIDs[keptItems++] = itemIDs[item];
+      }
+    }
+    for (int p = 0; p < prefItems.length; p++) {
+      prefItems[p] = newIndex[prefItems[p]];
+    }
+    return CompactDataModel.fromUserRows(Arrays.copyOf(userIDs, keptUsers),
+                                         Arrays.copyOf(itemIDs, keptItems),
+                                         Arrays.copyOf(userOffsets, keptUsers + 1),
+                                         prefItems,
+                                         prefValues,
+                                         prefTimes,
+                                         baseTime);
+  }
+
+  private static long[] sortedDistinct(long[] ids, int size) {
+    long[] sorted = Arrays.copyOf(ids, size);
+    Arrays.sort(sorted);
+    int distinct = 0;
+    for (int i = 0; i < size; i++) {
+      if (i == 0 || sorted[i] != sorted[i - 1]) {
+        sorted[distinct++] = sorted[i];
+      }
+    }
+    return Arrays.copyOf(sorted, distinct);
+  }
+
+  private static long[] union(long[] a, long[] b) {
+    long[] result = new long[a.length + b.length];
+    int i = 0;
+    int j = 0;
+    int n = 0;
+    while (i < a.length || j < b.length) {
+      long next;
+      if (j == b.length || (i < a.length && a[i] < b[j])) {
+        next = a[i++];
+      } else if (i == a.length || b[j] < a[i]) {
+        next = b[j++];
+      } else {
+        next = a[i++];
+        j++;
+      }
+      result[n++] = next;
+    }
+    return Arrays.copyOf(result, n);
+  }
+
+  /** Growable columns of the lines parsed from one chunk. */
+  private static final class Chunk {
+
+    private long[] userIDs = new long[1024];
+    private long[] itemIDs = new long[1024];
+    private float[] values = new float[1024];
+    private long[] times;
+    private boolean[] removed;
+    private int size;
+    private long minTime = Long.MAX_VALUE;
+    /** indices of userIDs and itemIDs, once {@link #index(long[], long[])} has run */
+    private int[] users;
+    private int[] items;
+
+    void add(long userID, long itemID, float value, long time, boolean remove) {
+      if (size == userIDs.length) {
+        int capacity = size + (size >> 1);
+        userIDs = Arrays.copyOf(userIDs, capacity);
+        itemIDs = Arrays.copyOf(itemIDs, capacity);
+        values = Arrays.copyOf(values, capacity);
+        if (times != null) {
+          times = Arrays.copyOf(times, capacity);
+        }
+        if (removed != null) {
+          removed = Arrays.copyOf(removed, capacity);
+        }
+      }
+      userIDs[size] = userID;
+      itemIDs[size] = itemID;
+      values[size] = value;
+      if (time != NO_TIME) {
+        if (times == null) {
+          times = new long[userIDs.length];
+          Arrays.fill(times, 0, size, NO_TIME);
+        }
+        minTime = Math.min(minTime, time);
+      }
+      if (times != null) {
+        times[size] = time;
+      }
+      if (remove) {
+        if (removed == null) {
+          removed = new boolean[userIDs.length];
+        }
+        removed[size] = true;
+      }
+      size++;
+    }
+
+    void index(long[] allUserIDs, long[] allItemIDs) {
+      users = new int[size];
+      items = new int[size];
+      for (int i = 0; i < size; i++) {
+        users[i] = Arrays.binarySearch(allUserIDs, userIDs[i]);
+        items[i] = Arrays.binarySearch(allItemIDs, itemIDs[i]);
+      }
+      userIDs = null;
+      itemIDs = null;
+    }
+
+    int relativeTime(int i, long baseTime) {
+      if (times == null || times[i] == NO_TIME) {
+        return Integer.MIN_VALUE;
+      }
+      long relative = times[i] / 1000L - baseTime;
+      Preconditions.checkArgument(relative < Integer.MAX_VALUE, "Timestamps span too long", times[i]);
+      return (int) relative;
+    }
+  }
+
+  /** Lazily decodes a line for error messages. */
+  private static final class LineString {
+
+    private final ByteBuffer buffer;
+    private final int start;
+    private final int end;
+
+    private LineString(ByteBuffer buffer, int start, int end) {
+      this.buffer = buffer;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public String toString() {
+      char[] chars = new char[end - start];
+      for (int i = start; i < end; i++) {
+        chars[i - start] = (char) (buffer.get(i) & 0xFF);
+      }
+      return new String(chars);
+    }
+  }
+
+}
@@ -251,6 +251,10 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
     return setPreferenceSQL;
   }
 
+  int getQueryFetchSize() {
+    return getFetchSize();
+  }
+
   @Override
   public LongPrimitiveIterator getUserIDs() throws TasteException {
     log.debug("Retrieving all users...");
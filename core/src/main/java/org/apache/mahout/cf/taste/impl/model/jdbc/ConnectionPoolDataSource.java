@@ -112,4 +112,5 @@ public final class ConnectionPoolDataSource implements DataSource {
     }
   }
   
+  public java.util.logging.Logger getParentLogger() { throw new UnsupportedOperationException(); }
 }
@@ -0,0 +1,492 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.model.CompactDataModel;
+import org.apache.mahout.cf.taste.impl.model.IncrementalDataModel;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A {@link DataModel} which mirrors the preference table of an {@link AbstractJDBCDataModel} in memory, so that
+ * reads never go to the database. The table is streamed with a single query straight into the arrays of a
+ * {@link CompactDataModel} when this is created.
+ * </p>
+ *
+ * <p>
+ * Given a timestamp column, {@link #refresh(Collection)} then only fetches the rows whose timestamp is at or after
+ * the latest one seen so far, and applies them to the mirror as one {@link IncrementalDataModel.Delta}, so the cost
+ * of a refresh is proportional to the size of the change. The first refresh with changes copies the mirror into
+ * an {@link IncrementalDataModel} once. The timestamp must be set, as milliseconds since the epoch in a value
+ * compatible with Java <code>long</code>, whenever a row is inserted or updated; times loaded by
+ * {@link #reload()} are kept to the second.
+ * </p>
+ *
+ * <p>
+ * Tailing by timestamp can miss rows. Rows deleted from the table by other writers can't be seen this way. A
+ * transaction which stamps its rows and commits only after a later-stamped row has been read is not seen either,
+ * since later queries only ask for rows at or after that later stamp. Both stay out of the mirror until
+ * {@link #reload()}, which should be called now and then if there are such writers. Without a timestamp column
+ * every refresh reloads the whole table, as {@link ReloadFromJDBCDataModel} does.
+ * </p>
+ *
+ * <p>
+ * {@link #setPreference(long, long, float)} and {@link #removePreference(long, long)} write to the database
+ * through the delegate, and show in the mirror from the next refresh. A preference set this way keeps the
+ * timestamp it had in the mirror, if any, until its row is read back from the table.
+ * </p>
+ */
+public final class MirroredJDBCDataModel implements DataModel {
+
+  private static final Logger log = LoggerFactory.getLogger(MirroredJDBCDataModel.class);
+
+  private static final long NO_TIME = Long.MIN_VALUE;
+
+  private final AbstractJDBCDataModel delegate;
+  private final boolean hasPreferenceValues;
+  private final String getAllPreferencesSQL;
+  private final String getChangedPreferencesSQL;
+  private final RefreshHelper refreshHelper;
+  private final FastByIDMap<FastByIDMap<Float>> pendingChanges;
+  private volatile DataModel mirror;
+  private long latestTimestamp;
+
+  public MirroredJDBCDataModel(AbstractJDBCDataModel delegate) throws TasteException {
+    this(delegate, null);
+  }
+
+  /**
+   * @param delegate model whose table to mirror, and which writes are sent to
+   * @param timestampColumn name of the column holding the time each row was last written, or null to reload the
+   *  whole table on each refresh
+   */
+  public MirroredJDBCDataModel(AbstractJDBCDataModel delegate, String timestampColumn) throws TasteException {
+    Preconditions.checkArgument(delegate != null, "delegate is null");
+    this.delegate = delegate;
+    hasPreferenceValues = delegate.hasPreferenceValues();
+
+    StringBuilder columns = new StringBuilder();
+    columns.append(delegate.getUserIDColumn()).append(", ").append(delegate.getItemIDColumn());
+    if (hasPreferenceValues) {
+      columns.append(", ").append(delegate.getPreferenceColumn());
+    }
+    if (timestampColumn != null) {
+      columns.append(", ").append(timestampColumn);
+    }
+    // Rows are grouped in memory, so the database needn't sort them
+    getAllPreferencesSQL = "SELECT " + columns + " FROM " + delegate.getPreferenceTable();
+    getChangedPreferencesSQL =
+        timestampColumn == null ? null : getAllPreferencesSQL + " WHERE " + timestampColumn + " >= ?";
+
+    pendingChanges = new FastByIDMap<FastByIDMap<Float>>();
+    refreshHelper = new RefreshHelper(new Callable<Void>() {
+      @Override
+      public Void call() throws TasteException {
+        if (getChangedPreferencesSQL == null) {
+          reload();
+        } else {
+          update();
+        }
+        return null;
+      }
+    });
+    refreshHelper.addDependency(delegate);
+    reload();
+  }
+
+  public AbstractJDBCDataModel getDelegate() {
+    return delegate;
+  }
+
+  public DataModel getDelegateInMemory() {
+    return mirror;
+  }
+
+  /**
+   * Replaces the mirror with a new copy of the whole table.
+   */
+  public synchronized void reload() throws TasteException {
+    log.info("Loading {} into memory...", delegate.getPreferenceTable());
+    synchronized (pendingChanges) {
+      pendingChanges.clear();
+    }
+    Rows rows = new Rows();
+    long latest = query(getAllPreferencesSQL, null, rows);
+    latestTimestamp = latest;
+    mirror = rows.toDataModel();
+    log.info("Loaded {} preferences", rows.size);
+  }
+
+  /**
+   * Applies the changes written through this model since the last refresh, and then the rows stamped at or after
+   * the latest timestamp seen, so that rows read now override earlier writes through this model.
+   */
+  private synchronized void update() throws TasteException {
+    FastByIDMap<FastByIDMap<Float>> changes;
+    synchronized (pendingChanges) {
+      changes = pendingChanges.clone();
+      pendingChanges.clear();
+    }
+    Rows rows = new Rows();
+    long latest;
+    try {
+      latest = query(getChangedPreferencesSQL, latestTimestamp, rows);
+    } catch (TasteException te) {
+      synchronized (pendingChanges) {
+        for (Map.Entry<Long,FastByIDMap<Float>> entry : changes.entrySet()) {
+          if (pendingChanges.get(entry.getKey()) == null) {
+            pendingChanges.put(entry.getKey(), entry.getValue());
+          }
+        }
+      }
+      throw te;
+    }
+    latestTimestamp = Math.max(latestTimestamp, latest);
+
+    IncrementalDataModel.Delta delta = new IncrementalDataModel.Delta();
+    for (Map.Entry<Long,FastByIDMap<Float>> entry : changes.entrySet()) {
+      long userID = entry.getKey();
+      for (Map.Entry<Long,Float> change : entry.getValue().entrySet()) {
+        float value = change.getValue();
+        if (Float.isNaN(value)) {
+          delta.removePreference(userID, change.getKey());
+        } else {
+          // Not stamped until the row is read back
+          delta.setPreference(userID, change.getKey(), value);
+        }
+      }
+    }
+    for (int r = 0; r < rows.size; r++) {
+      long time = rows.times[r];
+      if (time == NO_TIME) {
+        delta.setPreference(rows.userIDs[r], rows.itemIDs[r], rows.values[r]);
+      } else {
+        delta.setPreference(rows.userIDs[r], rows.itemIDs[r], rows.values[r], time);
+      }
+    }
+    if (delta.size() == 0) {
+      return;
+    }
+    log.info("Applying {} changes", delta.size());
+
+    DataModel current = mirror;
+    IncrementalDataModel incremental;
+    if (current instanceof IncrementalDataModel) {
+      incremental = (IncrementalDataModel) current;
+    } else {
+      incremental = IncrementalDataModel.copyOf(current);
+    }
+    incremental.apply(delta);
+    mirror = incremental;
+  }
+
+  /**
+   * Streams rows into <code>rows</code>.
+   *
+   * @return latest timestamp seen, or {@link Long#MIN_VALUE} if none
+   */
+  private long query(String sql, Long since, Rows rows) throws TasteException {
+    Connection conn = null;
+    PreparedStatement stmt = null;
+    ResultSet rs = null;
+    long latest = Long.MIN_VALUE;
+    boolean hasTimestamps = getChangedPreferencesSQL != null;
+    int timestampPosition = hasPreferenceValues ? 4 : 3;
+    try {
+      conn = delegate.getDataSource().getConnection();
+      stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+      stmt.setFetchDirection(ResultSet.FETCH_FORWARD);
+      stmt.setFetchSize(delegate.getQueryFetchSize());
+      if (since != null) {
+        stmt.setLong(1, since);
+      }
+
+      log.debug("Executing SQL query: {}", sql);
+      rs = stmt.executeQuery();
+
+      while (rs.next()) {
+        long userID = delegate.getLongColumn(rs, 1);
+        long itemID = delegate.getLongColumn(rs, 2);
+        float value = hasPreferenceValues ? rs.getFloat(3) : 1.0f;
+        long time = NO_TIME;
+        if (hasTimestamps) {
+          time = rs.getLong(timestampPosition);
+          if (rs.wasNull()) {
+            time = NO_TIME;
+          } else {
+            latest = Math.max(latest, time);
+          }
+        }
+        rows.add(userID, itemID, value, time);
+      }
+      return latest;
+
+    } catch (SQLException sqle) {
+      log.warn("Exception while mirroring preferences", sqle);
+      throw new TasteException(sqle);
+    } finally {
+      IOUtils.quietClose(rs, stmt, conn);
+    }
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshHelper.refresh(alreadyRefreshed);
+  }
+
+  // Delegated methods:
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() throws TasteException {
+    return mirror.getUserIDs();
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long id) throws TasteException {
+    return mirror.getPreferencesFromUser(id);
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long id) throws TasteException {
+    return mirror.getItemIDsFromUser(id);
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    return mirror.getPreferenceValue(userID, itemID);
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+    return mirror.getPreferenceTime(userID, itemID);
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() throws TasteException {
+    return mirror.getItemIDs();
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+    return mirror.getPreferencesForItem(itemID);
+  }
+
+  @Override
+  public int getNumItems() throws TasteException {
+    return mirror.getNumItems();
+  }
+
+  @Override
+  public int getNumUsers() throws TasteException {
+    return mirror.getNumUsers();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long... itemIDs) throws TasteException {
+    return mirror.getNumUsersWithPreferenceFor(itemIDs);
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) throws TasteException {
+    delegate.setPreference(userID, itemID, value);
+    addPendingChange(userID, itemID, value);
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) throws TasteException {
+    delegate.removePreference(userID, itemID);
+    addPendingChange(userID, itemID, Float.NaN);
+  }
+
+  private void addPendingChange(long userID, long itemID, float value) {
+    synchronized (pendingChanges) {
+      FastByIDMap<Float> items = pendingChanges.get(userID);
+      if (items == null) {
+        items = new FastByIDMap<Float>();
+        pendingChanges.put(userID, items);
+      }
+      items.put(itemID, value);
+    }
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return hasPreferenceValues;
+  }
+
+  @Override
+  public float getMaxPreference() {
+    return mirror.getMaxPreference();
+  }
+
+  @Override
+  public float getMinPreference() {
+    return mirror.getMinPreference();
+  }
+
+  /**
+   * Rows as read from the table, in parallel arrays. Times are {@link #NO_TIME} where there is none.
+   */
+  private final class Rows {
+
+    private long[] userIDs = new long[16];
+    private long[] itemIDs = new long[16];
+    private float[] values = new float[16];
+    private long[] times = new long[16];
+    private int size;
+
+    void add(long userID, long itemID, float value, long time) {
+      if (size == userIDs.length) {
+        int newCapacity = size << 1;
+        userIDs = Arrays.copyOf(userIDs, newCapacity);
+        itemIDs = Arrays.copyOf(itemIDs, newCapacity);
+        values = Arrays.copyOf(values, newCapacity);
+        times = Arrays.copyOf(times, newCapacity);
+      }
+      userIDs[size] = userID;
+      itemIDs[size] = itemID;
+      values[size] = value;
+      times[size] = time;
+      size++;
+    }
+
+    /**
+     * Groups the rows by user and sorts each user's by item, in the arrays of a {@link CompactDataModel}. The
+     * order rows arrived in doesn't matter.
+     */
+    DataModel toDataModel() {
+      long[] sortedUserIDs = distinctSorted(userIDs);
+      long[] sortedItemIDs = distinctSorted(itemIDs);
+      int numUsers = sortedUserIDs.length;
+
+      int[] rowUsers = new int[size];
+      int[] userOffsets = new int[numUsers + 1];
+      for (int r = 0; r < size; r++) {
+        int u = Arrays.binarySearch(sortedUserIDs, userIDs[r]);
+        rowUsers[r] = u;
+        userOffsets[u + 1]++;
+      }
+      for (int u = 0; u < numUsers; u++) {
+        userOffsets[u + 1] += userOffsets[u];
+      }
+
+      boolean hasTimes = getChangedPreferencesSQL != null;
+      long minTime = Long.MAX_VALUE;
+      if (hasTimes) {
+        for (int r = 0; r < size; r++) {
+          if (times[r] != NO_TIME) {
+            minTime = Math.min(minTime, times[r]);
+          }
+        }
+      }
+      long baseTime = minTime == Long.MAX_VALUE ? 0L : minTime / 1000L;
+
+      int[] userPrefItems = new int[size];
+      float[] userPrefValues = hasPreferenceValues ? new float[size] : null;
+      int[] userPrefTimes = hasTimes ? new int[size] : null;
+      int[] next = Arrays.copyOf(userOffsets, numUsers);
+      for (int r = 0; r < size; r++) {
+        int p = next[rowUsers[r]]++;
+        userPrefItems[p] = Arrays.binarySearch(sortedItemIDs, itemIDs[r]);
+        if (userPrefValues != null) {
+          userPrefValues[p] = values[r];
+        }
+        if (userPrefTimes != null) {
+          userPrefTimes[p] = times[r] == NO_TIME ? Integer.MIN_VALUE : relativeSeconds(times[r], baseTime);
+        }
+      }
+      for (int u = 0; u < numUsers; u++) {
+        sortByItem(userOffsets[u], userOffsets[u + 1], userPrefItems, userPrefValues, userPrefTimes);
+      }
+      return CompactDataModel.fromUserRows(sortedUserIDs, sortedItemIDs, userOffsets, userPrefItems,
+          userPrefValues, userPrefTimes, baseTime);
+    }
+
+    private long[] distinctSorted(long[] ids) {
+      long[] sorted = Arrays.copyOf(ids, size);
+      Arrays.sort(sorted);
+      int distinct = 0;
+      for (int i = 0; i < sorted.length; i++) {
+        if (i == 0 || sorted[i] != sorted[distinct - 1]) {
+          sorted[distinct++] = sorted[i];
+        }
+      }
+      return distinct == sorted.length ? sorted : Arrays.copyOf(sorted, distinct);
+    }
+  }
+
+  private static int relativeSeconds(long time, long baseTime) {
+    long relative = time / 1000L - baseTime;
+    Preconditions.checkArgument(relative < Integer.MAX_VALUE, "Timestamps span too long: %s", time);
+    return (int) relative;
+  }
+
+  /**
+   * Sorts one user's preferences, from <code>from</code> until <code>to</code>, by item index. Each item index is
+   * packed with the preference's position into a <code>long</code> so that a primitive sort can do the work.
+   */
+  private static void sortByItem(int from, int to, int[] items, float[] values, int[] times) {
+    boolean sorted = true;
+    for (int p = from + 1; p < to && sorted; p++) {
+      sorted = items[p - 1] < items[p];
+    }
+    if (sorted) {
+      return;
+    }
+    int length = to - from;
+    long[] keys = new long[length];
+    for (int i = 0; i < length; i++) {
+      keys[i] = ((long) items[from + i] << 32) | i;
+    }
+    Arrays.sort(keys);
+    int[] oldItems = Arrays.copyOfRange(items, from, to);
+    float[] oldValues = values == null ? null : Arrays.copyOfRange(values, from, to);
+    int[] oldTimes = times == null ? null : Arrays.copyOfRange(times, from, to);
+    for (int i = 0; i < length; i++) {
+      int old = (int) keys[i];
+      items[from + i] = oldItems[old];
+      if (values != null) {
+        values[from + i] = oldValues[old];
+      }
+      if (times != null) {
+        times[from + i] = oldTimes[old];
+      }
+    }
+  }
+
+}
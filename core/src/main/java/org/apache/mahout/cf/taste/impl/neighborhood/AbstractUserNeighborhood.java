@@ -18,11 +18,18 @@
 package org.apache.mahout.cf.taste.impl.neighborhood;
 
 import java.util.Collection;
+import java.util.concurrent.Callable;
 
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.common.TopNHeap;
+import org.apache.mahout.cf.taste.impl.recommender.TopItems;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.apache.mahout.cf.taste.similarity.BulkUserSimilarity;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 
 import com.google.common.base.Preconditions;
@@ -46,7 +53,13 @@ abstract class AbstractUserNeighborhood implements UserNeighborhood {
     this.userSimilarity = userSimilarity;
     this.dataModel = dataModel;
     this.samplingRate = samplingRate;
-    this.refreshHelper = new RefreshHelper(null);
+    this.refreshHelper = new RefreshHelper(new Callable<Object>() {
+      @Override
+      public Object call() throws TasteException {
+        refreshNeighborhood();
+        return null;
+      }
+    });
     this.refreshHelper.addDependency(this.dataModel);
     this.refreshHelper.addDependency(this.userSimilarity);
   }
@@ -63,9 +76,67 @@ abstract class AbstractUserNeighborhood implements UserNeighborhood {
     return samplingRate;
   }
   
+  /**
+   * Called on refresh, after the {@link DataModel} and {@link UserSimilarity} are refreshed. Does nothing by
+   * default.
+   */
+  void refreshNeighborhood() throws TasteException {
+  }
+
+  /**
+   * @return the n users most similar to the given user among the candidates, with at least the given similarity
+   */
+  final long[] getTopUsers(long userID, long[] candidateIDs, int n, double minSimilarity) throws TasteException {
+    if (!(userSimilarity instanceof BulkUserSimilarity)) {
+      return getTopUsersOneByOne(userID, candidateIDs, n, minSimilarity);
+    }
+    double[] similarities;
+    try {
+      similarities = ((BulkUserSimilarity) userSimilarity).userSimilarities(userID, candidateIDs);
+    } catch (NoSuchUserException nsue) {
+      // Score users one at a time instead, skipping those that don't exist
+      return getTopUsersOneByOne(userID, candidateIDs, n, minSimilarity);
+    }
+    TopNHeap topUsers = new TopNHeap(n);
+    for (int i = 0; i < candidateIDs.length; i++) {
+      // NaN is never at least minSimilarity
+      if (candidateIDs[i] != userID && similarities[i] >= minSimilarity) {
+        topUsers.offer(candidateIDs[i], similarities[i]);
+      }
+    }
+    return topUsers.toIDArray();
+  }
+
+  private long[] getTopUsersOneByOne(long userID, long[] candidateIDs, int n, double minSimilarity)
+    throws TasteException {
+    TopItems.IDEstimator estimator = new Estimator(userSimilarity, userID, minSimilarity);
+    return TopItems.getTopUsers(n, new LongPrimitiveArrayIterator(candidateIDs), null, estimator);
+  }
+
   @Override
   public final void refresh(Collection<Refreshable> alreadyRefreshed) {
     refreshHelper.refresh(alreadyRefreshed);
   }
   
+  private static final class Estimator implements TopItems.IDEstimator {
+    private final UserSimilarity userSimilarityImpl;
+    private final long theUserID;
+    private final double minSim;
+    
+    private Estimator(UserSimilarity userSimilarityImpl, long theUserID, double minSim) {
+      this.userSimilarityImpl = userSimilarityImpl;
+      this.theUserID = theUserID;
+      this.minSim = minSim;
+    }
+    
+    @Override
+    public double estimate(long userID) throws TasteException {
+      if (userID == theUserID) {
+        return Double.NaN;
+      }
+      double sim = userSimilarityImpl.userSimilarity(theUserID, userID);
+      return sim >= minSim ? sim : Double.NaN;
+    }
+  }
+
 }
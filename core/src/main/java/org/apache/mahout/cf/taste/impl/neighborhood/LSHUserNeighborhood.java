@@ -0,0 +1,372 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.clustering.minhash.HashFactory;
+import org.apache.mahout.clustering.minhash.HashFunction;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.vectorizer.encoders.MurmurHash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Computes an approximate neighborhood of the nearest n users to a given user, using locality-sensitive hashing
+ * to avoid comparing the user with every other user. Each user's preferences are hashed into a bucket in each of
+ * several tables, such that similar users are likely to share a bucket in at least one of them. Only users that
+ * share a bucket with the given user are then compared with the given {@link UserSimilarity}.
+ * </p>
+ *
+ * <p>
+ * Users are hashed with a {@link Signature} that should match the similarity: random hyperplanes approximate
+ * cosine similarity, random hyperplanes over mean-centered values approximate Pearson correlation, and MinHash
+ * approximates the Jaccard (Tanimoto) coefficient. More tables find more of the true neighbors, at the cost of
+ * more candidates to compare; more hashes per table make each bucket smaller and more selective.
+ * </p>
+ *
+ * <p>
+ * The index is built when this is created and rebuilt on refresh. Users not yet in the index are added when
+ * first asked about, and {@link #updateUser(long)} re-hashes one user whose preferences have changed.
+ * </p>
+ */
+public final class LSHUserNeighborhood extends AbstractUserNeighborhood {
+
+  private static final Logger log = LoggerFactory.getLogger(LSHUserNeighborhood.class);
+
+  public static final int DEFAULT_NUM_TABLES = 10;
+
+  /** How users' preferences are hashed into buckets. */
+  public enum Signature {
+    /** Signs of random projections of preference values; approximates cosine similarity. */
+    HYPERPLANE,
+    /** Signs of random projections of each user's mean-centered values; approximates Pearson correlation. */
+    CENTERED_HYPERPLANE,
+    /** Minimum hashes of the items a user has preferences for; approximates the Tanimoto coefficient. */
+    MINHASH
+  }
+
+  private final int n;
+  private final double minSimilarity;
+  private final Signature signature;
+  private final int numTables;
+  private final int hashesPerTable;
+  private final int[] tableSeeds;
+  private final HashFunction[] minHashFunctions;
+  private volatile Index index;
+
+  /**
+   * Hashes with {@link Signature#CENTERED_HYPERPLANE} if the model has preference values and
+   * {@link Signature#MINHASH} if not, into {@link #DEFAULT_NUM_TABLES} tables.
+   *
+   * @param n neighborhood size; capped at the number of users in the data model
+   */
+  public LSHUserNeighborhood(int n, UserSimilarity userSimilarity, DataModel dataModel) throws TasteException {
+    this(n, Double.NEGATIVE_INFINITY, userSimilarity, dataModel,
+         dataModel.hasPreferenceValues() ? Signature.CENTERED_HYPERPLANE : Signature.MINHASH,
+         DEFAULT_NUM_TABLES, dataModel.hasPreferenceValues() ? 8 : 2);
+  }
+
+  /**
+   * @param n neighborhood size; capped at the number of users in the data model
+   * @param minSimilarity minimal similarity required for neighbors
+   * @param signature how to hash users; should suit userSimilarity
+   * @param numTables number of hash tables; a user's candidates are those sharing a bucket in any of them
+   * @param hashesPerTable number of hashes combined into each bucket key, at most 32
+   * @throws IllegalArgumentException if n, numTables or hashesPerTable is out of range, or any argument is
+   *  <code>null</code>
+   */
+  public LSHUserNeighborhood(int n,
+                             double minSimilarity,
+                             UserSimilarity userSimilarity,
+                             DataModel dataModel,
+                             Signature signature,
+                             int numTables,
+                             int hashesPerTable) throws TasteException {
+    super(userSimilarity, dataModel, 1.0);
+    Preconditions.checkArgument(n >= 1, "n must be at least 1");
+    Preconditions.checkArgument(signature != null, "signature is null");
+    Preconditions.checkArgument(numTables >= 1, "numTables must be at least 1");
+    Preconditions.checkArgument(hashesPerTable >= 1 && hashesPerTable <= 32, "hashesPerTable must be in [1,32]");
+    int numUsers = dataModel.getNumUsers();
+    this.n = n > numUsers ? numUsers : n;
+    this.minSimilarity = minSimilarity;
+    this.signature = signature;
+    this.numTables = numTables;
+    this.hashesPerTable = hashesPerTable;
+    Random random = RandomUtils.getRandom();
+    tableSeeds = new int[numTables];
+    for (int t = 0; t < numTables; t++) {
+      tableSeeds[t] = random.nextInt();
+    }
+    minHashFunctions = signature == Signature.MINHASH
+        ? HashFactory.createHashFunctions(HashFactory.HashType.MURMUR, numTables * hashesPerTable)
+        : null;
+    index = buildIndex();
+  }
+
+  @Override
+  public long[] getUserNeighborhood(long userID) throws TasteException {
+    Index index = this.index;
+    long[] keys = index.getKeys(userID);
+    if (keys == null) {
+      keys = hashUser(userID);
+      if (keys == null) {
+        return new long[0];
+      }
+      index.put(userID, keys);
+    }
+    long[] candidateIDs = index.getCandidates(userID, keys);
+    return getTopUsers(userID, candidateIDs, n, minSimilarity);
+  }
+
+  /**
+   * Re-hashes one user, after the user's preferences have changed, or removes the user if the user no longer has
+   * any.
+   */
+  public void updateUser(long userID) throws TasteException {
+    long[] keys;
+    try {
+      keys = hashUser(userID);
+    } catch (NoSuchUserException nsue) {
+      keys = null;
+    }
+    if (keys == null) {
+      index.remove(userID);
+    } else {
+      index.put(userID, keys);
+    }
+  }
+
+  @Override
+  void refreshNeighborhood() throws TasteException {
+    index = buildIndex();
+  }
+
+  private Index buildIndex() throws TasteException {
+    DataModel dataModel = getDataModel();
+    Index newIndex = new Index(numTables);
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      long[] keys = hashUser(userID);
+      if (keys != null) {
+        newIndex.put(userID, keys);
+      }
+    }
+    log.info("Hashed {} users into {} tables", newIndex.size(), numTables);
+    return newIndex;
+  }
+
+  /** @return the user's bucket in each table, or <code>null</code> if the user has no preferences */
+  private long[] hashUser(long userID) throws TasteException {
+    PreferenceArray prefs = getDataModel().getPreferencesFromUser(userID);
+    if (prefs.length() == 0) {
+      return null;
+    }
+    return signature == Signature.MINHASH ? minHashKeys(prefs) : hyperplaneKeys(prefs);
+  }
+
+  private long[] hyperplaneKeys(PreferenceArray prefs) {
+    int length = prefs.length();
+    double mean = 0.0;
+    if (signature == Signature.CENTERED_HYPERPLANE) {
+      for (int i = 0; i < length; i++) {
+        mean += prefs.getValue(i);
+      }
+      mean /= length;
+    }
+    byte[] bytes = new byte[8];
+    double[] projections = new double[hashesPerTable];
+    long[] keys = new long[numTables];
+    for (int t = 0; t < numTables; t++) {
+      Arrays.fill(projections, 0.0);
+      for (int i = 0; i < length; i++) {
+        double value = prefs.getValue(i) - mean;
+        if (value != 0.0) {
+          // Each bit of the item's hash is its component, +1 or -1, along one of this table's hyperplanes
+          long bits = MurmurHash.hash64A(toBytes(prefs.getItemID(i), bytes), tableSeeds[t]);
+          for (int h = 0; h < hashesPerTable; h++) {
+            projections[h] += ((bits >>> h) & 1L) == 0L ? value : -value;
+          }
+        }
+      }
+      long key = 0L;
+      for (int h = 0; h < hashesPerTable; h++) {
+        if (projections[h] > 0.0) {
+          key |= 1L << h;
+        }
+      }
+      keys[t] = key;
+    }
+    return keys;
+  }
+
+  private long[] minHashKeys(PreferenceArray prefs) {
+    int length = prefs.length();
+    int[] minHashes = new int[minHashFunctions.length];
+    Arrays.fill(minHashes, Integer.MAX_VALUE);
+    byte[] bytes = new byte[8];
+    for (int i = 0; i < length; i++) {
+      toBytes(prefs.getItemID(i), bytes);
+      for (int f = 0; f < minHashFunctions.length; f++) {
+        int hash = minHashFunctions[f].hash(bytes);
+        if (hash < minHashes[f]) {
+          minHashes[f] = hash;
+        }
+      }
+    }
+    long[] keys = new long[numTables];
+    for (int t = 0; t < numTables; t++) {
+      long key = 17L;
+      for (int h = t * hashesPerTable; h < (t + 1) * hashesPerTable; h++) {
+        key = 31L * key + minHashes[h];
+      }
+      // Stay clear of the two keys FastByIDMap reserves
+      keys[t] = key & 0x3FFFFFFFFFFFFFFFL;
+    }
+    return keys;
+  }
+
+  private static byte[] toBytes(long value, byte[] bytes) {
+    for (int i = 7; i >= 0; i--) {
+      bytes[i] = (byte) value;
+      value >>>= 8;
+    }
+    return bytes;
+  }
+
+  @Override
+  public String toString() {
+    return "LSHUserNeighborhood[signature:" + signature + ", tables:" + numTables + ", hashes:" + hashesPerTable + ']';
+  }
+
+  /** Users' buckets in each table, and each bucket's users. */
+  private static final class Index {
+
+    private final List<FastByIDMap<FastIDSet>> tables;
+    private final FastByIDMap<long[]> userKeys;
+    private final ReadWriteLock lock;
+
+    private Index(int numTables) {
+      tables = new ArrayList<FastByIDMap<FastIDSet>>(numTables);
+      for (int t = 0; t < numTables; t++) {
+        tables.add(new FastByIDMap<FastIDSet>());
+      }
+      userKeys = new FastByIDMap<long[]>();
+      lock = new ReentrantReadWriteLock();
+    }
+
+    int size() {
+      lock.readLock().lock();
+      try {
+        return userKeys.size();
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+
+    long[] getKeys(long userID) {
+      lock.readLock().lock();
+      try {
+        return userKeys.get(userID);
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+
+    /** @return users sharing a bucket with the given keys in any table, except the user */
+    long[] getCandidates(long userID, long[] keys) {
+      FastIDSet candidates = new FastIDSet();
+      lock.readLock().lock();
+      try {
+        for (int t = 0; t < keys.length; t++) {
+          FastIDSet bucket = tables.get(t).get(keys[t]);
+          if (bucket != null) {
+            candidates.addAll(bucket);
+          }
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+      candidates.remove(userID);
+      return candidates.toArray();
+    }
+
+    void put(long userID, long[] keys) {
+      lock.writeLock().lock();
+      try {
+        removeFromBuckets(userID, userKeys.get(userID));
+        userKeys.put(userID, keys);
+        for (int t = 0; t < keys.length; t++) {
+          FastByIDMap<FastIDSet> table = tables.get(t);
+          FastIDSet bucket = table.get(keys[t]);
+          if (bucket == null) {
+            bucket = new FastIDSet(2);
+            table.put(keys[t], bucket);
+          }
+          bucket.add(userID);
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+
+    void remove(long userID) {
+      lock.writeLock().lock();
+      try {
+        removeFromBuckets(userID, userKeys.remove(userID));
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+
+    private void removeFromBuckets(long userID, long[] keys) {
+      if (keys == null) {
+        return;
+      }
+      for (int t = 0; t < keys.length; t++) {
+        FastByIDMap<FastIDSet> table = tables.get(t);
+        FastIDSet bucket = table.get(keys[t]);
+        if (bucket != null) {
+          bucket.remove(userID);
+          if (bucket.isEmpty()) {
+            table.remove(keys[t]);
+          }
+        }
+      }
+    }
+  }
+
+}
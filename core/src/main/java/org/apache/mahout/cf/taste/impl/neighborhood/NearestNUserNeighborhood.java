@@ -17,10 +17,11 @@
 
 package org.apache.mahout.cf.taste.impl.neighborhood;
 
+import java.util.Arrays;
+
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.common.SamplingLongPrimitiveIterator;
-import org.apache.mahout.cf.taste.impl.recommender.TopItems;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 
@@ -84,39 +85,30 @@ public final class NearestNUserNeighborhood extends AbstractUserNeighborhood {
   public long[] getUserNeighborhood(long userID) throws TasteException {
     
     DataModel dataModel = getDataModel();
-    UserSimilarity userSimilarityImpl = getUserSimilarity();
-    
-    TopItems.Estimator<Long> estimator = new Estimator(userSimilarityImpl, userID, minSimilarity);
-    
     LongPrimitiveIterator userIDs = SamplingLongPrimitiveIterator.maybeWrapIterator(dataModel.getUserIDs(),
       getSamplingRate());
-    
-    return TopItems.getTopUsers(n, userIDs, null, estimator);
+    // a sample holds about samplingRate of the users; grown if it holds more
+    long[] candidateIDs = new long[(int) Math.ceil(getSamplingRate() * dataModel.getNumUsers())];
+    int numCandidates = 0;
+    while (userIDs.hasNext()) {
+      long candidateID = userIDs.nextLong();
+      if (candidateID != userID) {
+        if (numCandidates == candidateIDs.length) {
+          candidateIDs = Arrays.copyOf(candidateIDs, Math.max(16, numCandidates * 2));
+        }
+        candidateIDs[numCandidates++] = candidateID;
+      }
+    }
+    if (numCandidates < candidateIDs.length) {
+      candidateIDs = Arrays.copyOf(candidateIDs, numCandidates);
+    }
+
+    return getTopUsers(userID, candidateIDs, n, minSimilarity);
   }
   
   @Override
   public String toString() {
     return "NearestNUserNeighborhood";
   }
-  
-  private static final class Estimator implements TopItems.Estimator<Long> {
-    private final UserSimilarity userSimilarityImpl;
-    private final long theUserID;
-    private final double minSim;
-    
-    private Estimator(UserSimilarity userSimilarityImpl, long theUserID, double minSim) {
-      this.userSimilarityImpl = userSimilarityImpl;
-      this.theUserID = theUserID;
-      this.minSim = minSim;
-    }
-    
-    @Override
-    public double estimate(Long userID) throws TasteException {
-      if (userID == theUserID) {
-        return Double.NaN;
-      }
-      double sim = userSimilarityImpl.userSimilarity(theUserID, userID);
-      return sim >= minSim ? sim : Double.NaN;
-    }
-  }
+
 }
@@ -74,6 +74,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   private final MostSimilarItemsCandidateItemsStrategy mostSimilarItemsCandidateItemsStrategy;
   private final RefreshHelper refreshHelper;
   private EstimatedPreferenceCapper capper;
+  private ParallelTopItems parallelTopItems;
 
   private static final boolean EXCLUDE_ITEM_IF_NOT_SIMILAR_TO_ALL_BY_DEFAULT = true;
 
@@ -113,6 +114,20 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   public ItemSimilarity getSimilarity() {
     return similarity;
   }
+
+  /**
+   * Scores candidate items on several threads when there are many of them. Rescorers passed to
+   * {@link #recommend(long, int, IDRescorer)} must then be thread-safe.
+   *
+   * @param parallelTopItems how to score in parallel, or null to score on the calling thread only (the default)
+   */
+  public void setParallelTopItems(ParallelTopItems parallelTopItems) {
+    this.parallelTopItems = parallelTopItems;
+  }
+
+  public ParallelTopItems getParallelTopItems() {
+    return parallelTopItems;
+  }
   
   @Override
   public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) throws TasteException {
@@ -126,10 +141,11 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
 
     FastIDSet possibleItemIDs = getAllOtherItems(userID, preferencesFromUser);
 
-    TopItems.Estimator<Long> estimator = new Estimator(userID, preferencesFromUser);
+    TopItems.IDEstimator estimator = new Estimator(userID, preferencesFromUser);
 
-    List<RecommendedItem> topItems = TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer,
-      estimator);
+    List<RecommendedItem> topItems = parallelTopItems == null
+        ? TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer, estimator)
+        : parallelTopItems.getTopItems(howMany, possibleItemIDs, rescorer, estimator);
 
     log.debug("Recommendations are: {}", topItems);
     return topItems;
@@ -163,13 +179,13 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   @Override
   public List<RecommendedItem> mostSimilarItems(long itemID, int howMany,
                                                 Rescorer<LongPair> rescorer) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MostSimilarEstimator(itemID, similarity, rescorer);
+    TopItems.IDEstimator estimator = new MostSimilarEstimator(itemID, similarity, rescorer).asIDEstimator();
     return doMostSimilarItems(new long[] {itemID}, howMany, estimator);
   }
   
   @Override
   public List<RecommendedItem> mostSimilarItems(long[] itemIDs, int howMany) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MultiMostSimilarEstimator(itemIDs, similarity, null,
+    TopItems.IDEstimator estimator = new MultiMostSimilarEstimator(itemIDs, similarity, null,
         EXCLUDE_ITEM_IF_NOT_SIMILAR_TO_ALL_BY_DEFAULT);
     return doMostSimilarItems(itemIDs, howMany, estimator);
   }
@@ -177,7 +193,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   @Override
   public List<RecommendedItem> mostSimilarItems(long[] itemIDs, int howMany,
                                                 Rescorer<LongPair> rescorer) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MultiMostSimilarEstimator(itemIDs, similarity, rescorer,
+    TopItems.IDEstimator estimator = new MultiMostSimilarEstimator(itemIDs, similarity, rescorer,
         EXCLUDE_ITEM_IF_NOT_SIMILAR_TO_ALL_BY_DEFAULT);
     return doMostSimilarItems(itemIDs, howMany, estimator);
   }
@@ -186,7 +202,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   public List<RecommendedItem> mostSimilarItems(long[] itemIDs,
                                                 int howMany,
                                                 boolean excludeItemIfNotSimilarToAll) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MultiMostSimilarEstimator(itemIDs, similarity, null,
+    TopItems.IDEstimator estimator = new MultiMostSimilarEstimator(itemIDs, similarity, null,
         excludeItemIfNotSimilarToAll);
     return doMostSimilarItems(itemIDs, howMany, estimator);
   }
@@ -195,7 +211,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   public List<RecommendedItem> mostSimilarItems(long[] itemIDs, int howMany,
                                                 Rescorer<LongPair> rescorer,
                                                 boolean excludeItemIfNotSimilarToAll) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MultiMostSimilarEstimator(itemIDs, similarity, rescorer,
+    TopItems.IDEstimator estimator = new MultiMostSimilarEstimator(itemIDs, similarity, rescorer,
         excludeItemIfNotSimilarToAll);
     return doMostSimilarItems(itemIDs, howMany, estimator);
   }
@@ -205,7 +221,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
 
     DataModel model = getDataModel();
-    TopItems.Estimator<Long> estimator = new RecommendedBecauseEstimator(userID, itemID);
+    TopItems.IDEstimator estimator = new RecommendedBecauseEstimator(userID, itemID);
 
     PreferenceArray prefs = model.getPreferencesFromUser(userID);
     int size = prefs.length();
@@ -220,7 +236,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   
   private List<RecommendedItem> doMostSimilarItems(long[] itemIDs,
                                                    int howMany,
-                                                   TopItems.Estimator<Long> estimator) throws TasteException {
+                                                   TopItems.IDEstimator estimator) throws TasteException {
     FastIDSet possibleItemIDs = mostSimilarItemsCandidateItemsStrategy.getCandidateItems(itemIDs, getDataModel());
     return TopItems.getTopItems(howMany, possibleItemIDs.iterator(), null, estimator);
   }
@@ -288,16 +304,36 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     
     @Override
     public double estimate(Long itemID) throws TasteException {
+      return estimate(itemID.longValue());
+    }
+
+    /** Like {@link #estimate(Long)}, without boxing the ID. */
+    public double estimate(long itemID) throws TasteException {
+      if (rescorer == null) {
+        return similarity.itemSimilarity(toItemID, itemID);
+      }
       LongPair pair = new LongPair(toItemID, itemID);
-      if ((rescorer != null) && rescorer.isFiltered(pair)) {
+      if (rescorer.isFiltered(pair)) {
         return Double.NaN;
       }
-      double originalEstimate = similarity.itemSimilarity(toItemID, itemID);
-      return rescorer == null ? originalEstimate : rescorer.rescore(pair, originalEstimate);
+      return rescorer.rescore(pair, similarity.itemSimilarity(toItemID, itemID));
+    }
+
+    /**
+     * @return this as a {@link TopItems.IDEstimator}, for the methods of {@link TopItems} which take primitive IDs.
+     *  This class doesn't implement that itself, so that calls passing it to {@link TopItems} aren't ambiguous.
+     */
+    public TopItems.IDEstimator asIDEstimator() {
+      return new TopItems.IDEstimator() {
+        @Override
+        public double estimate(long itemID) throws TasteException {
+          return MostSimilarEstimator.this.estimate(itemID);
+        }
+      };
     }
   }
   
-  private final class Estimator implements TopItems.Estimator<Long> {
+  private final class Estimator implements TopItems.IDEstimator {
     
     private final long userID;
     private final PreferenceArray preferencesFromUser;
@@ -308,12 +344,12 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
+    public double estimate(long itemID) throws TasteException {
       return doEstimatePreference(userID, preferencesFromUser, itemID);
     }
   }
   
-  private static final class MultiMostSimilarEstimator implements TopItems.Estimator<Long> {
+  private static final class MultiMostSimilarEstimator implements TopItems.IDEstimator {
     
     private final long[] toItemIDs;
     private final ItemSimilarity similarity;
@@ -329,17 +365,16 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
+    public double estimate(long itemID) throws TasteException {
       RunningAverage average = new FullRunningAverage();
       double[] similarities = similarity.itemSimilarities(itemID, toItemIDs);
       for (int i = 0; i < toItemIDs.length; i++) {
-        long toItemID = toItemIDs[i];
-        LongPair pair = new LongPair(toItemID, itemID);
-        if ((rescorer != null) && rescorer.isFiltered(pair)) {
-          continue;
-        }
         double estimate = similarities[i];
         if (rescorer != null) {
+          LongPair pair = new LongPair(toItemIDs[i], itemID);
+          if (rescorer.isFiltered(pair)) {
+            continue;
+          }
           estimate = rescorer.rescore(pair, estimate);
         }
         if (excludeItemIfNotSimilarToAll || !Double.isNaN(estimate)) {
@@ -351,7 +386,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
   }
   
-  private final class RecommendedBecauseEstimator implements TopItems.Estimator<Long> {
+  private final class RecommendedBecauseEstimator implements TopItems.IDEstimator {
     
     private final long userID;
     private final long recommendedItemID;
@@ -362,7 +397,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
+    public double estimate(long itemID) throws TasteException {
       Float pref = getDataModel().getPreferenceValue(userID, itemID);
       if (pref == null) {
         return Float.NaN;
@@ -53,6 +53,7 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
   private final UserSimilarity similarity;
   private final RefreshHelper refreshHelper;
   private EstimatedPreferenceCapper capper;
+  private ParallelTopItems parallelTopItems;
   
   public GenericUserBasedRecommender(DataModel dataModel,
                                      UserNeighborhood neighborhood,
@@ -78,6 +79,20 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     return similarity;
   }
   
+  /**
+   * Scores candidate items on several threads when there are many of them. Rescorers passed to
+   * {@link #recommend(long, int, IDRescorer)} must then be thread-safe.
+   *
+   * @param parallelTopItems how to score in parallel, or null to score on the calling thread only (the default)
+   */
+  public void setParallelTopItems(ParallelTopItems parallelTopItems) {
+    this.parallelTopItems = parallelTopItems;
+  }
+
+  public ParallelTopItems getParallelTopItems() {
+    return parallelTopItems;
+  }
+
   @Override
   public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) throws TasteException {
     Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
@@ -92,10 +107,11 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
 
     FastIDSet allItemIDs = getAllOtherItems(theNeighborhood, userID);
 
-    TopItems.Estimator<Long> estimator = new Estimator(userID, theNeighborhood);
+    TopItems.IDEstimator estimator = new Estimator(userID, theNeighborhood);
 
-    List<RecommendedItem> topItems = TopItems
-        .getTopItems(howMany, allItemIDs.iterator(), rescorer, estimator);
+    List<RecommendedItem> topItems = parallelTopItems == null
+        ? TopItems.getTopItems(howMany, allItemIDs.iterator(), rescorer, estimator)
+        : parallelTopItems.getTopItems(howMany, allItemIDs, rescorer, estimator);
 
     log.debug("Recommendations are: {}", topItems);
     return topItems;
@@ -119,11 +135,11 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
   
   @Override
   public long[] mostSimilarUserIDs(long userID, int howMany, Rescorer<LongPair> rescorer) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MostSimilarEstimator(userID, similarity, rescorer);
+    TopItems.IDEstimator estimator = new MostSimilarEstimator(userID, similarity, rescorer);
     return doMostSimilarUsers(howMany, estimator);
   }
   
-  private long[] doMostSimilarUsers(int howMany, TopItems.Estimator<Long> estimator) throws TasteException {
+  private long[] doMostSimilarUsers(int howMany, TopItems.IDEstimator estimator) throws TasteException {
     DataModel model = getDataModel();
     return TopItems.getTopUsers(howMany, model.getUserIDs(), null, estimator);
   }
@@ -194,7 +210,7 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     }
   }
   
-  private static final class MostSimilarEstimator implements TopItems.Estimator<Long> {
+  private static final class MostSimilarEstimator implements TopItems.IDEstimator {
     
     private final long toUserID;
     private final UserSimilarity similarity;
@@ -207,7 +223,7 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     }
     
     @Override
-    public double estimate(Long userID) throws TasteException {
+    public double estimate(long userID) throws TasteException {
       // Don't consider the user itself as a possible most similar user
       if (userID == toUserID) {
         return Double.NaN;
@@ -225,7 +241,7 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     }
   }
   
-  private final class Estimator implements TopItems.Estimator<Long> {
+  private final class Estimator implements TopItems.IDEstimator {
     
     private final long theUserID;
     private final long[] theNeighborhood;
@@ -236,7 +252,7 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
+    public double estimate(long itemID) throws TasteException {
       return doEstimatePreference(theUserID, theNeighborhood, itemID);
     }
   }
@@ -0,0 +1,238 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.TopNHeap;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Finds the top items among many candidates on several threads. The candidates are split into partitions, the
+ * top items of each partition are found with {@link TopItems} on a thread of an {@link ExecutorService} (one of
+ * them on the calling thread), and the partial results are merged. Below a minimum number of candidates this
+ * isn't worth the overhead, and the candidates are simply scored on the calling thread.
+ * </p>
+ *
+ * <p>
+ * The result is the same as {@link TopItems#getTopItems(int, LongPrimitiveIterator, IDRescorer,
+ * TopItems.IDEstimator)}, but the estimator and rescorer are called from several threads at once, so must be
+ * thread-safe.
+ * </p>
+ */
+public final class ParallelTopItems {
+
+  public static final int DEFAULT_MIN_CANDIDATES = 10000;
+
+  private static ExecutorService sharedExecutor;
+
+  private final ExecutorService executor;
+  private final int numPartitions;
+  private final int minCandidates;
+
+  /**
+   * Uses a thread pool shared by all instances, with one thread per processor.
+   *
+   * @param minCandidates fewest candidates to score in parallel
+   */
+  public ParallelTopItems(int minCandidates) {
+    this(getSharedExecutor(), Runtime.getRuntime().availableProcessors(), minCandidates);
+  }
+
+  /**
+   * @param executor runs partitions other than the calling thread's
+   * @param numPartitions how many parts to split candidates into
+   * @param minCandidates fewest candidates to score in parallel
+   */
+  public ParallelTopItems(ExecutorService executor, int numPartitions, int minCandidates) {
+    Preconditions.checkArgument(executor != null, "executor is null");
+    Preconditions.checkArgument(numPartitions >= 1, "numPartitions must be at least 1");
+    Preconditions.checkArgument(minCandidates >= 0, "minCandidates must be at least 0");
+    this.executor = executor;
+    this.numPartitions = numPartitions;
+    this.minCandidates = minCandidates;
+  }
+
+  /**
+   * @return a pool of daemon threads, one per processor, shared by recommenders which don't specify their own
+   */
+  public static synchronized ExecutorService getSharedExecutor() {
+    if (sharedExecutor == null) {
+      final AtomicInteger threadCount = new AtomicInteger();
+      sharedExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "ParallelTopItems-" + threadCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+    }
+    return sharedExecutor;
+  }
+
+  public int getMinCandidates() {
+    return minCandidates;
+  }
+
+  public List<RecommendedItem> getTopItems(int howMany,
+                                           FastIDSet possibleItemIDs,
+                                           final IDRescorer rescorer,
+                                           final TopItems.IDEstimator estimator) throws TasteException {
+    Preconditions.checkArgument(possibleItemIDs != null, "argument is null");
+    Preconditions.checkArgument(estimator != null, "argument is null");
+    int numCandidates = possibleItemIDs.size();
+    int partitions = Math.min(numPartitions, numCandidates);
+    if (numCandidates < minCandidates || partitions <= 1) {
+      return TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer, estimator);
+    }
+
+    final long[] candidates = possibleItemIDs.toArray();
+    final int n = howMany;
+    List<Future<List<RecommendedItem>>> futures = new ArrayList<Future<List<RecommendedItem>>>(partitions - 1);
+    List<RecommendedItem> own;
+    try {
+      for (int p = 1; p < partitions; p++) {
+        final int from = (int) ((long) candidates.length * p / partitions);
+        final int to = (int) ((long) candidates.length * (p + 1) / partitions);
+        futures.add(executor.submit(new Callable<List<RecommendedItem>>() {
+          @Override
+          public List<RecommendedItem> call() throws TasteException {
+            return TopItems.getTopItems(n, new RangeIterator(candidates, from, to), rescorer, estimator);
+          }
+        }));
+      }
+      own = TopItems.getTopItems(n, new RangeIterator(candidates, 0, candidates.length / partitions), rescorer,
+                                 estimator);
+    } catch (TasteException te) {
+      cancelAll(futures);
+      throw te;
+    } catch (RuntimeException re) {
+      cancelAll(futures);
+      throw re;
+    }
+
+    TopNHeap topItems = new TopNHeap(howMany);
+    offerAll(topItems, own);
+    for (Future<List<RecommendedItem>> future : futures) {
+      offerAll(topItems, getResult(future, futures));
+    }
+    return TopItems.toRecommendedItems(topItems);
+  }
+
+  private static void offerAll(TopNHeap topItems, List<RecommendedItem> items) {
+    for (RecommendedItem item : items) {
+      topItems.offer(item.getItemID(), item.getValue());
+    }
+  }
+
+  private static <T> T getResult(Future<T> future, List<? extends Future<?>> all) throws TasteException {
+    try {
+      return future.get();
+    } catch (InterruptedException ie) {
+      cancelAll(all);
+      Thread.currentThread().interrupt();
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      cancelAll(all);
+      Throwable cause = ee.getCause();
+      if (cause instanceof TasteException) {
+        throw (TasteException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new TasteException(cause);
+    }
+  }
+
+  private static void cancelAll(List<? extends Future<?>> futures) {
+    for (Future<?> future : futures) {
+      future.cancel(true);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ParallelTopItems[partitions:" + numPartitions + ", minCandidates:" + minCandidates + ']';
+  }
+
+  /** Iterates over part of an array. */
+  private static final class RangeIterator implements LongPrimitiveIterator {
+
+    private final long[] array;
+    private int position;
+    private final int end;
+
+    private RangeIterator(long[] array, int from, int to) {
+      this.array = array;
+      this.position = from;
+      this.end = to;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return position < end;
+    }
+
+    @Override
+    public long nextLong() {
+      return array[position++];
+    }
+
+    @Override
+    public Long next() {
+      return nextLong();
+    }
+
+    @Override
+    public long peek() {
+      return array[position];
+    }
+
+    @Override
+    public void skip(int n) {
+      position = Math.min(end, position + n);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+}
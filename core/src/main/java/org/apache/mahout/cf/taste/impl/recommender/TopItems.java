@@ -28,6 +28,7 @@ import org.apache.mahout.cf.taste.common.NoSuchItemException;
 import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.TopNHeap;
 import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
 import org.apache.mahout.cf.taste.impl.similarity.GenericUserSimilarity;
 import org.apache.mahout.cf.taste.recommender.IDRescorer;
@@ -49,16 +50,31 @@ public final class TopItems {
   public static List<RecommendedItem> getTopItems(int howMany,
                                                   LongPrimitiveIterator possibleItemIDs,
                                                   IDRescorer rescorer,
-                                                  Estimator<Long> estimator) throws TasteException {
+                                                  final Estimator<Long> estimator) throws TasteException {
+    Preconditions.checkArgument(estimator != null, "argument is null");
+    return getTopItems(howMany, possibleItemIDs, rescorer, new IDEstimator() {
+      @Override
+      public double estimate(long id) throws TasteException {
+        return estimator.estimate(id);
+      }
+    });
+  }
+
+  /**
+   * Like {@link #getTopItems(int, LongPrimitiveIterator, IDRescorer, Estimator)}, but with primitive IDs
+   * throughout: candidates are kept in a {@link TopNHeap} and only the final top items become
+   * {@link RecommendedItem}s. Candidates with a NaN estimate are not rescored.
+   */
+  public static List<RecommendedItem> getTopItems(int howMany,
+                                                  LongPrimitiveIterator possibleItemIDs,
+                                                  IDRescorer rescorer,
+                                                  IDEstimator estimator) throws TasteException {
     Preconditions.checkArgument(possibleItemIDs != null, "argument is null");
     Preconditions.checkArgument(estimator != null, "argument is null");
 
-    Queue<RecommendedItem> topItems = new PriorityQueue<RecommendedItem>(howMany + 1,
-      Collections.reverseOrder(ByValueRecommendedItemComparator.getInstance()));
-    boolean full = false;
-    double lowestTopValue = Double.NEGATIVE_INFINITY;
+    TopNHeap topItems = new TopNHeap(howMany);
     while (possibleItemIDs.hasNext()) {
-      long itemID = possibleItemIDs.next();
+      long itemID = possibleItemIDs.nextLong();
       if ((rescorer == null) || !rescorer.isFiltered(itemID)) {
         double preference;
         try {
@@ -66,38 +82,52 @@ public final class TopItems {
         } catch (NoSuchItemException nsie) {
           continue;
         }
-        double rescoredPref = rescorer == null ? preference : rescorer.rescore(itemID, preference);
-        if (!Double.isNaN(rescoredPref) && (!full || (rescoredPref > lowestTopValue))) {
-          topItems.add(new GenericRecommendedItem(itemID, (float) rescoredPref));
-          if (full) {
-            topItems.poll();
-          } else if (topItems.size() > howMany) {
-            full = true;
-            topItems.poll();
-          }
-          lowestTopValue = topItems.peek().getValue();
+        if (rescorer != null && !Double.isNaN(preference)) {
+          preference = rescorer.rescore(itemID, preference);
         }
+        // Values are kept as floats, so compare as floats
+        topItems.offer(itemID, (float) preference);
       }
     }
+    return toRecommendedItems(topItems);
+  }
+
+  /**
+   * @return the IDs kept in the given heap as {@link RecommendedItem}s, from highest to lowest value
+   */
+  public static List<RecommendedItem> toRecommendedItems(TopNHeap topItems) {
     int size = topItems.size();
     if (size == 0) {
       return Collections.emptyList();
     }
+    topItems.sort();
     List<RecommendedItem> result = new ArrayList<RecommendedItem>(size);
-    result.addAll(topItems);
-    Collections.sort(result, ByValueRecommendedItemComparator.getInstance());
+    for (int i = 0; i < size; i++) {
+      result.add(new GenericRecommendedItem(topItems.getID(i), (float) topItems.getScore(i)));
+    }
     return result;
   }
-  
+
   public static long[] getTopUsers(int howMany,
                                    LongPrimitiveIterator allUserIDs,
                                    IDRescorer rescorer,
-                                   Estimator<Long> estimator) throws TasteException {
-    Queue<SimilarUser> topUsers = new PriorityQueue<SimilarUser>(howMany + 1, Collections.reverseOrder());
-    boolean full = false;
-    double lowestTopValue = Double.NEGATIVE_INFINITY;
+                                   final Estimator<Long> estimator) throws TasteException {
+    Preconditions.checkArgument(estimator != null, "argument is null");
+    return getTopUsers(howMany, allUserIDs, rescorer, new IDEstimator() {
+      @Override
+      public double estimate(long id) throws TasteException {
+        return estimator.estimate(id);
+      }
+    });
+  }
+
+  public static long[] getTopUsers(int howMany,
+                                   LongPrimitiveIterator allUserIDs,
+                                   IDRescorer rescorer,
+                                   IDEstimator estimator) throws TasteException {
+    TopNHeap topUsers = new TopNHeap(howMany);
     while (allUserIDs.hasNext()) {
-      long userID = allUserIDs.next();
+      long userID = allUserIDs.nextLong();
       if ((rescorer != null) && rescorer.isFiltered(userID)) {
         continue;
       }
@@ -107,31 +137,12 @@ public final class TopItems {
       } catch (NoSuchUserException nsue) {
         continue;
       }
-      double rescoredSimilarity = rescorer == null ? similarity : rescorer.rescore(userID, similarity);
-      if (!Double.isNaN(rescoredSimilarity) && (!full || (rescoredSimilarity > lowestTopValue))) {
-        topUsers.add(new SimilarUser(userID, similarity));
-        if (full) {
-          topUsers.poll();
-        } else if (topUsers.size() > howMany) {
-          full = true;
-          topUsers.poll();
-        }
-        lowestTopValue = topUsers.peek().getSimilarity();
+      if (rescorer != null && !Double.isNaN(similarity)) {
+        similarity = rescorer.rescore(userID, similarity);
       }
+      topUsers.offer(userID, similarity);
     }
-    int size = topUsers.size();
-    if (size == 0) {
-      return NO_IDS;
-    }
-    List<SimilarUser> sorted = new ArrayList<SimilarUser>(size);
-    sorted.addAll(topUsers);
-    Collections.sort(sorted);
-    long[] result = new long[size];
-    int i = 0;
-    for (SimilarUser similarUser : sorted) {
-      result[i++] = similarUser.getUserID();
-    }
-    return result;
+    return topUsers.isEmpty() ? NO_IDS : topUsers.toIDArray();
   }
   
   /**
@@ -210,5 +221,10 @@ public final class TopItems {
   public interface Estimator<T> {
     double estimate(T thing) throws TasteException;
   }
+
+  /** An {@link Estimator} of IDs which doesn't box them. */
+  public interface IDEstimator {
+    double estimate(long id) throws TasteException;
+  }
   
 }
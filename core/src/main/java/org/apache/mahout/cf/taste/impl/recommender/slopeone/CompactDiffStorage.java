@@ -0,0 +1,646 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.slopeone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.FixedRunningAverage;
+import org.apache.mahout.cf.taste.impl.common.FixedRunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.MappedArrays;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.slopeone.DiffStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * An implementation of {@link DiffStorage} that keeps item-item diffs in primitive arrays rather than maps of
+ * {@link RunningAverage}s. Items are kept in ID order, and each item has a sorted row of the items with a greater
+ * ID that were rated by the same users, with the count and the sum of the differences as floats (and their
+ * standard deviation when weighted by it). That is 12 or 16 bytes per item-item pair.
+ * </p>
+ *
+ * <p>
+ * The rows are built in parallel, each thread computing whole rows from the preferences for an item and its
+ * users' other preferences, so no thread's results need merging. Pairs co-rated by fewer than
+ * <code>minCount</code> users are pruned as they are built. Readers see a complete set of diffs at all times and
+ * take no locks; a refresh builds new diffs and then replaces the old ones.
+ * </p>
+ *
+ * <p>
+ * The diffs can be written with {@link #write(File)} and mapped back with {@link #map(DataModel, File)}, without
+ * reading the pairs onto the heap. A mapped storage maps the file again on refresh, so it can be replaced by a
+ * newly written file. Diffs can't be updated in place: {@link #addItemPref(long, long, float)},
+ * {@link #updateItemPref(long, float)} and {@link #removeItemPref(long, long, float)} are not supported, and
+ * changes are picked up on refresh.
+ * </p>
+ */
+public final class CompactDiffStorage implements DiffStorage {
+
+  private static final Logger log = LoggerFactory.getLogger(CompactDiffStorage.class);
+
+  /** like {@link MemoryDiffStorage}, drops diffs seen only once */
+  public static final int DEFAULT_MIN_COUNT = 2;
+
+  private static final long MAGIC = 0x4D41484F55534431L; // "MAHOUSD1"
+  private static final int HEADER_BYTES = 24;
+  private static final int ROWS_PER_BLOCK = 64;
+
+  private final DataModel dataModel;
+  private final boolean stdDevWeighted;
+  private final int minCount;
+  private final int numThreads;
+  /** the file the diffs are mapped from, or null if they are built from the data model */
+  private final File file;
+  private volatile Diffs diffs;
+  private final RefreshHelper refreshHelper;
+
+  public CompactDiffStorage(DataModel dataModel, Weighting stdDevWeighted) throws TasteException {
+    this(dataModel, stdDevWeighted, DEFAULT_MIN_COUNT, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param stdDevWeighted
+   *          see {@link org.apache.mahout.cf.taste.impl.recommender.slopeone.SlopeOneRecommender}
+   * @param minCount
+   *          fewest users who rated both items of a pair for its diff to be kept
+   * @param numThreads
+   *          number of threads building diffs
+   */
+  public CompactDiffStorage(DataModel dataModel,
+                            Weighting stdDevWeighted,
+                            int minCount,
+                            int numThreads) throws TasteException {
+    Preconditions.checkArgument(dataModel != null, "dataModel is null");
+    Preconditions.checkArgument(minCount >= 1, "minCount must be at least 1");
+    Preconditions.checkArgument(numThreads >= 1, "numThreads must be at least 1");
+    this.dataModel = dataModel;
+    this.stdDevWeighted = stdDevWeighted == Weighting.WEIGHTED;
+    this.minCount = minCount;
+    this.numThreads = numThreads;
+    this.file = null;
+    this.refreshHelper = new RefreshHelper(new Callable<Object>() {
+      @Override
+      public Object call() throws TasteException {
+        diffs = build();
+        return null;
+      }
+    });
+    refreshHelper.addDependency(dataModel);
+    diffs = build();
+  }
+
+  private CompactDiffStorage(DataModel dataModel, File file, Diffs diffs) {
+    this.dataModel = dataModel;
+    this.stdDevWeighted = diffs.stdDevs != null;
+    this.minCount = 0;
+    this.numThreads = 0;
+    this.file = file;
+    this.diffs = diffs;
+    this.refreshHelper = new RefreshHelper(new Callable<Object>() {
+      @Override
+      public Object call() throws IOException {
+        remap();
+        return null;
+      }
+    });
+    refreshHelper.addDependency(dataModel);
+  }
+
+  /**
+   * Maps diffs written by {@link #write(File)}. The item IDs and the items' averages are read onto the heap, the
+   * pairs are read from the mapping as they are used.
+   *
+   * @param dataModel the users' preferences, which are not recommended to them
+   */
+  public static CompactDiffStorage map(DataModel dataModel, File file) throws IOException {
+    Preconditions.checkArgument(dataModel != null, "dataModel is null");
+    return new CompactDiffStorage(dataModel, file, Diffs.map(file));
+  }
+
+  private void remap() throws IOException {
+    log.info("Mapping diffs from {}...", file.getAbsolutePath());
+    diffs = Diffs.map(file);
+  }
+
+  /**
+   * Writes the diffs next to the file, then renames them over it, so that storages mapping the old file keep
+   * working until they are refreshed.
+   */
+  public void write(File file) throws IOException {
+    File tempFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+    diffs.write(tempFile);
+    if (!tempFile.renameTo(file)) {
+      throw new IOException("Unable to rename " + tempFile + " to " + file);
+    }
+  }
+
+  /** @return number of item-item pairs with a diff */
+  public int getNumPairs() {
+    return diffs.numPairs();
+  }
+
+  @Override
+  public RunningAverage getDiff(long itemID1, long itemID2) {
+    Diffs current = diffs;
+    return current.getDiff(current.indexOf(itemID1), current.indexOf(itemID2));
+  }
+
+  @Override
+  public RunningAverage[] getDiffs(long userID, long itemID, PreferenceArray prefs) {
+    Diffs current = diffs;
+    int index = current.indexOf(itemID);
+    int size = prefs.length();
+    RunningAverage[] result = new RunningAverage[size];
+    if (index >= 0) {
+      for (int i = 0; i < size; i++) {
+        result[i] = current.getDiff(current.indexOf(prefs.getItemID(i)), index);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public RunningAverage getAverageItemPref(long itemID) {
+    Diffs current = diffs;
+    int index = current.indexOf(itemID);
+    if (index < 0 || current.itemCounts[index] == 0.0f) {
+      return null;
+    }
+    int count = (int) current.itemCounts[index];
+    return new FixedRunningAverage((double) current.itemSums[index] / count, count);
+  }
+
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public void addItemPref(long userID, long itemID, float prefValue) {
+    throw new UnsupportedOperationException("Diffs are rebuilt on refresh");
+  }
+
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public void updateItemPref(long itemID, float prefDelta) {
+    throw new UnsupportedOperationException("Diffs are rebuilt on refresh");
+  }
+
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public void removeItemPref(long userID, long itemID, float prefValue) {
+    throw new UnsupportedOperationException("Diffs are rebuilt on refresh");
+  }
+
+  @Override
+  public FastIDSet getRecommendableItemIDs(long userID) throws TasteException {
+    long[] recommendableItemIDs = diffs.recommendableItemIDs;
+    FastIDSet result = new FastIDSet(recommendableItemIDs.length);
+    for (long itemID : recommendableItemIDs) {
+      result.add(itemID);
+    }
+    result.removeAll(dataModel.getItemIDsFromUser(userID));
+    return result;
+  }
+
+  private Diffs build() throws TasteException {
+    log.info("Building average diffs...");
+    long start = System.currentTimeMillis();
+    final long[] itemIDs = new long[dataModel.getNumItems()];
+    LongPrimitiveIterator it = dataModel.getItemIDs();
+    for (int i = 0; i < itemIDs.length; i++) {
+      itemIDs[i] = it.nextLong();
+    }
+    Arrays.sort(itemIDs);
+    final int numItems = itemIDs.length;
+
+    final Row[] rows = new Row[numItems];
+    final float[] itemCounts = new float[numItems];
+    final float[] itemSums = new float[numItems];
+    final boolean[] recommendable = new boolean[numItems];
+    final AtomicInteger nextBlock = new AtomicInteger();
+    List<Callable<Void>> builders = Lists.newArrayListWithCapacity(numThreads);
+    for (int t = 0; t < numThreads; t++) {
+      builders.add(new Callable<Void>() {
+        @Override
+        public Void call() throws TasteException {
+          RowBuilder rowBuilder = new RowBuilder(itemIDs);
+          int from;
+          while ((from = nextBlock.getAndAdd(ROWS_PER_BLOCK)) < numItems) {
+            int to = Math.min(numItems, from + ROWS_PER_BLOCK);
+            for (int a = from; a < to; a++) {
+              PreferenceArray prefs = dataModel.getPreferencesForItem(itemIDs[a]);
+              itemCounts[a] = prefs.length();
+              double sum = 0.0;
+              for (int i = 0; i < prefs.length(); i++) {
+                sum += prefs.getValue(i);
+              }
+              itemSums[a] = (float) sum;
+              rows[a] = rowBuilder.build(a, prefs);
+              if (rows[a].columns.length > 0) {
+                recommendable[a] = true;
+                for (int b : rows[a].columns) {
+                  recommendable[b] = true;
+                }
+              }
+            }
+          }
+          return null;
+        }
+      });
+    }
+    run(builders);
+
+    int numPairs = 0;
+    int numRecommendable = 0;
+    int[] rowOffsets = new int[numItems + 1];
+    for (int a = 0; a < numItems; a++) {
+      Preconditions.checkState(numPairs + rows[a].columns.length >= numPairs, "Too many item-item pairs");
+      numPairs += rows[a].columns.length;
+      rowOffsets[a + 1] = numPairs;
+      if (recommendable[a]) {
+        numRecommendable++;
+      }
+    }
+    long[] recommendableItemIDs = new long[numRecommendable];
+    int[] columns = new int[numPairs];
+    float[] counts = new float[numPairs];
+    float[] sums = new float[numPairs];
+    float[] stdDevs = stdDevWeighted ? new float[numPairs] : null;
+    int r = 0;
+    for (int a = 0; a < numItems; a++) {
+      if (recommendable[a]) {
+        recommendableItemIDs[r++] = itemIDs[a];
+      }
+      Row row = rows[a];
+      rows[a] = null;
+      int offset = rowOffsets[a];
+      System.arraycopy(row.columns, 0, columns, offset, row.columns.length);
+      System.arraycopy(row.counts, 0, counts, offset, row.counts.length);
+      System.arraycopy(row.sums, 0, sums, offset, row.sums.length);
+      if (stdDevs != null) {
+        System.arraycopy(row.stdDevs, 0, stdDevs, offset, row.stdDevs.length);
+      }
+    }
+
+    Diffs built = new Diffs(itemIDs, recommendableItemIDs, itemCounts, itemSums, rowOffsets,
+        IntBuffer.wrap(columns), FloatBuffer.wrap(counts), FloatBuffer.wrap(sums),
+        stdDevs == null ? null : FloatBuffer.wrap(stdDevs));
+    log.info("Built {} diffs between {} items in {}ms, {} bytes per pair",
+        new Object[] {numPairs, numItems, System.currentTimeMillis() - start, built.bytesPerPair()});
+    return built;
+  }
+
+  private void run(List<Callable<Void>> builders) throws TasteException {
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      for (Future<Void> future : executor.invokeAll(builders)) {
+        future.get();
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new TasteException(cause);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshHelper.refresh(alreadyRefreshed);
+  }
+
+  @Override
+  public String toString() {
+    return "CompactDiffStorage[stdDevWeighted:" + stdDevWeighted + ", minCount:" + minCount
+        + (file == null ? "" : ", file:" + file) + ']';
+  }
+
+  /** One item's diffs, before they are packed. */
+  private static final class Row {
+
+    private final int[] columns;
+    private final float[] counts;
+    private final float[] sums;
+    private final float[] stdDevs;
+
+    private Row(int size, boolean stdDevWeighted) {
+      columns = new int[size];
+      counts = new float[size];
+      sums = new float[size];
+      stdDevs = stdDevWeighted ? new float[size] : null;
+    }
+  }
+
+  /** Accumulates the diffs of one item at a time into dense scratch arrays over all items. */
+  private final class RowBuilder {
+
+    private final long[] itemIDs;
+    private final int[] counts;
+    private final double[] sums;
+    private final double[] sumsOfSquares;
+    private final int[] touched;
+
+    private RowBuilder(long[] itemIDs) {
+      this.itemIDs = itemIDs;
+      counts = new int[itemIDs.length];
+      sums = new double[itemIDs.length];
+      sumsOfSquares = stdDevWeighted ? new double[itemIDs.length] : null;
+      touched = new int[itemIDs.length];
+    }
+
+    /** @return diffs from item a to the items with greater IDs, given the preferences for a */
+    private Row build(int a, PreferenceArray prefsForItem) throws TasteException {
+      long itemIDA = itemIDs[a];
+      int numTouched = 0;
+      for (int u = 0; u < prefsForItem.length(); u++) {
+        float valueA = prefsForItem.getValue(u);
+        PreferenceArray prefsFromUser = dataModel.getPreferencesFromUser(prefsForItem.getUserID(u));
+        for (int i = 0; i < prefsFromUser.length(); i++) {
+          long itemIDB = prefsFromUser.getItemID(i);
+          if (itemIDB <= itemIDA) {
+            continue;
+          }
+          int b = Arrays.binarySearch(itemIDs, a + 1, itemIDs.length, itemIDB);
+          if (counts[b]++ == 0) {
+            touched[numTouched++] = b;
+          }
+          double diff = prefsFromUser.getValue(i) - valueA;
+          sums[b] += diff;
+          if (sumsOfSquares != null) {
+            sumsOfSquares[b] += diff * diff;
+          }
+        }
+      }
+
+      Arrays.sort(touched, 0, numTouched);
+      int size = 0;
+      for (int t = 0; t < numTouched; t++) {
+        if (counts[touched[t]] >= minCount) {
+          size++;
+        }
+      }
+      Row row = new Row(size, stdDevWeighted);
+      int n = 0;
+      for (int t = 0; t < numTouched; t++) {
+        int b = touched[t];
+        int count = counts[b];
+        if (count >= minCount) {
+          row.columns[n] = b;
+          row.counts[n] = count;
+          row.sums[n] = (float) sums[b];
+          if (row.stdDevs != null) {
+            // sample standard deviation, as FullRunningAverageAndStdDev computes it
+            if (count > 1) {
+              double variance = (sumsOfSquares[b] - sums[b] * sums[b] / count) / (count - 1);
+              row.stdDevs[n] = (float) Math.sqrt(Math.max(0.0, variance));
+            } else {
+              row.stdDevs[n] = Float.NaN;
+            }
+          }
+          n++;
+        }
+        counts[b] = 0;
+        sums[b] = 0.0;
+        if (sumsOfSquares != null) {
+          sumsOfSquares[b] = 0.0;
+        }
+      }
+      return row;
+    }
+  }
+
+  /** Packed diffs, on the heap or mapped from a file. Never changed once built. */
+  private static final class Diffs {
+
+    private final long[] itemIDs;
+    private final long[] recommendableItemIDs;
+    private final float[] itemCounts;
+    private final float[] itemSums;
+    /** item a's diffs are at rowOffsets[a] to rowOffsets[a + 1] - 1 */
+    private final int[] rowOffsets;
+    private final IntBuffer columns;
+    private final FloatBuffer counts;
+    private final FloatBuffer sums;
+    private final FloatBuffer stdDevs;
+
+    private Diffs(long[] itemIDs,
+                  long[] recommendableItemIDs,
+                  float[] itemCounts,
+                  float[] itemSums,
+                  int[] rowOffsets,
+                  IntBuffer columns,
+                  FloatBuffer counts,
+                  FloatBuffer sums,
+                  FloatBuffer stdDevs) {
+      this.itemIDs = itemIDs;
+      this.recommendableItemIDs = recommendableItemIDs;
+      this.itemCounts = itemCounts;
+      this.itemSums = itemSums;
+      this.rowOffsets = rowOffsets;
+      this.columns = columns;
+      this.counts = counts;
+      this.sums = sums;
+      this.stdDevs = stdDevs;
+    }
+
+    private int numPairs() {
+      return rowOffsets[rowOffsets.length - 1];
+    }
+
+    private int bytesPerPair() {
+      return stdDevs == null ? 12 : 16;
+    }
+
+    /** @return index of the item, or a negative number if it has no diffs */
+    private int indexOf(long itemID) {
+      int index = Arrays.binarySearch(itemIDs, itemID);
+      return index < 0 ? -1 : index;
+    }
+
+    /** @return average of b's preferences minus a's, or null if there is no diff between them */
+    private RunningAverage getDiff(int a, int b) {
+      if (a < 0 || b < 0 || a == b) {
+        return null;
+      }
+      boolean inverted = a > b;
+      int row = inverted ? b : a;
+      int column = inverted ? a : b;
+      int low = rowOffsets[row];
+      int high = rowOffsets[row + 1] - 1;
+      while (low <= high) {
+        int middle = (low + high) >>> 1;
+        int value = columns.get(middle);
+        if (value < column) {
+          low = middle + 1;
+        } else if (value > column) {
+          high = middle - 1;
+        } else {
+          int count = (int) counts.get(middle);
+          double average = sums.get(middle) / count;
+          if (inverted) {
+            average = -average;
+          }
+          return stdDevs == null ? new FixedRunningAverage(average, count)
+              : new FixedRunningAverageAndStdDev(average, stdDevs.get(middle), count);
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Layout: a header, the sorted item IDs, the recommendable item IDs, the items' preference counts and sums,
+     * the row offsets, then the column, count, sum and, when weighted, standard deviation of each pair, all
+     * big-endian.
+     */
+    private void write(File file) throws IOException {
+      RandomAccessFile out = new RandomAccessFile(file, "rw");
+      try {
+        out.setLength(0L);
+        FileChannel channel = out.getChannel();
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        buffer.putLong(MAGIC).putInt(stdDevs == null ? 0 : 1).putInt(itemIDs.length)
+            .putInt(recommendableItemIDs.length).putInt(numPairs());
+        buffer.flip();
+        MappedArrays.writeFully(channel, buffer);
+        MappedArrays.writeLongs(channel, buffer, itemIDs);
+        MappedArrays.writeLongs(channel, buffer, recommendableItemIDs);
+        MappedArrays.writeFloats(channel, buffer, itemCounts);
+        MappedArrays.writeFloats(channel, buffer, itemSums);
+        MappedArrays.writeInts(channel, buffer, rowOffsets);
+        buffer.clear();
+        IntBuffer columnsView = columns.duplicate();
+        columnsView.clear();
+        while (columnsView.hasRemaining()) {
+          if (buffer.remaining() < 4) {
+            flush(channel, buffer);
+          }
+          buffer.putInt(columnsView.get());
+        }
+        for (FloatBuffer values : new FloatBuffer[] {counts, sums, stdDevs}) {
+          if (values == null) {
+            continue;
+          }
+          FloatBuffer view = values.duplicate();
+          view.clear();
+          while (view.hasRemaining()) {
+            if (buffer.remaining() < 4) {
+              flush(channel, buffer);
+            }
+            buffer.putFloat(view.get());
+          }
+        }
+        flush(channel, buffer);
+      } finally {
+        out.close();
+      }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+      buffer.flip();
+      MappedArrays.writeFully(channel, buffer);
+      buffer.clear();
+    }
+
+    private static Diffs map(File file) throws IOException {
+      RandomAccessFile in = new RandomAccessFile(file, "r");
+      try {
+        FileChannel channel = in.getChannel();
+        if (channel.size() < HEADER_BYTES) {
+          throw new IOException("Not a diff file: " + file);
+        }
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0L, HEADER_BYTES);
+        if (header.getLong() != MAGIC) {
+          throw new IOException("Not a diff file: " + file);
+        }
+        boolean stdDevWeighted = header.getInt() != 0;
+        int numItems = header.getInt();
+        int numRecommendable = header.getInt();
+        int numPairs = header.getInt();
+        int valuesPerPair = stdDevWeighted ? 4 : 3;
+        long expectedLength = HEADER_BYTES + 8L * (numItems + numRecommendable) + 4L * (3L * numItems + 1)
+            + 4L * valuesPerPair * numPairs;
+        if (channel.size() != expectedLength) {
+          throw new IOException("Truncated diff file: " + file);
+        }
+        if (4L * numPairs > Integer.MAX_VALUE) {
+          throw new IOException("Too many pairs to map: " + numPairs);
+        }
+        long position = HEADER_BYTES;
+        long[] itemIDs = new long[numItems];
+        position = MappedArrays.readLongs(channel, position, itemIDs);
+        long[] recommendableItemIDs = new long[numRecommendable];
+        position = MappedArrays.readLongs(channel, position, recommendableItemIDs);
+        float[] itemCounts = new float[numItems];
+        position = MappedArrays.readFloats(channel, position, itemCounts);
+        float[] itemSums = new float[numItems];
+        position = MappedArrays.readFloats(channel, position, itemSums);
+        int[] rowOffsets = new int[numItems + 1];
+        position = MappedArrays.readInts(channel, position, rowOffsets);
+        long length = 4L * numPairs;
+        IntBuffer columns = channel.map(FileChannel.MapMode.READ_ONLY, position, length).asIntBuffer();
+        position += length;
+        FloatBuffer counts = channel.map(FileChannel.MapMode.READ_ONLY, position, length).asFloatBuffer();
+        position += length;
+        FloatBuffer sums = channel.map(FileChannel.MapMode.READ_ONLY, position, length).asFloatBuffer();
+        position += length;
+        FloatBuffer stdDevs = stdDevWeighted
+            ? channel.map(FileChannel.MapMode.READ_ONLY, position, length).asFloatBuffer() : null;
+        return new Diffs(itemIDs, recommendableItemIDs, itemCounts, itemSums, rowOffsets,
+            columns, counts, sums, stdDevs);
+      } finally {
+        in.close();
+      }
+    }
+  }
+
+}
@@ -17,6 +17,7 @@
 
 package org.apache.mahout.cf.taste.impl.recommender.svd;
 
+import com.google.common.base.Preconditions;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
@@ -27,23 +28,38 @@ import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.common.RandomUtils;
 import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Vector;
-import org.apache.mahout.math.als.AlternateLeastSquaresSolver;
+import org.apache.mahout.math.als.InPlaceAlternateLeastSquaresSolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * factorizes the rating matrix using "Alternating-Least-Squares with Weighted-λ-Regularization" as described in
+ * <p>factorizes the rating matrix using "Alternating-Least-Squares with Weighted-λ-Regularization" as described in
  * the paper "Large-scale Collaborative Filtering for the Netflix Prize" available at
- * {@see http://www.hpl.hp.com/personal/Robert_Schreiber/papers/2008%20AAIM%20Netflix/netflix_aaim08(submitted).pdf}
+ * {@see http://www.hpl.hp.com/personal/Robert_Schreiber/papers/2008%20AAIM%20Netflix/netflix_aaim08(submitted).pdf}</p>
+ *
+ * <p>can also factorize implicit feedback, such as clicks or play counts, as described in the paper "Collaborative
+ * Filtering for Implicit Feedback Datasets" by Hu, Koren and Volinsky: every observed preference counts as a
+ * preference of 1 with a confidence of 1 + alpha * value, and unobserved ones as a preference of 0 with a
+ * confidence of 1. Estimates are then preferences between 0 and 1, not ratings.</p>
+ *
+ * <p>preferences are copied once into compressed rows by user and by item. Each half-iteration solves all rows on
+ * one pool that lives for the whole factorization, each thread with its own solver workspace.</p>
+ *
+ * <p>users and items are folded in with the same formulation and lambda as in training. For implicit feedback that
+ * takes Y<sup>T</sup>Y over all items, or all users, which is kept until that side of the factorization changes.</p>
  */
-public class ALSWRFactorizer extends AbstractFactorizer {
+public class ALSWRFactorizer extends AbstractFactorizer implements FoldInSolver {
 
   private final DataModel dataModel;
 
@@ -53,15 +69,50 @@ public class ALSWRFactorizer extends AbstractFactorizer {
   private final double lambda;
   /** number of iterations */
   private final int numIterations;
+  /** whether to treat preferences as implicit feedback */
+  private final boolean usesImplicitFeedback;
+  /** confidence weighting parameter, only used with implicit feedback */
+  private final double alpha;
+  private final int numThreads;
+  /** Y<sup>T</sup>Y of the item side last folded in against, with implicit feedback */
+  private volatile Gramian itemGramian;
+  /** Y<sup>T</sup>Y of the user side last folded in against, with implicit feedback */
+  private volatile Gramian userGramian;
+
+  private static final int ROWS_PER_BLOCK = 64;
 
   private static final Logger log = LoggerFactory.getLogger(ALSWRFactorizer.class);
 
   public ALSWRFactorizer(DataModel dataModel, int numFeatures, double lambda, int numIterations) throws TasteException {
+    this(dataModel, numFeatures, lambda, numIterations, false, 0.0);
+  }
+
+  public ALSWRFactorizer(DataModel dataModel,
+                         int numFeatures,
+                         double lambda,
+                         int numIterations,
+                         boolean usesImplicitFeedback,
+                         double alpha) throws TasteException {
+    this(dataModel, numFeatures, lambda, numIterations, usesImplicitFeedback, alpha,
+        Runtime.getRuntime().availableProcessors());
+  }
+
+  public ALSWRFactorizer(DataModel dataModel,
+                         int numFeatures,
+                         double lambda,
+                         int numIterations,
+                         boolean usesImplicitFeedback,
+                         double alpha,
+                         int numThreads) throws TasteException {
     super(dataModel);
+    Preconditions.checkArgument(numThreads >= 1, "numThreads must be at least 1");
     this.dataModel = dataModel;
     this.numFeatures = numFeatures;
     this.lambda = lambda;
     this.numIterations = numIterations;
+    this.usesImplicitFeedback = usesImplicitFeedback;
+    this.alpha = alpha;
+    this.numThreads = numThreads;
   }
 
   static class Features {
@@ -132,78 +183,250 @@ public class ALSWRFactorizer extends AbstractFactorizer {
   @Override
   public Factorization factorize() throws TasteException {
     log.info("starting to compute the factorization...");
-    final AlternateLeastSquaresSolver solver = new AlternateLeastSquaresSolver();
-    final Features features = new Features(this);
-
-    for (int iteration = 0; iteration < numIterations; iteration++) {
-      log.info("iteration {}", iteration);
-
-      /* fix M - compute U */
-      ExecutorService queue = createQueue();
-      LongPrimitiveIterator userIDsIterator = dataModel.getUserIDs();
-      try {
-        while (userIDsIterator.hasNext()) {
-          final long userID = userIDsIterator.nextLong();
-          final LongPrimitiveIterator itemIDsFromUser = dataModel.getItemIDsFromUser(userID).iterator();
-          final PreferenceArray userPrefs = dataModel.getPreferencesFromUser(userID);
-          queue.execute(new Runnable() {
-            @Override
-            public void run() {
-              List<Vector> featureVectors = new ArrayList<Vector>();
-              while (itemIDsFromUser.hasNext()) {
-                long itemID = itemIDsFromUser.nextLong();
-                featureVectors.add(features.getItemFeatureColumn(itemIndex(itemID)));
-              }
-              Vector userFeatures = solver.solve(featureVectors, ratingVector(userPrefs), lambda, numFeatures);
-              features.setFeatureColumnInU(userIndex(userID), userFeatures);
-            }
-          });
-        }
-      } finally {
-        queue.shutdown();
-        try {
-          queue.awaitTermination(dataModel.getNumUsers(), TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-          throw new IllegalStateException("Error when computing user features", e);
-        }
+    Features features = new Features(this);
+    double[][] U = features.getU();
+    double[][] M = features.getM();
+    PreferenceRows[] rows = loadPreferences();
+    PreferenceRows userRows = rows[0];
+    PreferenceRows itemRows = rows[1];
+
+    ExecutorService queue = createQueue();
+    InPlaceAlternateLeastSquaresSolver[] solvers = new InPlaceAlternateLeastSquaresSolver[numThreads];
+    for (int n = 0; n < numThreads; n++) {
+      solvers[n] = new InPlaceAlternateLeastSquaresSolver(numFeatures);
+    }
+    try {
+      for (int iteration = 0; iteration < numIterations; iteration++) {
+        long start = System.currentTimeMillis();
+        /* fix M - compute U */
+        solveRows(queue, solvers, userRows, M, U);
+        long usersTime = System.currentTimeMillis() - start;
+        /* fix U - compute M */
+        solveRows(queue, solvers, itemRows, U, M);
+        long time = System.currentTimeMillis() - start;
+        log.info("iteration {} took {}ms ({}ms for users, {}ms for items)",
+            new Object[] {iteration, time, usersTime, time - usersTime});
+      }
+    } finally {
+      queue.shutdownNow();
+    }
+
+    log.info("finished computation of the factorization...");
+    return createFactorization(U, M);
+  }
+
+  @Override
+  public double[] solveUserFeatures(Factorization factorization, PreferenceArray preferencesFromUser)
+    throws TasteException {
+    if (!usesImplicitFeedback) {
+      return LeastSquaresFoldInSolver.solve(factorization, preferencesFromUser, true,
+          LeastSquaresFoldInSolver.allFree(factorization.numFeatures()), lambda);
+    }
+    Gramian gramian = itemGramian;
+    if (gramian == null || gramian.rows != factorization.getItemRows()) {
+      gramian = new Gramian(factorization.getItemRows(), factorization.numFeatures());
+      itemGramian = gramian;
+    }
+    return solveImplicit(factorization, preferencesFromUser, true, gramian.matrix);
+  }
+
+  @Override
+  public double[] solveItemFeatures(Factorization factorization, PreferenceArray preferencesForItem)
+    throws TasteException {
+    if (!usesImplicitFeedback) {
+      return LeastSquaresFoldInSolver.solve(factorization, preferencesForItem, false,
+          LeastSquaresFoldInSolver.allFree(factorization.numFeatures()), lambda);
+    }
+    Gramian gramian = userGramian;
+    if (gramian == null || gramian.rows != factorization.getUserRows()) {
+      gramian = new Gramian(factorization.getUserRows(), factorization.numFeatures());
+      userGramian = gramian;
+    }
+    return solveImplicit(factorization, preferencesForItem, false, gramian.matrix);
+  }
+
+  /** Solves one row like {@link #solveRow} does with implicit feedback, against the rows in the factorization. */
+  private double[] solveImplicit(Factorization factorization,
+                                 PreferenceArray preferences,
+                                 boolean ofUser,
+                                 double[] gramian) {
+    InPlaceAlternateLeastSquaresSolver solver = new InPlaceAlternateLeastSquaresSolver(factorization.numFeatures());
+    solver.reset(gramian);
+    int length = preferences.length();
+    for (int i = 0; i < length; i++) {
+      double[] other = LeastSquaresFoldInSolver.otherFeatures(factorization, preferences, i, ofUser);
+      if (other != null) {
+        solver.addImplicit(other, 1.0 + alpha * preferences.getValue(i));
       }
+    }
+    if (solver.getNumExamples() == 0) {
+      return null;
+    }
+    return solver.solve(lambda, new double[factorization.numFeatures()]);
+  }
 
-      /* fix U - compute M */
-      queue = createQueue();
-      LongPrimitiveIterator itemIDsIterator = dataModel.getItemIDs();
-      try {
-        while (itemIDsIterator.hasNext()) {
-          final long itemID = itemIDsIterator.nextLong();
-          final PreferenceArray itemPrefs = dataModel.getPreferencesForItem(itemID);
-          queue.execute(new Runnable() {
-            @Override
-            public void run() {
-              List<Vector> featureVectors = new ArrayList<Vector>();
-              for (Preference pref : itemPrefs) {
-                long userID = pref.getUserID();
-                featureVectors.add(features.getUserFeatureColumn(userIndex(userID)));
-              }
-              Vector itemFeatures = solver.solve(featureVectors, ratingVector(itemPrefs), lambda, numFeatures);
-              features.setFeatureColumnInM(itemIndex(itemID), itemFeatures);
+  /**
+   * Recomputes every row of {@code solved} from the rows of {@code fixed} it has preferences for. Threads claim
+   * blocks of rows until all are done, each with its own solver workspace.
+   */
+  private void solveRows(ExecutorService queue,
+                         InPlaceAlternateLeastSquaresSolver[] solvers,
+                         final PreferenceRows rows,
+                         final double[][] fixed,
+                         final double[][] solved) throws TasteException {
+    final double[] gramian =
+        usesImplicitFeedback ? InPlaceAlternateLeastSquaresSolver.gramian(fixed, numFeatures) : null;
+    final AtomicInteger nextBlock = new AtomicInteger();
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(solvers.length);
+    for (final InPlaceAlternateLeastSquaresSolver solver : solvers) {
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          int numRows = rows.numRows();
+          int from;
+          while ((from = nextBlock.getAndAdd(ROWS_PER_BLOCK)) < numRows) {
+            int to = Math.min(numRows, from + ROWS_PER_BLOCK);
+            for (int row = from; row < to; row++) {
+              solveRow(solver, gramian, rows, row, fixed, solved[row]);
             }
-          });
-        }
-      } finally {
-        queue.shutdown();
-        try {
-          queue.awaitTermination(dataModel.getNumItems(), TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-          throw new IllegalStateException("Error when computing item features", e);
+          }
+          return null;
         }
+      });
+    }
+    try {
+      for (Future<Void> future : queue.invokeAll(tasks)) {
+        future.get();
       }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new TasteException(cause);
     }
+  }
 
-    log.info("finished computation of the factorization...");
-    return createFactorization(features.getU(), features.getM());
+  private void solveRow(InPlaceAlternateLeastSquaresSolver solver,
+                        double[] gramian,
+                        PreferenceRows rows,
+                        int row,
+                        double[][] fixed,
+                        double[] result) {
+    int from = rows.offsets[row];
+    int to = rows.offsets[row + 1];
+    if (from == to) {
+      Arrays.fill(result, 0.0);
+      return;
+    }
+    int[] columns = rows.columns;
+    float[] values = rows.values;
+    if (usesImplicitFeedback) {
+      /* Hu, Koren, Volinsky: observed entries have preference 1 and confidence 1 + alpha * value */
+      solver.reset(gramian);
+      for (int n = from; n < to; n++) {
+        solver.addImplicit(fixed[columns[n]], 1.0 + alpha * values[n]);
+      }
+      solver.solve(lambda, result);
+    } else {
+      solver.reset();
+      for (int n = from; n < to; n++) {
+        solver.addExplicit(fixed[columns[n]], values[n]);
+      }
+      solver.solve(lambda * (to - from), result);
+    }
+  }
+
+  /** @return the preferences as rows by user index, and as rows by item index */
+  private PreferenceRows[] loadPreferences() throws TasteException {
+    int numUsers = dataModel.getNumUsers();
+    int[] userOffsets = new int[numUsers + 1];
+    int[] itemCounts = new int[dataModel.getNumItems() + 1];
+    PreferenceArray[] userPrefs = new PreferenceArray[numUsers];
+    LongPrimitiveIterator userIDsIterator = dataModel.getUserIDs();
+    while (userIDsIterator.hasNext()) {
+      long userID = userIDsIterator.nextLong();
+      int userIndex = userIndex(userID);
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+      userPrefs[userIndex] = prefs;
+      userOffsets[userIndex + 1] = prefs.length();
+    }
+    for (int u = 0; u < numUsers; u++) {
+      userOffsets[u + 1] += userOffsets[u];
+    }
+
+    int numPrefs = userOffsets[numUsers];
+    int[] userColumns = new int[numPrefs];
+    float[] userValues = new float[numPrefs];
+    for (int u = 0; u < numUsers; u++) {
+      PreferenceArray prefs = userPrefs[u];
+      int offset = userOffsets[u];
+      for (int n = 0; n < prefs.length(); n++) {
+        int itemIndex = itemIndex(prefs.getItemID(n));
+        userColumns[offset + n] = itemIndex;
+        userValues[offset + n] = prefs.getValue(n);
+        itemCounts[itemIndex + 1]++;
+      }
+      userPrefs[u] = null;
+    }
+
+    /* transpose */
+    int numItems = itemCounts.length - 1;
+    for (int i = 0; i < numItems; i++) {
+      itemCounts[i + 1] += itemCounts[i];
+    }
+    int[] itemOffsets = itemCounts.clone();
+    int[] itemColumns = new int[numPrefs];
+    float[] itemValues = new float[numPrefs];
+    for (int u = 0; u < numUsers; u++) {
+      for (int n = userOffsets[u]; n < userOffsets[u + 1]; n++) {
+        int position = itemCounts[userColumns[n]]++;
+        itemColumns[position] = u;
+        itemValues[position] = userValues[n];
+      }
+    }
+    return new PreferenceRows[] {
+        new PreferenceRows(userOffsets, userColumns, userValues),
+        new PreferenceRows(itemOffsets, itemColumns, itemValues)
+    };
+  }
+
+  /** Sparse rows of preferences in compressed form: row r's entries are at [offsets[r], offsets[r + 1]). */
+  private static final class PreferenceRows {
+
+    private final int[] offsets;
+    private final int[] columns;
+    private final float[] values;
+
+    private PreferenceRows(int[] offsets, int[] columns, float[] values) {
+      this.offsets = offsets;
+      this.columns = columns;
+      this.values = values;
+    }
+
+    int numRows() {
+      return offsets.length - 1;
+    }
+  }
+
+  /** Y<sup>T</sup>Y of one side of a factorization, and the rows it was computed from. */
+  private static final class Gramian {
+
+    private final FeatureRows rows;
+    private final double[] matrix;
+
+    private Gramian(FeatureRows rows, int numFeatures) {
+      this.rows = rows;
+      this.matrix = InPlaceAlternateLeastSquaresSolver.gramian(rows.rows(), numFeatures);
+    }
   }
 
+  /** Creates the pool used for the whole factorization, with one thread per solver workspace. */
   protected ExecutorService createQueue() {
-    return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    return Executors.newFixedThreadPool(numThreads);
   }
 
   protected Vector ratingVector(PreferenceArray prefs) {
@@ -17,7 +17,6 @@
 
 package org.apache.mahout.cf.taste.impl.recommender.svd;
 
-import java.util.Arrays;
 import java.util.Map;
 
 import com.google.common.base.Preconditions;
@@ -30,75 +29,99 @@ import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
  */
 public class Factorization {
 
-  /** used to find the rows in the user features matrix by userID */
-  private final FastByIDMap<Integer> userIDMapping;
-  /** used to find the rows in the item features matrix by itemID */
-  private final FastByIDMap<Integer> itemIDMapping;
-
-  /** user features matrix */
-  private final double[][] userFeatures;
-  /** item features matrix */
-  private final double[][] itemFeatures;
+  /** user features matrix, by userID */
+  private final FeatureRows userRows;
+  /** item features matrix, by itemID */
+  private final FeatureRows itemRows;
 
   public Factorization(FastByIDMap<Integer> userIDMapping, FastByIDMap<Integer> itemIDMapping, double[][] userFeatures,
       double[][] itemFeatures) {
-    this.userIDMapping = Preconditions.checkNotNull(userIDMapping);
-    this.itemIDMapping = Preconditions.checkNotNull(itemIDMapping);
-    this.userFeatures = userFeatures;
-    this.itemFeatures = itemFeatures;
+    this(new FeatureRows(Preconditions.checkNotNull(userIDMapping), userFeatures),
+         new FeatureRows(Preconditions.checkNotNull(itemIDMapping), itemFeatures));
+  }
+
+  private Factorization(FeatureRows userRows, FeatureRows itemRows) {
+    this.userRows = userRows;
+    this.itemRows = itemRows;
   }
 
   public double[] getUserFeatures(long userID) throws NoSuchUserException {
-    Integer index = userIDMapping.get(userID);
-    if (index == null) {
+    double[] features = userRows.get(userID);
+    if (features == null) {
       throw new NoSuchUserException(userID);
     }
-    return userFeatures[index];
+    return features;
   }
 
   public double[] getItemFeatures(long itemID) throws NoSuchItemException {
-    Integer index = itemIDMapping.get(itemID);
-    if (index == null) {
+    double[] features = itemRows.get(itemID);
+    if (features == null) {
       throw new NoSuchItemException(itemID);
     }
-    return itemFeatures[index];
+    return features;
+  }
+
+  /**
+   * @return a copy of this factorization in which the user has the given features, added if the user is new.
+   *  Only the chunk of rows holding the user is copied, the rest is shared with this factorization, which is left
+   *  unchanged.
+   */
+  public Factorization withUserFeatures(long userID, double[] features) {
+    Preconditions.checkArgument(features.length == numFeatures(), "features must have numFeatures entries");
+    return new Factorization(userRows.with(userID, features), itemRows);
+  }
+
+  /**
+   * @return a copy of this factorization in which the item has the given features, added if the item is new.
+   *  Only the chunk of rows holding the item is copied, the rest is shared with this factorization, which is left
+   *  unchanged.
+   */
+  public Factorization withItemFeatures(long itemID, double[] features) {
+    Preconditions.checkArgument(features.length == numFeatures(), "features must have numFeatures entries");
+    return new Factorization(userRows, itemRows.with(itemID, features));
+  }
+
+  /** @return the user features, shared with every factorization derived from this one by item fold-ins */
+  FeatureRows getUserRows() {
+    return userRows;
+  }
+
+  /** @return the item features, shared with every factorization derived from this one by user fold-ins */
+  FeatureRows getItemRows() {
+    return itemRows;
   }
 
   public Iterable<Map.Entry<Long,Integer>> getUserIDMappings() {
-    return userIDMapping.entrySet();
+    return userRows.idMappings();
   }
 
   public Iterable<Map.Entry<Long,Integer>> getItemIDMappings() {
-    return itemIDMapping.entrySet();
+    return itemRows.idMappings();
   }
 
   public int numFeatures() {
-    return userFeatures[0].length;
+    return userRows.row(0).length;
   }
 
   public int numUsers() {
-    return userIDMapping.size();
+    return userRows.numIDs();
   }
 
   public int numItems() {
-    return itemIDMapping.size();
+    return itemRows.numIDs();
   }
 
   @Override
   public boolean equals(Object o) {
     if (o instanceof Factorization) {
       Factorization other = (Factorization) o;
-      return userIDMapping.equals(other.userIDMapping) && itemIDMapping.equals(other.itemIDMapping) &&
-          Arrays.deepEquals(userFeatures, other.userFeatures) && Arrays.deepEquals(itemFeatures, other.itemFeatures);
+      return userRows.equals(other.userRows) && itemRows.equals(other.itemRows);
     }
     return false;
   }
 
   @Override
   public int hashCode() {
-    int hashCode = 31 * userIDMapping.hashCode() + itemIDMapping.hashCode();
-    hashCode = 31 * hashCode + Arrays.deepHashCode(userFeatures);
-    hashCode = 31 * hashCode + Arrays.deepHashCode(itemFeatures);
-    return hashCode;
+    return 31 * userRows.hashCode() + itemRows.hashCode();
   }
 }
@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterables;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+
+/**
+ * <p>The feature rows of one side of a {@link Factorization}, by ID. Rows are kept in chunks of
+ * {@value #CHUNK_SIZE}, so that {@link #with(long, double[])} only copies the chunk it changes and the array of
+ * chunks, and shares everything else with this instance, which is left unchanged.</p>
+ *
+ * <p>IDs added after construction go into a mapping which is only ever appended to, and which is shared by each
+ * instance and the ones built from it. An added ID belongs to an instance if its row index is below the
+ * instance's number of rows, so adding an ID costs no more than putting it in the mapping. Only adding to an
+ * instance which isn't the latest built from its mapping copies the part of the mapping it sees.</p>
+ */
+final class FeatureRows {
+
+  private static final int CHUNK_SHIFT = 10;
+  static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  /** mapping given on construction, never modified */
+  private final FastByIDMap<Integer> idMapping;
+  /** IDs added since construction, of which this has those with an index below numRows */
+  private final AddedIDs addedIDs;
+  private final int numAdded;
+  /** every chunk but the last has CHUNK_SIZE rows */
+  private final double[][][] chunks;
+  private final int numRows;
+
+  FeatureRows(FastByIDMap<Integer> idMapping, double[][] rows) {
+    this.idMapping = idMapping;
+    this.addedIDs = new AddedIDs();
+    this.numAdded = 0;
+    numRows = rows == null ? 0 : rows.length;
+    chunks = new double[(numRows + CHUNK_MASK) >> CHUNK_SHIFT][][];
+    for (int chunk = 0; chunk < chunks.length; chunk++) {
+      int from = chunk << CHUNK_SHIFT;
+      chunks[chunk] = Arrays.copyOfRange(rows, from, Math.min(from + CHUNK_SIZE, numRows));
+    }
+  }
+
+  private FeatureRows(FastByIDMap<Integer> idMapping,
+                      AddedIDs addedIDs,
+                      int numAdded,
+                      double[][][] chunks,
+                      int numRows) {
+    this.idMapping = idMapping;
+    this.addedIDs = addedIDs;
+    this.numAdded = numAdded;
+    this.chunks = chunks;
+    this.numRows = numRows;
+  }
+
+  /** @return the row of the ID, or null if it has none */
+  double[] get(long id) {
+    Integer index = index(id);
+    return index == null ? null : row(index);
+  }
+
+  double[] row(int index) {
+    return chunks[index >> CHUNK_SHIFT][index & CHUNK_MASK];
+  }
+
+  /** @return all rows, by index */
+  double[][] rows() {
+    double[][] rows = new double[numRows][];
+    for (int chunk = 0; chunk < chunks.length; chunk++) {
+      System.arraycopy(chunks[chunk], 0, rows, chunk << CHUNK_SHIFT, chunks[chunk].length);
+    }
+    return rows;
+  }
+
+  private Integer index(long id) {
+    Integer index = idMapping.get(id);
+    if (index == null && numAdded > 0) {
+      index = addedIDs.mapping.get(id);
+      if (index != null && index >= numRows) {
+        return null;
+      }
+    }
+    return index;
+  }
+
+  /** @return rows in which the ID has the given row, appended if the ID is new */
+  FeatureRows with(long id, double[] row) {
+    AddedIDs newAddedIDs = addedIDs;
+    int newNumAdded = numAdded;
+    Integer index = index(id);
+    int newNumRows = numRows;
+    if (index == null) {
+      index = numRows;
+      newNumRows++;
+      newAddedIDs = addedIDs.append(numAdded, id, index);
+      newNumAdded++;
+    }
+    int chunk = index >> CHUNK_SHIFT;
+    double[][][] newChunks = chunk < chunks.length ? chunks.clone() : Arrays.copyOf(chunks, chunk + 1);
+    double[][] newChunk = newChunks[chunk];
+    int offset = index & CHUNK_MASK;
+    newChunk = newChunk == null ? new double[1][] : Arrays.copyOf(newChunk, Math.max(newChunk.length, offset + 1));
+    newChunk[offset] = row;
+    newChunks[chunk] = newChunk;
+    return new FeatureRows(idMapping, newAddedIDs, newNumAdded, newChunks, newNumRows);
+  }
+
+  Iterable<Map.Entry<Long,Integer>> idMappings() {
+    if (numAdded == 0) {
+      return idMapping.entrySet();
+    }
+    return Iterables.concat(idMapping.entrySet(), Iterables.filter(addedIDs.mapping.entrySet(),
+        new Predicate<Map.Entry<Long,Integer>>() {
+          @Override
+          public boolean apply(Map.Entry<Long,Integer> entry) {
+            return entry.getValue() < numRows;
+          }
+        }));
+  }
+
+  int numIDs() {
+    return idMapping.size() + numAdded;
+  }
+
+  int numRows() {
+    return numRows;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof FeatureRows)) {
+      return false;
+    }
+    FeatureRows other = (FeatureRows) o;
+    if (numIDs() != other.numIDs() || numRows != other.numRows) {
+      return false;
+    }
+    for (Map.Entry<Long,Integer> entry : idMappings()) {
+      if (!entry.getValue().equals(other.index(entry.getKey()))) {
+        return false;
+      }
+    }
+    for (int index = 0; index < numRows; index++) {
+      if (!Arrays.equals(row(index), other.row(index))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int hashCode = 0;
+    for (Map.Entry<Long,Integer> entry : idMappings()) {
+      long id = entry.getKey();
+      hashCode += (int) (id ^ (id >>> 32)) ^ entry.getValue();
+    }
+    for (int index = 0; index < numRows; index++) {
+      hashCode = 31 * hashCode + Arrays.hashCode(row(index));
+    }
+    return hashCode;
+  }
+
+  /** IDs added to the instances sharing this, in the order they were added. */
+  private static final class AddedIDs {
+
+    private final ConcurrentMap<Long,Integer> mapping = new ConcurrentHashMap<Long,Integer>();
+    /** guarded by this */
+    private int size;
+
+    /**
+     * @param numAdded number of these IDs the instance adding the ID has
+     * @return this with the ID added, or a copy of the first <code>numAdded</code> IDs and the new one if this has
+     *  more than <code>numAdded</code> already
+     */
+    synchronized AddedIDs append(int numAdded, long id, int index) {
+      if (size == numAdded) {
+        mapping.put(id, index);
+        size++;
+        return this;
+      }
+      AddedIDs copy = new AddedIDs();
+      for (Map.Entry<Long,Integer> entry : mapping.entrySet()) {
+        if (entry.getValue() < index) {
+          copy.mapping.put(entry.getKey(), entry.getValue());
+        }
+      }
+      copy.mapping.put(id, index);
+      copy.size = numAdded + 1;
+      return copy;
+    }
+  }
+
+}
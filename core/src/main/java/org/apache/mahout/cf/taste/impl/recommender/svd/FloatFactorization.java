@@ -0,0 +1,536 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.MappedArrays;
+import org.apache.mahout.cf.taste.impl.common.TopNHeap;
+import org.apache.mahout.cf.taste.impl.recommender.TopItems;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+
+/**
+ * <p>A {@link Factorization} whose features are floats laid out contiguously, row after row, either on the heap or
+ * memory-mapped from a file written by {@link #write(Factorization, File)}, so that a large factorization loads
+ * instantly and is shared through the page cache. User and item IDs are kept sorted, and a row is found by binary
+ * search over them.</p>
+ *
+ * <p>Besides estimates, it finds a user's top items by scanning the item rows with a primitive heap, and several
+ * users' top items at once by scanning the items in blocks that are scored against every user while they are in
+ * cache. {@link SVDRecommender} uses these when its factorization is a {@code FloatFactorization}.</p>
+ *
+ * <p>{@link #getUserFeatures(long)} and {@link #getItemFeatures(long)} return new arrays on every call.</p>
+ */
+public final class FloatFactorization extends Factorization {
+
+  private static final long MAGIC = 0x4D41484F55534631L; // "MAHOUSF1"
+  private static final int HEADER_BYTES = 24;
+  /** floats per buffer, matching the largest mapping made at once */
+  private static final int FLOATS_PER_CHUNK = 1 << 26;
+  /** items scored against all users of a batch before moving on */
+  private static final int ITEMS_PER_BLOCK = 1024;
+  /** candidates are looked up one by one, rather than found in a scan, when there are fewer than this fraction */
+  private static final int SPARSE_CANDIDATES_RATIO = 16;
+
+  private final int numFeatures;
+  private final long[] userIDs;
+  private final long[] itemIDs;
+  private final FloatRows userRows;
+  private final FloatRows itemRows;
+
+  private FloatFactorization(int numFeatures, long[] userIDs, long[] itemIDs, FloatRows userRows, FloatRows itemRows) {
+    // features live in the float rows, not in the superclass's arrays
+    super(new FastByIDMap<Integer>(0), new FastByIDMap<Integer>(0), null, null);
+    this.numFeatures = numFeatures;
+    this.userIDs = userIDs;
+    this.itemIDs = itemIDs;
+    this.userRows = userRows;
+    this.itemRows = itemRows;
+  }
+
+  /** @return a copy of the factorization, with its features as floats on the heap */
+  public static FloatFactorization copyOf(Factorization factorization) throws TasteException {
+    int numFeatures = factorization.numFeatures();
+    long[] userIDs = sortedIDs(factorization.getUserIDMappings(), factorization.numUsers());
+    long[] itemIDs = sortedIDs(factorization.getItemIDMappings(), factorization.numItems());
+    FloatRows userRows = FloatRows.allocate(userIDs.length, numFeatures);
+    for (int row = 0; row < userIDs.length; row++) {
+      userRows.set(row, factorization.getUserFeatures(userIDs[row]));
+    }
+    FloatRows itemRows = FloatRows.allocate(itemIDs.length, numFeatures);
+    for (int row = 0; row < itemIDs.length; row++) {
+      itemRows.set(row, factorization.getItemFeatures(itemIDs[row]));
+    }
+    return new FloatFactorization(numFeatures, userIDs, itemIDs, userRows, itemRows);
+  }
+
+  /**
+   * Writes a factorization in the layout that {@link #map(File)} maps: a header, the sorted user and item IDs,
+   * then the user and the item features as big-endian floats in ID order.
+   */
+  public static void write(Factorization factorization, File file) throws IOException {
+    int numFeatures = factorization.numFeatures();
+    long[] userIDs = sortedIDs(factorization.getUserIDMappings(), factorization.numUsers());
+    long[] itemIDs = sortedIDs(factorization.getItemIDMappings(), factorization.numItems());
+    RandomAccessFile out = new RandomAccessFile(file, "rw");
+    try {
+      out.setLength(0L);
+      FileChannel channel = out.getChannel();
+      ByteBuffer buffer = ByteBuffer.allocate(Math.max(1 << 20, 8 * numFeatures));
+      buffer.putLong(MAGIC).putInt(numFeatures).putInt(userIDs.length).putInt(itemIDs.length).putInt(0);
+      buffer.flip();
+      MappedArrays.writeFully(channel, buffer);
+      MappedArrays.writeLongs(channel, buffer, userIDs);
+      MappedArrays.writeLongs(channel, buffer, itemIDs);
+      buffer.clear();
+      for (long userID : userIDs) {
+        putFeatures(channel, buffer, factorization.getUserFeatures(userID));
+      }
+      for (long itemID : itemIDs) {
+        putFeatures(channel, buffer, factorization.getItemFeatures(itemID));
+      }
+      buffer.flip();
+      MappedArrays.writeFully(channel, buffer);
+    } catch (NoSuchUserException nsue) {
+      throw new IOException("Unable to persist factorization", nsue);
+    } catch (NoSuchItemException nsie) {
+      throw new IOException("Unable to persist factorization", nsie);
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void putFeatures(FileChannel channel, ByteBuffer buffer, double[] features) throws IOException {
+    if (buffer.remaining() < 4 * features.length) {
+      buffer.flip();
+      MappedArrays.writeFully(channel, buffer);
+      buffer.clear();
+    }
+    for (double feature : features) {
+      buffer.putFloat((float) feature);
+    }
+  }
+
+  /**
+   * Maps a factorization written by {@link #write(Factorization, File)}. Only the IDs are read onto the heap, the
+   * features are read from the mapping as they are used.
+   */
+  public static FloatFactorization map(File file) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = in.getChannel();
+      if (channel.size() < HEADER_BYTES) {
+        throw new IOException("Not a factorization: " + file);
+      }
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0L, HEADER_BYTES);
+      if (header.getLong() != MAGIC) {
+        throw new IOException("Not a factorization: " + file);
+      }
+      int numFeatures = header.getInt();
+      int numUsers = header.getInt();
+      int numItems = header.getInt();
+      long expectedLength = HEADER_BYTES + 8L * (numUsers + numItems) + 4L * numFeatures * (numUsers + numItems);
+      if (channel.size() != expectedLength) {
+        throw new IOException("Truncated factorization: " + file);
+      }
+      long position = HEADER_BYTES;
+      long[] userIDs = new long[numUsers];
+      position = MappedArrays.readLongs(channel, position, userIDs);
+      long[] itemIDs = new long[numItems];
+      position = MappedArrays.readLongs(channel, position, itemIDs);
+      FloatRows userRows = FloatRows.map(channel, position, numUsers, numFeatures);
+      position += 4L * numFeatures * numUsers;
+      FloatRows itemRows = FloatRows.map(channel, position, numItems, numFeatures);
+      return new FloatFactorization(numFeatures, userIDs, itemIDs, userRows, itemRows);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static long[] sortedIDs(Iterable<Map.Entry<Long,Integer>> mappings, int size) {
+    long[] ids = new long[size];
+    int n = 0;
+    for (Map.Entry<Long,Integer> mapping : mappings) {
+      ids[n++] = mapping.getKey();
+    }
+    Arrays.sort(ids);
+    return ids;
+  }
+
+  private int userRow(long userID) throws NoSuchUserException {
+    int row = Arrays.binarySearch(userIDs, userID);
+    if (row < 0) {
+      throw new NoSuchUserException(userID);
+    }
+    return row;
+  }
+
+  private int itemRow(long itemID) throws NoSuchItemException {
+    int row = Arrays.binarySearch(itemIDs, itemID);
+    if (row < 0) {
+      throw new NoSuchItemException(itemID);
+    }
+    return row;
+  }
+
+  @Override
+  public double[] getUserFeatures(long userID) throws NoSuchUserException {
+    return userRows.get(userRow(userID));
+  }
+
+  @Override
+  public double[] getItemFeatures(long itemID) throws NoSuchItemException {
+    return itemRows.get(itemRow(itemID));
+  }
+
+  /** @throws UnsupportedOperationException rows are packed, and may be mapped read-only */
+  @Override
+  public Factorization withUserFeatures(long userID, double[] features) {
+    throw new UnsupportedOperationException("FloatFactorization can't be changed, retrain instead");
+  }
+
+  /** @throws UnsupportedOperationException rows are packed, and may be mapped read-only */
+  @Override
+  public Factorization withItemFeatures(long itemID, double[] features) {
+    throw new UnsupportedOperationException("FloatFactorization can't be changed, retrain instead");
+  }
+
+  /** @return the dot product of the user's and the item's features */
+  public float estimate(long userID, long itemID) throws TasteException {
+    float[] userVector = userRows.copy(userRow(userID), new float[numFeatures]);
+    float[] itemVector = itemRows.copy(itemRow(itemID), new float[numFeatures]);
+    return (float) dot(itemVector, 0, userVector);
+  }
+
+  /**
+   * @param candidateItemIDs items to consider, or null for all items. Candidates not in this factorization are
+   *  skipped
+   * @param rescorer optional rescorer, as in {@link TopItems}
+   * @return the user's highest estimated items, from highest to lowest
+   */
+  public List<RecommendedItem> recommend(long userID, int howMany, FastIDSet candidateItemIDs, IDRescorer rescorer)
+    throws TasteException {
+    float[] userVector = userRows.copy(userRow(userID), new float[numFeatures]);
+    TopNHeap top = new TopNHeap(howMany);
+    if (candidateItemIDs != null && candidateItemIDs.size() < itemIDs.length / SPARSE_CANDIDATES_RATIO) {
+      float[] itemVector = new float[numFeatures];
+      LongPrimitiveIterator it = candidateItemIDs.iterator();
+      while (it.hasNext()) {
+        long itemID = it.nextLong();
+        int row = Arrays.binarySearch(itemIDs, itemID);
+        if (row >= 0) {
+          offer(top, itemID, dot(itemRows.copy(row, itemVector), 0, userVector), rescorer);
+        }
+      }
+    } else {
+      scan(new float[][] {userVector}, new FastIDSet[] {candidateItemIDs}, rescorer, new TopNHeap[] {top});
+    }
+    return TopItems.toRecommendedItems(top);
+  }
+
+  /**
+   * Like {@link #recommend(long, int, FastIDSet, IDRescorer)} for several users at once, scoring each block of
+   * items against all of them while it is in cache.
+   *
+   * @param candidateItemIDs each user's candidates, or null for all items for every user
+   * @return each user's highest estimated items, in the order of the user IDs
+   */
+  public List<List<RecommendedItem>> recommend(long[] userIDs,
+                                               int howMany,
+                                               FastIDSet[] candidateItemIDs,
+                                               IDRescorer rescorer) throws TasteException {
+    Preconditions.checkArgument(candidateItemIDs == null || candidateItemIDs.length == userIDs.length,
+        "need candidates for each user");
+    float[][] userVectors = new float[userIDs.length][];
+    TopNHeap[] tops = new TopNHeap[userIDs.length];
+    for (int u = 0; u < userIDs.length; u++) {
+      userVectors[u] = userRows.copy(userRow(userIDs[u]), new float[numFeatures]);
+      tops[u] = new TopNHeap(howMany);
+    }
+    scan(userVectors, candidateItemIDs == null ? new FastIDSet[userIDs.length] : candidateItemIDs, rescorer, tops);
+    List<List<RecommendedItem>> result = new ArrayList<List<RecommendedItem>>(userIDs.length);
+    for (TopNHeap top : tops) {
+      result.add(TopItems.toRecommendedItems(top));
+    }
+    return result;
+  }
+
+  private void scan(float[][] userVectors, FastIDSet[] candidateItemIDs, IDRescorer rescorer, TopNHeap[] tops) {
+    float[] scratch = itemRows.isMapped() ? new float[ITEMS_PER_BLOCK * numFeatures] : null;
+    int from = 0;
+    while (from < itemIDs.length) {
+      int to = itemRows.blockEnd(from, Math.min(itemIDs.length, from + ITEMS_PER_BLOCK));
+      float[] block = itemRows.block(from, to, scratch);
+      int blockOffset = itemRows.blockOffset(from);
+      for (int u = 0; u < userVectors.length; u++) {
+        float[] userVector = userVectors[u];
+        FastIDSet candidates = candidateItemIDs[u];
+        TopNHeap top = tops[u];
+        int offset = blockOffset;
+        for (int row = from; row < to; row++, offset += numFeatures) {
+          long itemID = itemIDs[row];
+          if (candidates == null || candidates.contains(itemID)) {
+            offer(top, itemID, dot(block, offset, userVector), rescorer);
+          }
+        }
+      }
+      from = to;
+    }
+  }
+
+  /** Accumulates in floats, over four independent sums, which is enough to rank and much faster to scan. */
+  private static double dot(float[] rows, int offset, float[] vector) {
+    int length = vector.length;
+    int rounded = length & ~3;
+    float sum0 = 0.0f;
+    float sum1 = 0.0f;
+    float sum2 = 0.0f;
+    float sum3 = 0.0f;
+    int feature = 0;
+    for (; feature < rounded; feature += 4) {
+      sum0 += rows[offset + feature] * vector[feature];
+      sum1 += rows[offset + feature + 1] * vector[feature + 1];
+      sum2 += rows[offset + feature + 2] * vector[feature + 2];
+      sum3 += rows[offset + feature + 3] * vector[feature + 3];
+    }
+    for (; feature < length; feature++) {
+      sum0 += rows[offset + feature] * vector[feature];
+    }
+    return (sum0 + sum1) + (sum2 + sum3);
+  }
+
+  private static void offer(TopNHeap top, long itemID, double estimate, IDRescorer rescorer) {
+    if (rescorer != null) {
+      if (rescorer.isFiltered(itemID)) {
+        return;
+      }
+      estimate = rescorer.rescore(itemID, estimate);
+    }
+    // Values are kept as floats, so compare as floats
+    top.offer(itemID, (float) estimate);
+  }
+
+  @Override
+  public Iterable<Map.Entry<Long,Integer>> getUserIDMappings() {
+    return new IDMappings(userIDs);
+  }
+
+  @Override
+  public Iterable<Map.Entry<Long,Integer>> getItemIDMappings() {
+    return new IDMappings(itemIDs);
+  }
+
+  @Override
+  public int numFeatures() {
+    return numFeatures;
+  }
+
+  @Override
+  public int numUsers() {
+    return userIDs.length;
+  }
+
+  @Override
+  public int numItems() {
+    return itemIDs.length;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof FloatFactorization)) {
+      return false;
+    }
+    FloatFactorization other = (FloatFactorization) o;
+    if (numFeatures != other.numFeatures
+        || !Arrays.equals(userIDs, other.userIDs) || !Arrays.equals(itemIDs, other.itemIDs)) {
+      return false;
+    }
+    for (int row = 0; row < userIDs.length; row++) {
+      if (!Arrays.equals(userRows.get(row), other.userRows.get(row))) {
+        return false;
+      }
+    }
+    for (int row = 0; row < itemIDs.length; row++) {
+      if (!Arrays.equals(itemRows.get(row), other.itemRows.get(row))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * (31 * numFeatures + Arrays.hashCode(userIDs)) + Arrays.hashCode(itemIDs);
+  }
+
+  /** Sorted IDs as a mapping from ID to row. */
+  private static final class IDMappings implements Iterable<Map.Entry<Long,Integer>> {
+
+    private final long[] ids;
+
+    private IDMappings(long[] ids) {
+      this.ids = ids;
+    }
+
+    @Override
+    public Iterator<Map.Entry<Long,Integer>> iterator() {
+      return new Iterator<Map.Entry<Long,Integer>>() {
+        private int next;
+
+        @Override
+        public boolean hasNext() {
+          return next < ids.length;
+        }
+
+        @Override
+        public Map.Entry<Long,Integer> next() {
+          if (next >= ids.length) {
+            throw new NoSuchElementException();
+          }
+          Map.Entry<Long,Integer> entry = new AbstractMap.SimpleImmutableEntry<Long,Integer>(ids[next], next);
+          next++;
+          return entry;
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+  }
+
+  /**
+   * Rows of floats stored contiguously in chunks holding a whole number of rows each, as arrays on the heap or
+   * as buffers over a mapping.
+   */
+  private static final class FloatRows {
+
+    /** null when mapped */
+    private final float[][] arrays;
+    private final FloatBuffer[] chunks;
+    private final int rowsPerChunk;
+    private final int numFeatures;
+
+    private FloatRows(float[][] arrays, FloatBuffer[] chunks, int rowsPerChunk, int numFeatures) {
+      this.arrays = arrays;
+      this.chunks = chunks;
+      this.rowsPerChunk = rowsPerChunk;
+      this.numFeatures = numFeatures;
+    }
+
+    static FloatRows allocate(int numRows, int numFeatures) {
+      int rowsPerChunk = rowsPerChunk(numFeatures);
+      int numChunks = (numRows + rowsPerChunk - 1) / rowsPerChunk;
+      float[][] arrays = new float[numChunks][];
+      FloatBuffer[] chunks = new FloatBuffer[numChunks];
+      for (int chunk = 0; chunk < numChunks; chunk++) {
+        int rows = Math.min(rowsPerChunk, numRows - chunk * rowsPerChunk);
+        arrays[chunk] = new float[rows * numFeatures];
+        chunks[chunk] = FloatBuffer.wrap(arrays[chunk]);
+      }
+      return new FloatRows(arrays, chunks, rowsPerChunk, numFeatures);
+    }
+
+    static FloatRows map(FileChannel channel, long position, int numRows, int numFeatures) throws IOException {
+      int rowsPerChunk = rowsPerChunk(numFeatures);
+      FloatBuffer[] chunks = MappedArrays.mapFloats(channel, position, (long) numRows * numFeatures,
+          rowsPerChunk * numFeatures);
+      return new FloatRows(null, chunks, rowsPerChunk, numFeatures);
+    }
+
+    private static int rowsPerChunk(int numFeatures) {
+      return Math.max(1, FLOATS_PER_CHUNK / numFeatures);
+    }
+
+    boolean isMapped() {
+      return arrays == null;
+    }
+
+    void set(int row, double[] features) {
+      FloatBuffer chunk = chunks[row / rowsPerChunk];
+      int offset = (row % rowsPerChunk) * numFeatures;
+      for (int feature = 0; feature < numFeatures; feature++) {
+        chunk.put(offset + feature, (float) features[feature]);
+      }
+    }
+
+    double[] get(int row) {
+      FloatBuffer chunk = chunks[row / rowsPerChunk];
+      int offset = (row % rowsPerChunk) * numFeatures;
+      double[] features = new double[numFeatures];
+      for (int feature = 0; feature < numFeatures; feature++) {
+        features[feature] = chunk.get(offset + feature);
+      }
+      return features;
+    }
+
+    float[] copy(int row, float[] into) {
+      FloatBuffer chunk = chunks[row / rowsPerChunk];
+      int offset = (row % rowsPerChunk) * numFeatures;
+      for (int feature = 0; feature < numFeatures; feature++) {
+        into[feature] = chunk.get(offset + feature);
+      }
+      return into;
+    }
+
+    /** @return the end of a block of rows starting at from, at most to, that doesn't cross chunks */
+    int blockEnd(int from, int to) {
+      return Math.min(to, (from / rowsPerChunk + 1) * rowsPerChunk);
+    }
+
+    /**
+     * @param scratch space for the block when mapped, unused otherwise
+     * @return an array holding the rows [from, to), starting at {@link #blockOffset(int)}
+     */
+    float[] block(int from, int to, float[] scratch) {
+      if (arrays != null) {
+        return arrays[from / rowsPerChunk];
+      }
+      FloatBuffer chunk = chunks[from / rowsPerChunk].duplicate();
+      chunk.position((from % rowsPerChunk) * numFeatures);
+      chunk.get(scratch, 0, (to - from) * numFeatures);
+      return scratch;
+    }
+
+    int blockOffset(int from) {
+      return arrays != null ? (from % rowsPerChunk) * numFeatures : 0;
+    }
+  }
+
+}
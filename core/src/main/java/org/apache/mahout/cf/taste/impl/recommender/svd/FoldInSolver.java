@@ -0,0 +1,43 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * <p>Solves the features of one user or item against the fixed features of the other side of a
+ * {@link Factorization}, under the same objective a {@link Factorizer} trained them with, so that an
+ * {@link SVDRecommender} can fold in new preferences without retraining. A {@link Factorizer} that implements this
+ * is used for its own fold-ins, others get a {@link LeastSquaresFoldInSolver}.</p>
+ */
+public interface FoldInSolver {
+
+  /**
+   * @return the user's features, solved from the features of the items the user has preferences for, or null if
+   *  none of those items are in the factorization
+   */
+  double[] solveUserFeatures(Factorization factorization, PreferenceArray preferencesFromUser) throws TasteException;
+
+  /**
+   * @return the item's features, solved from the features of the users who have preferences for it, or null if
+   *  none of those users are in the factorization
+   */
+  double[] solveItemFeatures(Factorization factorization, PreferenceArray preferencesForItem) throws TasteException;
+
+}
@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.math.als.InPlaceAlternateLeastSquaresSolver;
+
+/**
+ * Folds in by explicit least squares against all features of the other side, regularized by lambda times the
+ * number of preferences, the way {@link ALSWRFactorizer} trains explicit feedback.
+ */
+public final class LeastSquaresFoldInSolver implements FoldInSolver {
+
+  private final double lambda;
+
+  public LeastSquaresFoldInSolver(double lambda) {
+    Preconditions.checkArgument(lambda > 0.0, "lambda must be positive");
+    this.lambda = lambda;
+  }
+
+  @Override
+  public double[] solveUserFeatures(Factorization factorization, PreferenceArray preferencesFromUser)
+    throws TasteException {
+    return solve(factorization, preferencesFromUser, true, allFree(factorization.numFeatures()), lambda);
+  }
+
+  @Override
+  public double[] solveItemFeatures(Factorization factorization, PreferenceArray preferencesForItem)
+    throws TasteException {
+    return solve(factorization, preferencesForItem, false, allFree(factorization.numFeatures()), lambda);
+  }
+
+  /** @return fixed values for {@link #solve}, leaving every feature free */
+  static double[] allFree(int numFeatures) {
+    double[] fixed = new double[numFeatures];
+    Arrays.fill(fixed, Double.NaN);
+    return fixed;
+  }
+
+  /**
+   * Solves the features of a user, from the features of the items in the preferences if ofUser, or else of an
+   * item, from the features of the users. Features whose value in fixed is not NaN keep it, and their contribution
+   * is subtracted from each preference before the others are solved for, regularized by lambda times the number of
+   * preferences.
+   *
+   * @return the features, or null if none of the preferences are for items, or from users, in the factorization
+   */
+  static double[] solve(Factorization factorization,
+                        PreferenceArray preferences,
+                        boolean ofUser,
+                        double[] fixed,
+                        double lambda) throws TasteException {
+    int numFeatures = fixed.length;
+    int[] free = new int[numFeatures];
+    int numFree = 0;
+    for (int feature = 0; feature < numFeatures; feature++) {
+      if (Double.isNaN(fixed[feature])) {
+        free[numFree++] = feature;
+      }
+    }
+    InPlaceAlternateLeastSquaresSolver solver = new InPlaceAlternateLeastSquaresSolver(numFree);
+    solver.reset();
+    double[] freeFeatures = new double[numFree];
+    int length = preferences.length();
+    for (int i = 0; i < length; i++) {
+      double[] other = otherFeatures(factorization, preferences, i, ofUser);
+      if (other == null) {
+        continue;
+      }
+      double value = preferences.getValue(i);
+      for (int feature = 0; feature < numFeatures; feature++) {
+        if (!Double.isNaN(fixed[feature])) {
+          value -= fixed[feature] * other[feature];
+        }
+      }
+      for (int n = 0; n < numFree; n++) {
+        freeFeatures[n] = other[free[n]];
+      }
+      solver.addExplicit(freeFeatures, value);
+    }
+    if (solver.getNumExamples() == 0) {
+      return null;
+    }
+    double[] solved = solver.solve(lambda * solver.getNumExamples(), new double[numFree]);
+    double[] features = fixed.clone();
+    for (int n = 0; n < numFree; n++) {
+      features[free[n]] = solved[n];
+    }
+    return features;
+  }
+
+  /**
+   * @return the features of the i-th preference's item if ofUser, or else of its user, or null if it is not in the
+   *  factorization yet
+   */
+  static double[] otherFeatures(Factorization factorization, PreferenceArray preferences, int i, boolean ofUser) {
+    try {
+      return ofUser
+          ? factorization.getItemFeatures(preferences.getItemID(i))
+          : factorization.getUserFeatures(preferences.getUserID(i));
+    } catch (NoSuchItemException nsie) {
+      return null;
+    } catch (NoSuchUserException nsue) {
+      return null;
+    }
+  }
+
+}
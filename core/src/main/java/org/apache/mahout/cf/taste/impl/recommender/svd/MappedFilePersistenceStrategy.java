@@ -0,0 +1,66 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Provides a file-based persistent store in the layout of {@link FloatFactorization}, which is memory-mapped on
+ * load rather than read. A new factorization is written next to the file and then renamed over it, so that
+ * factorizations mapped from the old file stay valid.
+ */
+public class MappedFilePersistenceStrategy implements PersistenceStrategy {
+
+  private final File file;
+
+  private static final Logger log = LoggerFactory.getLogger(MappedFilePersistenceStrategy.class);
+
+  /**
+   * @param file the file to use for storage. If the file does not exist it will be created when required.
+   */
+  public MappedFilePersistenceStrategy(File file) {
+    this.file = Preconditions.checkNotNull(file);
+  }
+
+  /** @return the stored factorization as a {@link FloatFactorization}, or null if there is none yet */
+  @Override
+  public Factorization load() throws IOException {
+    if (!file.exists()) {
+      log.info("{} does not yet exist, no factorization found", file.getAbsolutePath());
+      return null;
+    }
+    log.info("Mapping factorization from {}...", file.getAbsolutePath());
+    return FloatFactorization.map(file);
+  }
+
+  @Override
+  public void maybePersist(Factorization factorization) throws IOException {
+    File tempFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+    log.info("Writing factorization to {}...", file.getAbsolutePath());
+    FloatFactorization.write(factorization, tempFile);
+    if (!tempFile.renameTo(file)) {
+      throw new IOException("Unable to rename " + tempFile + " to " + file);
+    }
+  }
+
+}
@@ -0,0 +1,296 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.TopNHeap;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
+import org.apache.mahout.common.RandomUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>An approximate maximum inner product search index over the items of a {@link Factorization}, usable as the
+ * {@link CandidateItemsStrategy} of an {@link SVDRecommender} so that it only scores the items most likely to
+ * have the highest dot product with the user's features, instead of all of them.</p>
+ *
+ * <p>Each item's features x are extended with one more component, sqrt(M<sup>2</sup> - |x|<sup>2</sup>) where M
+ * is the largest item norm, which puts all items on a sphere without changing their dot product with a user's
+ * features extended with 0. The extended items are then clustered with k-means, and a user's candidates are the
+ * items of the clusters whose centroids have the highest dot product with the user's features.</p>
+ *
+ * <p>Recall is traded for speed with the number of clusters probed, see {@link #withNumProbes(int)}: probing all
+ * of them gives exact results. Around sqrt(number of items) clusters is usual.</p>
+ *
+ * <p>An {@link SVDRecommender} given an index probes it with each user's current features, so users folded in
+ * since the index was built get candidates too, and rebuilds it with the same settings from every factorization
+ * it trains. Items folded in between trainings are not candidates until the next one.</p>
+ */
+public final class MaximumInnerProductIndex implements CandidateItemsStrategy {
+
+  private static final Logger log = LoggerFactory.getLogger(MaximumInnerProductIndex.class);
+
+  public static final int DEFAULT_NUM_ITERATIONS = 10;
+  /** clusters are learned from at most this many items per cluster, then all items are assigned */
+  private static final int SAMPLE_ITEMS_PER_CLUSTER = 256;
+
+  private final Factorization factorization;
+  private final int numFeatures;
+  /** numClusters rows of numFeatures + 1 */
+  private final double[] centroids;
+  /** cluster c's items are listItemIDs[listOffsets[c]] to listItemIDs[listOffsets[c + 1] - 1] */
+  private final int[] listOffsets;
+  private final long[] listItemIDs;
+  private final int numProbes;
+  private final int numIterations;
+
+  private MaximumInnerProductIndex(Factorization factorization,
+                                   double[] centroids,
+                                   int[] listOffsets,
+                                   long[] listItemIDs,
+                                   int numProbes,
+                                   int numIterations) {
+    this.factorization = factorization;
+    this.numFeatures = factorization.numFeatures();
+    this.centroids = centroids;
+    this.listOffsets = listOffsets;
+    this.listItemIDs = listItemIDs;
+    this.numProbes = numProbes;
+    this.numIterations = numIterations;
+  }
+
+  public static MaximumInnerProductIndex build(Factorization factorization, int numClusters, int numProbes)
+    throws TasteException {
+    return build(factorization, numClusters, numProbes, DEFAULT_NUM_ITERATIONS);
+  }
+
+  /**
+   * @param numClusters number of clusters to split items into
+   * @param numProbes number of clusters whose items are candidates for a user
+   * @param numIterations k-means iterations
+   */
+  public static MaximumInnerProductIndex build(Factorization factorization,
+                                               int numClusters,
+                                               int numProbes,
+                                               int numIterations) throws TasteException {
+    int numItems = factorization.numItems();
+    Preconditions.checkArgument(numClusters >= 1 && numClusters <= numItems,
+        "numClusters must be between 1 and the number of items");
+    Preconditions.checkArgument(numProbes >= 1 && numProbes <= numClusters,
+        "numProbes must be between 1 and numClusters");
+    Preconditions.checkArgument(numIterations >= 0, "numIterations must be at least 0");
+
+    int numFeatures = factorization.numFeatures();
+    int dimensions = numFeatures + 1;
+    Preconditions.checkArgument((long) numItems * dimensions <= Integer.MAX_VALUE, "too many items to index");
+    long[] itemIDs = new long[numItems];
+    double[] items = new double[numItems * dimensions];
+    double maxSquaredNorm = 0.0;
+    int n = 0;
+    for (Map.Entry<Long,Integer> entry : factorization.getItemIDMappings()) {
+      itemIDs[n] = entry.getKey();
+      double[] features = factorization.getItemFeatures(itemIDs[n]);
+      System.arraycopy(features, 0, items, n * dimensions, numFeatures);
+      maxSquaredNorm = Math.max(maxSquaredNorm, dot(features, 0, features, 0, numFeatures));
+      n++;
+    }
+    for (int i = 0; i < numItems; i++) {
+      int offset = i * dimensions;
+      double squaredNorm = dot(items, offset, items, offset, numFeatures);
+      items[offset + numFeatures] = Math.sqrt(Math.max(0.0, maxSquaredNorm - squaredNorm));
+    }
+
+    long start = System.currentTimeMillis();
+    Random random = RandomUtils.getRandom();
+    int[] sample = sample(numItems, Math.min(numItems, numClusters * SAMPLE_ITEMS_PER_CLUSTER), random);
+    double[] centroids = kMeans(items, dimensions, sample, numClusters, numIterations, random);
+
+    int[] assignments = new int[numItems];
+    int[] listOffsets = new int[numClusters + 1];
+    for (int i = 0; i < numItems; i++) {
+      assignments[i] = nearest(centroids, numClusters, items, i * dimensions, dimensions);
+      listOffsets[assignments[i] + 1]++;
+    }
+    for (int c = 0; c < numClusters; c++) {
+      listOffsets[c + 1] += listOffsets[c];
+    }
+    long[] listItemIDs = new long[numItems];
+    int[] next = Arrays.copyOf(listOffsets, numClusters);
+    for (int i = 0; i < numItems; i++) {
+      listItemIDs[next[assignments[i]]++] = itemIDs[i];
+    }
+    log.info("Clustered {} items into {} lists in {}ms",
+        new Object[] {numItems, numClusters, System.currentTimeMillis() - start});
+    return new MaximumInnerProductIndex(factorization, centroids, listOffsets, listItemIDs, numProbes,
+        numIterations);
+  }
+
+  /**
+   * @return an index over the given factorization's items with the same settings, or this index if it was built
+   *  from that factorization. There are no more clusters than items, or probes than clusters.
+   */
+  public MaximumInnerProductIndex rebuild(Factorization factorization) throws TasteException {
+    if (factorization == this.factorization) {
+      return this;
+    }
+    int numClusters = Math.min(getNumClusters(), factorization.numItems());
+    return build(factorization, numClusters, Math.min(numProbes, numClusters), numIterations);
+  }
+
+  /** @return this index, probing the given number of clusters per user */
+  public MaximumInnerProductIndex withNumProbes(int numProbes) {
+    Preconditions.checkArgument(numProbes >= 1 && numProbes <= getNumClusters(),
+        "numProbes must be between 1 and numClusters");
+    return new MaximumInnerProductIndex(factorization, centroids, listOffsets, listItemIDs, numProbes, numIterations);
+  }
+
+  public int getNumClusters() {
+    return listOffsets.length - 1;
+  }
+
+  public int getNumProbes() {
+    return numProbes;
+  }
+
+  /**
+   * @return items of the clusters closest to the user's features in the factorization this index was built from,
+   *  except those the user already has a preference for. {@link SVDRecommender} doesn't call this, but
+   *  {@link #getCandidateItems(double[])} with the user's current features.
+   */
+  @Override
+  public FastIDSet getCandidateItems(long userID, PreferenceArray preferencesFromUser, DataModel dataModel)
+    throws TasteException {
+    FastIDSet candidateItemIDs = getCandidateItems(factorization.getUserFeatures(userID));
+    candidateItemIDs.removeAll(preferencesFromUser.getIDs());
+    return candidateItemIDs;
+  }
+
+  /** @return items of the clusters whose centroids have the highest dot product with the given features */
+  public FastIDSet getCandidateItems(double[] features) {
+    Preconditions.checkArgument(features.length == numFeatures, "features must have numFeatures entries");
+    int numClusters = getNumClusters();
+    int dimensions = numFeatures + 1;
+    TopNHeap probes = new TopNHeap(numProbes);
+    for (int c = 0; c < numClusters; c++) {
+      if (listOffsets[c + 1] > listOffsets[c]) {
+        probes.offer(c, dot(features, 0, centroids, c * dimensions, numFeatures));
+      }
+    }
+    int size = 0;
+    long[] clusters = probes.toIDArray();
+    for (long c : clusters) {
+      size += listOffsets[(int) c + 1] - listOffsets[(int) c];
+    }
+    FastIDSet candidateItemIDs = new FastIDSet(size);
+    for (long c : clusters) {
+      for (int p = listOffsets[(int) c]; p < listOffsets[(int) c + 1]; p++) {
+        candidateItemIDs.add(listItemIDs[p]);
+      }
+    }
+    return candidateItemIDs;
+  }
+
+  /** @return the given number of distinct indexes below numItems, in random order */
+  private static int[] sample(int numItems, int size, Random random) {
+    int[] indexes = new int[numItems];
+    for (int i = 0; i < numItems; i++) {
+      indexes[i] = i;
+    }
+    for (int i = 0; i < size; i++) {
+      int j = i + random.nextInt(numItems - i);
+      int swap = indexes[i];
+      indexes[i] = indexes[j];
+      indexes[j] = swap;
+    }
+    return Arrays.copyOf(indexes, size);
+  }
+
+  /** Lloyd's k-means over the sampled rows, starting from the first sampled rows. */
+  private static double[] kMeans(double[] items,
+                                 int dimensions,
+                                 int[] sample,
+                                 int numClusters,
+                                 int numIterations,
+                                 Random random) {
+    double[] centroids = new double[numClusters * dimensions];
+    for (int c = 0; c < numClusters; c++) {
+      System.arraycopy(items, sample[c] * dimensions, centroids, c * dimensions, dimensions);
+    }
+    double[] sums = new double[numClusters * dimensions];
+    int[] counts = new int[numClusters];
+    for (int iteration = 0; iteration < numIterations; iteration++) {
+      Arrays.fill(sums, 0.0);
+      Arrays.fill(counts, 0);
+      for (int i : sample) {
+        int c = nearest(centroids, numClusters, items, i * dimensions, dimensions);
+        counts[c]++;
+        for (int d = 0; d < dimensions; d++) {
+          sums[c * dimensions + d] += items[i * dimensions + d];
+        }
+      }
+      for (int c = 0; c < numClusters; c++) {
+        if (counts[c] == 0) {
+          // reseed an empty cluster with a random sampled item
+          System.arraycopy(items, sample[random.nextInt(sample.length)] * dimensions, centroids, c * dimensions,
+              dimensions);
+        } else {
+          for (int d = 0; d < dimensions; d++) {
+            centroids[c * dimensions + d] = sums[c * dimensions + d] / counts[c];
+          }
+        }
+      }
+    }
+    return centroids;
+  }
+
+  /** @return the cluster whose centroid is nearest to the row, in Euclidean distance */
+  private static int nearest(double[] centroids, int numClusters, double[] items, int offset, int dimensions) {
+    int nearest = 0;
+    double nearestDistance = Double.POSITIVE_INFINITY;
+    for (int c = 0; c < numClusters; c++) {
+      int centroid = c * dimensions;
+      double distance = 0.0;
+      for (int d = 0; d < dimensions; d++) {
+        double diff = items[offset + d] - centroids[centroid + d];
+        distance += diff * diff;
+      }
+      if (distance < nearestDistance) {
+        nearestDistance = distance;
+        nearest = c;
+      }
+    }
+    return nearest;
+  }
+
+  private static double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+    double sum = 0.0;
+    for (int d = 0; d < length; d++) {
+      sum += a[aOffset + d] * b[bOffset + d];
+    }
+    return sum;
+  }
+
+}
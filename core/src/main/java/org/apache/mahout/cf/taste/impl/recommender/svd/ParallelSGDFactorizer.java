@@ -0,0 +1,483 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.RandomUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Factorizes the rating matrix with stochastic gradient descent, learning all features jointly together with
+ * a global mean and per-user and per-item biases, so that a rating is estimated as
+ * {@code mean + userBias + itemBias + userFeatures . itemFeatures}.</p>
+ *
+ * <p>Preferences are copied once into parallel primitive arrays, and epochs run on several threads, either
+ * "Hogwild" style, where threads update shared features without locking, or stratified, where users and items
+ * are split into as many blocks as there are threads and each thread trains a block of preferences that shares
+ * no user or item with those of the other threads.</p>
+ *
+ * <p>A fraction of the preferences can be held out to stop training once the error on them stops improving, in
+ * which case the features of the best epoch are kept. Held out preferences are not trained on.</p>
+ *
+ * <p>The biases are stored as three extra columns of the {@link Factorization}, so that the dot product of a
+ * user's and an item's features computed by {@link SVDRecommender} includes them. Users and items are folded in
+ * by least squares with those columns held at the mean and 1, regularized like the training.</p>
+ */
+public final class ParallelSGDFactorizer extends AbstractFactorizer implements FoldInSolver {
+
+  private static final Logger log = LoggerFactory.getLogger(ParallelSGDFactorizer.class);
+
+  public static final double DEFAULT_LEARNING_RATE = 0.01;
+  public static final double DEFAULT_LEARNING_RATE_DECAY = 0.95;
+  public static final double DEFAULT_PREVENT_OVERFITTING = 0.02;
+  public static final double DEFAULT_RANDOM_NOISE = 0.1;
+
+  /** how epochs are split across threads */
+  public enum Schedule {
+    /** threads train disjoint ranges of the preferences, sharing features without locking */
+    HOGWILD,
+    /** threads train blocks of preferences that share no user or item, one sub-epoch per block diagonal */
+    STRATIFIED
+  }
+
+  /** user side holds the mean, item side 1 */
+  private static final int MEAN_INDEX = 0;
+  /** user side holds the user's bias, item side 1 */
+  private static final int USER_BIAS_INDEX = 1;
+  /** user side holds 1, item side the item's bias */
+  private static final int ITEM_BIAS_INDEX = 2;
+  private static final int FEATURE_OFFSET = 3;
+
+  /** epochs without improvement on the held out preferences before training stops */
+  private static final int PATIENCE = 5;
+
+  private final DataModel dataModel;
+  /** number of features used to compute this factorization */
+  private final int numFeatures;
+  /** maximum number of epochs */
+  private final int numEpochs;
+  private final double learningRate;
+  /** factor applied to the learning rate after each epoch */
+  private final double learningRateDecay;
+  /** Parameter used to prevent overfitting. 0.02 is a good value. */
+  private final double preventOverfitting;
+  /** standard deviation of the initial features */
+  private final double randomNoise;
+  private final int numThreads;
+  private final Schedule schedule;
+  /** fraction of preferences held out for early stopping, 0 to train on all of them for all epochs */
+  private final double holdOutFraction;
+
+  public ParallelSGDFactorizer(DataModel dataModel, int numFeatures, int numEpochs) throws TasteException {
+    this(dataModel, numFeatures, numEpochs, DEFAULT_LEARNING_RATE, DEFAULT_LEARNING_RATE_DECAY,
+        DEFAULT_PREVENT_OVERFITTING, DEFAULT_RANDOM_NOISE, Runtime.getRuntime().availableProcessors(),
+        Schedule.HOGWILD, 0.0);
+  }
+
+  public ParallelSGDFactorizer(DataModel dataModel,
+                               int numFeatures,
+                               int numEpochs,
+                               double learningRate,
+                               double learningRateDecay,
+                               double preventOverfitting,
+                               double randomNoise,
+                               int numThreads,
+                               Schedule schedule,
+                               double holdOutFraction) throws TasteException {
+    super(dataModel);
+    Preconditions.checkArgument(numFeatures >= 1, "numFeatures must be at least 1");
+    Preconditions.checkArgument(numEpochs >= 1, "numEpochs must be at least 1");
+    Preconditions.checkArgument(learningRate > 0.0, "learningRate must be positive");
+    Preconditions.checkArgument(learningRateDecay > 0.0 && learningRateDecay <= 1.0,
+        "learningRateDecay must be in (0,1]");
+    Preconditions.checkArgument(numThreads >= 1, "numThreads must be at least 1");
+    Preconditions.checkArgument(holdOutFraction >= 0.0 && holdOutFraction < 1.0,
+        "holdOutFraction must be in [0,1)");
+    this.dataModel = dataModel;
+    this.numFeatures = numFeatures;
+    this.numEpochs = numEpochs;
+    this.learningRate = learningRate;
+    this.learningRateDecay = learningRateDecay;
+    this.preventOverfitting = preventOverfitting;
+    this.randomNoise = randomNoise;
+    this.numThreads = numThreads;
+    this.schedule = Preconditions.checkNotNull(schedule);
+    this.holdOutFraction = holdOutFraction;
+  }
+
+  /** Solves the user's bias and features, with the mean and the item bias's coefficient fixed. */
+  @Override
+  public double[] solveUserFeatures(Factorization factorization, PreferenceArray preferencesFromUser)
+    throws TasteException {
+    double[] fixed = LeastSquaresFoldInSolver.allFree(factorization.numFeatures());
+    // every user holds the same mean
+    fixed[MEAN_INDEX] = factorization.getUserRows().row(0)[MEAN_INDEX];
+    fixed[ITEM_BIAS_INDEX] = 1.0;
+    return LeastSquaresFoldInSolver.solve(factorization, preferencesFromUser, true, fixed, preventOverfitting);
+  }
+
+  /** Solves the item's bias and features, with the coefficients of the mean and the user bias fixed. */
+  @Override
+  public double[] solveItemFeatures(Factorization factorization, PreferenceArray preferencesForItem)
+    throws TasteException {
+    double[] fixed = LeastSquaresFoldInSolver.allFree(factorization.numFeatures());
+    fixed[MEAN_INDEX] = 1.0;
+    fixed[USER_BIAS_INDEX] = 1.0;
+    return LeastSquaresFoldInSolver.solve(factorization, preferencesForItem, false, fixed, preventOverfitting);
+  }
+
+  @Override
+  public Factorization factorize() throws TasteException {
+    Random random = RandomUtils.getRandom();
+    Preferences prefs = loadPreferences(random);
+    int numTraining = prefs.length - (int) (prefs.length * holdOutFraction);
+    log.info("Training on {} preferences, holding out {}", numTraining, prefs.length - numTraining);
+    int[] blockOffsets = schedule == Schedule.STRATIFIED ? prefs.sortIntoBlocks(numTraining, numThreads) : null;
+
+    double[][] userFeatures = new double[dataModel.getNumUsers()][FEATURE_OFFSET + numFeatures];
+    double[][] itemFeatures = new double[dataModel.getNumItems()][FEATURE_OFFSET + numFeatures];
+    double mean = prefs.mean(numTraining);
+    for (double[] userVector : userFeatures) {
+      userVector[MEAN_INDEX] = mean;
+      userVector[ITEM_BIAS_INDEX] = 1.0;
+      initializeFeatures(userVector, random);
+    }
+    for (double[] itemVector : itemFeatures) {
+      itemVector[MEAN_INDEX] = 1.0;
+      itemVector[USER_BIAS_INDEX] = 1.0;
+      initializeFeatures(itemVector, random);
+    }
+
+    double[][] bestUserFeatures = null;
+    double[][] bestItemFeatures = null;
+    double bestRMSE = Double.POSITIVE_INFINITY;
+    int bestEpoch = -1;
+    double rate = learningRate;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      for (int epoch = 0; epoch < numEpochs; epoch++) {
+        long start = System.currentTimeMillis();
+        double squaredError = schedule == Schedule.STRATIFIED
+            ? stratifiedEpoch(executor, prefs, blockOffsets, userFeatures, itemFeatures, rate, random)
+            : hogwildEpoch(executor, prefs, numTraining, userFeatures, itemFeatures, rate, random);
+        double trainingRMSE = Math.sqrt(squaredError / numTraining);
+        long time = System.currentTimeMillis() - start;
+        rate *= learningRateDecay;
+
+        if (numTraining == prefs.length) {
+          log.info("Epoch {} took {}ms, training RMSE {}", new Object[] {epoch, time, trainingRMSE});
+          continue;
+        }
+        double heldOutRMSE = prefs.rmse(numTraining, userFeatures, itemFeatures, dataModel.getMinPreference(),
+            dataModel.getMaxPreference());
+        log.info("Epoch {} took {}ms, training RMSE {}, held out RMSE {}",
+            new Object[] {epoch, time, trainingRMSE, heldOutRMSE});
+        if (heldOutRMSE < bestRMSE) {
+          bestRMSE = heldOutRMSE;
+          bestEpoch = epoch;
+          bestUserFeatures = copyOf(userFeatures, bestUserFeatures);
+          bestItemFeatures = copyOf(itemFeatures, bestItemFeatures);
+        } else if (epoch - bestEpoch >= PATIENCE) {
+          log.info("Stopping early, keeping epoch {} with held out RMSE {}", bestEpoch, bestRMSE);
+          break;
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    if (bestUserFeatures != null) {
+      userFeatures = bestUserFeatures;
+      itemFeatures = bestItemFeatures;
+    }
+    return createFactorization(userFeatures, itemFeatures);
+  }
+
+  private void initializeFeatures(double[] vector, Random random) {
+    for (int feature = FEATURE_OFFSET; feature < vector.length; feature++) {
+      vector[feature] = random.nextGaussian() * randomNoise;
+    }
+  }
+
+  private static double[][] copyOf(double[][] matrix, double[][] copy) {
+    if (copy == null) {
+      copy = new double[matrix.length][];
+      for (int i = 0; i < matrix.length; i++) {
+        copy[i] = matrix[i].clone();
+      }
+    } else {
+      for (int i = 0; i < matrix.length; i++) {
+        System.arraycopy(matrix[i], 0, copy[i], 0, matrix[i].length);
+      }
+    }
+    return copy;
+  }
+
+  /** Splits the training preferences into one contiguous range per thread. */
+  private double hogwildEpoch(ExecutorService executor,
+                              Preferences prefs,
+                              int numTraining,
+                              double[][] userFeatures,
+                              double[][] itemFeatures,
+                              double rate,
+                              Random random) throws TasteException {
+    List<Callable<Double>> tasks = new ArrayList<Callable<Double>>(numThreads);
+    for (int thread = 0; thread < numThreads; thread++) {
+      int from = (int) ((long) numTraining * thread / numThreads);
+      int to = (int) ((long) numTraining * (thread + 1) / numThreads);
+      tasks.add(new Trainer(prefs, from, to, userFeatures, itemFeatures, rate, random.nextLong()));
+    }
+    return run(executor, tasks);
+  }
+
+  /**
+   * Runs one sub-epoch per block diagonal: in sub-epoch s, thread t trains the preferences of user block t and
+   * item block (t + s) mod numThreads.
+   */
+  private double stratifiedEpoch(ExecutorService executor,
+                                 Preferences prefs,
+                                 int[] blockOffsets,
+                                 double[][] userFeatures,
+                                 double[][] itemFeatures,
+                                 double rate,
+                                 Random random) throws TasteException {
+    double squaredError = 0.0;
+    for (int stratum = 0; stratum < numThreads; stratum++) {
+      List<Callable<Double>> tasks = new ArrayList<Callable<Double>>(numThreads);
+      for (int userBlock = 0; userBlock < numThreads; userBlock++) {
+        int block = userBlock * numThreads + (userBlock + stratum) % numThreads;
+        tasks.add(new Trainer(prefs, blockOffsets[block], blockOffsets[block + 1], userFeatures, itemFeatures,
+            rate, random.nextLong()));
+      }
+      squaredError += run(executor, tasks);
+    }
+    return squaredError;
+  }
+
+  private static double run(ExecutorService executor, List<Callable<Double>> tasks) throws TasteException {
+    double sum = 0.0;
+    try {
+      for (Future<Double> future : executor.invokeAll(tasks)) {
+        sum += future.get();
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new TasteException(cause);
+    }
+    return sum;
+  }
+
+  private Preferences loadPreferences(Random random) throws TasteException {
+    Preferences prefs = new Preferences(dataModel.getNumUsers());
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      int userIndex = userIndex(userID);
+      PreferenceArray userPrefs = dataModel.getPreferencesFromUser(userID);
+      for (int i = 0; i < userPrefs.length(); i++) {
+        prefs.add(userIndex, itemIndex(userPrefs.getItemID(i)), userPrefs.getValue(i));
+      }
+    }
+    prefs.shuffle(0, prefs.length, random);
+    return prefs;
+  }
+
+  /** Trains a range of the preferences once, in random order, returning the sum of squared errors. */
+  private final class Trainer implements Callable<Double> {
+
+    private final Preferences prefs;
+    private final int from;
+    private final int to;
+    private final double[][] userFeatures;
+    private final double[][] itemFeatures;
+    private final double rate;
+    private final long seed;
+
+    private Trainer(Preferences prefs,
+                    int from,
+                    int to,
+                    double[][] userFeatures,
+                    double[][] itemFeatures,
+                    double rate,
+                    long seed) {
+      this.prefs = prefs;
+      this.from = from;
+      this.to = to;
+      this.userFeatures = userFeatures;
+      this.itemFeatures = itemFeatures;
+      this.rate = rate;
+      this.seed = seed;
+    }
+
+    @Override
+    public Double call() {
+      prefs.shuffle(from, to, RandomUtils.getRandom(seed));
+      int[] userIndexes = prefs.userIndexes;
+      int[] itemIndexes = prefs.itemIndexes;
+      float[] values = prefs.values;
+      double squaredError = 0.0;
+      for (int k = from; k < to; k++) {
+        double[] userVector = userFeatures[userIndexes[k]];
+        double[] itemVector = itemFeatures[itemIndexes[k]];
+        double err = values[k] - dot(userVector, itemVector);
+        squaredError += err * err;
+        userVector[USER_BIAS_INDEX] += rate * (err - preventOverfitting * userVector[USER_BIAS_INDEX]);
+        itemVector[ITEM_BIAS_INDEX] += rate * (err - preventOverfitting * itemVector[ITEM_BIAS_INDEX]);
+        for (int feature = FEATURE_OFFSET; feature < userVector.length; feature++) {
+          double userFeature = userVector[feature];
+          double itemFeature = itemVector[feature];
+          userVector[feature] += rate * (err * itemFeature - preventOverfitting * userFeature);
+          itemVector[feature] += rate * (err * userFeature - preventOverfitting * itemFeature);
+        }
+      }
+      return squaredError;
+    }
+  }
+
+  private static double dot(double[] userVector, double[] itemVector) {
+    double sum = 0.0;
+    for (int feature = 0; feature < userVector.length; feature++) {
+      sum += userVector[feature] * itemVector[feature];
+    }
+    return sum;
+  }
+
+  /** All preferences as parallel arrays of user index, item index and value. */
+  private static final class Preferences {
+
+    private int[] userIndexes;
+    private int[] itemIndexes;
+    private float[] values;
+    private int length;
+
+    private Preferences(int initialCapacity) {
+      userIndexes = new int[Math.max(16, initialCapacity)];
+      itemIndexes = new int[userIndexes.length];
+      values = new float[userIndexes.length];
+    }
+
+    private void add(int userIndex, int itemIndex, float value) {
+      if (length == userIndexes.length) {
+        int capacity = length + (length >> 1);
+        userIndexes = Arrays.copyOf(userIndexes, capacity);
+        itemIndexes = Arrays.copyOf(itemIndexes, capacity);
+        values = Arrays.copyOf(values, capacity);
+      }
+      userIndexes[length] = userIndex;
+      itemIndexes[length] = itemIndex;
+      values[length] = value;
+      length++;
+    }
+
+    /** Durstenfeld shuffle of the range. */
+    private void shuffle(int from, int to, Random random) {
+      for (int i = to - 1; i > from; i--) {
+        int j = from + random.nextInt(i - from + 1);
+        int userIndex = userIndexes[i];
+        userIndexes[i] = userIndexes[j];
+        userIndexes[j] = userIndex;
+        int itemIndex = itemIndexes[i];
+        itemIndexes[i] = itemIndexes[j];
+        itemIndexes[j] = itemIndex;
+        float value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+      }
+    }
+
+    private double mean(int to) {
+      double sum = 0.0;
+      for (int k = 0; k < to; k++) {
+        sum += values[k];
+      }
+      return to == 0 ? 0.0 : sum / to;
+    }
+
+    /** @return RMSE of the estimates, capped to the preference range, of the preferences from the index on */
+    private double rmse(int from,
+                        double[][] userFeatures,
+                        double[][] itemFeatures,
+                        float minPreference,
+                        float maxPreference) {
+      double squaredError = 0.0;
+      for (int k = from; k < length; k++) {
+        double estimate = dot(userFeatures[userIndexes[k]], itemFeatures[itemIndexes[k]]);
+        estimate = Math.max(minPreference, Math.min(maxPreference, estimate));
+        double err = values[k] - estimate;
+        squaredError += err * err;
+      }
+      return Math.sqrt(squaredError / (length - from));
+    }
+
+    /**
+     * Counting sorts the first preferences by block, user block major, with users and items assigned to blocks
+     * by index modulo the number of blocks.
+     *
+     * @return offsets of the numBlocks * numBlocks blocks, followed by the end of the last one
+     */
+    private int[] sortIntoBlocks(int to, int numBlocks) {
+      int[] offsets = new int[numBlocks * numBlocks + 1];
+      for (int k = 0; k < to; k++) {
+        offsets[block(k, numBlocks) + 1]++;
+      }
+      for (int block = 0; block < numBlocks * numBlocks; block++) {
+        offsets[block + 1] += offsets[block];
+      }
+      int[] sortedUserIndexes = new int[to];
+      int[] sortedItemIndexes = new int[to];
+      float[] sortedValues = new float[to];
+      int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+      for (int k = 0; k < to; k++) {
+        int position = next[block(k, numBlocks)]++;
+        sortedUserIndexes[position] = userIndexes[k];
+        sortedItemIndexes[position] = itemIndexes[k];
+        sortedValues[position] = values[k];
+      }
+      System.arraycopy(sortedUserIndexes, 0, userIndexes, 0, to);
+      System.arraycopy(sortedItemIndexes, 0, itemIndexes, 0, to);
+      System.arraycopy(sortedValues, 0, values, 0, to);
+      return offsets;
+    }
+
+    private int block(int k, int numBlocks) {
+      return (userIndexes[k] % numBlocks) * numBlocks + itemIndexes[k] % numBlocks;
+    }
+  }
+
+}
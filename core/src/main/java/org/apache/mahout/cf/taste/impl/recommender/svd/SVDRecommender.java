@@ -21,11 +21,20 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.impl.recommender.AbstractRecommender;
 import org.apache.mahout.cf.taste.impl.recommender.TopItems;
@@ -38,15 +47,43 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * A {@link org.apache.mahout.cf.taste.recommender.Recommender} that uses matrix factorization (a projection of users
- * and items onto a feature space)
+ * <p>A {@link org.apache.mahout.cf.taste.recommender.Recommender} that uses matrix factorization (a projection of
+ * users and items onto a feature space)</p>
+ *
+ * <p>Users and items can be folded into the factorization without retraining it: their features are solved
+ * against the fixed features of the items they rated, or of the users who rated them, see
+ * {@link #foldInUser(long)} and {@link #foldInItem(long)}. A {@link Factorizer} that is a {@link FoldInSolver}
+ * solves them the way it trains, otherwise a {@link LeastSquaresFoldInSolver} does.
+ * {@link #setPreference(long, long, float)} and {@link #removePreference(long, long)} fold in the user, and the
+ * item if it is new. Each fold-in publishes a copy of the factorization that shares all unchanged feature rows,
+ * so concurrent recommendations are not blocked.
+ * The factorization is retrained in the background after a set number of fold-ins, if given one, and on
+ * {@link #refresh(java.util.Collection) refresh}. A {@link FloatFactorization} can't be folded into.</p>
+ *
+ * <p>If the {@link CandidateItemsStrategy} is a {@link MaximumInnerProductIndex}, it is probed with the user's
+ * features in the current factorization, and rebuilt from each newly trained factorization.</p>
  */
 public final class SVDRecommender extends AbstractRecommender {
 
-  private Factorization factorization;
+  public static final double DEFAULT_FOLD_IN_LAMBDA = 0.05;
+
+  private volatile Factorization factorization;
+  /** candidate items of the factorization, if the candidate items strategy is one */
+  private volatile MaximumInnerProductIndex itemIndex;
   private final Factorizer factorizer;
   private final PersistenceStrategy persistenceStrategy;
   private final RefreshHelper refreshHelper;
+  private final FoldInSolver foldInSolver;
+  private final int foldInsBeforeRetraining;
+  private final ExecutorService retrainingExecutor;
+  /** held while training, so that a scheduled retraining and a refresh don't overlap */
+  private final ReentrantLock trainingLock = new ReentrantLock();
+  /** guards publishing a factorization, and the fields below */
+  private final Object foldInLock = new Object();
+  private int foldInsSinceTraining;
+  /** folded in since the current training started, null when not training */
+  private FastIDSet usersFoldedInWhileTraining;
+  private FastIDSet itemsFoldedInWhileTraining;
 
   private static final Logger log = LoggerFactory.getLogger(SVDRecommender.class);
 
@@ -91,9 +128,30 @@ public final class SVDRecommender extends AbstractRecommender {
    */
   public SVDRecommender(DataModel dataModel, Factorizer factorizer, CandidateItemsStrategy candidateItemsStrategy,
       PersistenceStrategy persistenceStrategy) throws TasteException {
+    this(dataModel, factorizer, candidateItemsStrategy, persistenceStrategy, DEFAULT_FOLD_IN_LAMBDA, 0);
+  }
+
+  /**
+   * @param foldInLambda regularization of folded in features, times the number of preferences they are solved from,
+   *  unless the factorizer is a {@link FoldInSolver}
+   * @param foldInsBeforeRetraining number of fold-ins after which the factorization is retrained in the background,
+   *  or 0 to only retrain on refresh
+   */
+  public SVDRecommender(DataModel dataModel, Factorizer factorizer, CandidateItemsStrategy candidateItemsStrategy,
+      PersistenceStrategy persistenceStrategy, double foldInLambda, int foldInsBeforeRetraining)
+    throws TasteException {
     super(dataModel, candidateItemsStrategy);
+    Preconditions.checkArgument(foldInLambda > 0.0, "foldInLambda must be positive");
+    Preconditions.checkArgument(foldInsBeforeRetraining >= 0, "foldInsBeforeRetraining must be at least 0");
     this.factorizer = Preconditions.checkNotNull(factorizer);
     this.persistenceStrategy = Preconditions.checkNotNull(persistenceStrategy);
+    this.foldInSolver =
+        factorizer instanceof FoldInSolver ? (FoldInSolver) factorizer : new LeastSquaresFoldInSolver(foldInLambda);
+    this.foldInsBeforeRetraining = foldInsBeforeRetraining;
+    retrainingExecutor = foldInsBeforeRetraining > 0 ? createRetrainingExecutor() : null;
+    if (candidateItemsStrategy instanceof MaximumInnerProductIndex) {
+      itemIndex = (MaximumInnerProductIndex) candidateItemsStrategy;
+    }
     try {
       factorization = persistenceStrategy.load();
     } catch (IOException e) {
@@ -119,25 +177,200 @@ public final class SVDRecommender extends AbstractRecommender {
     return new NoPersistenceStrategy();
   }
 
+  /** @return a single daemon thread, which exits when idle */
+  private static ExecutorService createRetrainingExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SVDRecommender-retraining");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
   private void train() throws TasteException {
-    factorization = factorizer.factorize();
+    trainingLock.lock();
     try {
-      persistenceStrategy.maybePersist(factorization);
-    } catch (IOException e) {
-      throw new TasteException("Error persisting factorization", e);
+      synchronized (foldInLock) {
+        foldInsSinceTraining = 0;
+        usersFoldedInWhileTraining = new FastIDSet();
+        itemsFoldedInWhileTraining = new FastIDSet();
+      }
+      Factorization trained = factorizer.factorize();
+      try {
+        persistenceStrategy.maybePersist(trained);
+        if (persistenceStrategy instanceof MappedFilePersistenceStrategy) {
+          // serve from the mapped layout, as after a load
+          trained = persistenceStrategy.load();
+        }
+      } catch (IOException e) {
+        throw new TasteException("Error persisting factorization", e);
+      }
+      MaximumInnerProductIndex trainedIndex = itemIndex == null ? null : itemIndex.rebuild(trained);
+      synchronized (foldInLock) {
+        // the factorizer may have read the data model before these changes
+        if (!(trained instanceof FloatFactorization)) {
+          LongPrimitiveIterator itemIDs = itemsFoldedInWhileTraining.iterator();
+          while (itemIDs.hasNext()) {
+            try {
+              trained = foldInItem(trained, itemIDs.nextLong());
+            } catch (NoSuchItemException nsie) {
+              // removed since
+            }
+          }
+          LongPrimitiveIterator userIDs = usersFoldedInWhileTraining.iterator();
+          while (userIDs.hasNext()) {
+            try {
+              trained = foldInUser(trained, userIDs.nextLong());
+            } catch (NoSuchUserException nsue) {
+              // removed since
+            }
+          }
+        }
+        factorization = trained;
+        itemIndex = trainedIndex;
+      }
+    } finally {
+      synchronized (foldInLock) {
+        usersFoldedInWhileTraining = null;
+        itemsFoldedInWhileTraining = null;
+      }
+      trainingLock.unlock();
+    }
+  }
+
+  /**
+   * Solves the user's features against the features of the items the user has preferences for, and publishes them.
+   * Items not in the factorization are ignored, and nothing changes if there are none.
+   *
+   * @throws NoSuchUserException if the data model has no preferences from the user
+   * @throws UnsupportedOperationException if the factorization is a {@link FloatFactorization}
+   */
+  public void foldInUser(long userID) throws TasteException {
+    synchronized (foldInLock) {
+      factorization = foldInUser(factorization, userID);
+      if (usersFoldedInWhileTraining != null) {
+        usersFoldedInWhileTraining.add(userID);
+      }
     }
+    countFoldIn();
   }
-  
+
+  /**
+   * Solves the item's features against the features of the users who have preferences for it, and publishes them.
+   * Users not in the factorization are ignored, and nothing changes if there are none.
+   *
+   * @throws NoSuchItemException if the data model has no preferences for the item
+   * @throws UnsupportedOperationException if the factorization is a {@link FloatFactorization}
+   */
+  public void foldInItem(long itemID) throws TasteException {
+    synchronized (foldInLock) {
+      factorization = foldInItem(factorization, itemID);
+      if (itemsFoldedInWhileTraining != null) {
+        itemsFoldedInWhileTraining.add(itemID);
+      }
+    }
+    countFoldIn();
+  }
+
+  private Factorization foldInUser(Factorization current, long userID) throws TasteException {
+    double[] features = foldInSolver.solveUserFeatures(current, getDataModel().getPreferencesFromUser(userID));
+    return features == null ? current : current.withUserFeatures(userID, features);
+  }
+
+  private Factorization foldInItem(Factorization current, long itemID) throws TasteException {
+    double[] features = foldInSolver.solveItemFeatures(current, getDataModel().getPreferencesForItem(itemID));
+    return features == null ? current : current.withItemFeatures(itemID, features);
+  }
+
+  private void countFoldIn() {
+    boolean retrain;
+    synchronized (foldInLock) {
+      retrain = foldInsBeforeRetraining > 0 && ++foldInsSinceTraining == foldInsBeforeRetraining;
+    }
+    if (retrain) {
+      log.info("Retraining after {} fold-ins", foldInsBeforeRetraining);
+      retrainingExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            train();
+          } catch (TasteException te) {
+            log.warn("Error while retraining", te);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Sets the preference in the data model, then folds in the user, and the item first if it is new to the
+   * factorization. A {@link FloatFactorization} is left to retraining.
+   */
+  @Override
+  public void setPreference(long userID, long itemID, float value) throws TasteException {
+    super.setPreference(userID, itemID, value);
+    foldIn(userID, itemID);
+  }
+
+  /**
+   * Removes the preference from the data model, then folds in the user. A {@link FloatFactorization} is left to
+   * retraining.
+   */
+  @Override
+  public void removePreference(long userID, long itemID) throws TasteException {
+    super.removePreference(userID, itemID);
+    foldIn(userID, itemID);
+  }
+
+  private void foldIn(long userID, long itemID) throws TasteException {
+    Factorization current = factorization;
+    if (current instanceof FloatFactorization) {
+      return;
+    }
+    try {
+      current.getItemFeatures(itemID);
+    } catch (NoSuchItemException nsie) {
+      try {
+        foldInItem(itemID);
+      } catch (NoSuchItemException removed) {
+        // no preferences left for it
+      }
+    }
+    try {
+      foldInUser(userID);
+    } catch (NoSuchUserException removed) {
+      // no preferences left from the user
+    }
+  }
+
   @Override
   public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) throws TasteException {
     Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
     log.debug("Recommending items for user ID '{}'", userID);
 
     PreferenceArray preferencesFromUser = getDataModel().getPreferencesFromUser(userID);
-    FastIDSet possibleItemIDs = getAllOtherItems(userID, preferencesFromUser);
+    Factorization current = factorization;
+    MaximumInnerProductIndex index = itemIndex;
+    FastIDSet possibleItemIDs;
+    if (index == null) {
+      possibleItemIDs = getAllOtherItems(userID, preferencesFromUser);
+    } else {
+      possibleItemIDs = index.getCandidateItems(current.getUserFeatures(userID));
+      possibleItemIDs.removeAll(preferencesFromUser.getIDs());
+    }
 
-    List<RecommendedItem> topItems = TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer,
-        new Estimator(userID));
+    List<RecommendedItem> topItems;
+    if (current instanceof FloatFactorization) {
+      topItems = ((FloatFactorization) current).recommend(userID, howMany, possibleItemIDs, rescorer);
+    } else {
+      topItems = TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer,
+          new Estimator(current, current.getUserFeatures(userID)));
+    }
     log.debug("Recommendations are: {}", topItems);
 
     return topItems;
@@ -148,8 +381,14 @@ public final class SVDRecommender extends AbstractRecommender {
    */
   @Override
   public float estimatePreference(long userID, long itemID) throws TasteException {
-    double[] userFeatures = factorization.getUserFeatures(userID);
-    double[] itemFeatures = factorization.getItemFeatures(itemID);
+    Factorization current = factorization;
+    if (current instanceof FloatFactorization) {
+      return ((FloatFactorization) current).estimate(userID, itemID);
+    }
+    return estimate(current.getUserFeatures(userID), current.getItemFeatures(itemID));
+  }
+
+  private static float estimate(double[] userFeatures, double[] itemFeatures) {
     double estimate = 0;
     for (int feature = 0; feature < userFeatures.length; feature++) {
       estimate += userFeatures[feature] * itemFeatures[feature];
@@ -157,17 +396,20 @@ public final class SVDRecommender extends AbstractRecommender {
     return (float) estimate;
   }
 
-  private final class Estimator implements TopItems.Estimator<Long> {
+  /** Scores items for one user against one factorization, looking up only each item's features. */
+  private static final class Estimator implements TopItems.IDEstimator {
 
-    private final long theUserID;
+    private final Factorization factorization;
+    private final double[] userFeatures;
 
-    private Estimator(long theUserID) {
-      this.theUserID = theUserID;
+    private Estimator(Factorization factorization, double[] userFeatures) {
+      this.factorization = factorization;
+      this.userFeatures = userFeatures;
     }
 
     @Override
-    public double estimate(Long itemID) throws TasteException {
-      return estimatePreference(theUserID, itemID);
+    public double estimate(long itemID) throws TasteException {
+      return SVDRecommender.estimate(userFeatures, factorization.getItemFeatures(itemID));
     }
   }
 
@@ -26,15 +26,15 @@ import org.apache.mahout.cf.taste.common.Weighting;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.similarity.BulkUserSimilarity;
 import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
-import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 import org.apache.mahout.cf.taste.transforms.PreferenceTransform;
 import org.apache.mahout.cf.taste.transforms.SimilarityTransform;
 
 import com.google.common.base.Preconditions;
 
 /** Abstract superclass encapsulating functionality that is common to most implementations in this package. */
-abstract class AbstractSimilarity extends AbstractItemSimilarity implements UserSimilarity {
+abstract class AbstractSimilarity extends AbstractItemSimilarity implements BulkUserSimilarity {
 
   private PreferenceInferrer inferrer;
   private PreferenceTransform prefTransform;
@@ -130,6 +130,87 @@ abstract class AbstractSimilarity extends AbstractItemSimilarity implements User
    */
   abstract double computeResult(int n, double sumXY, double sumX2, double sumY2, double sumXYdiff2);
   
+  @Override
+  public double[] userSimilarities(long userID1, long[] userID2s) throws TasteException {
+    int length = userID2s.length;
+    double[] result = new double[length];
+    if (inferrer == null && prefTransform == null) {
+      DataModel dataModel = getDataModel();
+      UserPreferenceVector xPrefs = UserPreferenceVector.of(dataModel, userID1);
+      for (int i = 0; i < length; i++) {
+        result[i] = userSimilarity(userID1, xPrefs, userID2s[i], dataModel.getPreferencesFromUser(userID2s[i]));
+      }
+    } else {
+      for (int i = 0; i < length; i++) {
+        result[i] = userSimilarity(userID1, userID2s[i]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Merges the first user's preferences, copied once into primitive arrays for all the users compared to, with
+   * another user's, tallying only the items both users expressed a preference for.
+   */
+  private double userSimilarity(long userID1,
+                                UserPreferenceVector xPrefs,
+                                long userID2,
+                                PreferenceArray yPrefs) throws TasteException {
+    int xLength = xPrefs.length();
+    int yLength = yPrefs.length();
+
+    if ((xLength == 0) || (yLength == 0)) {
+      return Double.NaN;
+    }
+
+    long[] xIDs = xPrefs.itemIDs;
+    float[] xValues = xPrefs.values;
+    long xIndex = xIDs[0];
+    long yIndex = yPrefs.getItemID(0);
+    int xPrefIndex = 0;
+    int yPrefIndex = 0;
+
+    double sumX = 0.0;
+    double sumX2 = 0.0;
+    double sumY = 0.0;
+    double sumY2 = 0.0;
+    double sumXY = 0.0;
+    double sumXYdiff2 = 0.0;
+    int count = 0;
+
+    while (true) {
+      if (xIndex < yIndex) {
+        if (++xPrefIndex == xLength) {
+          break;
+        }
+        xIndex = xIDs[xPrefIndex];
+      } else if (xIndex > yIndex) {
+        if (++yPrefIndex == yLength) {
+          break;
+        }
+        yIndex = yPrefs.getItemID(yPrefIndex);
+      } else {
+        double x = xValues[xPrefIndex];
+        double y = yPrefs.getValue(yPrefIndex);
+        sumXY += x * y;
+        sumX += x;
+        sumX2 += x * x;
+        sumY += y;
+        sumY2 += y * y;
+        double diff = x - y;
+        sumXYdiff2 += diff * diff;
+        count++;
+        if (++xPrefIndex == xLength || ++yPrefIndex == yLength) {
+          break;
+        }
+        xIndex = xIDs[xPrefIndex];
+        yIndex = yPrefs.getItemID(yPrefIndex);
+      }
+    }
+
+    return computeSimilarity(userID1, userID2, count, sumX, sumY, sumX2, sumY2, sumXY, sumXYdiff2, cachedNumItems);
+  }
+
   @Override
   public double userSimilarity(long userID1, long userID2) throws TasteException {
     DataModel dataModel = getDataModel();
@@ -233,6 +314,25 @@ abstract class AbstractSimilarity extends AbstractItemSimilarity implements User
       }
     }
     
+    return computeSimilarity(userID1, userID2, count, sumX, sumY, sumX2, sumY2, sumXY, sumXYdiff2, cachedNumItems);
+  }
+
+  /**
+   * Finishes a similarity computation from sums over the common preferences of two users or items, centering
+   * the data if needed and applying any {@link SimilarityTransform} and weighting.
+   *
+   * @param num total number of items, when comparing users, or users, when comparing items
+   */
+  private double computeSimilarity(long id1,
+                                   long id2,
+                                   int count,
+                                   double sumX,
+                                   double sumY,
+                                   double sumX2,
+                                   double sumY2,
+                                   double sumXY,
+                                   double sumXYdiff2,
+                                   int num) throws TasteException {
     // "Center" the data. If my math is correct, this'll do it.
     double result;
     if (centerData) {
@@ -251,11 +351,11 @@ abstract class AbstractSimilarity extends AbstractItemSimilarity implements User
     }
     
     if (similarityTransform != null) {
-      result = similarityTransform.transformSimilarity(userID1, userID2, result);
+      result = similarityTransform.transformSimilarity(id1, id2, result);
     }
     
     if (!Double.isNaN(result)) {
-      result = normalizeWeightResult(result, count, cachedNumItems);
+      result = normalizeWeightResult(result, count, num);
     }
     return result;
   }
@@ -316,31 +416,7 @@ abstract class AbstractSimilarity extends AbstractItemSimilarity implements User
       }
     }
 
-    double result;
-    if (centerData) {
-      // See comments above on these computations
-      double n = (double) count;
-      double meanX = sumX / n;
-      double meanY = sumY / n;
-      // double centeredSumXY = sumXY - meanY * sumX - meanX * sumY + n * meanX * meanY;
-      double centeredSumXY = sumXY - meanY * sumX;
-      // double centeredSumX2 = sumX2 - 2.0 * meanX * sumX + n * meanX * meanX;
-      double centeredSumX2 = sumX2 - meanX * sumX;
-      // double centeredSumY2 = sumY2 - 2.0 * meanY * sumY + n * meanY * meanY;
-      double centeredSumY2 = sumY2 - meanY * sumY;
-      result = computeResult(count, centeredSumXY, centeredSumX2, centeredSumY2, sumXYdiff2);
-    } else {
-      result = computeResult(count, sumXY, sumX2, sumY2, sumXYdiff2);
-    }
-    
-    if (similarityTransform != null) {
-      result = similarityTransform.transformSimilarity(itemID1, itemID2, result);
-    }
-    
-    if (!Double.isNaN(result)) {
-      result = normalizeWeightResult(result, count, cachedNumUsers);
-    }
-    return result;
+    return computeSimilarity(itemID1, itemID2, count, sumX, sumY, sumX2, sumY2, sumXY, sumXYdiff2, cachedNumUsers);
   }
 
   @Override
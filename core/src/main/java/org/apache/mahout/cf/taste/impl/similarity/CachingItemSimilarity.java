@@ -22,12 +22,10 @@ import java.util.concurrent.Callable;
 
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
-import org.apache.mahout.cf.taste.impl.common.Cache;
+import org.apache.mahout.cf.taste.impl.common.LongPairDoubleCache;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
-import org.apache.mahout.cf.taste.impl.common.Retriever;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
-import org.apache.mahout.common.LongPair;
 import com.google.common.base.Preconditions;
 
 /**
@@ -36,7 +34,7 @@ import com.google.common.base.Preconditions;
 public final class CachingItemSimilarity implements ItemSimilarity {
 
   private final ItemSimilarity similarity;
-  private final Cache<LongPair,Double> similarityCache;
+  private final LongPairDoubleCache similarityCache;
   private final RefreshHelper refreshHelper;
 
   /**
@@ -54,7 +52,7 @@ public final class CachingItemSimilarity implements ItemSimilarity {
   public CachingItemSimilarity(ItemSimilarity similarity, int maxCacheSize) {
     Preconditions.checkArgument(similarity != null, "similarity is null");
     this.similarity = similarity;
-    this.similarityCache = new Cache<LongPair,Double>(new SimilarityRetriever(similarity), maxCacheSize);
+    this.similarityCache = new LongPairDoubleCache(new SimilarityRetriever(similarity), maxCacheSize);
     this.refreshHelper = new RefreshHelper(new Callable<Void>() {
       @Override
       public Void call() {
@@ -67,18 +65,12 @@ public final class CachingItemSimilarity implements ItemSimilarity {
   
   @Override
   public double itemSimilarity(long itemID1, long itemID2) throws TasteException {
-    LongPair key = itemID1 < itemID2 ? new LongPair(itemID1, itemID2) : new LongPair(itemID2, itemID1);
-    return similarityCache.get(key);
+    return similarityCache.get(itemID1, itemID2);
   }
 
   @Override
   public double[] itemSimilarities(long itemID1, long[] itemID2s) throws TasteException {
-    int length = itemID2s.length;
-    double[] result = new double[length];
-    for (int i = 0; i < length; i++) {
-      result[i] = itemSimilarity(itemID1, itemID2s[i]);
-    }
-    return result;
+    return similarityCache.get(itemID1, itemID2s);
   }
 
   @Override
@@ -92,10 +84,10 @@ public final class CachingItemSimilarity implements ItemSimilarity {
   }
 
   public void clearCacheForItem(long itemID) {
-    similarityCache.removeKeysMatching(new LongPairMatchPredicate(itemID));
+    similarityCache.removeKeysContaining(itemID);
   }
   
-  private static final class SimilarityRetriever implements Retriever<LongPair,Double> {
+  private static final class SimilarityRetriever implements LongPairDoubleCache.PairRetriever {
     private final ItemSimilarity similarity;
     
     private SimilarityRetriever(ItemSimilarity similarity) {
@@ -103,8 +95,13 @@ public final class CachingItemSimilarity implements ItemSimilarity {
     }
     
     @Override
-    public Double get(LongPair key) throws TasteException {
-      return similarity.itemSimilarity(key.getFirst(), key.getSecond());
+    public double get(long itemID1, long itemID2) throws TasteException {
+      return similarity.itemSimilarity(itemID1, itemID2);
+    }
+
+    @Override
+    public double[] get(long itemID1, long[] itemID2s) throws TasteException {
+      return similarity.itemSimilarities(itemID1, itemID2s);
     }
   }
 
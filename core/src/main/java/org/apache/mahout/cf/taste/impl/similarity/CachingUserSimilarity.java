@@ -22,13 +22,11 @@ import java.util.concurrent.Callable;
 
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
-import org.apache.mahout.cf.taste.impl.common.Cache;
+import org.apache.mahout.cf.taste.impl.common.LongPairDoubleCache;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
-import org.apache.mahout.cf.taste.impl.common.Retriever;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
-import org.apache.mahout.common.LongPair;
 
 import com.google.common.base.Preconditions;
 
@@ -38,7 +36,7 @@ import com.google.common.base.Preconditions;
 public final class CachingUserSimilarity implements UserSimilarity {
   
   private final UserSimilarity similarity;
-  private final Cache<LongPair,Double> similarityCache;
+  private final LongPairDoubleCache similarityCache;
   private final RefreshHelper refreshHelper;
 
   /**
@@ -56,7 +54,7 @@ public final class CachingUserSimilarity implements UserSimilarity {
   public CachingUserSimilarity(UserSimilarity similarity, int maxCacheSize) {
     Preconditions.checkArgument(similarity != null, "similarity is null");
     this.similarity = similarity;
-    this.similarityCache = new Cache<LongPair,Double>(new SimilarityRetriever(similarity), maxCacheSize);
+    this.similarityCache = new LongPairDoubleCache(new SimilarityRetriever(similarity), maxCacheSize);
     this.refreshHelper = new RefreshHelper(new Callable<Void>() {
       @Override
       public Void call() {
@@ -69,8 +67,7 @@ public final class CachingUserSimilarity implements UserSimilarity {
   
   @Override
   public double userSimilarity(long userID1, long userID2) throws TasteException {
-    LongPair key = userID1 < userID2 ? new LongPair(userID1, userID2) : new LongPair(userID2, userID1);
-    return similarityCache.get(key);
+    return similarityCache.get(userID1, userID2);
   }
   
   @Override
@@ -80,7 +77,7 @@ public final class CachingUserSimilarity implements UserSimilarity {
   }
 
   public void clearCacheForUser(long userID) {
-    similarityCache.removeKeysMatching(new LongPairMatchPredicate(userID));
+    similarityCache.removeKeysContaining(userID);
   }
   
   @Override
@@ -88,7 +85,7 @@ public final class CachingUserSimilarity implements UserSimilarity {
     refreshHelper.refresh(alreadyRefreshed);
   }
   
-  private static final class SimilarityRetriever implements Retriever<LongPair,Double> {
+  private static final class SimilarityRetriever implements LongPairDoubleCache.PairRetriever {
     private final UserSimilarity similarity;
     
     private SimilarityRetriever(UserSimilarity similarity) {
@@ -96,8 +93,17 @@ public final class CachingUserSimilarity implements UserSimilarity {
     }
     
     @Override
-    public Double get(LongPair key) throws TasteException {
-      return similarity.userSimilarity(key.getFirst(), key.getSecond());
+    public double get(long userID1, long userID2) throws TasteException {
+      return similarity.userSimilarity(userID1, userID2);
+    }
+
+    @Override
+    public double[] get(long userID1, long[] userID2s) throws TasteException {
+      double[] result = new double[userID2s.length];
+      for (int i = 0; i < userID2s.length; i++) {
+        result[i] = similarity.userSimilarity(userID1, userID2s[i]);
+      }
+      return result;
     }
   }
   
@@ -0,0 +1,455 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.MappedArrays;
+import org.apache.mahout.cf.taste.impl.common.TopNHeap;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
+import org.apache.mahout.cf.taste.recommender.MostSimilarItemsCandidateItemsStrategy;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.common.iterator.FileLineIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * <p>
+ * A compact, precomputed index of the K most similar items of each item. Each item's neighbors are stored as a
+ * range of a shared <code>long[]</code> of neighbor IDs, sorted by ID, and a matching <code>float[]</code> of
+ * similarities. This is far smaller than a {@link GenericItemSimilarity} of the same pairs, and a lookup is a
+ * binary search.
+ * </p>
+ *
+ * <p>
+ * The index can be built in parallel from any other {@link ItemSimilarity}, or from similarities such as the
+ * output of {@link org.apache.mahout.cf.taste.hadoop.similarity.item.ItemSimilarityJob}, and saved to and
+ * loaded from a binary file.
+ * </p>
+ *
+ * <p>
+ * It serves as an {@link ItemSimilarity}: the similarity of two items is known if either is among the
+ * other's K neighbors, and is {@link Double#NaN} otherwise. It is also a {@link CandidateItemsStrategy}
+ * and {@link MostSimilarItemsCandidateItemsStrategy}, offering the neighbors of the given items as candidates.
+ * </p>
+ */
+public final class ItemNeighborIndex
+    implements ItemSimilarity, CandidateItemsStrategy, MostSimilarItemsCandidateItemsStrategy {
+
+  private static final Logger log = LoggerFactory.getLogger(ItemNeighborIndex.class);
+
+  private static final long MAGIC = 0x4D41484F55544E31L; // "MAHOUTN1"
+  private static final int HEADER_BYTES = 8 + 4 + 4 + 4;
+  private static final Pattern SEPARATOR = Pattern.compile("[,\t]");
+
+  private final int k;
+  private final long[] itemIDs;
+  private final int[] offsets;
+  private final long[] neighborIDs;
+  private final float[] similarities;
+
+  private ItemNeighborIndex(int k, long[] itemIDs, int[] offsets, long[] neighborIDs, float[] similarities) {
+    this.k = k;
+    this.itemIDs = itemIDs;
+    this.offsets = offsets;
+    this.neighborIDs = neighborIDs;
+    this.similarities = similarities;
+  }
+
+  /**
+   * Computes the similarity of every pair of items in the model with another {@link ItemSimilarity}, on
+   * several threads, keeping the K most similar items of each. That is N<sup>2</sup> similarities for N items,
+   * each as costly as the similarity makes it, however few pairs actually have one, so this suits catalogs of
+   * up to some tens of thousands of items. For larger ones, compute the similar pairs offline, for example with
+   * {@link org.apache.mahout.cf.taste.hadoop.similarity.item.ItemSimilarityJob}, and load them with
+   * {@link #fromItemSimilarityJobOutput(File, int)}.
+   *
+   * @param similarity thread-safe similarity to compute
+   * @param k number of neighbors to keep per item
+   * @param numThreads number of threads to compute on
+   */
+  public static ItemNeighborIndex build(final ItemSimilarity similarity,
+                                        DataModel dataModel,
+                                        final int k,
+                                        int numThreads) throws TasteException {
+    Preconditions.checkArgument(similarity != null, "similarity is null");
+    Preconditions.checkArgument(k >= 1, "k must be at least 1");
+    Preconditions.checkArgument(numThreads >= 1, "numThreads must be at least 1");
+
+    final long[] itemIDs = new long[dataModel.getNumItems()];
+    LongPrimitiveIterator it = dataModel.getItemIDs();
+    for (int i = 0; i < itemIDs.length; i++) {
+      itemIDs[i] = it.nextLong();
+    }
+    Arrays.sort(itemIDs);
+    log.info("Computing {} neighbors of {} items", k, itemIDs.length);
+
+    final long[][] rowIDs = new long[itemIDs.length][];
+    final float[][] rowSimilarities = new float[itemIDs.length][];
+    int blockSize = Math.max(1, itemIDs.length / (numThreads * 8));
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for (int from = 0; from < itemIDs.length; from += blockSize) {
+      final int start = from;
+      final int end = Math.min(itemIDs.length, from + blockSize);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws TasteException {
+          TopNHeap top = new TopNHeap(k);
+          for (int i = start; i < end; i++) {
+            double[] values = similarity.itemSimilarities(itemIDs[i], itemIDs);
+            top.clear();
+            for (int j = 0; j < itemIDs.length; j++) {
+              if (j != i) {
+                top.offer(itemIDs[j], values[j]);
+              }
+            }
+            int size = top.size();
+            rowIDs[i] = new long[size];
+            rowSimilarities[i] = new float[size];
+            sortByID(top, rowIDs[i], rowSimilarities[i]);
+          }
+          return null;
+        }
+      });
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      for (Future<Void> future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof TasteException) {
+        throw (TasteException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new TasteException(cause);
+    } finally {
+      executor.shutdownNow();
+    }
+    return fromRows(k, itemIDs, rowIDs, rowSimilarities);
+  }
+
+  /**
+   * Keeps the K most similar items of each item among the given similarities, which are taken to be symmetric
+   * and should name each pair once.
+   */
+  public static ItemNeighborIndex fromSimilarities(Iterator<GenericItemSimilarity.ItemItemSimilarity> similarities,
+                                                   int k) {
+    Preconditions.checkArgument(k >= 1, "k must be at least 1");
+    FastByIDMap<TopNHeap> tops = new FastByIDMap<TopNHeap>();
+    while (similarities.hasNext()) {
+      GenericItemSimilarity.ItemItemSimilarity similarity = similarities.next();
+      long itemID1 = similarity.getItemID1();
+      long itemID2 = similarity.getItemID2();
+      if (itemID1 != itemID2) {
+        offer(tops, k, itemID1, itemID2, similarity.getValue());
+        offer(tops, k, itemID2, itemID1, similarity.getValue());
+      }
+    }
+    long[] itemIDs = new long[tops.size()];
+    LongPrimitiveIterator it = tops.keySetIterator();
+    for (int i = 0; i < itemIDs.length; i++) {
+      itemIDs[i] = it.nextLong();
+    }
+    Arrays.sort(itemIDs);
+    long[][] rowIDs = new long[itemIDs.length][];
+    float[][] rowSimilarities = new float[itemIDs.length][];
+    for (int i = 0; i < itemIDs.length; i++) {
+      TopNHeap top = tops.get(itemIDs[i]);
+      rowIDs[i] = new long[top.size()];
+      rowSimilarities[i] = new float[top.size()];
+      sortByID(top, rowIDs[i], rowSimilarities[i]);
+    }
+    return fromRows(k, itemIDs, rowIDs, rowSimilarities);
+  }
+
+  /**
+   * Reads similarities in the text format written by
+   * {@link org.apache.mahout.cf.taste.hadoop.similarity.item.ItemSimilarityJob}, and also read by
+   * {@link org.apache.mahout.cf.taste.impl.similarity.file.FileItemSimilarity}: one pair per line as
+   * <code>itemID1,itemID2,similarity</code>, delimited by commas or tabs.
+   *
+   * @param fileOrDirectory one file, or a directory of job output whose files are all read, except those
+   *  starting with '_' or '.'
+   */
+  public static ItemNeighborIndex fromItemSimilarityJobOutput(File fileOrDirectory, int k) throws IOException {
+    if (!fileOrDirectory.exists()) {
+      throw new FileNotFoundException(fileOrDirectory.toString());
+    }
+    List<File> files = new ArrayList<File>();
+    if (fileOrDirectory.isDirectory()) {
+      File[] children = fileOrDirectory.listFiles();
+      Arrays.sort(children);
+      for (File child : children) {
+        String name = child.getName();
+        if (child.isFile() && !name.startsWith("_") && !name.startsWith(".")) {
+          files.add(child);
+        }
+      }
+    } else {
+      files.add(fileOrDirectory);
+    }
+    final Iterator<File> fileIterator = files.iterator();
+    final FileLineIterator[] lines = new FileLineIterator[1];
+    Iterator<GenericItemSimilarity.ItemItemSimilarity> similarities =
+        new AbstractIterator<GenericItemSimilarity.ItemItemSimilarity>() {
+          @Override
+          protected GenericItemSimilarity.ItemItemSimilarity computeNext() {
+            String line = null;
+            while (line == null || line.isEmpty()) {
+              while (lines[0] == null || !lines[0].hasNext()) {
+                if (lines[0] != null) {
+                  lines[0].close();
+                  lines[0] = null;
+                }
+                if (!fileIterator.hasNext()) {
+                  return endOfData();
+                }
+                try {
+                  lines[0] = new FileLineIterator(fileIterator.next());
+                } catch (IOException ioe) {
+                  throw new IllegalStateException(ioe);
+                }
+              }
+              line = lines[0].next().trim();
+            }
+            String[] tokens = SEPARATOR.split(line);
+            return new GenericItemSimilarity.ItemItemSimilarity(Long.parseLong(tokens[0]),
+                                                                Long.parseLong(tokens[1]),
+                                                                Double.parseDouble(tokens[2]));
+          }
+        };
+    try {
+      return fromSimilarities(similarities, k);
+    } finally {
+      // Still open if a line failed to parse
+      if (lines[0] != null) {
+        lines[0].close();
+      }
+    }
+  }
+
+  /**
+   * Loads an index written by {@link #write(File)}, copying its arrays out of a memory mapping of the file.
+   */
+  public static ItemNeighborIndex read(File file) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = in.getChannel();
+      if (channel.size() < HEADER_BYTES) {
+        throw new IOException("Not an item neighbor index: " + file);
+      }
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0L, HEADER_BYTES);
+      if (header.getLong() != MAGIC) {
+        throw new IOException("Not an item neighbor index: " + file);
+      }
+      int k = header.getInt();
+      int numItems = header.getInt();
+      int numNeighbors = header.getInt();
+      if (channel.size() != HEADER_BYTES + 8L * numItems + 4L * (numItems + 1) + 12L * numNeighbors) {
+        throw new IOException("Truncated item neighbor index: " + file);
+      }
+      long position = HEADER_BYTES;
+      long[] itemIDs = new long[numItems];
+      position = MappedArrays.readLongs(channel, position, itemIDs);
+      int[] offsets = new int[numItems + 1];
+      position = MappedArrays.readInts(channel, position, offsets);
+      long[] neighborIDs = new long[numNeighbors];
+      position = MappedArrays.readLongs(channel, position, neighborIDs);
+      float[] similarities = new float[numNeighbors];
+      MappedArrays.readFloats(channel, position, similarities);
+      return new ItemNeighborIndex(k, itemIDs, offsets, neighborIDs, similarities);
+    } finally {
+      in.close();
+    }
+  }
+
+  /** Saves this index in a binary form which {@link #read(File)} can load quickly. */
+  public void write(File file) throws IOException {
+    RandomAccessFile out = new RandomAccessFile(file, "rw");
+    try {
+      out.setLength(0L);
+      FileChannel channel = out.getChannel();
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      header.putLong(MAGIC).putInt(k).putInt(itemIDs.length).putInt(neighborIDs.length);
+      header.flip();
+      MappedArrays.writeFully(channel, header);
+      ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+      MappedArrays.writeLongs(channel, buffer, itemIDs);
+      MappedArrays.writeInts(channel, buffer, offsets);
+      MappedArrays.writeLongs(channel, buffer, neighborIDs);
+      MappedArrays.writeFloats(channel, buffer, similarities);
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void offer(FastByIDMap<TopNHeap> tops, int k, long itemID, long neighborID, double similarity) {
+    TopNHeap top = tops.get(itemID);
+    if (top == null) {
+      top = new TopNHeap(k);
+      tops.put(itemID, top);
+    }
+    top.offer(neighborID, similarity);
+  }
+
+  /** Copies what the heap kept into the arrays, ordered by ID. */
+  private static void sortByID(TopNHeap top, long[] ids, float[] values) {
+    top.sort();
+    // There are only K entries, so an insertion sort does
+    for (int n = 0; n < top.size(); n++) {
+      long id = top.getID(n);
+      float value = (float) top.getScore(n);
+      int m = n - 1;
+      while (m >= 0 && ids[m] > id) {
+        ids[m + 1] = ids[m];
+        values[m + 1] = values[m];
+        m--;
+      }
+      ids[m + 1] = id;
+      values[m + 1] = value;
+    }
+  }
+
+  private static ItemNeighborIndex fromRows(int k, long[] itemIDs, long[][] rowIDs, float[][] rowSimilarities) {
+    int[] offsets = new int[itemIDs.length + 1];
+    for (int i = 0; i < itemIDs.length; i++) {
+      offsets[i + 1] = offsets[i] + rowIDs[i].length;
+    }
+    long[] neighborIDs = new long[offsets[itemIDs.length]];
+    float[] similarities = new float[neighborIDs.length];
+    for (int i = 0; i < itemIDs.length; i++) {
+      System.arraycopy(rowIDs[i], 0, neighborIDs, offsets[i], rowIDs[i].length);
+      System.arraycopy(rowSimilarities[i], 0, similarities, offsets[i], rowSimilarities[i].length);
+    }
+    return new ItemNeighborIndex(k, itemIDs, offsets, neighborIDs, similarities);
+  }
+
+  public int getK() {
+    return k;
+  }
+
+  public int getNumItems() {
+    return itemIDs.length;
+  }
+
+  @Override
+  public double itemSimilarity(long itemID1, long itemID2) {
+    if (itemID1 == itemID2) {
+      return 1.0;
+    }
+    int p = position(itemID1, itemID2);
+    if (p < 0) {
+      p = position(itemID2, itemID1);
+    }
+    return p < 0 ? Double.NaN : similarities[p];
+  }
+
+  @Override
+  public double[] itemSimilarities(long itemID1, long[] itemID2s) {
+    double[] result = new double[itemID2s.length];
+    for (int i = 0; i < itemID2s.length; i++) {
+      result[i] = itemSimilarity(itemID1, itemID2s[i]);
+    }
+    return result;
+  }
+
+  /** @return the item's K nearest neighbors, sorted by ID */
+  @Override
+  public long[] allSimilarItemIDs(long itemID) {
+    int i = Arrays.binarySearch(itemIDs, itemID);
+    if (i < 0) {
+      return new long[0];
+    }
+    return Arrays.copyOfRange(neighborIDs, offsets[i], offsets[i + 1]);
+  }
+
+  @Override
+  public FastIDSet getCandidateItems(long userID, PreferenceArray preferencesFromUser, DataModel dataModel) {
+    return getCandidateItems(preferencesFromUser.getIDs(), dataModel);
+  }
+
+  @Override
+  public FastIDSet getCandidateItems(long[] itemIDs, DataModel dataModel) {
+    FastIDSet candidateItemIDs = new FastIDSet();
+    for (long itemID : itemIDs) {
+      int i = Arrays.binarySearch(this.itemIDs, itemID);
+      if (i >= 0) {
+        for (int p = offsets[i]; p < offsets[i + 1]; p++) {
+          candidateItemIDs.add(neighborIDs[p]);
+        }
+      }
+    }
+    candidateItemIDs.removeAll(itemIDs);
+    return candidateItemIDs;
+  }
+
+  /** @return position of the neighbor among the item's neighbors, or -1 */
+  private int position(long itemID, long neighborID) {
+    int i = Arrays.binarySearch(itemIDs, itemID);
+    if (i < 0) {
+      return -1;
+    }
+    int p = Arrays.binarySearch(neighborIDs, offsets[i], offsets[i + 1], neighborID);
+    return p < 0 ? -1 : p;
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+  // Does nothing
+  }
+
+  @Override
+  public String toString() {
+    return "ItemNeighborIndex[items:" + itemIDs.length + ", k:" + k + ']';
+  }
+
+}
@@ -24,8 +24,8 @@ import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.BulkUserSimilarity;
 import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
-import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 import org.apache.mahout.math.stats.LogLikelihood;
 
 /**
@@ -34,7 +34,7 @@ import org.apache.mahout.math.stats.LogLikelihood;
  * <a href="http://tdunning.blogspot.com/2008/03/surprise-and-coincidence.html">
  * http://tdunning.blogspot.com/2008/03/surprise-and-coincidence.html</a>.
  */
-public final class LogLikelihoodSimilarity extends AbstractItemSimilarity implements UserSimilarity {
+public final class LogLikelihoodSimilarity extends AbstractItemSimilarity implements BulkUserSimilarity {
 
   public LogLikelihoodSimilarity(DataModel dataModel) {
     super(dataModel);
@@ -50,10 +50,25 @@ public final class LogLikelihoodSimilarity extends AbstractItemSimilarity implem
   
   @Override
   public double userSimilarity(long userID1, long userID2) throws TasteException {
+    DataModel dataModel = getDataModel();
+    return doUserSimilarity(dataModel.getItemIDsFromUser(userID1), userID2, dataModel.getNumItems());
+  }
 
+  @Override
+  public double[] userSimilarities(long userID1, long[] userID2s) throws TasteException {
     DataModel dataModel = getDataModel();
     FastIDSet prefs1 = dataModel.getItemIDsFromUser(userID1);
-    FastIDSet prefs2 = dataModel.getItemIDsFromUser(userID2);
+    int numItems = dataModel.getNumItems();
+    int length = userID2s.length;
+    double[] result = new double[length];
+    for (int i = 0; i < length; i++) {
+      result[i] = doUserSimilarity(prefs1, userID2s[i], numItems);
+    }
+    return result;
+  }
+
+  private double doUserSimilarity(FastIDSet prefs1, long userID2, int numItems) throws TasteException {
+    FastIDSet prefs2 = getDataModel().getItemIDsFromUser(userID2);
     
     int prefs1Size = prefs1.size();
     int prefs2Size = prefs2.size();
@@ -62,7 +77,6 @@ public final class LogLikelihoodSimilarity extends AbstractItemSimilarity implem
     if (intersectionSize == 0) {
       return Double.NaN;
     }
-    int numItems = dataModel.getNumItems();
     double logLikelihood =
         LogLikelihood.logLikelihoodRatio(intersectionSize,
                                          prefs2Size - intersectionSize,
@@ -17,6 +17,7 @@
 
 package org.apache.mahout.cf.taste.impl.similarity;
 
+import java.util.Arrays;
 import java.util.Collection;
 
 import org.apache.mahout.cf.taste.common.Refreshable;
@@ -24,8 +25,8 @@ import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.similarity.BulkUserSimilarity;
 import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
-import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 
 import com.google.common.base.Preconditions;
 
@@ -36,7 +37,7 @@ import com.google.common.base.Preconditions;
  * preference value, with 1 being assigned to the least preferred item.
  * </p>
  */
-public final class SpearmanCorrelationSimilarity implements UserSimilarity {
+public final class SpearmanCorrelationSimilarity implements BulkUserSimilarity {
   
   private final DataModel dataModel;
   
@@ -47,79 +48,85 @@ public final class SpearmanCorrelationSimilarity implements UserSimilarity {
   
   @Override
   public double userSimilarity(long userID1, long userID2) throws TasteException {
-    PreferenceArray xPrefs = dataModel.getPreferencesFromUser(userID1);
-    PreferenceArray yPrefs = dataModel.getPreferencesFromUser(userID2);
+    return userSimilarity(UserPreferenceVector.of(dataModel, userID1), dataModel.getPreferencesFromUser(userID2));
+  }
+
+  @Override
+  public double[] userSimilarities(long userID1, long[] userID2s) throws TasteException {
+    UserPreferenceVector xPrefs = UserPreferenceVector.of(dataModel, userID1);
+    int length = userID2s.length;
+    double[] result = new double[length];
+    for (int i = 0; i < length; i++) {
+      result[i] = userSimilarity(xPrefs, dataModel.getPreferencesFromUser(userID2s[i]));
+    }
+    return result;
+  }
+
+  private static double userSimilarity(UserPreferenceVector xPrefs, PreferenceArray yPrefs) {
     int xLength = xPrefs.length();
     int yLength = yPrefs.length();
     
     if ((xLength <= 1) || (yLength <= 1)) {
       return Double.NaN;
     }
-    
-    // Copy prefs since we need to modify pref values to ranks
-    xPrefs = xPrefs.clone();
-    yPrefs = yPrefs.clone();
-    
-    // First sort by values from low to high
-    xPrefs.sortByValue();
-    yPrefs.sortByValue();
-    
-    // Assign ranks from low to high
-    float nextRank = 1.0f;
-    for (int i = 0; i < xLength; i++) {
-      // ... but only for items that are common to both pref arrays
-      if (yPrefs.hasPrefWithItemID(xPrefs.getItemID(i))) {
-        xPrefs.setValue(i, nextRank);
-        nextRank += 1.0f;
-      }
-      // Other values are bogus but don't matter
-    }
-    nextRank = 1.0f;
-    for (int i = 0; i < yLength; i++) {
-      if (xPrefs.hasPrefWithItemID(yPrefs.getItemID(i))) {
-        yPrefs.setValue(i, nextRank);
-        nextRank += 1.0f;
-      }
-    }
-    
-    xPrefs.sortByItem();
-    yPrefs.sortByItem();
-    
-    long xIndex = xPrefs.getItemID(0);
-    long yIndex = yPrefs.getItemID(0);
+
+    // Collect the values of items common to both users, in item order
+    long[] xIDs = xPrefs.itemIDs;
+    int maxCount = Math.min(xLength, yLength);
+    float[] xValues = new float[maxCount];
+    float[] yValues = new float[maxCount];
+    int count = 0;
     int xPrefIndex = 0;
     int yPrefIndex = 0;
-    
-    double sumXYRankDiff2 = 0.0;
-    int count = 0;
-    
-    while (true) {
-      int compare = xIndex < yIndex ? -1 : xIndex > yIndex ? 1 : 0;
-      if (compare == 0) {
-        double diff = xPrefs.getValue(xPrefIndex) - yPrefs.getValue(yPrefIndex);
-        sumXYRankDiff2 += diff * diff;
+    while (xPrefIndex < xLength && yPrefIndex < yLength) {
+      long xIndex = xIDs[xPrefIndex];
+      long yIndex = yPrefs.getItemID(yPrefIndex);
+      if (xIndex < yIndex) {
+        xPrefIndex++;
+      } else if (xIndex > yIndex) {
+        yPrefIndex++;
+      } else {
+        xValues[count] = xPrefs.values[xPrefIndex++];
+        yValues[count] = yPrefs.getValue(yPrefIndex++);
         count++;
       }
-      if (compare <= 0) {
-        if (++xPrefIndex >= xLength) {
-          break;
-        }
-        xIndex = xPrefs.getItemID(xPrefIndex);
-      }
-      if (compare >= 0) {
-        if (++yPrefIndex >= yLength) {
-          break;
-        }
-        yIndex = yPrefs.getItemID(yPrefIndex);
-      }
     }
     
     if (count <= 1) {
       return Double.NaN;
     }
+
+    // Assign ranks from low to high, only over the common items
+    int[] xRanks = ranks(xValues, count);
+    int[] yRanks = ranks(yValues, count);
+    double sumXYRankDiff2 = 0.0;
+    for (int i = 0; i < count; i++) {
+      double diff = xRanks[i] - yRanks[i];
+      sumXYRankDiff2 += diff * diff;
+    }
     
     // When ranks are unique, this formula actually gives the Pearson correlation
-    return 1.0 - 6.0 * sumXYRankDiff2 / (count * (count * count - 1));
+    return 1.0 - 6.0 * sumXYRankDiff2 / (count * ((double) count * count - 1.0));
+  }
+
+  /**
+   * @return rank of each of the first count values, from 1 for the least; equal values are ranked in the order
+   *  they appear
+   */
+  private static int[] ranks(float[] values, int count) {
+    // Sort (value, position) pairs packed into longs whose signed order is the order of the values
+    long[] keys = new long[count];
+    for (int i = 0; i < count; i++) {
+      int bits = Float.floatToIntBits(values[i]);
+      bits ^= (bits >> 31) & 0x7FFFFFFF;
+      keys[i] = ((long) bits << 32) | i;
+    }
+    Arrays.sort(keys);
+    int[] ranks = new int[count];
+    for (int rank = 0; rank < count; rank++) {
+      ranks[(int) keys[rank]] = rank + 1;
+    }
+    return ranks;
   }
   
   @Override
@@ -24,8 +24,8 @@ import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.BulkUserSimilarity;
 import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
-import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 
 /**
  * <p>
@@ -44,7 +44,7 @@ import org.apache.mahout.cf.taste.similarity.UserSimilarity;
  * The value returned is in [0,1].
  * </p>
  */
-public final class TanimotoCoefficientSimilarity extends AbstractItemSimilarity implements UserSimilarity {
+public final class TanimotoCoefficientSimilarity extends AbstractItemSimilarity implements BulkUserSimilarity {
 
   public TanimotoCoefficientSimilarity(DataModel dataModel) {
     super(dataModel);
@@ -60,10 +60,22 @@ public final class TanimotoCoefficientSimilarity extends AbstractItemSimilarity
   
   @Override
   public double userSimilarity(long userID1, long userID2) throws TasteException {
+    return doUserSimilarity(getDataModel().getItemIDsFromUser(userID1), userID2);
+  }
 
-    DataModel dataModel = getDataModel();
-    FastIDSet xPrefs = dataModel.getItemIDsFromUser(userID1);
-    FastIDSet yPrefs = dataModel.getItemIDsFromUser(userID2);
+  @Override
+  public double[] userSimilarities(long userID1, long[] userID2s) throws TasteException {
+    FastIDSet xPrefs = getDataModel().getItemIDsFromUser(userID1);
+    int length = userID2s.length;
+    double[] result = new double[length];
+    for (int i = 0; i < length; i++) {
+      result[i] = doUserSimilarity(xPrefs, userID2s[i]);
+    }
+    return result;
+  }
+
+  private double doUserSimilarity(FastIDSet xPrefs, long userID2) throws TasteException {
+    FastIDSet yPrefs = getDataModel().getItemIDsFromUser(userID2);
     
     if (xPrefs.isEmpty() && yPrefs.isEmpty()) {
       return Double.NaN;
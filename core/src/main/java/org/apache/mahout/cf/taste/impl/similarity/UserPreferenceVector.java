@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * One user's preferences, copied out of the {@link DataModel} as primitive arrays sorted by item ID. Bulk user
+ * similarity computations in this package copy the first user's preferences once and merge them with each other
+ * user's {@link PreferenceArray}, saving a virtual call per element on one side. These are built for one
+ * computation and not kept, so they never outlive a change to the {@link DataModel}.
+ */
+final class UserPreferenceVector {
+
+  final long[] itemIDs;
+  final float[] values;
+
+  private UserPreferenceVector(long[] itemIDs, float[] values) {
+    this.itemIDs = itemIDs;
+    this.values = values;
+  }
+
+  static UserPreferenceVector of(DataModel dataModel, long userID) throws TasteException {
+    PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+    int length = prefs.length();
+    for (int i = 1; i < length; i++) {
+      if (prefs.getItemID(i) < prefs.getItemID(i - 1)) {
+        prefs = prefs.clone();
+        prefs.sortByItem();
+        break;
+      }
+    }
+    long[] itemIDs = new long[length];
+    float[] values = new float[length];
+    for (int i = 0; i < length; i++) {
+      itemIDs[i] = prefs.getItemID(i);
+      values[i] = prefs.getValue(i);
+    }
+    return new UserPreferenceVector(itemIDs, values);
+  }
+
+  int length() {
+    return itemIDs.length;
+  }
+
+}
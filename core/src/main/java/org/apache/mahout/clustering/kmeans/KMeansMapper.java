@@ -38,6 +38,8 @@ public class KMeansMapper extends Mapper<WritableComparable<?>, VectorWritable,
   @Override
   protected void map(WritableComparable<?> key, VectorWritable point, Context context)
     throws IOException, InterruptedException {
+    // the point is serialized by context.write before the next record is read into it
+    point.setReusesVector(true);
     this.clusterer.emitPointToNearestCluster(point.get(), this.clusters, context);
   }
 
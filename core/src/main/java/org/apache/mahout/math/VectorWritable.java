@@ -17,10 +17,12 @@
 
 package org.apache.mahout.math;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.io.Writable;
 
 import com.google.common.base.Preconditions;
+import org.apache.mahout.math.function.IntDoubleProcedure;
 
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -35,8 +37,25 @@ public final class VectorWritable extends Configured implements Writable {
   public static final int FLAG_LAX_PRECISION = 0x08;
   public static final int NUM_FLAGS = 4;
 
+  /**
+   * Configuration key; when true, instances created by Hadoop with this configuration decode lazily, see
+   * {@link #setDecodesLazily(boolean)}.
+   */
+  public static final String DECODE_LAZILY = VectorWritable.class.getName() + ".decodeLazily";
+
   private Vector vector;
   private boolean writesLaxPrecision;
+  private boolean decodesLazily;
+  private boolean reusesVector;
+
+  /* the still encoded vector when decoding lazily */
+  private boolean pending;
+  private int pendingFlags;
+  private int pendingSize;
+  private int pendingNumNonDefaultElements;
+  private String pendingName;
+  private byte[] buffer;
+  private int bufferLength;
 
   public VectorWritable() {
   }
@@ -45,16 +64,28 @@ public final class VectorWritable extends Configured implements Writable {
     this.vector = vector;
   }
 
+  @Override
+  public void setConf(Configuration conf) {
+    super.setConf(conf);
+    if (conf != null) {
+      decodesLazily = conf.getBoolean(DECODE_LAZILY, false);
+    }
+  }
+
   /**
    * @return {@link Vector} that this is to write, or has
    *  just read
    */
   public Vector get() {
+    if (pending) {
+      vector = decodePending();
+    }
     return vector;
   }
 
   public void set(Vector vector) {
     this.vector = vector;
+    pending = false;
   }
 
   /**
@@ -70,9 +101,49 @@ public final class VectorWritable extends Configured implements Writable {
     this.writesLaxPrecision = writesLaxPrecision;
   }
 
+  /**
+   * @return true if {@link #readFields(DataInput)} only copies the encoded bytes into a reusable buffer. The
+   *  {@link Vector} is then built on the first call to {@link #get()}, while {@link #forEachNonZero(IntDoubleProcedure)},
+   *  {@link #dot(Vector)} and {@link #getLengthSquared()} work straight off the encoded bytes.
+   */
+  public boolean isDecodesLazily() {
+    return decodesLazily;
+  }
+
+  public void setDecodesLazily(boolean decodesLazily) {
+    this.decodesLazily = decodesLazily;
+  }
+
+  /**
+   * @return true if reading decodes into the storage of the previously read {@link Vector} when it has the same
+   *  type and cardinality, instead of allocating a new one. Callers must not hold on to the result of {@link #get()}
+   *  across reads.
+   */
+  public boolean isReusesVector() {
+    return reusesVector;
+  }
+
+  public void setReusesVector(boolean reusesVector) {
+    this.reusesVector = reusesVector;
+  }
+
   @Override
   public void write(DataOutput out) throws IOException {
-    writeVector(out, this.vector, this.writesLaxPrecision);
+    boolean laxPrecision = (pendingFlags & FLAG_LAX_PRECISION) != 0;
+    if (pending && laxPrecision == writesLaxPrecision) {
+      // still encoded in the same format, copy the bytes through
+      out.writeByte(pendingFlags);
+      Varint.writeUnsignedVarInt(pendingSize, out);
+      if ((pendingFlags & FLAG_DENSE) == 0) {
+        Varint.writeUnsignedVarInt(pendingNumNonDefaultElements, out);
+      }
+      out.write(buffer, 0, bufferLength);
+      if ((pendingFlags & FLAG_NAMED) != 0) {
+        out.writeUTF(pendingName);
+      }
+    } else {
+      writeVector(out, get(), writesLaxPrecision);
+    }
   }
 
   @Override
@@ -85,18 +156,32 @@ public final class VectorWritable extends Configured implements Writable {
     boolean laxPrecision = (flags & FLAG_LAX_PRECISION) != 0;
 
     int size = Varint.readUnsignedVarInt(in);
+    if (decodesLazily) {
+      readPending(in, flags, size);
+      return;
+    }
     Vector v;
     if (dense) {
-      double[] values = new double[size];
-      for (int i = 0; i < size; i++) {
-        values[i] = laxPrecision ? in.readFloat() : in.readDouble();
+      v = reusableTarget(flags, size);
+      if (v == null) {
+        double[] values = new double[size];
+        for (int i = 0; i < size; i++) {
+          values[i] = laxPrecision ? in.readFloat() : in.readDouble();
+        }
+        v = new DenseVector(values, true);
+      } else {
+        for (int i = 0; i < size; i++) {
+          v.setQuick(i, laxPrecision ? in.readFloat() : in.readDouble());
+        }
       }
-      v = new DenseVector(values);
     } else {
       int numNonDefaultElements = Varint.readUnsignedVarInt(in);
-      v = sequential
-          ? new SequentialAccessSparseVector(size, numNonDefaultElements)
-          : new RandomAccessSparseVector(size, numNonDefaultElements);
+      v = reusableTarget(flags, size);
+      if (v == null) {
+        v = sequential
+            ? new SequentialAccessSparseVector(size, numNonDefaultElements)
+            : new RandomAccessSparseVector(size, numNonDefaultElements);
+      }
       if (sequential) {
         int lastIndex = 0;
         for (int i = 0; i < numNonDefaultElements; i++) {
@@ -119,6 +204,215 @@ public final class VectorWritable extends Configured implements Writable {
       v = new NamedVector(v, name);
     }
     vector = v;
+    pending = false;
+  }
+
+  /**
+   * @return the previously read vector, cleared, if it can hold a vector with the given encoding flags and
+   *  cardinality and reuse is enabled; null otherwise
+   */
+  private Vector reusableTarget(int flags, int size) {
+    if (!reusesVector || vector == null) {
+      return null;
+    }
+    Vector candidate = vector instanceof NamedVector ? ((NamedVector) vector).getDelegate() : vector;
+    if (candidate.size() != size) {
+      return null;
+    }
+    if ((flags & FLAG_DENSE) != 0) {
+      // every entry gets overwritten
+      return candidate instanceof DenseVector ? candidate : null;
+    }
+    Class<? extends Vector> expected = (flags & FLAG_SEQUENTIAL) != 0
+        ? SequentialAccessSparseVector.class
+        : RandomAccessSparseVector.class;
+    return candidate.getClass() == expected ? candidate.assign(0.0) : null;
+  }
+
+  private void readPending(DataInput in, int flags, int size) throws IOException {
+    int valueBytes = (flags & FLAG_LAX_PRECISION) != 0 ? 4 : 8;
+    int length = 0;
+    if ((flags & FLAG_DENSE) != 0) {
+      length = size * valueBytes;
+      ensureBufferCapacity(length, 0);
+      in.readFully(buffer, 0, length);
+    } else {
+      int numNonDefaultElements = Varint.readUnsignedVarInt(in);
+      pendingNumNonDefaultElements = numNonDefaultElements;
+      // at least one index byte per element, grow as needed for longer varints
+      ensureBufferCapacity(numNonDefaultElements * (valueBytes + 1), 0);
+      for (int i = 0; i < numNonDefaultElements; i++) {
+        ensureBufferCapacity(length + 5 + valueBytes, length);
+        byte b;
+        do {
+          b = in.readByte();
+          buffer[length++] = b;
+        } while ((b & 0x80) != 0);
+        in.readFully(buffer, length, valueBytes);
+        length += valueBytes;
+      }
+    }
+    bufferLength = length;
+    pendingName = (flags & FLAG_NAMED) != 0 ? in.readUTF() : null;
+    pendingFlags = flags;
+    pendingSize = size;
+    pending = true;
+  }
+
+  /** Grows the buffer to at least {@code capacity} bytes, keeping its first {@code used} bytes. */
+  private void ensureBufferCapacity(int capacity, int used) {
+    if (buffer == null || buffer.length < capacity) {
+      byte[] newBuffer = new byte[Math.max(capacity, buffer == null ? 64 : 2 * buffer.length)];
+      if (used > 0) {
+        System.arraycopy(buffer, 0, newBuffer, 0, used);
+      }
+      buffer = newBuffer;
+    }
+  }
+
+  private Vector decodePending() {
+    pending = false;
+    int flags = pendingFlags;
+    Vector v = reusableTarget(flags, pendingSize);
+    if (v == null) {
+      if ((flags & FLAG_DENSE) != 0) {
+        v = new DenseVector(pendingSize);
+      } else if ((flags & FLAG_SEQUENTIAL) != 0) {
+        v = new SequentialAccessSparseVector(pendingSize, pendingNumNonDefaultElements);
+      } else {
+        v = new RandomAccessSparseVector(pendingSize, pendingNumNonDefaultElements);
+      }
+    }
+    decodeInto(v);
+    return (flags & FLAG_NAMED) != 0 ? new NamedVector(v, pendingName) : v;
+  }
+
+  private void decodeInto(final Vector v) {
+    forEachPending(new IntDoubleProcedure() {
+      @Override
+      public boolean apply(int index, double value) {
+        v.setQuick(index, value);
+        return true;
+      }
+    }, false);
+  }
+
+  /**
+   * Walks the encoded (index, value) pairs. Big endian floats and doubles as written by {@link DataOutput}, indices
+   * as unsigned varints, delta coded for sequential vectors.
+   */
+  private boolean forEachPending(IntDoubleProcedure procedure, boolean skipZeros) {
+    byte[] bytes = buffer;
+    boolean laxPrecision = (pendingFlags & FLAG_LAX_PRECISION) != 0;
+    int position = 0;
+    if ((pendingFlags & FLAG_DENSE) != 0) {
+      for (int index = 0; index < pendingSize; index++) {
+        double value;
+        if (laxPrecision) {
+          value = Float.intBitsToFloat(readInt(bytes, position));
+          position += 4;
+        } else {
+          value = Double.longBitsToDouble(readLong(bytes, position));
+          position += 8;
+        }
+        if ((!skipZeros || value != 0.0) && !procedure.apply(index, value)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    boolean sequential = (pendingFlags & FLAG_SEQUENTIAL) != 0;
+    int lastIndex = 0;
+    for (int i = 0; i < pendingNumNonDefaultElements; i++) {
+      int raw = 0;
+      int shift = 0;
+      int b;
+      while (((b = bytes[position++]) & 0x80) != 0) {
+        raw |= (b & 0x7F) << shift;
+        shift += 7;
+      }
+      raw |= b << shift;
+      int index = sequential ? lastIndex + raw : raw;
+      lastIndex = index;
+      double value;
+      if (laxPrecision) {
+        value = Float.intBitsToFloat(readInt(bytes, position));
+        position += 4;
+      } else {
+        value = Double.longBitsToDouble(readLong(bytes, position));
+        position += 8;
+      }
+      if (!procedure.apply(index, value)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int readInt(byte[] bytes, int position) {
+    return ((bytes[position] & 0xFF) << 24)
+        | ((bytes[position + 1] & 0xFF) << 16)
+        | ((bytes[position + 2] & 0xFF) << 8)
+        | (bytes[position + 3] & 0xFF);
+  }
+
+  private static long readLong(byte[] bytes, int position) {
+    return ((long) readInt(bytes, position) << 32) | (readInt(bytes, position + 4) & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Applies the procedure to each non-zero (index, value) pair, straight off the encoded bytes if the vector has
+   * not been decoded yet. Iteration order is the encoding order.
+   *
+   * @return false if the procedure stopped the iteration early
+   */
+  public boolean forEachNonZero(IntDoubleProcedure procedure) {
+    if (pending) {
+      return forEachPending(procedure, true);
+    }
+    Iterator<Vector.Element> it = vector.iterateNonZero();
+    while (it.hasNext()) {
+      Vector.Element e = it.next();
+      if (!procedure.apply(e.index(), e.get())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** @return the dot product with {@code other}, without decoding this vector if it is still encoded */
+  public double dot(final Vector other) {
+    if (!pending) {
+      return vector.dot(other);
+    }
+    if (pendingSize != other.size()) {
+      throw new CardinalityException(pendingSize, other.size());
+    }
+    final double[] result = new double[1];
+    forEachPending(new IntDoubleProcedure() {
+      @Override
+      public boolean apply(int index, double value) {
+        result[0] += value * other.getQuick(index);
+        return true;
+      }
+    }, true);
+    return result[0];
+  }
+
+  /** @return the squared length, without decoding this vector if it is still encoded */
+  public double getLengthSquared() {
+    if (!pending) {
+      return vector.getLengthSquared();
+    }
+    final double[] result = new double[1];
+    forEachPending(new IntDoubleProcedure() {
+      @Override
+      public boolean apply(int index, double value) {
+        result[0] += value * value;
+        return true;
+      }
+    }, true);
+    return result[0];
   }
 
   /** Write the vector to the output */
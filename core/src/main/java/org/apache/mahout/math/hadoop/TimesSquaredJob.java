@@ -42,7 +42,7 @@ import org.apache.mahout.math.RandomAccessSparseVector;
 import org.apache.mahout.math.SequentialAccessSparseVector;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.VectorWritable;
-import org.apache.mahout.math.function.Functions;
+import org.apache.mahout.math.function.IntDoubleProcedure;
 
 import com.google.common.base.Preconditions;
 
@@ -171,6 +171,7 @@ public final class TimesSquaredJob {
     conf.setInputFormat(SequenceFileInputFormat.class);
     FileOutputFormat.setOutputPath(conf, new Path(outputVectorPathBase, OUTPUT_VECTOR_FILENAME));
     conf.setMapperClass(mapClass);
+    conf.setBoolean(VectorWritable.DECODE_LAZILY, true);
     conf.setMapOutputKeyClass(NullWritable.class);
     conf.setMapOutputValueClass(VectorWritable.class);
     conf.setReducerClass(redClass);
@@ -229,16 +230,21 @@ public final class TimesSquaredJob {
                     OutputCollector<NullWritable,VectorWritable> out,
                     Reporter rep) throws IOException {
       this.out = out;
-      double d = scale(v);
-      if (d == 1.0) {
-        outputVector.assign(v.get(), Functions.PLUS);
-      } else if (d != 0.0) {
-        outputVector.assign(v.get(), Functions.plusMult(d));
+      final double d = scale(v);
+      if (d != 0.0) {
+        // rows are decoded lazily, accumulate straight off the encoded bytes
+        v.forEachNonZero(new IntDoubleProcedure() {
+          @Override
+          public boolean apply(int index, double value) {
+            outputVector.setQuick(index, outputVector.getQuick(index) + d * value);
+            return true;
+          }
+        });
       }
     }
 
     protected double scale(VectorWritable v) {
-      return v.get().dot(inputVector);
+      return v.dot(inputVector);
     }
 
     @Override
@@ -209,6 +209,7 @@ public class RowSimilarityJob extends AbstractJob {
     protected void map(IntWritable row, VectorWritable vectorWritable, Context ctx)
       throws IOException, InterruptedException {
 
+      vectorWritable.setReusesVector(true);
       Vector v = vectorWritable.get();
       double weight = similarity.weight(v);
 
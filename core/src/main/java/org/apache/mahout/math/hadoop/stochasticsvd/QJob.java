@@ -48,6 +48,7 @@ import org.apache.mahout.common.IOUtils;
 import org.apache.mahout.common.iterator.CopyConstructorIterator;
 import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.VectorWritable;
+import org.apache.mahout.math.ssvd.Omega;
 
 /**
  * Compute first level of QHat-transpose blocks.
@@ -31,6 +31,7 @@ import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.SingularValueDecomposition;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.ssvd.EigenSolverWrapper;
+import org.apache.mahout.math.ssvd.Omega;
 
 /**
  * SSVD protoptype: non-MR concept verification for Givens QR & SSVD basic
@@ -36,6 +36,7 @@ import org.apache.mahout.math.VarIntWritable;
 import org.apache.mahout.math.VarLongWritable;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.als.AlternateLeastSquaresSolver;
+import org.apache.mahout.math.als.InPlaceAlternateLeastSquaresSolver;
 import org.apache.mahout.math.hadoop.MathHelper;
 import org.easymock.IArgumentMatcher;
 import org.easymock.classextension.EasyMock;
@@ -161,9 +162,9 @@ public class ParallelALSFactorizationJobTest extends TasteTestCase {
     EasyMock.replay(ctx);
 
     ParallelALSFactorizationJob.SolvingReducer reducer = new ParallelALSFactorizationJob.SolvingReducer();
-    setField(reducer, "numFeatures", numFeatures);
     setField(reducer, "lambda", lambda);
-    setField(reducer, "solver", solver);
+    setField(reducer, "solver", new InPlaceAlternateLeastSquaresSolver(numFeatures));
+    setField(reducer, "solution", new double[numFeatures]);
 
     reducer.reduce(new IndexedVarIntWritable(123, 1), Arrays.asList(
         new FeatureVectorWithRatingWritable(456, new Float(ratings.get(0)), col1),
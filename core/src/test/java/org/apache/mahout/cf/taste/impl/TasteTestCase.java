@@ -20,6 +20,7 @@ package org.apache.mahout.cf.taste.impl;
 import com.google.common.base.Charsets;
 import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.common.MahoutTestCase;
+import org.apache.mahout.common.RandomUtils;
 import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
 import org.apache.mahout.cf.taste.impl.model.GenericPreference;
 import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
@@ -34,6 +35,7 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 public abstract class TasteTestCase extends MahoutTestCase {
 
@@ -64,6 +66,25 @@ public abstract class TasteTestCase extends MahoutTestCase {
             });
   }
 
+  /**
+   * @return a model of users 0 to numUsers - 1 who each rated each of items 0 to numItems - 1 with probability
+   *  density, with a random whole value from 1 to 5
+   */
+  protected static DataModel randomDataModel(int numUsers, int numItems, double density) {
+    Random random = RandomUtils.getRandom();
+    long[] userIDs = new long[numUsers];
+    Double[][] prefs = new Double[numUsers][numItems];
+    for (int u = 0; u < numUsers; u++) {
+      userIDs[u] = u;
+      for (int i = 0; i < numItems; i++) {
+        if (random.nextDouble() < density) {
+          prefs[u][i] = (double) (1 + random.nextInt(5));
+        }
+      }
+    }
+    return getDataModel(userIDs, prefs);
+  }
+
   protected static boolean arrayContains(long[] array, long value) {
     for (long l : array) {
       if (l == value) {
@@ -23,6 +23,8 @@ import org.apache.mahout.common.RandomUtils;
 import org.junit.Test;
 
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public final class CacheTest extends TasteTestCase {
 
@@ -51,6 +53,208 @@ public final class CacheTest extends TasteTestCase {
       }
     }
   }
+
+  @Test
+  public void testStaysWithinMaxEntries() throws TasteException {
+    Cache<Object,Object> cache = new Cache<Object,Object>(new IdentityRetriever(), 100);
+    for (int i = 0; i < 10000; i++) {
+      cache.get(i);
+      assertTrue(cache.size() <= 100);
+    }
+    assertEquals(10000 - cache.size(), cache.getEvictionCount());
+  }
+
+  @Test
+  public void testFrequentKeysSurviveScan() throws TasteException {
+    CountingRetriever retriever = new CountingRetriever();
+    Cache<Integer,Integer> cache = new Cache<Integer,Integer>(retriever, 1000);
+    for (int i = 0; i < 20000; i++) {
+      cache.get(i % 20);
+    }
+    int hotLoads = retriever.calls.get();
+    for (int i = 0; i < 20000; i++) {
+      cache.get(i % 20);
+      cache.get(1000000 + i);
+    }
+    // each of the 20000 scanned keys is loaded once; the hot keys should not be displaced by them
+    assertTrue(retriever.calls.get() - hotLoads - 20000 < 20);
+  }
+
+  @Test
+  public void testCounters() throws TasteException {
+    Cache<Integer,Integer> cache = new Cache<Integer,Integer>(new CountingRetriever());
+    for (int i = 0; i < 10; i++) {
+      cache.get(i % 4);
+    }
+    assertEquals(4, cache.getMissCount());
+    assertEquals(6, cache.getHitCount());
+    assertEquals(0, cache.getEvictionCount());
+    cache.remove(0);
+    cache.get(0);
+    assertEquals(5, cache.getMissCount());
+  }
+
+  @Test
+  public void testNullValues() throws TasteException {
+    final AtomicInteger calls = new AtomicInteger();
+    Cache<Integer,Object> cache = new Cache<Integer,Object>(new Retriever<Integer,Object>() {
+      @Override
+      public Object get(Integer key) {
+        calls.incrementAndGet();
+        return null;
+      }
+    });
+    assertNull(cache.get(1));
+    assertNull(cache.get(1));
+    assertEquals(1, calls.get());
+  }
+
+  @Test
+  public void testFailureIsNotCached() throws TasteException {
+    final AtomicInteger calls = new AtomicInteger();
+    Cache<Integer,Integer> cache = new Cache<Integer,Integer>(new Retriever<Integer,Integer>() {
+      @Override
+      public Integer get(Integer key) throws TasteException {
+        if (calls.incrementAndGet() == 1) {
+          throw new TasteException("first call fails");
+        }
+        return key;
+      }
+    });
+    try {
+      cache.get(1);
+      fail();
+    } catch (TasteException te) {
+      // expected
+    }
+    assertEquals(1, cache.get(1).intValue());
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testConcurrentMissesLoadOnce() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger calls = new AtomicInteger();
+    final Cache<Integer,Integer> cache = new Cache<Integer,Integer>(new Retriever<Integer,Integer>() {
+      @Override
+      public Integer get(Integer key) throws TasteException {
+        calls.incrementAndGet();
+        try {
+          release.await();
+        } catch (InterruptedException ie) {
+          throw new TasteException(ie);
+        }
+        return key * 2;
+      }
+    }, 10);
+    int numThreads = 8;
+    final int[] results = new int[numThreads];
+    Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; t++) {
+      final int index = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            results[index] = cache.get(21);
+          } catch (TasteException te) {
+            results[index] = -1;
+          }
+        }
+      };
+      threads[t].start();
+    }
+    while (cache.getHitCount() + cache.getMissCount() < numThreads) {
+      Thread.sleep(10L);
+    }
+    release.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(1, calls.get());
+    for (int result : results) {
+      assertEquals(42, result);
+    }
+  }
+
+  @Test
+  public void testFailedLoadCountsWaitersAsMisses() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final Cache<Integer,Integer> cache = new Cache<Integer,Integer>(new Retriever<Integer,Integer>() {
+      @Override
+      public Integer get(Integer key) throws TasteException {
+        try {
+          release.await();
+        } catch (InterruptedException ie) {
+          throw new TasteException(ie);
+        }
+        throw new TasteException("load fails");
+      }
+    }, 10);
+    int numThreads = 4;
+    final AtomicInteger failures = new AtomicInteger();
+    Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; t++) {
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            cache.get(21);
+          } catch (TasteException te) {
+            failures.incrementAndGet();
+          }
+        }
+      };
+      threads[t].start();
+    }
+    while (cache.getHitCount() + cache.getMissCount() < numThreads) {
+      Thread.sleep(10L);
+    }
+    release.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(numThreads, failures.get());
+    assertEquals(0, cache.getHitCount());
+    assertEquals(numThreads, cache.getMissCount());
+  }
+
+  @Test
+  public void testConcurrentMixedUsage() throws Exception {
+    final Cache<Object,Object> cache = new Cache<Object,Object>(new IdentityRetriever(), 500);
+    final AtomicInteger errors = new AtomicInteger();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final long seed = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          Random random = RandomUtils.getRandom(seed);
+          try {
+            for (int i = 0; i < 100000; i++) {
+              int key = random.nextInt(2000);
+              double r = random.nextDouble();
+              if (r < 0.001) {
+                cache.clear();
+              } else if (r < 0.05) {
+                cache.remove(key);
+              } else if (!Integer.valueOf(key).equals(cache.get(key))) {
+                errors.incrementAndGet();
+              }
+            }
+          } catch (TasteException te) {
+            errors.incrementAndGet();
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, errors.get());
+    assertTrue(cache.size() <= 500);
+  }
   
   private static class IdentityRetriever implements Retriever<Object,Object> {
     @Override
@@ -58,4 +262,13 @@ public final class CacheTest extends TasteTestCase {
       return key;
     }
   }
-}
\ No newline at end of file
+
+  private static class CountingRetriever implements Retriever<Integer,Integer> {
+    private final AtomicInteger calls = new AtomicInteger();
+    @Override
+    public Integer get(Integer key) {
+      calls.incrementAndGet();
+      return key;
+    }
+  }
+}
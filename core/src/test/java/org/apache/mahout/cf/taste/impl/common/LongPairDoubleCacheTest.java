@@ -0,0 +1,153 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+public final class LongPairDoubleCacheTest extends TasteTestCase {
+
+  @Test
+  public void testSymmetricKeys() throws Exception {
+    CountingRetriever retriever = new CountingRetriever();
+    LongPairDoubleCache cache = new LongPairDoubleCache(retriever, 100);
+    assertEquals(f(3, 7), cache.get(3, 7), EPSILON);
+    assertEquals(f(3, 7), cache.get(7, 3), EPSILON);
+    assertEquals(1, retriever.calls);
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testNaNIsCached() throws Exception {
+    CountingRetriever retriever = new CountingRetriever();
+    LongPairDoubleCache cache = new LongPairDoubleCache(retriever, 100);
+    assertTrue(Double.isNaN(cache.get(5, 5)));
+    assertTrue(Double.isNaN(cache.get(5, 5)));
+    assertEquals(1, retriever.calls);
+  }
+
+  @Test
+  public void testStaysWithinMaxEntries() throws Exception {
+    CountingRetriever retriever = new CountingRetriever();
+    LongPairDoubleCache cache = new LongPairDoubleCache(retriever, 1000);
+    Random random = RandomUtils.getRandom();
+    for (int i = 0; i < 100000; i++) {
+      long id1 = random.nextInt(500) - 250;
+      long id2 = random.nextInt(500) - 250;
+      assertEquals(f(id1, id2), cache.get(id1, id2), EPSILON);
+      assertTrue(cache.size() <= 1000);
+    }
+  }
+
+  @Test
+  public void testBatchGetComputesOnlyMissing() throws Exception {
+    CountingRetriever retriever = new CountingRetriever();
+    LongPairDoubleCache cache = new LongPairDoubleCache(retriever, 100);
+    cache.get(1, 2);
+    cache.get(4, 1);
+    double[] values = cache.get(1, new long[] {2, 3, 4, 5});
+    for (int i = 0; i < values.length; i++) {
+      assertEquals(f(1, i + 2), values[i], EPSILON);
+    }
+    assertEquals(2, retriever.calls);
+    assertEquals(1, retriever.batchCalls);
+    assertEquals(2, retriever.batchedIDs);
+    assertEquals(4, cache.size());
+    assertEquals(f(5, 1), cache.get(5, 1), EPSILON);
+    assertEquals(2, retriever.calls);
+  }
+
+  @Test
+  public void testBatchGetOrdersPairsLikeSingleGet() throws Exception {
+    LongPairDoubleCache.PairRetriever asymmetric = new LongPairDoubleCache.PairRetriever() {
+      @Override
+      public double get(long id1, long id2) {
+        return id1 - id2;
+      }
+      @Override
+      public double[] get(long id, long[] otherIDs) {
+        double[] result = new double[otherIDs.length];
+        for (int i = 0; i < otherIDs.length; i++) {
+          result[i] = id - otherIDs[i];
+        }
+        return result;
+      }
+    };
+    LongPairDoubleCache batchFirst = new LongPairDoubleCache(asymmetric, 100);
+    double[] values = batchFirst.get(5, new long[] {2, 8});
+    assertEquals(-3.0, values[0], EPSILON);
+    assertEquals(-3.0, values[1], EPSILON);
+    LongPairDoubleCache singleFirst = new LongPairDoubleCache(asymmetric, 100);
+    assertEquals(singleFirst.get(5, 2), batchFirst.get(5, 2), EPSILON);
+    assertEquals(singleFirst.get(8, 5), batchFirst.get(8, 5), EPSILON);
+  }
+
+  @Test
+  public void testRemoveKeysContaining() throws Exception {
+    CountingRetriever retriever = new CountingRetriever();
+    LongPairDoubleCache cache = new LongPairDoubleCache(retriever, 10000);
+    for (long id1 = 0; id1 < 50; id1++) {
+      for (long id2 = id1; id2 < 50; id2++) {
+        cache.get(id1, id2);
+      }
+    }
+    assertEquals(50 * 51 / 2, cache.size());
+    cache.removeKeysContaining(7L);
+    assertEquals(49 * 50 / 2, cache.size());
+    int calls = retriever.calls;
+    for (long id1 = 0; id1 < 50; id1++) {
+      for (long id2 = id1; id2 < 50; id2++) {
+        assertEquals(f(id1, id2), cache.get(id1, id2), EPSILON);
+      }
+    }
+    assertEquals(calls + 50, retriever.calls);
+    cache.clear();
+    assertEquals(0, cache.size());
+  }
+
+  private static double f(long id1, long id2) {
+    return id1 == id2 ? Double.NaN : 1.0 / (1.0 + Math.abs(id1 - id2));
+  }
+
+  private static final class CountingRetriever implements LongPairDoubleCache.PairRetriever {
+    private int calls;
+    private int batchCalls;
+    private int batchedIDs;
+
+    @Override
+    public double get(long id1, long id2) {
+      calls++;
+      return f(id1, id2);
+    }
+
+    @Override
+    public double[] get(long id, long[] otherIDs) {
+      batchCalls++;
+      batchedIDs += otherIDs.length;
+      double[] result = new double[otherIDs.length];
+      for (int i = 0; i < otherIDs.length; i++) {
+        result[i] = f(id, otherIDs[i]);
+      }
+      return result;
+    }
+  }
+
+}
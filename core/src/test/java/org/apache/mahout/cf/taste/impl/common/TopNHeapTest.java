@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.recommender.TopItems;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+public final class TopNHeapTest extends TasteTestCase {
+
+  @Test
+  public void testKeepsTopN() {
+    Random random = RandomUtils.getRandom();
+    int numCandidates = 10000;
+    double[] scores = new double[numCandidates];
+    TopNHeap heap = new TopNHeap(20);
+    for (int i = 0; i < numCandidates; i++) {
+      scores[i] = random.nextDouble();
+      heap.offer(i, scores[i]);
+    }
+    double[] sorted = scores.clone();
+    Arrays.sort(sorted);
+    heap.sort();
+    assertEquals(20, heap.size());
+    for (int i = 0; i < 20; i++) {
+      assertEquals(sorted[numCandidates - 1 - i], heap.getScore(i), 0.0);
+      assertEquals(scores[(int) heap.getID(i)], heap.getScore(i), 0.0);
+    }
+  }
+
+  @Test
+  public void testTies() {
+    TopNHeap heap = new TopNHeap(2);
+    assertTrue(heap.offer(5L, 1.0));
+    assertFalse(heap.offer(6L, Double.NaN));
+    assertTrue(heap.offer(3L, 1.0));
+    // Ties go to the higher ID
+    assertFalse(heap.offer(1L, 1.0));
+    assertTrue(heap.offer(4L, 1.0));
+    assertArrayEquals(new long[] {5L, 4L}, heap.toIDArray());
+    heap.clear();
+    heap.offer(5L, 1.0);
+    heap.offer(3L, 1.0);
+    assertTrue(heap.offer(7L, 2.0));
+    assertArrayEquals(new long[] {7L, 5L}, heap.toIDArray());
+    try {
+      heap.offer(8L, 3.0);
+      fail();
+    } catch (IllegalStateException ise) {
+      // good
+    }
+    heap.clear();
+    assertTrue(heap.isEmpty());
+    assertTrue(heap.offer(8L, 3.0));
+  }
+
+  @Test
+  public void testEmpty() {
+    TopNHeap heap = new TopNHeap(0);
+    assertFalse(heap.offer(1L, 1.0));
+    assertEquals(0, heap.toIDArray().length);
+  }
+
+  @Test
+  public void testTopItems() throws TasteException {
+    FastIDSet candidates = new FastIDSet();
+    for (long id = 0; id < 100; id++) {
+      candidates.add(id);
+    }
+    IDRescorer rescorer = new IDRescorer() {
+      @Override
+      public double rescore(long id, double originalScore) {
+        return id == 1L ? 1000.0 : originalScore;
+      }
+      @Override
+      public boolean isFiltered(long id) {
+        return id == 99L;
+      }
+    };
+    List<RecommendedItem> topItems = TopItems.getTopItems(3, candidates.iterator(), rescorer,
+        new TopItems.IDEstimator() {
+          @Override
+          public double estimate(long id) {
+            return id == 50L ? Double.NaN : id;
+          }
+        });
+    assertEquals(3, topItems.size());
+    assertEquals(1L, topItems.get(0).getItemID());
+    assertEquals(1000.0f, topItems.get(0).getValue(), EPSILON);
+    assertEquals(98L, topItems.get(1).getItemID());
+    assertEquals(97L, topItems.get(2).getItemID());
+  }
+
+}
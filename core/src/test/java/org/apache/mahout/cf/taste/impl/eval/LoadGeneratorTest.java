@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.recommender.GenericItemBasedRecommender;
+import org.apache.mahout.cf.taste.impl.recommender.slopeone.SlopeOneRecommender;
+import org.apache.mahout.cf.taste.impl.similarity.LogLikelihoodSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.junit.Test;
+
+/** Tests {@link LoadGenerator}. */
+public final class LoadGeneratorTest extends TasteTestCase {
+
+  @Test
+  public void testMix() throws Exception {
+    DataModel model = getDataModel();
+    LoadGenerator generator =
+        new LoadGenerator(new GenericItemBasedRecommender(model, new LogLikelihoodSimilarity(model)));
+    generator.setNumThreads(2);
+    generator.setWarmupMillis(50L);
+    generator.setDurationMillis(200L);
+    generator.setWeight(LoadGenerator.Operation.ESTIMATE_PREFERENCE, 2);
+    generator.setWeight(LoadGenerator.Operation.MOST_SIMILAR_ITEMS, 1);
+    LoadReport report = generator.run();
+    long numRequests = 0L;
+    for (LoadGenerator.Operation operation : LoadGenerator.Operation.values()) {
+      assertTrue(report.getLatencies(operation).getCount() > 0L);
+      assertEquals(0L, report.getErrors(operation));
+      numRequests += report.getLatencies(operation).getCount();
+    }
+    assertEquals(numRequests, report.getNumRequests());
+    assertTrue(report.getLatencies(LoadGenerator.Operation.ESTIMATE_PREFERENCE).getCount()
+        > report.getLatencies(LoadGenerator.Operation.MOST_SIMILAR_ITEMS).getCount());
+  }
+
+  @Test
+  public void testFixedRate() throws Exception {
+    LoadGenerator generator = new LoadGenerator(new SlopeOneRecommender(getDataModel()));
+    generator.setNumThreads(2);
+    generator.setWarmupMillis(0L);
+    generator.setDurationMillis(500L);
+    generator.setRequestsPerSecond(100.0);
+    LoadReport report = generator.run();
+    // requests due in the measured period are issued, and no more
+    assertEquals(50L, report.getNumRequests());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMostSimilarItemsNeedsItemBased() throws Exception {
+    LoadGenerator generator = new LoadGenerator(new SlopeOneRecommender(getDataModel()));
+    generator.setWeight(LoadGenerator.Operation.MOST_SIMILAR_ITEMS, 1);
+  }
+
+}
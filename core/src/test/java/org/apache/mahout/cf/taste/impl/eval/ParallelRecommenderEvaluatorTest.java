@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.recommender.slopeone.SlopeOneRecommender;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+/** Tests {@link ParallelRecommenderEvaluator}. */
+public final class ParallelRecommenderEvaluatorTest extends TasteTestCase {
+
+  private static final RecommenderBuilder SLOPE_ONE = new RecommenderBuilder() {
+    @Override
+    public Recommender buildRecommender(DataModel dataModel) throws TasteException {
+      return new SlopeOneRecommender(dataModel);
+    }
+  };
+
+  @Test
+  public void testFoldsTestEveryPreference() throws Exception {
+    DataModel model = randomDataModel(false);
+    ParallelRecommenderEvaluator evaluator = new ParallelRecommenderEvaluator(11L);
+    EvaluationReport report = evaluator.evaluateFolds(SLOPE_ONE, null, model, 5, 3,
+        ParallelRecommenderEvaluator.CHOOSE_THRESHOLD);
+    int numPrefs = 0;
+    for (long userID = 0; userID < model.getNumUsers(); userID++) {
+      numPrefs += model.getPreferencesFromUser(userID).length();
+    }
+    assertEquals(numPrefs, report.getNumEstimates() + report.getNumNoEstimates());
+    assertEquals(5, report.getNumFolds());
+    assertEquals(5, report.getBuildMillis().length);
+    assertTrue(report.getRMSE() > 0.0 && report.getRMSE() < 4.0);
+    assertTrue(report.getAverageAbsoluteDifference() <= report.getRMSE());
+    assertTrue(report.getRecall() >= 0.0 && report.getRecall() <= 1.0);
+    assertEquals(report.getNumUsers(), report.getEstimateLatencies().getCount());
+  }
+
+  @Test
+  public void testReproducibleAcrossThreads() throws Exception {
+    DataModel model = randomDataModel(false);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      EvaluationReport serial =
+          new ParallelRecommenderEvaluator(executor, 1, 5L).evaluateFolds(SLOPE_ONE, null, model, 3, 3, 3.0);
+      EvaluationReport parallel =
+          new ParallelRecommenderEvaluator(executor, 4, 5L).evaluateFolds(SLOPE_ONE, null, model, 3, 3, 3.0);
+      assertEquals(serial.getNumEstimates(), parallel.getNumEstimates());
+      assertEquals(serial.getRMSE(), parallel.getRMSE(), 0.0);
+      assertEquals(serial.getAverageAbsoluteDifference(), parallel.getAverageAbsoluteDifference(), 0.0);
+      assertEquals(serial.getPrecision(), parallel.getPrecision(), 0.0);
+      assertEquals(serial.getRecall(), parallel.getRecall(), 0.0);
+      assertEquals(serial.getNormalizedDiscountedCumulativeGain(),
+          parallel.getNormalizedDiscountedCumulativeGain(), 0.0);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testByTime() throws Exception {
+    DataModel model = randomDataModel(true);
+    ParallelRecommenderEvaluator evaluator = new ParallelRecommenderEvaluator(1L);
+    EvaluationReport report = evaluator.evaluateByTime(SLOPE_ONE, null, model, 0.75, 3, 3.0);
+    int numTimed = 0;
+    for (long userID = 0; userID < model.getNumUsers(); userID++) {
+      PreferenceArray prefs = model.getPreferencesFromUser(userID);
+      for (int i = 0; i < prefs.length(); i++) {
+        Long time = model.getPreferenceTime(userID, prefs.getItemID(i));
+        if (time != null) {
+          numTimed++;
+        }
+      }
+    }
+    // times are distinct, so exactly the last quarter of timed preferences are tested
+    assertEquals(numTimed - (int) (0.75 * numTimed), report.getNumEstimates() + report.getNumNoEstimates());
+    assertEquals(1, report.getNumFolds());
+  }
+
+  @Test
+  public void testLatencyHistogram() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertTrue(Double.isNaN(histogram.getPercentileMicros(50.0)));
+    for (int i = 1; i <= 100; i++) {
+      histogram.add(i * 1000L);
+    }
+    assertEquals(100, histogram.getCount());
+    assertEquals(50.5, histogram.getMeanMicros(), EPSILON);
+    assertEquals(100.0, histogram.getMaxMicros(), EPSILON);
+    // percentiles are the upper bound of a sub-bucket, at most 1/32 above the value, and capped to the maximum
+    assertEquals(50.0, histogram.getPercentileMicros(50.0), 50.0 / 32);
+    assertTrue(histogram.getPercentileMicros(50.0) >= 50.0);
+    assertEquals(90.0, histogram.getPercentileMicros(90.0), 90.0 / 32);
+    assertEquals(100.0, histogram.getPercentileMicros(99.9), EPSILON);
+    assertEquals(1.0, histogram.getPercentileMicros(0.0), 1.0 / 32);
+
+    LatencyHistogram other = new LatencyHistogram();
+    other.add(1000000L);
+    histogram.addAll(other);
+    assertEquals(101, histogram.getCount());
+    assertEquals(1000.0, histogram.getMaxMicros(), EPSILON);
+  }
+
+  /** 40 users who each rated about half of 30 items, with every tenth preference untimed if timed. */
+  private static DataModel randomDataModel(boolean timed) throws TasteException {
+    DataModel dataModel = randomDataModel(40, 30, 0.5);
+    if (!timed) {
+      return dataModel;
+    }
+    Random random = RandomUtils.getRandom();
+    FastByIDMap<PreferenceArray> userData = GenericDataModel.toDataMap(dataModel);
+    FastByIDMap<FastByIDMap<Long>> timestamps = new FastByIDMap<FastByIDMap<Long>>();
+    long time = 0L;
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      PreferenceArray prefs = userData.get(userID);
+      FastByIDMap<Long> userTimes = new FastByIDMap<Long>();
+      for (int p = 0; p < prefs.length(); p++) {
+        if (p % 10 != 9) {
+          userTimes.put(prefs.getItemID(p), random.nextInt(1000) * 1000L + time++);
+        }
+      }
+      timestamps.put(userID, userTimes);
+    }
+    return new GenericDataModel(userData, timestamps);
+  }
+
+
+}
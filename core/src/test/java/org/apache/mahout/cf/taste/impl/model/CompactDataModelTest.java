@@ -0,0 +1,224 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.recommender.GenericItemBasedRecommender;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+/**
+ * Tests {@link CompactDataModel} against {@link GenericDataModel} on the same data.
+ */
+public final class CompactDataModelTest extends TasteTestCase {
+
+  @Test
+  public void testSameAsGenericDataModel() throws Exception {
+    FastByIDMap<PreferenceArray> data = randomData();
+    DataModel generic = new GenericDataModel(data);
+    DataModel compact = new CompactDataModel(data);
+
+    assertEquals(generic.getNumUsers(), compact.getNumUsers());
+    assertEquals(generic.getNumItems(), compact.getNumItems());
+    assertEquals(generic.getMinPreference(), compact.getMinPreference(), EPSILON);
+    assertEquals(generic.getMaxPreference(), compact.getMaxPreference(), EPSILON);
+    assertSameIDs(generic.getItemIDs(), compact.getItemIDs());
+
+    LongPrimitiveIterator userIDs = generic.getUserIDs();
+    LongPrimitiveIterator compactUserIDs = compact.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      assertEquals(userID, compactUserIDs.nextLong());
+      assertSamePrefs(generic.getPreferencesFromUser(userID), compact.getPreferencesFromUser(userID));
+      assertEquals(generic.getItemIDsFromUser(userID), compact.getItemIDsFromUser(userID));
+      for (long itemID = -1; itemID <= 40; itemID++) {
+        assertEquals(generic.getPreferenceValue(userID, itemID), compact.getPreferenceValue(userID, itemID));
+      }
+    }
+    assertFalse(compactUserIDs.hasNext());
+
+    LongPrimitiveIterator itemIDs = generic.getItemIDs();
+    while (itemIDs.hasNext()) {
+      long itemID = itemIDs.nextLong();
+      assertSamePrefs(generic.getPreferencesForItem(itemID), compact.getPreferencesForItem(itemID));
+      for (long otherItemID = 0; otherItemID < 40; otherItemID++) {
+        assertEquals(generic.getNumUsersWithPreferenceFor(itemID, otherItemID),
+                     compact.getNumUsersWithPreferenceFor(itemID, otherItemID));
+      }
+    }
+  }
+
+  @Test
+  public void testSameRecommendations() throws Exception {
+    FastByIDMap<PreferenceArray> data = randomData();
+    DataModel generic = new GenericDataModel(data);
+    DataModel compact = new CompactDataModel(data);
+    List<RecommendedItem> expected =
+        new GenericItemBasedRecommender(generic, new PearsonCorrelationSimilarity(generic)).recommend(3L, 10);
+    List<RecommendedItem> actual =
+        new GenericItemBasedRecommender(compact, new PearsonCorrelationSimilarity(compact)).recommend(3L, 10);
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).getItemID(), actual.get(i).getItemID());
+      assertEquals(expected.get(i).getValue(), actual.get(i).getValue(), EPSILON);
+    }
+  }
+
+  @Test
+  public void testSortingOnlyReordersView() throws Exception {
+    DataModel model = new CompactDataModel(randomData());
+    PreferenceArray prefs = model.getPreferencesFromUser(2L);
+    prefs.sortByValueReversed();
+    for (int i = 1; i < prefs.length(); i++) {
+      assertTrue(prefs.getValue(i - 1) >= prefs.getValue(i));
+    }
+    prefs.sortByValue();
+    for (int i = 1; i < prefs.length(); i++) {
+      assertTrue(prefs.getValue(i - 1) <= prefs.getValue(i));
+    }
+    for (int i = 0; i < prefs.length(); i++) {
+      assertTrue(prefs.hasPrefWithItemID(prefs.getItemID(i)));
+      assertEquals(prefs.getValue(i), model.getPreferenceValue(2L, prefs.getItemID(i)), EPSILON);
+    }
+    PreferenceArray fresh = model.getPreferencesFromUser(2L);
+    for (int i = 1; i < fresh.length(); i++) {
+      assertTrue(fresh.getItemID(i - 1) < fresh.getItemID(i));
+    }
+    prefs.sortByItem();
+    assertSamePrefs(fresh, prefs);
+  }
+
+  @Test
+  public void testViewsAreReadOnlyButClonesAreNot() throws Exception {
+    DataModel model = new CompactDataModel(randomData());
+    PreferenceArray prefs = model.getPreferencesForItem(5L);
+    try {
+      prefs.setValue(0, 1.0f);
+      fail();
+    } catch (UnsupportedOperationException uoe) {
+      // expected
+    }
+    PreferenceArray copy = prefs.clone();
+    assertSamePrefs(prefs, copy);
+    copy.setValue(0, -100.0f);
+    assertFalse(prefs.getValue(0) == -100.0f);
+  }
+
+  @Test
+  public void testTimestamps() throws Exception {
+    FastByIDMap<PreferenceArray> data = randomData();
+    FastByIDMap<FastByIDMap<Long>> timestamps = new FastByIDMap<FastByIDMap<Long>>();
+    long now = 1300000000000L;
+    FastByIDMap<Long> userTimestamps = new FastByIDMap<Long>();
+    long[] itemIDs = data.get(1L).getIDs().clone();
+    for (int i = 0; i < itemIDs.length; i++) {
+      userTimestamps.put(itemIDs[i], now + 1000L * i);
+    }
+    timestamps.put(1L, userTimestamps);
+    DataModel model = new CompactDataModel(data, timestamps);
+    for (int i = 0; i < itemIDs.length; i++) {
+      assertEquals(now + 1000L * i, model.getPreferenceTime(1L, itemIDs[i]).longValue());
+    }
+    assertNull(model.getPreferenceTime(2L, data.get(2L).getItemID(0)));
+    assertNull(new CompactDataModel(data).getPreferenceTime(1L, itemIDs[0]));
+  }
+
+  @Test
+  public void testMissingIDs() throws Exception {
+    DataModel model = new CompactDataModel(randomData());
+    try {
+      model.getPreferencesFromUser(-5L);
+      fail();
+    } catch (NoSuchUserException nsue) {
+      // expected
+    }
+    try {
+      model.getPreferencesForItem(-5L);
+      fail();
+    } catch (NoSuchItemException nsie) {
+      // expected
+    }
+    assertNull(model.getPreferenceValue(1L, -5L));
+    assertEquals(0, model.getNumUsersWithPreferenceFor(-5L));
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    DataModel model = new CompactDataModel(randomData());
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(baos);
+    out.writeObject(model);
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+    DataModel newModel = (DataModel) in.readObject();
+    assertEquals(model.getNumUsers(), newModel.getNumUsers());
+    assertSamePrefs(model.getPreferencesFromUser(1L), newModel.getPreferencesFromUser(1L));
+    assertSamePrefs(model.getPreferencesForItem(1L), newModel.getPreferencesForItem(1L));
+  }
+
+  private static FastByIDMap<PreferenceArray> randomData() {
+    Random random = RandomUtils.getRandom();
+    FastByIDMap<PreferenceArray> data = new FastByIDMap<PreferenceArray>();
+    for (long userID = 0; userID < 50; userID++) {
+      int numPrefs = 5 + random.nextInt(15);
+      PreferenceArray prefs = new GenericUserPreferenceArray(numPrefs);
+      prefs.setUserID(0, userID);
+      // distinct item IDs out of 0..39, in random order
+      long offset = random.nextInt(40);
+      long step = 1 + 2 * random.nextInt(2);
+      for (int i = 0; i < numPrefs; i++) {
+        prefs.setItemID(i, (offset + step * i * 3) % 40);
+        prefs.setValue(i, 1.0f + random.nextInt(9) / 2.0f);
+      }
+      data.put(userID, prefs);
+    }
+    return data;
+  }
+
+  private static void assertSameIDs(LongPrimitiveIterator expected, LongPrimitiveIterator actual) {
+    while (expected.hasNext()) {
+      assertEquals(expected.nextLong(), actual.nextLong());
+    }
+    assertFalse(actual.hasNext());
+  }
+
+  private static void assertSamePrefs(PreferenceArray expected, PreferenceArray actual) {
+    assertEquals(expected.length(), actual.length());
+    for (int i = 0; i < expected.length(); i++) {
+      assertEquals(expected.getUserID(i), actual.getUserID(i));
+      assertEquals(expected.getItemID(i), actual.getItemID(i));
+      assertEquals(expected.getValue(i), actual.getValue(i), EPSILON);
+      assertEquals(expected.get(i).getItemID(), actual.get(i).getItemID());
+    }
+  }
+
+}
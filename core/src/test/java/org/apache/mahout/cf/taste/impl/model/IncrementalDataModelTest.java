@@ -0,0 +1,283 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+/**
+ * Tests {@link IncrementalDataModel} against a {@link GenericDataModel} rebuilt from scratch after each batch.
+ */
+public final class IncrementalDataModelTest extends TasteTestCase {
+
+  @Test
+  public void testDeltasMatchRebuild() throws Exception {
+    Random random = RandomUtils.getRandom();
+    FastByIDMap<FastByIDMap<Float>> expected = new FastByIDMap<FastByIDMap<Float>>();
+    IncrementalDataModel model = new IncrementalDataModel(true);
+    for (int batch = 0; batch < 20; batch++) {
+      IncrementalDataModel.Delta delta = new IncrementalDataModel.Delta();
+      for (int i = 0; i < 100; i++) {
+        long userID = random.nextInt(30);
+        long itemID = random.nextInt(30);
+        FastByIDMap<Float> userPrefs = expected.get(userID);
+        if (random.nextInt(4) == 0) {
+          delta.removePreference(userID, itemID);
+          if (userPrefs != null) {
+            userPrefs.remove(itemID);
+            if (userPrefs.isEmpty()) {
+              expected.remove(userID);
+            }
+          }
+        } else {
+          float value = random.nextInt(10) / 2.0f;
+          delta.setPreference(userID, itemID, value);
+          if (userPrefs == null) {
+            userPrefs = new FastByIDMap<Float>();
+            expected.put(userID, userPrefs);
+          }
+          userPrefs.put(itemID, value);
+        }
+      }
+      model.apply(delta);
+      assertSameData(new GenericDataModel(toUserData(expected)), model);
+    }
+  }
+
+  @Test
+  public void testInitialData() throws Exception {
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+    PreferenceArray prefs = new GenericUserPreferenceArray(3);
+    prefs.setUserID(0, 1L);
+    prefs.setItemID(0, 30L);
+    prefs.setValue(0, 3.0f);
+    prefs.setItemID(1, 10L);
+    prefs.setValue(1, 1.0f);
+    prefs.setItemID(2, 20L);
+    prefs.setValue(2, 2.0f);
+    userData.put(1L, prefs);
+    FastByIDMap<FastByIDMap<Long>> timestamps = new FastByIDMap<FastByIDMap<Long>>();
+    FastByIDMap<Long> userTimestamps = new FastByIDMap<Long>();
+    userTimestamps.put(20L, 1000L);
+    timestamps.put(1L, userTimestamps);
+
+    DataModel model = new IncrementalDataModel(userData, timestamps);
+    assertSameData(new GenericDataModel(userData), model);
+    assertEquals(1.0f, model.getMinPreference(), EPSILON);
+    assertEquals(3.0f, model.getMaxPreference(), EPSILON);
+    assertEquals(1000L, model.getPreferenceTime(1L, 20L).longValue());
+    assertNull(model.getPreferenceTime(1L, 10L));
+  }
+
+  @Test
+  public void testBulkBuildMatchesDeltas() throws Exception {
+    Random random = RandomUtils.getRandom();
+    FastByIDMap<FastByIDMap<Float>> prefs = new FastByIDMap<FastByIDMap<Float>>();
+    IncrementalDataModel.Delta delta = new IncrementalDataModel.Delta();
+    for (int i = 0; i < 2000; i++) {
+      long userID = random.nextInt(100) - 50;
+      long itemID = random.nextInt(100) - 50;
+      float value = random.nextInt(10) / 2.0f;
+      FastByIDMap<Float> userPrefs = prefs.get(userID);
+      if (userPrefs == null) {
+        userPrefs = new FastByIDMap<Float>();
+        prefs.put(userID, userPrefs);
+      }
+      userPrefs.put(itemID, value);
+      delta.setPreference(userID, itemID, value);
+    }
+    IncrementalDataModel applied = new IncrementalDataModel(true);
+    applied.apply(delta);
+    DataModel built = new IncrementalDataModel(toUserData(prefs), null);
+    assertSameData(applied, built);
+    assertEquals(applied.getMinPreference(), built.getMinPreference(), EPSILON);
+    assertEquals(applied.getMaxPreference(), built.getMaxPreference(), EPSILON);
+    assertSameData(applied, IncrementalDataModel.copyOf(new GenericDataModel(toUserData(prefs))));
+  }
+
+  @Test
+  public void testTimestamps() throws Exception {
+    IncrementalDataModel model = new IncrementalDataModel(true);
+    IncrementalDataModel.Delta delta = new IncrementalDataModel.Delta();
+    delta.setPreference(1L, 10L, 1.0f, 1000L);
+    delta.setPreference(1L, 11L, 1.0f, 1000L);
+    delta.setPreference(1L, 12L, 1.0f);
+    model.apply(delta);
+    assertEquals(1000L, model.getPreferenceTime(1L, 10L).longValue());
+    assertNull(model.getPreferenceTime(1L, 12L));
+
+    delta = new IncrementalDataModel.Delta();
+    // Keeps the old time
+    delta.setPreference(1L, 10L, 2.0f);
+    // Removal forgets it
+    delta.removePreference(1L, 11L);
+    delta.setPreference(1L, 11L, 2.0f);
+    delta.setPreference(1L, 12L, 2.0f, 2000L);
+    model.apply(delta);
+    assertEquals(2.0f, model.getPreferenceValue(1L, 10L), EPSILON);
+    assertEquals(1000L, model.getPreferenceTime(1L, 10L).longValue());
+    assertNull(model.getPreferenceTime(1L, 11L));
+    assertEquals(2000L, model.getPreferenceTime(1L, 12L).longValue());
+  }
+
+  @Test
+  public void testBooleanPrefs() throws Exception {
+    FastByIDMap<FastIDSet> userData = new FastByIDMap<FastIDSet>();
+    FastIDSet itemIDs = new FastIDSet();
+    itemIDs.add(10L);
+    itemIDs.add(11L);
+    userData.put(1L, itemIDs);
+    IncrementalDataModel model = IncrementalDataModel.withoutPreferenceValues(userData, null);
+    assertFalse(model.hasPreferenceValues());
+    model.setPreference(2L, 11L, 5.0f);
+    assertEquals(1.0f, model.getPreferenceValue(2L, 11L), EPSILON);
+    assertEquals(2, model.getNumUsersWithPreferenceFor(11L));
+    assertEquals(1, model.getNumUsersWithPreferenceFor(10L, 11L));
+    model.removePreference(1L, 10L);
+    assertEquals(1, model.getNumItems());
+    assertEquals(2, model.getNumUsers());
+    PreferenceArray copy = model.getPreferencesForItem(11L).clone();
+    assertEquals(2, copy.length());
+  }
+
+  @Test
+  public void testViewsDontChange() throws Exception {
+    IncrementalDataModel model = new IncrementalDataModel(true);
+    model.setPreference(1L, 10L, 1.0f);
+    model.setPreference(1L, 11L, 2.0f);
+    PreferenceArray before = model.getPreferencesFromUser(1L);
+    model.removePreference(1L, 10L);
+    model.setPreference(1L, 11L, 3.0f);
+    assertEquals(2, before.length());
+    assertEquals(2.0f, before.getValue(1), EPSILON);
+    assertEquals(1, model.getPreferencesFromUser(1L).length());
+    model.removePreference(1L, 11L);
+    assertEquals(0, model.getNumUsers());
+    try {
+      model.getPreferencesFromUser(1L);
+      fail();
+    } catch (NoSuchUserException nsue) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testConcurrentReads() throws Exception {
+    final IncrementalDataModel model = new IncrementalDataModel(true);
+    final AtomicBoolean done = new AtomicBoolean();
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread reader = new Thread() {
+      @Override
+      public void run() {
+        try {
+          while (!done.get()) {
+            LongPrimitiveIterator userIDs = model.getUserIDs();
+            while (userIDs.hasNext()) {
+              long userID = userIDs.nextLong();
+              try {
+                PreferenceArray prefs = model.getPreferencesFromUser(userID);
+                for (int i = 1; i < prefs.length(); i++) {
+                  assertTrue(prefs.getItemID(i - 1) < prefs.getItemID(i));
+                }
+              } catch (NoSuchUserException nsue) {
+                // removed since the IDs were read
+              }
+            }
+          }
+        } catch (Throwable t) {
+          failure.set(t);
+        }
+      }
+    };
+    reader.start();
+    Random random = RandomUtils.getRandom();
+    for (int i = 0; i < 20000; i++) {
+      if (random.nextInt(3) == 0) {
+        model.removePreference(random.nextInt(50), random.nextInt(50));
+      } else {
+        model.setPreference(random.nextInt(50), random.nextInt(50), random.nextFloat());
+      }
+    }
+    done.set(true);
+    reader.join();
+    assertNull(failure.get());
+  }
+
+  private static FastByIDMap<PreferenceArray> toUserData(FastByIDMap<FastByIDMap<Float>> prefs) {
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+    LongPrimitiveIterator userIDs = prefs.keySetIterator();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      FastByIDMap<Float> userPrefs = prefs.get(userID);
+      PreferenceArray array = new GenericUserPreferenceArray(userPrefs.size());
+      array.setUserID(0, userID);
+      int i = 0;
+      LongPrimitiveIterator itemIDs = userPrefs.keySetIterator();
+      while (itemIDs.hasNext()) {
+        long itemID = itemIDs.nextLong();
+        array.setItemID(i, itemID);
+        array.setValue(i, userPrefs.get(itemID));
+        i++;
+      }
+      userData.put(userID, array);
+    }
+    return userData;
+  }
+
+  private static void assertSameData(DataModel expected, DataModel actual) throws Exception {
+    assertEquals(expected.getNumUsers(), actual.getNumUsers());
+    assertEquals(expected.getNumItems(), actual.getNumItems());
+    LongPrimitiveIterator userIDs = expected.getUserIDs();
+    LongPrimitiveIterator actualUserIDs = actual.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      assertEquals(userID, actualUserIDs.nextLong());
+      assertSamePrefs(expected.getPreferencesFromUser(userID), actual.getPreferencesFromUser(userID));
+    }
+    LongPrimitiveIterator itemIDs = expected.getItemIDs();
+    LongPrimitiveIterator actualItemIDs = actual.getItemIDs();
+    while (itemIDs.hasNext()) {
+      long itemID = itemIDs.nextLong();
+      assertEquals(itemID, actualItemIDs.nextLong());
+      assertSamePrefs(expected.getPreferencesForItem(itemID), actual.getPreferencesForItem(itemID));
+      assertEquals(expected.getNumUsersWithPreferenceFor(itemID, 3L),
+                   actual.getNumUsersWithPreferenceFor(itemID, 3L));
+    }
+  }
+
+  private static void assertSamePrefs(PreferenceArray expected, PreferenceArray actual) {
+    assertEquals(expected.length(), actual.length());
+    for (int i = 0; i < expected.length(); i++) {
+      assertEquals(expected.getUserID(i), actual.getUserID(i));
+      assertEquals(expected.getItemID(i), actual.getItemID(i));
+      assertEquals(expected.getValue(i), actual.getValue(i), EPSILON);
+    }
+  }
+
+}
@@ -20,6 +20,7 @@ package org.apache.mahout.cf.taste.impl.model.file;
 import org.apache.commons.lang.mutable.MutableBoolean;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
 import org.apache.mahout.cf.taste.impl.recommender.GenericUserBasedRecommender;
@@ -181,6 +182,82 @@ public final class FileDataModelTest extends TasteTestCase {
     assertEquals(5.0f, dataModel.getPreferenceValue(123L, 456L), EPSILON);
   }
 
+  @Test
+  public void testUpdateFileAppliedIncrementally() throws Exception {
+    File file = getTestTempFile("data.txt");
+    writeLines(file, "123,456,3.0,1000", "123,789,4.0", "234,456,1.0");
+    FileDataModel dataModel = new FileDataModel(file, false, 0L);
+    PreferenceArray before = dataModel.getPreferencesFromUser(123L);
+
+    writeLines(getTestTempFile("data.1.txt"), "123,456,5.0", "234,456,", "345,789,2.0,2000");
+    dataModel.refresh(null);
+
+    assertEquals(5.0f, dataModel.getPreferenceValue(123L, 456L), EPSILON);
+    assertEquals(1000L, dataModel.getPreferenceTime(123L, 456L).longValue());
+    assertEquals(2000L, dataModel.getPreferenceTime(345L, 789L).longValue());
+    assertEquals(2, dataModel.getNumUsers());
+    assertEquals(2, dataModel.getNumUsersWithPreferenceFor(789L));
+    assertEquals(3.0f, before.getValue(0), EPSILON);
+
+    dataModel.setPreference(234L, 999L, 1.5f);
+    dataModel.removePreference(123L, 789L);
+    assertEquals(3, dataModel.getNumUsers());
+    assertEquals(1, dataModel.getPreferencesFromUser(123L).length());
+  }
+
+  @Test
+  public void testLoadInParallel() throws Exception {
+    File file = getTestTempFile("parallel.txt");
+    writeLines(file, "123,456,3.0,1000", "123,789,4.0", "234,456,1.0");
+    writeLines(getTestTempFile("parallel.1.txt"), "234,789,2.0");
+    FileDataModel dataModel = new FileDataModel(file, false, 0L, true);
+    assertTrue(dataModel.hasPreferenceValues());
+    assertEquals(2.0f, dataModel.getPreferenceValue(234L, 789L), EPSILON);
+    assertEquals(1000L, dataModel.getPreferenceTime(123L, 456L).longValue());
+
+    writeLines(getTestTempFile("parallel.2.txt"), "123,456,5.0", "234,456,");
+    dataModel.refresh(null);
+    assertEquals(5.0f, dataModel.getPreferenceValue(123L, 456L), EPSILON);
+    assertEquals(1000L, dataModel.getPreferenceTime(123L, 456L).longValue());
+    assertEquals(1, dataModel.getNumUsersWithPreferenceFor(456L));
+
+    dataModel.setPreference(345L, 456L, 1.5f);
+    assertEquals(3, dataModel.getNumUsers());
+  }
+
+  @Test
+  public void testLoadBooleanFileInParallel() throws Exception {
+    File file = getTestTempFile("parallelboolean.txt");
+    writeLines(file, "123,456", "123,789", "234,456");
+    FileDataModel dataModel = new FileDataModel(file, false, 0L, true);
+    assertFalse(dataModel.hasPreferenceValues());
+    assertEquals(2, dataModel.getNumUsersWithPreferenceFor(456L));
+    dataModel.setPreference(234L, 789L, 3.0f);
+    assertFalse(dataModel.hasPreferenceValues());
+    assertEquals(1.0f, dataModel.getPreferenceValue(234L, 789L), EPSILON);
+  }
+
+  @Test
+  public void testUpdateFileReadByOverriddenProcessLine() throws Exception {
+    File file = getTestTempFile("scaled.txt");
+    writeLines(file, "123,456,3.0", "234,456,1.0");
+    FileDataModel dataModel = new FileDataModel(file, false, 0L) {
+      @Override
+      protected void processLine(String line,
+                                 FastByIDMap<?> data,
+                                 FastByIDMap<FastByIDMap<Long>> timestamps,
+                                 boolean fromPriorData) {
+        super.processLine(line.replace(",1.0", ",2.0"), data, timestamps, fromPriorData);
+      }
+    };
+    assertEquals(2.0f, dataModel.getPreferenceValue(234L, 456L), EPSILON);
+
+    writeLines(getTestTempFile("scaled.1.txt"), "345,456,1.0", "123,456,");
+    dataModel.refresh(null);
+    assertEquals(2.0f, dataModel.getPreferenceValue(345L, 456L), EPSILON);
+    assertEquals(2, dataModel.getNumUsers());
+  }
+
   @Test
   public void testToString() {
     assertTrue(model.toString().length() > 0);
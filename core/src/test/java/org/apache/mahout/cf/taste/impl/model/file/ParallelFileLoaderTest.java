@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.base.Charsets;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+/** <p>Tests {@link ParallelFileLoader}.</p> */
+public final class ParallelFileLoaderTest extends TasteTestCase {
+
+  @Test
+  public void testSameAsFileDataModel() throws Exception {
+    File testFile = getTestTempFile("big.txt");
+    writeLines(testFile, randomLines(200000));
+    assertTrue(testFile.length() > 3 * (1 << 20));
+
+    DataModel expected = new FileDataModel(testFile);
+    ParallelFileLoader loader = new ParallelFileLoader(testFile);
+    loader.setNumThreads(3);
+    assertSameData(expected, loader.load(), true);
+  }
+
+  @Test
+  public void testTranspose() throws Exception {
+    File testFile = getTestTempFile("small.txt");
+    writeLines(testFile, randomLines(1000));
+    DataModel expected = new FileDataModel(testFile, true, FileDataModel.DEFAULT_MIN_RELOAD_INTERVAL_MS);
+    ParallelFileLoader loader = new ParallelFileLoader(testFile);
+    loader.setTranspose(true);
+    assertSameData(expected, loader.load(), false);
+  }
+
+  @Test
+  public void testBooleanFile() throws Exception {
+    File testFile = getTestTempFile("boolean.txt");
+    writeLines(testFile, "# comment", "1\t10", "1\t11", "", "2\t10\t\t1300000000000", "2\t12");
+    ParallelFileLoader loader = new ParallelFileLoader(testFile);
+    loader.setUseSnapshot(true);
+    DataModel model = loader.load();
+    assertFalse(model.hasPreferenceValues());
+    assertEquals(2, model.getNumUsers());
+    assertEquals(3, model.getNumItems());
+    assertEquals(1.0f, model.getPreferenceValue(2L, 12L), EPSILON);
+    assertEquals(1.0f, model.getPreferencesForItem(10L).getValue(1), EPSILON);
+    assertEquals(1300000000000L, model.getPreferenceTime(2L, 10L).longValue());
+    assertNull(model.getPreferenceTime(1L, 10L));
+
+    DataModel fromSnapshot = loader.load();
+    assertFalse(fromSnapshot.hasPreferenceValues());
+    assertSameData(model, fromSnapshot, true);
+  }
+
+  @Test
+  public void testSnapshot() throws Exception {
+    File testFile = getTestTempFile("data.txt");
+    writeLines(testFile, "1,10,1.5", "1,11,2.5", "2,10,3.5");
+    long lastModified = testFile.lastModified();
+    ParallelFileLoader loader = new ParallelFileLoader(testFile);
+    loader.setUseSnapshot(true);
+    DataModel model = loader.load();
+    assertTrue(loader.getSnapshotFile().exists());
+    assertEquals(2.5f, model.getPreferenceValue(1L, 11L), EPSILON);
+
+    // Same size and time: the snapshot is used rather than the changed data
+    writeLines(testFile, "1,10,1.5", "1,11,4.5", "2,10,3.5");
+    assertTrue(testFile.setLastModified(lastModified));
+    assertEquals(2.5f, loader.load().getPreferenceValue(1L, 11L), EPSILON);
+
+    assertTrue(testFile.setLastModified(lastModified + 2000L));
+    assertEquals(4.5f, loader.load().getPreferenceValue(1L, 11L), EPSILON);
+    assertEquals(4.5f, loader.load().getPreferenceValue(1L, 11L), EPSILON);
+
+    // Snapshots aren't mistaken for update files
+    DataModel fileModel = new FileDataModel(testFile);
+    assertEquals(2, fileModel.getNumUsers());
+  }
+
+  @Test
+  public void testParseNumbers() {
+    String[] floats = {"0", "1", "-1", "+2", "0.1", "3.14159", "1234.5678", "99999999", "0.30000001",
+                       "-0.0", "1.5e3", "1E-7", "123456789.123", "0.000000001", "16777217", ".5", "7."};
+    for (String number : floats) {
+      assertEquals(number, Float.floatToIntBits(Float.parseFloat(number)),
+                   Float.floatToIntBits(ParallelFileLoader.parseFloat(bytes(number), 0, number.length())));
+    }
+    Random random = RandomUtils.getRandom();
+    for (int i = 0; i < 100000; i++) {
+      String number = Integer.toString(random.nextInt(100000000));
+      int point = random.nextInt(number.length() + 1);
+      number = number.substring(0, point) + '.' + number.substring(point);
+      assertEquals(number, Float.parseFloat(number),
+                   ParallelFileLoader.parseFloat(bytes(number), 0, number.length()), 0.0f);
+    }
+    // Every digit string of up to 5 digits, and random ones of up to 9, with the point in every position
+    for (int i = 0; i < 200000; i++) {
+      String digits = i < 100000 ? Integer.toString(i) : Integer.toString(random.nextInt(1000000000));
+      for (int point = 0; point <= digits.length() + 6; point++) {
+        String number = point <= digits.length()
+            ? digits.substring(0, point) + '.' + digits.substring(point)
+            : "0." + "000000".substring(0, point - digits.length()) + digits;
+        assertEquals(number, Float.floatToIntBits(Float.parseFloat(number)),
+                     Float.floatToIntBits(ParallelFileLoader.parseFloat(bytes(number), 0, number.length())));
+      }
+    }
+    String[] longs = {"0", "-5", "+5", "123456789012345678", "-9223372036854775808", "9223372036854775807"};
+    for (String number : longs) {
+      assertEquals(Long.parseLong(number), ParallelFileLoader.parseLong(bytes(number), 0, number.length()));
+    }
+  }
+
+  private static ByteBuffer bytes(String s) {
+    return ByteBuffer.wrap(s.getBytes(Charsets.US_ASCII));
+  }
+
+  private static String[] randomLines(int count) {
+    Random random = RandomUtils.getRandom();
+    List<String> lines = new ArrayList<String>(count + 1);
+    lines.add("# user,item,value,time");
+    lines.add("1,1,1.0");
+    long baseTime = 1300000000000L;
+    for (int i = 0; i < count; i++) {
+      long userID = random.nextInt(5000) - 100;
+      long itemID = random.nextInt(2000) * 1000003L;
+      double r = random.nextDouble();
+      if (r < 0.02) {
+        lines.add(userID + "," + itemID + ',');
+      } else if (r < 0.5) {
+        lines.add(userID + "," + itemID + ',' + random.nextInt(10) / 2.0f + ',' + (baseTime + 1000L * i));
+      } else {
+        lines.add(userID + "," + itemID + ',' + random.nextFloat() * 5.0f);
+      }
+    }
+    return lines.toArray(new String[lines.size()]);
+  }
+
+  private static void assertSameData(DataModel expected, DataModel actual, boolean checkTimes) throws Exception {
+    assertEquals(expected.getNumUsers(), actual.getNumUsers());
+    assertEquals(expected.getNumItems(), actual.getNumItems());
+    LongPrimitiveIterator userIDs = expected.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      PreferenceArray expectedPrefs = expected.getPreferencesFromUser(userID);
+      PreferenceArray actualPrefs = actual.getPreferencesFromUser(userID);
+      assertEquals(expectedPrefs.length(), actualPrefs.length());
+      for (int i = 0; i < expectedPrefs.length(); i++) {
+        long itemID = expectedPrefs.getItemID(i);
+        assertEquals(itemID, actualPrefs.getItemID(i));
+        assertEquals(expectedPrefs.getValue(i), actualPrefs.getValue(i), 0.0f);
+        if (checkTimes) {
+          assertEquals(expected.getPreferenceTime(userID, itemID), actual.getPreferenceTime(userID, itemID));
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,259 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.model.CompactDataModel;
+import org.apache.mahout.cf.taste.impl.model.IncrementalDataModel;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests {@link MirroredJDBCDataModel} against a table held in memory behind a minimal JDBC facade. */
+public final class MirroredJDBCDataModelTest extends TasteTestCase {
+
+  private Table table;
+  private MySQLJDBCDataModel jdbcModel;
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    table = new Table();
+    table.upsert(1, 10, 1.0f);
+    table.upsert(1, 11, 2.0f);
+    table.upsert(2, 10, 3.0f);
+    table.upsert(3, 12, 4.0f);
+    jdbcModel = new MySQLJDBCDataModel(table.dataSource(), "taste_preferences", "user_id", "item_id",
+        "preference", "timestamp");
+  }
+
+  @Test
+  public void testLoadsOnce() throws Exception {
+    MirroredJDBCDataModel model = new MirroredJDBCDataModel(jdbcModel, "timestamp");
+    assertEquals(1, table.queries);
+    assertEquals(3, model.getNumUsers());
+    assertEquals(3, model.getNumItems());
+    assertEquals(2.0f, model.getPreferenceValue(1, 11), EPSILON);
+    assertEquals(2, model.getPreferencesForItem(10).length());
+    assertEquals(2, model.getPreferencesFromUser(1).length());
+    assertEquals(Long.valueOf(4000L), model.getPreferenceTime(3, 12));
+    assertEquals(1, table.queries);
+  }
+
+  @Test
+  public void testRefreshTailsChanges() throws Exception {
+    MirroredJDBCDataModel model = new MirroredJDBCDataModel(jdbcModel, "timestamp");
+    table.upsert(1, 10, 5.0f);
+    table.upsert(4, 13, 1.0f);
+    model.refresh(null);
+    assertEquals(5.0f, model.getPreferenceValue(1, 10), EPSILON);
+    assertEquals(2.0f, model.getPreferenceValue(1, 11), EPSILON);
+    assertEquals(4, model.getNumUsers());
+    assertEquals(4, model.getNumItems());
+    // only rows at or after the latest timestamp seen are read again
+    assertEquals(4 + 3, table.rowsRead);
+
+    model.refresh(null);
+    assertEquals(4 + 3 + 1, table.rowsRead);
+  }
+
+  @Test
+  public void testRefreshUpdatesInPlace() throws Exception {
+    MirroredJDBCDataModel model = new MirroredJDBCDataModel(jdbcModel, "timestamp");
+    assertTrue(model.getDelegateInMemory() instanceof CompactDataModel);
+    table.upsert(2, 11, 1.5f);
+    model.refresh(null);
+    DataModel mirror = model.getDelegateInMemory();
+    assertTrue(mirror instanceof IncrementalDataModel);
+    table.upsert(3, 10, 2.5f);
+    model.refresh(null);
+    assertSame(mirror, model.getDelegateInMemory());
+    assertEquals(2.5f, model.getPreferenceValue(3, 10), EPSILON);
+    assertEquals(Long.valueOf(6000L), model.getPreferenceTime(3, 10));
+    assertEquals(2, model.getPreferencesForItem(11).length());
+  }
+
+  @Test
+  public void testWritesThrough() throws Exception {
+    MirroredJDBCDataModel model = new MirroredJDBCDataModel(jdbcModel, "timestamp");
+    model.setPreference(2, 12, 2.5f);
+    model.removePreference(3, 12);
+    assertEquals(4, table.rows.size());
+    assertNull(model.getPreferenceValue(2, 12));
+    model.refresh(null);
+    assertEquals(2.5f, model.getPreferenceValue(2, 12), EPSILON);
+    assertEquals(2, model.getNumUsers());
+    try {
+      model.getPreferencesFromUser(3);
+      fail();
+    } catch (NoSuchUserException nsue) {
+      // good
+    }
+  }
+
+  @Test
+  public void testReloadsWithoutTimestamp() throws Exception {
+    MirroredJDBCDataModel model = new MirroredJDBCDataModel(jdbcModel);
+    table.delete(2, 10);
+    model.refresh(null);
+    assertEquals(2, model.getNumUsers());
+    assertNull(model.getPreferenceTime(1, 10));
+  }
+
+  /**
+   * A preference table which answers the statements {@link MirroredJDBCDataModel} and
+   * {@link MySQLJDBCDataModel}'s writes use, with each write stamped a second after the last.
+   */
+  private static final class Table {
+
+    private final Map<List<Long>,long[]> rows = Maps.newHashMap();
+    private long clock;
+    private int queries;
+    private int rowsRead;
+
+    void upsert(long userID, long itemID, float value) {
+      rows.put(Lists.newArrayList(userID, itemID),
+          new long[] {userID, itemID, Float.floatToIntBits(value), ++clock * 1000L});
+    }
+
+    void delete(long userID, long itemID) {
+      rows.remove(Lists.newArrayList(userID, itemID));
+    }
+
+    DataSource dataSource() {
+      return proxy(DataSource.class, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+          return "getConnection".equals(method.getName()) ? connection() : defaultValue(method);
+        }
+      });
+    }
+
+    private Connection connection() {
+      return proxy(Connection.class, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+          return "prepareStatement".equals(method.getName()) ? statement((String) args[0]) : defaultValue(method);
+        }
+      });
+    }
+
+    private PreparedStatement statement(final String sql) {
+      final Map<Integer,Object> params = Maps.newHashMap();
+      return proxy(PreparedStatement.class, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+          String name = method.getName();
+          if (name.startsWith("set") && args.length == 2 && args[0] instanceof Integer) {
+            params.put((Integer) args[0], args[1]);
+            return null;
+          }
+          if ("executeUpdate".equals(name)) {
+            long userID = (Long) params.get(1);
+            long itemID = (Long) params.get(2);
+            if (sql.startsWith("INSERT")) {
+              upsert(userID, itemID, ((Double) params.get(3)).floatValue());
+            } else {
+              delete(userID, itemID);
+            }
+            return 1;
+          }
+          if ("executeQuery".equals(name)) {
+            queries++;
+            long since = sql.contains(">= ?") ? (Long) params.get(1) : Long.MIN_VALUE;
+            List<long[]> result = Lists.newArrayList();
+            for (long[] row : rows.values()) {
+              if (row[3] >= since) {
+                result.add(row);
+              }
+            }
+            Collections.sort(result, new Comparator<long[]>() {
+              @Override
+              public int compare(long[] a, long[] b) {
+                return a[0] < b[0] ? -1 : a[0] > b[0] ? 1 : 0;
+              }
+            });
+            return resultSet(result.iterator());
+          }
+          return defaultValue(method);
+        }
+      });
+    }
+
+    private ResultSet resultSet(final Iterator<long[]> result) {
+      return proxy(ResultSet.class, new InvocationHandler() {
+        private long[] row;
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+          String name = method.getName();
+          if ("next".equals(name)) {
+            row = result.hasNext() ? result.next() : null;
+            if (row != null) {
+              rowsRead++;
+            }
+            return row != null;
+          }
+          if ("getLong".equals(name)) {
+            return row[(Integer) args[0] - 1];
+          }
+          if ("getFloat".equals(name)) {
+            return Float.intBitsToFloat((int) row[2]);
+          }
+          return defaultValue(method);
+        }
+      });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+      return type.cast(Proxy.newProxyInstance(Table.class.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+
+    private static Object defaultValue(Method method) {
+      if ("toString".equals(method.getName())) {
+        return method.getDeclaringClass().getSimpleName();
+      }
+      Class<?> type = method.getReturnType();
+      if (type == boolean.class) {
+        return false;
+      }
+      if (type == int.class) {
+        return 0;
+      }
+      return null;
+    }
+  }
+
+}
@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.IncrementalDataModel;
+import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.UncenteredCosineSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+/** <p>Tests {@link LSHUserNeighborhood}.</p> */
+public final class LSHUserNeighborhoodTest extends TasteTestCase {
+
+  private static final int NUM_GROUPS = 5;
+  private static final int USERS_PER_GROUP = 20;
+  private static final int ITEMS_PER_GROUP = 20;
+
+  @Test
+  public void testHyperplaneRecall() throws Exception {
+    DataModel dataModel = new GenericDataModel(groupedPreferences());
+    UserSimilarity similarity = new UncenteredCosineSimilarity(dataModel);
+    UserNeighborhood approximate = new LSHUserNeighborhood(5, Double.NEGATIVE_INFINITY, similarity, dataModel,
+        LSHUserNeighborhood.Signature.HYPERPLANE, 15, 6);
+    assertTrue(recall(dataModel, similarity, new NearestNUserNeighborhood(5, similarity, dataModel), approximate) >= 0.8);
+  }
+
+  @Test
+  public void testMinHashRecall() throws Exception {
+    DataModel dataModel = new GenericDataModel(groupedPreferences());
+    UserSimilarity similarity = new TanimotoCoefficientSimilarity(dataModel);
+    UserNeighborhood approximate = new LSHUserNeighborhood(5, Double.NEGATIVE_INFINITY, similarity, dataModel,
+        LSHUserNeighborhood.Signature.MINHASH, 10, 2);
+    assertTrue(recall(dataModel, similarity, new NearestNUserNeighborhood(5, similarity, dataModel), approximate) >= 0.8);
+  }
+
+  @Test
+  public void testCoarseHashingIsExact() throws Exception {
+    // With one hash per table, each table splits users in two, so with many tables all users are candidates
+    DataModel dataModel = new GenericDataModel(groupedPreferences());
+    UserSimilarity similarity = new UncenteredCosineSimilarity(dataModel);
+    UserNeighborhood approximate = new LSHUserNeighborhood(5, 0.5, similarity, dataModel,
+        LSHUserNeighborhood.Signature.CENTERED_HYPERPLANE, 40, 1);
+    UserNeighborhood exact = new NearestNUserNeighborhood(5, 0.5, similarity, dataModel);
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      assertArrayEquals(exact.getUserNeighborhood(userID), approximate.getUserNeighborhood(userID));
+    }
+  }
+
+  @Test
+  public void testIncrementalUpdates() throws Exception {
+    IncrementalDataModel dataModel = new IncrementalDataModel(groupedPreferences(), null);
+    UserSimilarity similarity = new TanimotoCoefficientSimilarity(dataModel);
+    LSHUserNeighborhood neighborhood = new LSHUserNeighborhood(3, 0.5, similarity, dataModel,
+        LSHUserNeighborhood.Signature.MINHASH, 10, 2);
+    // A new user who copies user 0 is hashed on first use
+    long newUserID = 1000L;
+    copyPreferences(dataModel, 0L, newUserID);
+    assertTrue(arrayContains(neighborhood.getUserNeighborhood(newUserID), 0L));
+    assertTrue(arrayContains(neighborhood.getUserNeighborhood(0L), newUserID));
+
+    // ... and moves to other buckets when updated
+    PreferenceArray prefs = dataModel.getPreferencesFromUser(newUserID);
+    for (int i = 0; i < prefs.length(); i++) {
+      dataModel.removePreference(newUserID, prefs.getItemID(i));
+    }
+    copyPreferences(dataModel, 50L, newUserID);
+    neighborhood.updateUser(newUserID);
+    assertTrue(arrayContains(neighborhood.getUserNeighborhood(50L), newUserID));
+    assertFalse(arrayContains(neighborhood.getUserNeighborhood(0L), newUserID));
+
+    neighborhood.refresh(null);
+    assertTrue(arrayContains(neighborhood.getUserNeighborhood(50L), newUserID));
+    assertFalse(arrayContains(neighborhood.getUserNeighborhood(0L), newUserID));
+  }
+
+  private static void copyPreferences(IncrementalDataModel dataModel, long fromUserID, long toUserID)
+    throws Exception {
+    PreferenceArray prefs = dataModel.getPreferencesFromUser(fromUserID);
+    for (int i = 0; i < prefs.length(); i++) {
+      dataModel.setPreference(toUserID, prefs.getItemID(i), prefs.getValue(i));
+    }
+  }
+
+  /**
+   * @return fraction of the exact neighbors matched by an approximate neighbor at least as similar, which
+   *  doesn't penalize choosing differently among tied users
+   */
+  private static double recall(DataModel dataModel,
+                               UserSimilarity similarity,
+                               UserNeighborhood exact,
+                               UserNeighborhood approximate) throws Exception {
+    int found = 0;
+    int total = 0;
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      double threshold = Double.POSITIVE_INFINITY;
+      for (long neighborID : exact.getUserNeighborhood(userID)) {
+        threshold = Math.min(threshold, similarity.userSimilarity(userID, neighborID));
+        total++;
+      }
+      for (long neighborID : approximate.getUserNeighborhood(userID)) {
+        if (similarity.userSimilarity(userID, neighborID) >= threshold) {
+          found++;
+        }
+      }
+    }
+    return (double) found / total;
+  }
+
+  /** Users in groups, who mostly like a block of items of their own. */
+  private static FastByIDMap<PreferenceArray> groupedPreferences() {
+    Random random = RandomUtils.getRandom();
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+    int numItems = NUM_GROUPS * ITEMS_PER_GROUP;
+    for (int group = 0; group < NUM_GROUPS; group++) {
+      for (int u = 0; u < USERS_PER_GROUP; u++) {
+        long userID = group * USERS_PER_GROUP + u;
+        FastIDSet itemIDs = new FastIDSet();
+        while (itemIDs.size() < 10) {
+          itemIDs.add(group * ITEMS_PER_GROUP + random.nextInt(ITEMS_PER_GROUP));
+        }
+        while (itemIDs.size() < 13) {
+          itemIDs.add(random.nextInt(numItems));
+        }
+        PreferenceArray prefs = new GenericUserPreferenceArray(itemIDs.size());
+        prefs.setUserID(0, userID);
+        int i = 0;
+        LongPrimitiveIterator it = itemIDs.iterator();
+        while (it.hasNext()) {
+          long itemID = it.nextLong();
+          prefs.setItemID(i, itemID);
+          boolean inGroup = itemID / ITEMS_PER_GROUP == group;
+          prefs.setValue(i, inGroup ? 4.0f + random.nextInt(2) : 1.0f + random.nextInt(2));
+          i++;
+        }
+        prefs.sortByItem();
+        userData.put(userID, prefs);
+      }
+    }
+    return userData;
+  }
+
+}
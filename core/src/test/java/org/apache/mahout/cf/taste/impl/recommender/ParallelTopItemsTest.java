@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class ParallelTopItemsTest extends TasteTestCase {
+
+  private ExecutorService executor;
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    executor = Executors.newFixedThreadPool(3);
+  }
+
+  @Override
+  @After
+  public void tearDown() throws Exception {
+    executor.shutdownNow();
+    super.tearDown();
+  }
+
+  @Test
+  public void testSameAsSerial() throws Exception {
+    Random random = RandomUtils.getRandom();
+    FastIDSet candidates = new FastIDSet();
+    while (candidates.size() < 5000) {
+      candidates.add(random.nextInt(1000000));
+    }
+    TopItems.IDEstimator estimator = new TopItems.IDEstimator() {
+      @Override
+      public double estimate(long id) throws TasteException {
+        if (id % 97 == 0) {
+          throw new NoSuchItemException(id);
+        }
+        // coarse, so that there are many ties
+        return (id * 2654435761L & 0xFFL) / 16;
+      }
+    };
+    IDRescorer rescorer = new IDRescorer() {
+      @Override
+      public double rescore(long id, double originalScore) {
+        return id % 5 == 0 ? originalScore + 1.0 : originalScore;
+      }
+      @Override
+      public boolean isFiltered(long id) {
+        return id % 7 == 0;
+      }
+    };
+    ParallelTopItems parallel = new ParallelTopItems(executor, 4, 0);
+    for (int howMany : new int[] {1, 10, 100, 10000}) {
+      List<RecommendedItem> expected = TopItems.getTopItems(howMany, candidates.iterator(), rescorer, estimator);
+      List<RecommendedItem> actual = parallel.getTopItems(howMany, candidates, rescorer, estimator);
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); i++) {
+        assertEquals(expected.get(i).getItemID(), actual.get(i).getItemID());
+        assertEquals(expected.get(i).getValue(), actual.get(i).getValue(), 0.0f);
+      }
+    }
+  }
+
+  @Test
+  public void testFailurePropagates() throws Exception {
+    FastIDSet candidates = new FastIDSet();
+    for (long id = 0; id < 100; id++) {
+      candidates.add(id);
+    }
+    ParallelTopItems parallel = new ParallelTopItems(executor, 4, 10);
+    try {
+      parallel.getTopItems(5, candidates, null, new TopItems.IDEstimator() {
+        @Override
+        public double estimate(long id) throws TasteException {
+          if (id == 42L) {
+            throw new TasteException("boom");
+          }
+          return id;
+        }
+      });
+      fail();
+    } catch (TasteException te) {
+      assertEquals("boom", te.getMessage());
+    }
+  }
+
+  @Test
+  public void testRecommendersAgree() throws Exception {
+    DataModel dataModel = randomDataModel(20, 30, 2.0 / 3.0);
+    PearsonCorrelationSimilarity similarity = new PearsonCorrelationSimilarity(dataModel);
+    GenericItemBasedRecommender itemBased = new GenericItemBasedRecommender(dataModel, similarity);
+    GenericUserBasedRecommender userBased = new GenericUserBasedRecommender(dataModel,
+        new NearestNUserNeighborhood(5, similarity, dataModel), similarity);
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      itemBased.setParallelTopItems(null);
+      userBased.setParallelTopItems(null);
+      List<RecommendedItem> expectedItemBased = itemBased.recommend(userID, 5);
+      List<RecommendedItem> expectedUserBased = userBased.recommend(userID, 5);
+      itemBased.setParallelTopItems(new ParallelTopItems(executor, 3, 0));
+      userBased.setParallelTopItems(new ParallelTopItems(executor, 3, 0));
+      assertSameItems(expectedItemBased, itemBased.recommend(userID, 5));
+      assertSameItems(expectedUserBased, userBased.recommend(userID, 5));
+    }
+  }
+
+  private static void assertSameItems(List<RecommendedItem> expected, List<RecommendedItem> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).getItemID(), actual.get(i).getItemID());
+      assertEquals(expected.get(i).getValue(), actual.get(i).getValue(), 0.0f);
+    }
+  }
+
+}
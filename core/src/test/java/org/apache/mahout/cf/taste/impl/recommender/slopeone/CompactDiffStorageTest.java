@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.slopeone;
+
+import java.io.File;
+
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.impl.common.RunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.slopeone.DiffStorage;
+import org.junit.Test;
+
+/** Tests {@link CompactDiffStorage}. */
+public final class CompactDiffStorageTest extends TasteTestCase {
+
+  @Test
+  public void testGetDiff() throws Exception {
+    DataModel model = getDataModel();
+    CompactDiffStorage storage = new CompactDiffStorage(model, Weighting.UNWEIGHTED);
+    RunningAverage average = storage.getDiff(1, 2);
+    assertEquals(0.23333333333333334, average.getAverage(), EPSILON);
+    assertEquals(3, average.getCount());
+    assertEquals(-0.23333333333333334, storage.getDiff(2, 1).getAverage(), EPSILON);
+    assertNull(storage.getDiff(1, 1));
+    assertNull(storage.getDiff(1, 5));
+  }
+
+  @Test
+  public void testSameAsMemoryDiffStorage() throws Exception {
+    DataModel model = randomDataModel(30, 40, 1.0 / 3.0);
+    for (Weighting weighting : Weighting.values()) {
+      DiffStorage expected = new MemoryDiffStorage(model, weighting, Long.MAX_VALUE);
+      DiffStorage actual = new CompactDiffStorage(model, weighting, CompactDiffStorage.DEFAULT_MIN_COUNT, 3);
+      assertSameDiffs(expected, actual, weighting == Weighting.WEIGHTED);
+      for (long userID = 0; userID < 30; userID++) {
+        assertEquals(expected.getRecommendableItemIDs(userID), actual.getRecommendableItemIDs(userID));
+      }
+    }
+  }
+
+  @Test
+  public void testMinCount() throws Exception {
+    DataModel model = randomDataModel(30, 40, 1.0 / 3.0);
+    CompactDiffStorage all = new CompactDiffStorage(model, Weighting.UNWEIGHTED, 1, 2);
+    CompactDiffStorage pruned = new CompactDiffStorage(model, Weighting.UNWEIGHTED, 4, 2);
+    assertTrue(pruned.getNumPairs() < all.getNumPairs());
+    for (long itemID1 = 0; itemID1 < 40; itemID1++) {
+      for (long itemID2 = 0; itemID2 < 40; itemID2++) {
+        RunningAverage average = all.getDiff(itemID1, itemID2);
+        RunningAverage prunedAverage = pruned.getDiff(itemID1, itemID2);
+        if (average == null || average.getCount() < 4) {
+          assertNull(prunedAverage);
+        } else {
+          assertEquals(average.getAverage(), prunedAverage.getAverage(), EPSILON);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testWriteAndMap() throws Exception {
+    DataModel model = randomDataModel(30, 40, 1.0 / 3.0);
+    CompactDiffStorage built = new CompactDiffStorage(model, Weighting.WEIGHTED);
+    File file = getTestTempFile("diffs.bin");
+    built.write(file);
+    CompactDiffStorage mapped = CompactDiffStorage.map(model, file);
+    assertEquals(built.getNumPairs(), mapped.getNumPairs());
+    assertSameDiffs(built, mapped, true);
+    for (long itemID = 0; itemID < 40; itemID++) {
+      RunningAverage expected = built.getAverageItemPref(itemID);
+      assertEquals(expected.getAverage(), mapped.getAverageItemPref(itemID).getAverage(), EPSILON);
+    }
+
+    // a new file replaces the old one, and is picked up on refresh
+    new CompactDiffStorage(model, Weighting.WEIGHTED, 5, 1).write(file);
+    assertEquals(built.getNumPairs(), mapped.getNumPairs());
+    mapped.refresh(null);
+    assertTrue(mapped.getNumPairs() < built.getNumPairs());
+  }
+
+  @Test
+  public void testRecommender() throws Exception {
+    DataModel model = randomDataModel(30, 40, 1.0 / 3.0);
+    SlopeOneRecommender expected = new SlopeOneRecommender(model);
+    SlopeOneRecommender actual = new SlopeOneRecommender(model, Weighting.WEIGHTED, Weighting.WEIGHTED,
+        new CompactDiffStorage(model, Weighting.WEIGHTED));
+    for (long userID = 0; userID < 30; userID++) {
+      for (long itemID = 0; itemID < 40; itemID++) {
+        float expectedEstimate = expected.estimatePreference(userID, itemID);
+        if (!Float.isNaN(expectedEstimate)) {
+          assertEquals(expectedEstimate, actual.estimatePreference(userID, itemID), EPSILON);
+        }
+      }
+    }
+  }
+
+  private static void assertSameDiffs(DiffStorage expected, DiffStorage actual, boolean stdDevWeighted)
+    throws Exception {
+    for (long itemID1 = 0; itemID1 < 40; itemID1++) {
+      for (long itemID2 = 0; itemID2 < 40; itemID2++) {
+        RunningAverage expectedAverage = expected.getDiff(itemID1, itemID2);
+        RunningAverage actualAverage = actual.getDiff(itemID1, itemID2);
+        if (expectedAverage == null) {
+          assertNull(actualAverage);
+          continue;
+        }
+        assertEquals(expectedAverage.getCount(), actualAverage.getCount());
+        assertEquals(expectedAverage.getAverage(), actualAverage.getAverage(), EPSILON);
+        if (stdDevWeighted) {
+          assertEquals(((RunningAverageAndStdDev) expectedAverage).getStandardDeviation(),
+              ((RunningAverageAndStdDev) actualAverage).getStandardDeviation(), EPSILON);
+        }
+      }
+    }
+  }
+
+}
@@ -145,4 +145,61 @@ public class ALSWRFactorizerTest extends TasteTestCase {
     double rmse = Math.sqrt(avg.getAverage());
     assertTrue(rmse < 0.2);
   }
+
+  @Test
+  public void sameFactorizationWithAnyNumberOfThreads() throws Exception {
+    Factorization oneThread = new ALSWRFactorizer(dataModel, 3, 0.065, 5, false, 0.0, 1).factorize();
+    Factorization threeThreads = new ALSWRFactorizer(dataModel, 3, 0.065, 5, false, 0.0, 3).factorize();
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      assertArrayEquals(oneThread.getUserFeatures(userID), threeThreads.getUserFeatures(userID), EPSILON);
+    }
+    LongPrimitiveIterator itemIDs = dataModel.getItemIDs();
+    while (itemIDs.hasNext()) {
+      long itemID = itemIDs.nextLong();
+      assertArrayEquals(oneThread.getItemFeatures(itemID), threeThreads.getItemFeatures(itemID), EPSILON);
+    }
+  }
+
+  @Test
+  public void implicitFeedback() throws Exception {
+    SVDRecommender svdRecommender =
+        new SVDRecommender(dataModel, new ALSWRFactorizer(dataModel, 3, 0.065, 10, true, 40.0));
+
+    /* observed preferences should be estimated close to 1, and higher than unobserved ones, close to 0 */
+    RunningAverage observed = new FullRunningAverage();
+    RunningAverage unobserved = new FullRunningAverage();
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      LongPrimitiveIterator itemIDs = dataModel.getItemIDs();
+      while (itemIDs.hasNext()) {
+        long itemID = itemIDs.nextLong();
+        double estimate = svdRecommender.estimatePreference(userID, itemID);
+        if (dataModel.getPreferenceValue(userID, itemID) == null) {
+          unobserved.addDatum(estimate);
+        } else {
+          observed.addDatum(estimate);
+        }
+      }
+    }
+    assertEquals(1.0, observed.getAverage(), 0.1);
+    assertTrue(observed.getAverage() > unobserved.getAverage());
+  }
+
+  @Test
+  public void foldInSolvesItemsLikeTraining() throws Exception {
+    ALSWRFactorizer implicitFactorizer = new ALSWRFactorizer(dataModel, 3, 0.065, 10, true, 40.0);
+    for (ALSWRFactorizer alswr : new ALSWRFactorizer[] {factorizer, implicitFactorizer}) {
+      Factorization factorization = alswr.factorize();
+      LongPrimitiveIterator itemIDs = dataModel.getItemIDs();
+      while (itemIDs.hasNext()) {
+        long itemID = itemIDs.nextLong();
+        // items are solved last, against the final user features
+        assertArrayEquals(factorization.getItemFeatures(itemID),
+            alswr.solveItemFeatures(factorization, dataModel.getPreferencesForItem(itemID)), 1.0e-6);
+      }
+    }
+  }
 }
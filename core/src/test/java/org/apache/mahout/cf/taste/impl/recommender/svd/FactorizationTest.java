@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.Map;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.junit.Test;
+
+public final class FactorizationTest extends TasteTestCase {
+
+  private static final int NUM_USERS = 2 * FeatureRows.CHUNK_SIZE + 10;
+
+  @Test
+  public void withUserFeatures() throws Exception {
+    Factorization original = factorization(NUM_USERS);
+    Factorization factorization = original;
+    // changes users in every chunk, and adds users across a chunk boundary
+    int numAdded = 0;
+    for (long userID = 0; userID < NUM_USERS + FeatureRows.CHUNK_SIZE; userID += 7) {
+      factorization = factorization.withUserFeatures(userID, new double[] {-userID, 1.0});
+      if (userID >= NUM_USERS) {
+        numAdded++;
+      }
+    }
+    assertEquals(NUM_USERS + numAdded, factorization.numUsers());
+    int numMappings = 0;
+    for (Map.Entry<Long,Integer> entry : factorization.getUserIDMappings()) {
+      long userID = entry.getKey();
+      double[] expected = userID % 7 == 0 ? new double[] {-userID, 1.0} : new double[] {userID, 0.0};
+      assertArrayEquals(expected, factorization.getUserFeatures(userID), 0.0);
+      numMappings++;
+    }
+    assertEquals(factorization.numUsers(), numMappings);
+    assertArrayEquals(new double[] {2.0, 1.0}, factorization.getItemFeatures(2L), 0.0);
+
+    // the original is unchanged
+    assertEquals(NUM_USERS, original.numUsers());
+    assertArrayEquals(new double[] {7.0, 0.0}, original.getUserFeatures(7L), 0.0);
+    try {
+      original.getUserFeatures(NUM_USERS + 6L);
+      fail();
+    } catch (NoSuchUserException nsue) {
+      // expected
+    }
+  }
+
+  @Test
+  public void addsToOlderVersions() throws Exception {
+    Factorization base = factorization(NUM_USERS).withUserFeatures(NUM_USERS, new double[] {1.0, 1.0});
+    Factorization first = base.withUserFeatures(NUM_USERS + 1, new double[] {2.0, 2.0});
+    // base isn't the latest version any more, so this can't share what first added
+    Factorization second = base.withUserFeatures(NUM_USERS + 2, new double[] {3.0, 3.0});
+
+    assertEquals(NUM_USERS + 2, first.numUsers());
+    assertEquals(NUM_USERS + 2, second.numUsers());
+    assertArrayEquals(new double[] {1.0, 1.0}, second.getUserFeatures(NUM_USERS), 0.0);
+    assertArrayEquals(new double[] {3.0, 3.0}, second.getUserFeatures(NUM_USERS + 2), 0.0);
+    assertArrayEquals(new double[] {2.0, 2.0}, first.getUserFeatures(NUM_USERS + 1), 0.0);
+    try {
+      second.getUserFeatures(NUM_USERS + 1);
+      fail();
+    } catch (NoSuchUserException nsue) {
+      // expected
+    }
+    try {
+      first.getUserFeatures(NUM_USERS + 2);
+      fail();
+    } catch (NoSuchUserException nsue) {
+      // expected
+    }
+    int numMappings = 0;
+    for (Map.Entry<Long,Integer> entry : first.getUserIDMappings()) {
+      assertTrue(entry.getKey() != NUM_USERS + 2);
+      numMappings++;
+    }
+    assertEquals(first.numUsers(), numMappings);
+  }
+
+  @Test
+  public void equalsDirectlyBuilt() throws Exception {
+    Factorization factorization = factorization(NUM_USERS - 1).withUserFeatures(NUM_USERS - 1, new double[] {0.0, 0.0})
+        .withUserFeatures(NUM_USERS - 1, new double[] {NUM_USERS - 1, 0.0});
+    Factorization expected = factorization(NUM_USERS);
+    assertEquals(expected, factorization);
+    assertEquals(expected.hashCode(), factorization.hashCode());
+    assertFalse(expected.equals(factorization.withUserFeatures(3L, new double[] {0.0, 0.0})));
+  }
+
+  /** Users 0 to numUsers - 1, with features (userID, 0), and items 0 to 3, with features (itemID, 1). */
+  private static Factorization factorization(int numUsers) {
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    double[][] userFeatures = new double[numUsers][];
+    for (int u = 0; u < numUsers; u++) {
+      userIDMapping.put(u, u);
+      userFeatures[u] = new double[] {u, 0.0};
+    }
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+    double[][] itemFeatures = new double[4][];
+    for (int i = 0; i < 4; i++) {
+      itemIDMapping.put(i, i);
+      itemFeatures[i] = new double[] {i, 1.0};
+    }
+    return new Factorization(userIDMapping, itemIDMapping, userFeatures, itemFeatures);
+  }
+
+}
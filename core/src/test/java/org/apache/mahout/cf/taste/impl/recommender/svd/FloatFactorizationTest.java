@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.recommender.TopItems;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+public final class FloatFactorizationTest extends TasteTestCase {
+
+  @Test
+  public void writeAndMap() throws Exception {
+    Factorization original = randomFactorization(20, 300, 5);
+    File file = getTestTempFile("factorization.bin");
+    FloatFactorization.write(original, file);
+    FloatFactorization mapped = FloatFactorization.map(file);
+
+    assertEquals(original.numFeatures(), mapped.numFeatures());
+    assertEquals(original.numUsers(), mapped.numUsers());
+    assertEquals(original.numItems(), mapped.numItems());
+    for (Map.Entry<Long,Integer> entry : original.getUserIDMappings()) {
+      assertArrayEquals(original.getUserFeatures(entry.getKey()), mapped.getUserFeatures(entry.getKey()), EPSILON);
+    }
+    for (Map.Entry<Long,Integer> entry : original.getItemIDMappings()) {
+      assertArrayEquals(original.getItemFeatures(entry.getKey()), mapped.getItemFeatures(entry.getKey()), EPSILON);
+    }
+    assertEquals(FloatFactorization.copyOf(original), mapped);
+    assertEquals(FloatFactorization.copyOf(original).recommend(3L, 5, null, null), mapped.recommend(3L, 5, null, null));
+  }
+
+  @Test
+  public void recommendMatchesEstimates() throws Exception {
+    FloatFactorization factorization = FloatFactorization.copyOf(randomFactorization(10, 3000, 8));
+    FastIDSet allItems = new FastIDSet();
+    for (Map.Entry<Long,Integer> entry : factorization.getItemIDMappings()) {
+      allItems.add(entry.getKey());
+    }
+    FastIDSet fewItems = new FastIDSet();
+    for (long itemID = 0; itemID < 3000; itemID += 100) {
+      fewItems.add(itemID);
+    }
+    fewItems.add(-1L);
+    IDRescorer rescorer = new IDRescorer() {
+      @Override
+      public double rescore(long id, double originalScore) {
+        return id % 3 == 0 ? originalScore * 2 : originalScore;
+      }
+      @Override
+      public boolean isFiltered(long id) {
+        return id % 7 == 0;
+      }
+    };
+
+    for (long userID = 0; userID < 10; userID++) {
+      // scanning all items, and looking up a few
+      assertRecommended(factorization, userID, null, null);
+      assertRecommended(factorization, userID, allItems, rescorer);
+      assertRecommended(factorization, userID, fewItems, null);
+      assertRecommended(factorization, userID, fewItems, rescorer);
+    }
+
+    long[] userIDs = {3L, 1L, 4L};
+    List<List<RecommendedItem>> batch =
+        factorization.recommend(userIDs, 10, new FastIDSet[] {allItems, null, fewItems}, rescorer);
+    assertEquals(factorization.recommend(3L, 10, allItems, rescorer), batch.get(0));
+    assertEquals(factorization.recommend(1L, 10, null, rescorer), batch.get(1));
+    assertEquals(factorization.recommend(4L, 10, fewItems, rescorer), batch.get(2));
+  }
+
+  @Test(expected = NoSuchUserException.class)
+  public void unknownUser() throws Exception {
+    FloatFactorization.copyOf(randomFactorization(3, 3, 2)).recommend(5L, 1, null, null);
+  }
+
+  @Test
+  public void persistenceStrategy() throws Exception {
+    Factorization original = randomFactorization(5, 10, 3);
+    PersistenceStrategy persistenceStrategy = new MappedFilePersistenceStrategy(getTestTempFile("mapped.bin"));
+    assertNull(persistenceStrategy.load());
+    persistenceStrategy.maybePersist(original);
+    Factorization loaded = persistenceStrategy.load();
+    assertTrue(loaded instanceof FloatFactorization);
+    assertEquals(FloatFactorization.copyOf(original), loaded);
+    // persisting again replaces the file while the first mapping is still in use
+    persistenceStrategy.maybePersist(randomFactorization(5, 10, 3));
+    assertEquals(FloatFactorization.copyOf(original), loaded);
+  }
+
+  private static void assertRecommended(final FloatFactorization factorization,
+                                        final long userID,
+                                        FastIDSet candidates,
+                                        IDRescorer rescorer) throws Exception {
+    LongPrimitiveIterator possibleItemIDs = candidates == null ? allItemIDs(factorization) : candidates.iterator();
+    List<RecommendedItem> expected = TopItems.getTopItems(10, possibleItemIDs, rescorer, new TopItems.IDEstimator() {
+      @Override
+      public double estimate(long itemID) throws TasteException {
+        return factorization.estimate(userID, itemID);
+      }
+    });
+    assertEquals(expected, factorization.recommend(userID, 10, candidates, rescorer));
+  }
+
+  @Test
+  public void estimate() throws Exception {
+    Factorization original = randomFactorization(5, 10, 7);
+    FloatFactorization factorization = FloatFactorization.copyOf(original);
+    for (long userID = 0; userID < 5; userID++) {
+      for (long itemID = 0; itemID < 10; itemID++) {
+        double[] userFeatures = original.getUserFeatures(userID);
+        double[] itemFeatures = original.getItemFeatures(itemID);
+        double expected = 0.0;
+        for (int feature = 0; feature < userFeatures.length; feature++) {
+          expected += userFeatures[feature] * itemFeatures[feature];
+        }
+        assertEquals(expected, factorization.estimate(userID, itemID), 1.0e-5);
+      }
+    }
+  }
+
+  private static LongPrimitiveIterator allItemIDs(Factorization factorization) {
+    FastIDSet itemIDs = new FastIDSet();
+    for (Map.Entry<Long,Integer> entry : factorization.getItemIDMappings()) {
+      itemIDs.add(entry.getKey());
+    }
+    return itemIDs.iterator();
+  }
+
+  private static Factorization randomFactorization(int numUsers, int numItems, int numFeatures) {
+    Random random = RandomUtils.getRandom();
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    double[][] userFeatures = new double[numUsers][numFeatures];
+    for (int u = 0; u < numUsers; u++) {
+      // indexes in a different order than IDs
+      userIDMapping.put(u, numUsers - 1 - u);
+      for (int feature = 0; feature < numFeatures; feature++) {
+        userFeatures[u][feature] = random.nextGaussian();
+      }
+    }
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+    double[][] itemFeatures = new double[numItems][numFeatures];
+    for (int i = 0; i < numItems; i++) {
+      itemIDMapping.put(i, numItems - 1 - i);
+      for (int feature = 0; feature < numFeatures; feature++) {
+        itemFeatures[i][feature] = random.nextGaussian();
+      }
+    }
+    return new Factorization(userIDMapping, itemIDMapping, userFeatures, itemFeatures);
+  }
+
+}
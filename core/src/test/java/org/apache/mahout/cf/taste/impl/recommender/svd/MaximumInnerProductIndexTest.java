@@ -0,0 +1,177 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.recommender.AllUnknownItemsCandidateItemsStrategy;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+public final class MaximumInnerProductIndexTest extends TasteTestCase {
+
+  private static final int NUM_USERS = 50;
+  private static final int NUM_ITEMS = 2000;
+  private static final int NUM_FEATURES = 8;
+
+  @Test
+  public void allProbesGiveAllItems() throws Exception {
+    Factorization factorization = clusteredFactorization();
+    MaximumInnerProductIndex index = MaximumInnerProductIndex.build(factorization, 20, 20);
+    PreferenceArray prefs = new GenericUserPreferenceArray(2);
+    prefs.setUserID(0, 1L);
+    prefs.setItemID(0, 3L);
+    prefs.setItemID(1, 4L);
+    FastIDSet candidates = index.getCandidateItems(1L, prefs, null);
+    assertEquals(NUM_ITEMS - 2, candidates.size());
+    assertFalse(candidates.contains(3L));
+    assertTrue(index.withNumProbes(1).getCandidateItems(1L, prefs, null).size() < NUM_ITEMS - 2);
+    assertEquals(20, index.withNumProbes(1).getNumClusters());
+  }
+
+  @Test
+  public void recall() throws Exception {
+    Factorization factorization = clusteredFactorization();
+    DataModel dataModel = sparseDataModel();
+    MaximumInnerProductIndex index = MaximumInnerProductIndex.build(factorization, 40, 8);
+    SVDRecommender exact = new SVDRecommender(dataModel, new FixedFactorizer(factorization),
+        new AllUnknownItemsCandidateItemsStrategy());
+    SVDRecommender approximate = new SVDRecommender(dataModel, new FixedFactorizer(factorization), index);
+
+    int found = 0;
+    for (long userID = 0; userID < NUM_USERS; userID++) {
+      List<RecommendedItem> expected = exact.recommend(userID, 10);
+      FastIDSet approximateIDs = new FastIDSet();
+      for (RecommendedItem item : approximate.recommend(userID, 10)) {
+        approximateIDs.add(item.getItemID());
+      }
+      for (RecommendedItem item : expected) {
+        if (approximateIDs.contains(item.getItemID())) {
+          found++;
+        }
+      }
+    }
+    assertTrue(found >= 0.9 * NUM_USERS * 10);
+    // each user's candidates are a fraction of the items
+    assertTrue(index.getCandidateItems(factorization.getUserFeatures(0L)).size() < NUM_ITEMS / 2);
+  }
+
+  @Test
+  public void probesWithCurrentUserFeatures() throws Exception {
+    Factorization factorization = clusteredFactorization();
+    MaximumInnerProductIndex index = MaximumInnerProductIndex.build(factorization, 40, 8);
+    SVDRecommender recommender = new SVDRecommender(sparseDataModel(), new FixedFactorizer(factorization), index);
+    // not in the factorization the index was built from
+    recommender.foldInUser(NUM_USERS);
+    assertEquals(10, recommender.recommend(NUM_USERS, 10).size());
+  }
+
+  @Test
+  public void rebuild() throws Exception {
+    Factorization factorization = clusteredFactorization();
+    MaximumInnerProductIndex index = MaximumInnerProductIndex.build(factorization, 40, 8);
+    assertSame(index, index.rebuild(factorization));
+    MaximumInnerProductIndex rebuilt = index.rebuild(clusteredFactorization());
+    assertNotSame(index, rebuilt);
+    assertEquals(40, rebuilt.getNumClusters());
+    assertEquals(8, rebuilt.getNumProbes());
+  }
+
+  /** Items around a few directions with varied norms, and users with random tastes. */
+  private static Factorization clusteredFactorization() {
+    Random random = RandomUtils.getRandom();
+    double[][] directions = new double[10][NUM_FEATURES];
+    for (double[] direction : directions) {
+      for (int feature = 0; feature < NUM_FEATURES; feature++) {
+        direction[feature] = random.nextGaussian();
+      }
+    }
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+    double[][] itemFeatures = new double[NUM_ITEMS][NUM_FEATURES];
+    for (int i = 0; i < NUM_ITEMS; i++) {
+      itemIDMapping.put(i, i);
+      double[] direction = directions[random.nextInt(directions.length)];
+      double norm = 0.5 + random.nextDouble();
+      for (int feature = 0; feature < NUM_FEATURES; feature++) {
+        itemFeatures[i][feature] = norm * direction[feature] + 0.3 * random.nextGaussian();
+      }
+    }
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    double[][] userFeatures = new double[NUM_USERS][NUM_FEATURES];
+    for (int u = 0; u < NUM_USERS; u++) {
+      userIDMapping.put(u, u);
+      for (int feature = 0; feature < NUM_FEATURES; feature++) {
+        userFeatures[u][feature] = random.nextGaussian();
+      }
+    }
+    return new Factorization(userIDMapping, itemIDMapping, userFeatures, itemFeatures);
+  }
+
+  /**
+   * Users with one preference each, including one more not in the factorization, and one more user with all items,
+   * so that nearly all are unknown.
+   */
+  private static DataModel sparseDataModel() {
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+    for (long userID = 0; userID <= NUM_USERS; userID++) {
+      PreferenceArray prefs = new GenericUserPreferenceArray(1);
+      prefs.setUserID(0, userID);
+      prefs.setItemID(0, userID);
+      prefs.setValue(0, 1.0f);
+      userData.put(userID, prefs);
+    }
+    PreferenceArray allItems = new GenericUserPreferenceArray(NUM_ITEMS);
+    allItems.setUserID(0, -1L);
+    for (int i = 0; i < NUM_ITEMS; i++) {
+      allItems.setItemID(i, i);
+      allItems.setValue(i, 1.0f);
+    }
+    userData.put(-1L, allItems);
+    return new GenericDataModel(userData);
+  }
+
+  private static final class FixedFactorizer implements Factorizer {
+
+    private final Factorization factorization;
+
+    private FixedFactorizer(Factorization factorization) {
+      this.factorization = factorization;
+    }
+
+    @Override
+    public Factorization factorize() {
+      return factorization;
+    }
+
+    @Override
+    public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    }
+  }
+
+}
@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+public final class ParallelSGDFactorizerTest extends TasteTestCase {
+
+  @Test
+  public void toyExample() throws Exception {
+    DataModel dataModel = getDataModel(
+        new long[] {1, 2, 3, 4},
+        new Double[][] {
+            {5.0, 5.0, 2.0},
+            {2.0, null, 3.0, 5.0},
+            {null, 5.0, null, 3.0},
+            {3.0, null, null, 5.0},
+        });
+    Factorizer factorizer = new ParallelSGDFactorizer(dataModel, 3, 300, 0.05, 1.0,
+        ParallelSGDFactorizer.DEFAULT_PREVENT_OVERFITTING, ParallelSGDFactorizer.DEFAULT_RANDOM_NOISE, 1,
+        ParallelSGDFactorizer.Schedule.HOGWILD, 0.0);
+    assertTrue(rmse(dataModel, new SVDRecommender(dataModel, factorizer)) < 0.2);
+  }
+
+  @Test
+  public void hogwild() throws Exception {
+    DataModel dataModel = lowRankDataModel();
+    Factorizer factorizer = new ParallelSGDFactorizer(dataModel, 4, 60, 0.02, 0.98, 0.01, 0.1, 4,
+        ParallelSGDFactorizer.Schedule.HOGWILD, 0.0);
+    assertTrue(rmse(dataModel, new SVDRecommender(dataModel, factorizer)) < 0.3);
+  }
+
+  @Test
+  public void stratified() throws Exception {
+    DataModel dataModel = lowRankDataModel();
+    Factorizer factorizer = new ParallelSGDFactorizer(dataModel, 4, 60, 0.02, 0.98, 0.01, 0.1, 3,
+        ParallelSGDFactorizer.Schedule.STRATIFIED, 0.0);
+    Factorization factorization = factorizer.factorize();
+    assertEquals(4 + 3, factorization.numFeatures());
+    assertTrue(rmse(dataModel, new SVDRecommender(dataModel, factorizer)) < 0.3);
+  }
+
+  @Test
+  public void earlyStopping() throws Exception {
+    DataModel dataModel = lowRankDataModel();
+    Factorizer factorizer = new ParallelSGDFactorizer(dataModel, 4, 500, 0.05, 1.0, 0.01, 0.1, 2,
+        ParallelSGDFactorizer.Schedule.HOGWILD, 0.2);
+    // Predicting the mean of all ratings does much worse than this on the low rank data
+    assertTrue(rmse(dataModel, new SVDRecommender(dataModel, factorizer)) < 0.5);
+  }
+
+  @Test
+  public void foldInKeepsBiasColumns() throws Exception {
+    DataModel dataModel = lowRankDataModel();
+    ParallelSGDFactorizer factorizer = new ParallelSGDFactorizer(dataModel, 4, 60, 0.02, 0.98, 0.01, 0.1, 2,
+        ParallelSGDFactorizer.Schedule.HOGWILD, 0.0);
+    Factorization factorization = factorizer.factorize();
+    long userID = dataModel.getUserIDs().nextLong();
+    PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+    double[] userFeatures = factorizer.solveUserFeatures(factorization, prefs);
+    assertEquals(factorization.getUserFeatures(userID)[0], userFeatures[0], 0.0);
+    assertEquals(1.0, userFeatures[2], 0.0);
+    RunningAverage average = new FullRunningAverage();
+    for (Preference pref : prefs) {
+      double err = pref.getValue() - dot(userFeatures, factorization.getItemFeatures(pref.getItemID()));
+      average.addDatum(err * err);
+    }
+    assertTrue(Math.sqrt(average.getAverage()) < 0.5);
+
+    long itemID = dataModel.getItemIDs().nextLong();
+    double[] itemFeatures = factorizer.solveItemFeatures(factorization, dataModel.getPreferencesForItem(itemID));
+    assertEquals(1.0, itemFeatures[0], 0.0);
+    assertEquals(1.0, itemFeatures[1], 0.0);
+  }
+
+  private static double dot(double[] a, double[] b) {
+    double sum = 0.0;
+    for (int i = 0; i < a.length; i++) {
+      sum += a[i] * b[i];
+    }
+    return sum;
+  }
+
+  private static double rmse(DataModel dataModel, Recommender recommender) throws Exception {
+    RunningAverage average = new FullRunningAverage();
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      for (Preference pref : dataModel.getPreferencesFromUser(userID)) {
+        double err = pref.getValue() - recommender.estimatePreference(userID, pref.getItemID());
+        average.addDatum(err * err);
+      }
+    }
+    return Math.sqrt(average.getAverage());
+  }
+
+  /** Ratings from rank 2 user and item features plus biases, with about half of them known. */
+  private static DataModel lowRankDataModel() {
+    Random random = RandomUtils.getRandom();
+    int numUsers = 60;
+    int numItems = 40;
+    double[][] itemFeatures = new double[numItems][2];
+    double[] itemBiases = new double[numItems];
+    for (int i = 0; i < numItems; i++) {
+      itemFeatures[i][0] = random.nextGaussian();
+      itemFeatures[i][1] = random.nextGaussian();
+      itemBiases[i] = random.nextGaussian() * 0.5;
+    }
+    long[] userIDs = new long[numUsers];
+    Double[][] prefs = new Double[numUsers][numItems];
+    for (int u = 0; u < numUsers; u++) {
+      userIDs[u] = u;
+      double x = random.nextGaussian();
+      double y = random.nextGaussian();
+      double bias = random.nextGaussian() * 0.5;
+      for (int i = 0; i < numItems; i++) {
+        if (random.nextBoolean()) {
+          prefs[u][i] = 3.0 + bias + itemBiases[i] + x * itemFeatures[i][0] + y * itemFeatures[i][1];
+        }
+      }
+    }
+    return getDataModel(userIDs, prefs);
+  }
+
+}
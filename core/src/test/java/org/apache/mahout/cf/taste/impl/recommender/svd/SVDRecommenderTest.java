@@ -17,8 +17,14 @@
 
 package org.apache.mahout.cf.taste.impl.recommender.svd;
 
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.recommender.AllUnknownItemsCandidateItemsStrategy;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
@@ -26,7 +32,9 @@ import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.easymock.classextension.EasyMock;
 import org.junit.Test;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SVDRecommenderTest extends TasteTestCase {
 
@@ -67,7 +75,6 @@ public class SVDRecommenderTest extends TasteTestCase {
         .andReturn(candidateItems);
     EasyMock.expect(factorization.getUserFeatures(1L)).andReturn(new double[] { 0.4, 2 });
     EasyMock.expect(factorization.getItemFeatures(5L)).andReturn(new double[] { 1, 0.3 });
-    EasyMock.expect(factorization.getUserFeatures(1L)).andReturn(new double[] { 0.4, 2 });
     EasyMock.expect(factorization.getItemFeatures(3L)).andReturn(new double[] { 2, 0.6 });
 
     EasyMock.replay(dataModel, candidateItemsStrategy, factorizer, factorization);
@@ -83,4 +90,107 @@ public class SVDRecommenderTest extends TasteTestCase {
 
     EasyMock.verify(dataModel, candidateItemsStrategy, factorizer, factorization);
   }
+
+  @Test
+  public void foldInUser() throws Exception {
+    Double[][] ratings = {
+        {5.0, 5.0, 2.0, null},
+        {2.0, null, 3.0, 5.0},
+        {null, 5.0, null, 3.0},
+        {3.0, null, null, 5.0},
+        // a new user with the same preferences as user 1
+        {5.0, 5.0, 2.0, null},
+    };
+    DataModel trainingDataModel = getDataModel(new long[] {1, 2, 3, 4}, ratings);
+    DataModel dataModel = getDataModel(new long[] {1, 2, 3, 4, 5}, ratings);
+    double lambda = 0.065;
+    SVDRecommender svdRecommender = new SVDRecommender(dataModel,
+        new ALSWRFactorizer(trainingDataModel, 3, lambda, 20), new AllUnknownItemsCandidateItemsStrategy(),
+        new NoPersistenceStrategy(), lambda, 0);
+
+    try {
+      svdRecommender.estimatePreference(5L, 3L);
+      fail();
+    } catch (NoSuchUserException nsue) {
+      // expected
+    }
+    svdRecommender.foldInUser(5L);
+    for (long itemID = 0; itemID < 4; itemID++) {
+      assertEquals(svdRecommender.estimatePreference(1L, itemID), svdRecommender.estimatePreference(5L, itemID), 0.1);
+    }
+  }
+
+  @Test
+  public void foldInItem() throws Exception {
+    DataModel dataModel = getDataModel(
+        new long[] {1, 2},
+        new Double[][] {
+            {4.0, 1.0},
+            {1.0, 3.0},
+        });
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    userIDMapping.put(1L, 0);
+    userIDMapping.put(2L, 1);
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+    itemIDMapping.put(0L, 0);
+    final Factorization factorization = new Factorization(userIDMapping, itemIDMapping,
+        new double[][] {{2.0, 0.0}, {0.0, 1.0}}, new double[][] {{2.0, 1.0}});
+    SVDRecommender svdRecommender = new SVDRecommender(dataModel, new Factorizer() {
+      @Override
+      public Factorization factorize() {
+        return factorization;
+      }
+      @Override
+      public void refresh(Collection<Refreshable> alreadyRefreshed) {
+      }
+    }, new AllUnknownItemsCandidateItemsStrategy(), new NoPersistenceStrategy(), 0.001, 0);
+
+    svdRecommender.foldInItem(1L);
+    // the users' features are independent, so item 1 is solved to fit both ratings
+    assertEquals(1.0, svdRecommender.estimatePreference(1L, 1L), 0.01);
+    assertEquals(3.0, svdRecommender.estimatePreference(2L, 1L), 0.01);
+    assertEquals(4.0, svdRecommender.estimatePreference(1L, 0L), EPSILON);
+    // the original factorization is unchanged
+    assertEquals(1, factorization.numItems());
+    try {
+      factorization.getItemFeatures(1L);
+      fail();
+    } catch (NoSuchItemException nsie) {
+      // expected
+    }
+  }
+
+  @Test
+  public void retrainsAfterFoldIns() throws Exception {
+    DataModel dataModel = getDataModel(
+        new long[] {1, 2, 3},
+        new Double[][] {
+            {5.0, 5.0, 2.0},
+            {2.0, null, 3.0},
+            {null, 5.0, 1.0},
+        });
+    final Factorizer factorizer = new ALSWRFactorizer(dataModel, 2, 0.065, 5);
+    final AtomicInteger factorizations = new AtomicInteger();
+    SVDRecommender svdRecommender = new SVDRecommender(dataModel, new Factorizer() {
+      @Override
+      public Factorization factorize() throws TasteException {
+        factorizations.incrementAndGet();
+        return factorizer.factorize();
+      }
+      @Override
+      public void refresh(Collection<Refreshable> alreadyRefreshed) {
+      }
+    }, new AllUnknownItemsCandidateItemsStrategy(), new NoPersistenceStrategy(), 0.065, 3);
+    assertEquals(1, factorizations.get());
+
+    svdRecommender.foldInUser(1L);
+    svdRecommender.foldInUser(2L);
+    assertEquals(1, factorizations.get());
+    svdRecommender.foldInUser(3L);
+    long deadline = System.currentTimeMillis() + 10000L;
+    while (factorizations.get() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10L);
+    }
+    assertEquals(2, factorizations.get());
+  }
 }
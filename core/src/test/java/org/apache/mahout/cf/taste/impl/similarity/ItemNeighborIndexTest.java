@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.junit.Test;
+
+public final class ItemNeighborIndexTest extends TasteTestCase {
+
+  @Test
+  public void testBuild() throws Exception {
+    DataModel dataModel = randomDataModel(30, 25, 2.0 / 3.0);
+    ItemSimilarity similarity = new PearsonCorrelationSimilarity(dataModel);
+    ItemNeighborIndex index = ItemNeighborIndex.build(similarity, dataModel, 5, 3);
+    assertEquals(dataModel.getNumItems(), index.getNumItems());
+    LongPrimitiveIterator it = dataModel.getItemIDs();
+    while (it.hasNext()) {
+      long itemID = it.nextLong();
+      long[] neighbors = index.allSimilarItemIDs(itemID);
+      assertTrue(neighbors.length <= 5);
+      for (int i = 0; i < neighbors.length; i++) {
+        assertTrue(neighbors[i] != itemID);
+        assertTrue(i == 0 || neighbors[i - 1] < neighbors[i]);
+        assertEquals(similarity.itemSimilarity(itemID, neighbors[i]),
+                     index.itemSimilarity(itemID, neighbors[i]), EPSILON);
+      }
+    }
+    assertEquals(1.0, index.itemSimilarity(0L, 0L), EPSILON);
+    assertTrue(Double.isNaN(index.itemSimilarity(0L, 12345L)));
+  }
+
+  @Test
+  public void testWriteRead() throws Exception {
+    DataModel dataModel = randomDataModel(30, 25, 2.0 / 3.0);
+    ItemNeighborIndex index = ItemNeighborIndex.build(new PearsonCorrelationSimilarity(dataModel), dataModel, 4, 2);
+    File file = getTestTempFile("neighbors.bin");
+    index.write(file);
+    ItemNeighborIndex read = ItemNeighborIndex.read(file);
+    assertEquals(index.getK(), read.getK());
+    assertEquals(index.getNumItems(), read.getNumItems());
+    LongPrimitiveIterator it = dataModel.getItemIDs();
+    while (it.hasNext()) {
+      long itemID = it.nextLong();
+      long[] neighbors = index.allSimilarItemIDs(itemID);
+      assertArrayEquals(neighbors, read.allSimilarItemIDs(itemID));
+      assertArrayEquals(index.itemSimilarities(itemID, neighbors), read.itemSimilarities(itemID, neighbors), 0.0);
+    }
+  }
+
+  @Test
+  public void testItemSimilarityJobOutput() throws Exception {
+    File dir = getTestTempDir("similarities");
+    writeLines(new File(dir, "part-r-00000"), "1\t2\t0.5", "1\t3\t0.9", "", "1\t4\t0.1");
+    writeLines(new File(dir, "part-r-00001"), "2,3,0.7");
+    writeLines(new File(dir, "_SUCCESS"), "garbage");
+    ItemNeighborIndex index = ItemNeighborIndex.fromItemSimilarityJobOutput(dir, 2);
+    assertEquals(4, index.getNumItems());
+    assertArrayEquals(new long[] {2L, 3L}, index.allSimilarItemIDs(1L));
+    assertArrayEquals(new long[] {1L, 3L}, index.allSimilarItemIDs(2L));
+    assertArrayEquals(new long[] {1L}, index.allSimilarItemIDs(4L));
+    assertEquals(0.9, index.itemSimilarity(3L, 1L), EPSILON);
+    // Dropped from item 1's neighbors, but still kept as item 4's
+    assertEquals(0.1, index.itemSimilarity(1L, 4L), EPSILON);
+    assertTrue(Double.isNaN(index.itemSimilarity(2L, 4L)));
+  }
+
+  @Test
+  public void testCandidateItems() throws Exception {
+    ItemNeighborIndex index = ItemNeighborIndex.fromSimilarities(Arrays.asList(
+        new GenericItemSimilarity.ItemItemSimilarity(1L, 2L, 0.5),
+        new GenericItemSimilarity.ItemItemSimilarity(1L, 3L, 0.4),
+        new GenericItemSimilarity.ItemItemSimilarity(3L, 4L, 0.3),
+        new GenericItemSimilarity.ItemItemSimilarity(5L, 6L, 0.2)).iterator(), 10);
+    FastIDSet candidates = index.getCandidateItems(new long[] {1L, 3L}, null);
+    assertEquals(2, candidates.size());
+    assertTrue(candidates.contains(2L));
+    assertTrue(candidates.contains(4L));
+  }
+
+}
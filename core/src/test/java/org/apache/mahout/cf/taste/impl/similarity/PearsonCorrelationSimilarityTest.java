@@ -21,10 +21,13 @@ import java.util.Collection;
 
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
 import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
 import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.cf.taste.transforms.PreferenceTransform;
 import org.junit.Test;
 
 /** <p>Tests {@link PearsonCorrelationSimilarity}.</p> */
@@ -262,4 +265,34 @@ public final class PearsonCorrelationSimilarityTest extends SimilarityTestCase {
     assertEquals(-0.435285750066007, similarity.userSimilarity(1L, 2L), EPSILON);
   }
 
+  @Test
+  public void testUserSimilarities() throws Exception {
+    DataModel dataModel = randomDataModel(20, 30, 2.0 / 3.0);
+    long[] userIDs = new long[dataModel.getNumUsers()];
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    for (int u = 0; u < userIDs.length; u++) {
+      userIDs[u] = it.nextLong();
+    }
+    AbstractSimilarity similarity = new PearsonCorrelationSimilarity(dataModel, Weighting.WEIGHTED);
+    AbstractSimilarity reference = new PearsonCorrelationSimilarity(dataModel, Weighting.WEIGHTED);
+    // An identity transform forces the general computation on preference arrays
+    reference.setPrefTransform(new PreferenceTransform() {
+      @Override
+      public float getTransformedValue(Preference pref) {
+        return pref.getValue();
+      }
+      @Override
+      public void refresh(Collection<Refreshable> alreadyRefreshed) {
+      }
+    });
+    for (long userID : userIDs) {
+      double[] similarities = similarity.userSimilarities(userID, userIDs);
+      for (int i = 0; i < userIDs.length; i++) {
+        double expected = reference.userSimilarity(userID, userIDs[i]);
+        assertEquals(expected, similarity.userSimilarity(userID, userIDs[i]), 0.0);
+        assertEquals(expected, similarities[i], 0.0);
+      }
+    }
+  }
+
 }
@@ -71,6 +71,23 @@ public final class SpearmanCorrelationSimilarityTest extends SimilarityTestCase
     assertCorrelationEquals(-0.5, correlation);
   }
 
+  @Test
+  public void testUserSimilarities() throws Exception {
+    DataModel dataModel = getDataModel(
+            new long[] {1, 2, 3, 4},
+            new Double[][] {
+                    {1.0, 2.0, 3.0, null},
+                    {2.0, 3.0, 1.0, 5.0},
+                    {3.0, null, 1.0, 1.0},
+                    {null, null, 1.0, null},
+            });
+    double[] similarities = new SpearmanCorrelationSimilarity(dataModel).userSimilarities(1, new long[] {1, 2, 3, 4});
+    assertCorrelationEquals(1.0, similarities[0]);
+    assertCorrelationEquals(-0.5, similarities[1]);
+    assertCorrelationEquals(-1.0, similarities[2]);
+    assertTrue(Double.isNaN(similarities[3]));
+  }
+
   @Test
   public void testRefresh() {
     // Make sure this doesn't throw an exception
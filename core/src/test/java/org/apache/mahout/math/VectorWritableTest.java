@@ -18,6 +18,7 @@
 package org.apache.mahout.math;
 
 import org.apache.hadoop.io.Writable;
+import org.apache.mahout.math.function.IntDoubleProcedure;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
@@ -25,6 +26,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 
 public final class VectorWritableTest extends MahoutTestCase {
 
@@ -52,6 +54,100 @@ public final class VectorWritableTest extends MahoutTestCase {
     doTestVectorWritableEquals(v);
   }
 
+  @Test
+  public void testLazyDecoding() throws Exception {
+    for (Vector v : sampleVectors()) {
+      for (boolean laxPrecision : new boolean[] {false, true}) {
+        VectorWritable toWrite = new VectorWritable(v);
+        toWrite.setWritesLaxPrecision(laxPrecision);
+        VectorWritable lazy = new VectorWritable();
+        lazy.setDecodesLazily(true);
+        writeAndRead(toWrite, lazy);
+
+        Vector other = new DenseVector(v.size()).assign(1.5);
+        assertEquals(v.dot(other), lazy.dot(other), EPSILON);
+        assertEquals(v.getLengthSquared(), lazy.getLengthSquared(), EPSILON);
+
+        final Vector collected = new RandomAccessSparseVector(v.size());
+        lazy.forEachNonZero(new IntDoubleProcedure() {
+          @Override
+          public boolean apply(int index, double value) {
+            collected.setQuick(index, value);
+            return true;
+          }
+        });
+        assertEquals(0.0, v.getDistanceSquared(collected), EPSILON);
+
+        Vector decoded = lazy.get();
+        assertEquals(v.getClass(), decoded.getClass());
+        assertEquals(v, decoded);
+      }
+    }
+  }
+
+  @Test
+  public void testLazyPassThrough() throws Exception {
+    for (Vector v : sampleVectors()) {
+      VectorWritable lazy = new VectorWritable();
+      lazy.setDecodesLazily(true);
+      writeAndRead(new VectorWritable(v), lazy);
+      VectorWritable copy = new VectorWritable();
+      writeAndRead(lazy, copy);
+      assertEquals(v, copy.get());
+    }
+  }
+
+  @Test
+  public void testLazyBufferGrowsAcrossRecords() throws Exception {
+    VectorWritable lazy = new VectorWritable();
+    lazy.setDecodesLazily(true);
+    for (int numNonZeros : new int[] {2, 10, 500}) {
+      Vector v = new RandomAccessSparseVector(1000000);
+      for (int i = 0; i < numNonZeros; i++) {
+        // large indices need multi byte varints, more than the initial estimate
+        v.set(1000 * i + 999, i + 1);
+      }
+      writeAndRead(new VectorWritable(v), lazy);
+      assertEquals(v.getLengthSquared(), lazy.getLengthSquared(), EPSILON);
+      assertEquals(v, lazy.get());
+    }
+  }
+
+  @Test
+  public void testReuse() throws Exception {
+    VectorWritable reading = new VectorWritable();
+    reading.setReusesVector(true);
+    Vector first = null;
+    for (int round = 0; round < 3; round++) {
+      Vector v = new RandomAccessSparseVector(300);
+      v.set(round, 1.0);
+      v.set(200 + round, 2.0);
+      writeAndRead(new VectorWritable(v), reading);
+      if (first == null) {
+        first = reading.get();
+      }
+      assertSame(first, reading.get());
+      assertEquals(v, reading.get());
+    }
+    Vector differentSize = new RandomAccessSparseVector(10);
+    differentSize.set(1, 1.0);
+    writeAndRead(new VectorWritable(differentSize), reading);
+    assertNotSame(first, reading.get());
+    assertEquals(differentSize, reading.get());
+  }
+
+  private static Iterable<Vector> sampleVectors() {
+    Vector dense = new DenseVector(5);
+    dense.set(1, 3.0);
+    dense.set(3, -5.0);
+    Vector random = new RandomAccessSparseVector(100000);
+    random.set(1, 3.0);
+    random.set(300, 5.0);
+    random.set(99999, -0.25);
+    Vector sequential = new SequentialAccessSparseVector(random);
+    return Arrays.asList(dense, random, sequential, new NamedVector(sequential, "name"), new NamedVector(dense, "d"));
+  }
+
   private static void doTestVectorWritableEquals(Vector v) throws IOException {
     Writable vectorWritable = new VectorWritable(v);
     VectorWritable vectorWritable2 = new VectorWritable();
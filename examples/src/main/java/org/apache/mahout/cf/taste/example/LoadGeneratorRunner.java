@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+import org.apache.commons.cli2.CommandLine;
+import org.apache.commons.cli2.Group;
+import org.apache.commons.cli2.Option;
+import org.apache.commons.cli2.OptionException;
+import org.apache.commons.cli2.builder.ArgumentBuilder;
+import org.apache.commons.cli2.builder.DefaultOptionBuilder;
+import org.apache.commons.cli2.builder.GroupBuilder;
+import org.apache.commons.cli2.commandline.Parser;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.example.grouplens.GroupLensDataModel;
+import org.apache.mahout.cf.taste.impl.eval.LoadGenerator;
+import org.apache.mahout.cf.taste.impl.model.file.FileDataModel;
+import org.apache.mahout.cf.taste.impl.recommender.GenericItemBasedRecommender;
+import org.apache.mahout.cf.taste.impl.recommender.slopeone.SlopeOneRecommender;
+import org.apache.mahout.cf.taste.impl.recommender.svd.ALSWRFactorizer;
+import org.apache.mahout.cf.taste.impl.recommender.svd.SVDRecommender;
+import org.apache.mahout.cf.taste.impl.similarity.CachingItemSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.LogLikelihoodSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.common.CommandLineUtil;
+import org.apache.mahout.common.commandline.DefaultOptionCreator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Runs a {@link LoadGenerator} against a recommender built on a ratings file: a GroupLens ratings.dat file, or
+ * any file {@link FileDataModel} reads. For example, to issue 200 requests per second from 8 threads, 80% of them
+ * recommendations and the rest preference estimates and similar items:</p>
+ *
+ * <p>{@code --input ratings.dat --recommender itembased --threads 8 --rate 200
+ * --mix recommend=8,estimate=1,similar=1}</p>
+ */
+public final class LoadGeneratorRunner {
+
+  private static final Logger log = LoggerFactory.getLogger(LoadGeneratorRunner.class);
+
+  private static final Pattern COMMA = Pattern.compile(",");
+
+  private LoadGeneratorRunner() {
+  }
+
+  public static void main(String[] args) throws IOException, TasteException {
+    DefaultOptionBuilder obuilder = new DefaultOptionBuilder();
+    ArgumentBuilder abuilder = new ArgumentBuilder();
+    GroupBuilder gbuilder = new GroupBuilder();
+
+    Option inputOpt = obuilder.withLongName("input").withRequired(true).withShortName("i")
+        .withArgument(abuilder.withName("input").withMinimum(1).withMaximum(1).create())
+        .withDescription("The ratings file: GroupLens ratings.dat, or userID,itemID,value lines.").create();
+    Option recommenderOpt = obuilder.withLongName("recommender").withRequired(false).withShortName("r")
+        .withArgument(abuilder.withName("recommender").withMinimum(1).withMaximum(1).create())
+        .withDescription("itembased, slopeone or svd. Default: itembased").create();
+    Option threadsOpt = obuilder.withLongName("threads").withRequired(false).withShortName("t")
+        .withArgument(abuilder.withName("threads").withMinimum(1).withMaximum(1).create())
+        .withDescription("Number of threads issuing requests. Default: number of processors").create();
+    Option rateOpt = obuilder.withLongName("rate").withRequired(false)
+        .withArgument(abuilder.withName("rate").withMinimum(1).withMaximum(1).create())
+        .withDescription("Requests per second, or 0 to issue them back to back. Default: 0").create();
+    Option mixOpt = obuilder.withLongName("mix").withRequired(false).withShortName("m")
+        .withArgument(abuilder.withName("mix").withMinimum(1).withMaximum(1).create())
+        .withDescription("Weights of recommend, estimate and similar requests. Default: recommend=1").create();
+    Option howManyOpt = obuilder.withLongName("howMany").withRequired(false).withShortName("n")
+        .withArgument(abuilder.withName("howMany").withMinimum(1).withMaximum(1).create())
+        .withDescription("Number of items to recommend or find similar items. Default: 10").create();
+    Option warmupOpt = obuilder.withLongName("warmup").withRequired(false).withShortName("w")
+        .withArgument(abuilder.withName("warmup").withMinimum(1).withMaximum(1).create())
+        .withDescription("Seconds of unmeasured warmup. Default: 5").create();
+    Option durationOpt = obuilder.withLongName("duration").withRequired(false).withShortName("d")
+        .withArgument(abuilder.withName("duration").withMinimum(1).withMaximum(1).create())
+        .withDescription("Seconds of measured load. Default: 30").create();
+    Option helpOpt = DefaultOptionCreator.helpOption();
+
+    Group group = gbuilder.withName("Options").withOption(inputOpt).withOption(recommenderOpt)
+        .withOption(threadsOpt).withOption(rateOpt).withOption(mixOpt).withOption(howManyOpt)
+        .withOption(warmupOpt).withOption(durationOpt).withOption(helpOpt).create();
+
+    Parser parser = new Parser();
+    parser.setGroup(group);
+    try {
+      CommandLine cmdLine = parser.parse(args);
+
+      if (cmdLine.hasOption(helpOpt)) {
+        CommandLineUtil.printHelp(group);
+        return;
+      }
+
+      File ratingsFile = new File(cmdLine.getValue(inputOpt).toString());
+      DataModel dataModel = ratingsFile.getName().endsWith(".dat")
+          ? new GroupLensDataModel(ratingsFile) : new FileDataModel(ratingsFile);
+      String recommenderName = cmdLine.getValue(recommenderOpt, "itembased").toString();
+      log.info("Building {} recommender", recommenderName);
+      LoadGenerator generator = new LoadGenerator(buildRecommender(recommenderName, dataModel));
+
+      if (cmdLine.hasOption(threadsOpt)) {
+        generator.setNumThreads(Integer.parseInt(cmdLine.getValue(threadsOpt).toString()));
+      }
+      generator.setRequestsPerSecond(Double.parseDouble(cmdLine.getValue(rateOpt, "0").toString()));
+      generator.setHowMany(Integer.parseInt(cmdLine.getValue(howManyOpt, "10").toString()));
+      generator.setWarmupMillis(1000L * Long.parseLong(cmdLine.getValue(warmupOpt, "5").toString()));
+      generator.setDurationMillis(1000L * Long.parseLong(cmdLine.getValue(durationOpt, "30").toString()));
+      if (cmdLine.hasOption(mixOpt)) {
+        setMix(generator, cmdLine.getValue(mixOpt).toString());
+      }
+
+      generator.run();
+    } catch (OptionException e) {
+      log.error("Error while parsing options", e);
+      CommandLineUtil.printHelp(group);
+    }
+  }
+
+  private static Recommender buildRecommender(String name, DataModel dataModel) throws TasteException {
+    if ("itembased".equals(name)) {
+      return new GenericItemBasedRecommender(dataModel,
+          new CachingItemSimilarity(new LogLikelihoodSimilarity(dataModel), dataModel));
+    }
+    if ("slopeone".equals(name)) {
+      return new SlopeOneRecommender(dataModel);
+    }
+    if ("svd".equals(name)) {
+      return new SVDRecommender(dataModel, new ALSWRFactorizer(dataModel, 20, 0.065, 10));
+    }
+    throw new IllegalArgumentException("Unknown recommender: " + name);
+  }
+
+  private static void setMix(LoadGenerator generator, String mix) {
+    for (LoadGenerator.Operation operation : LoadGenerator.Operation.values()) {
+      generator.setWeight(operation, 0);
+    }
+    for (String entry : COMMA.split(mix)) {
+      int equals = entry.indexOf('=');
+      if (equals < 0) {
+        throw new IllegalArgumentException("Expected operation=weight: " + entry);
+      }
+      String name = entry.substring(0, equals).trim();
+      int weight = Integer.parseInt(entry.substring(equals + 1).trim());
+      LoadGenerator.Operation operation;
+      if ("recommend".equals(name)) {
+        operation = LoadGenerator.Operation.RECOMMEND;
+      } else if ("estimate".equals(name)) {
+        operation = LoadGenerator.Operation.ESTIMATE_PREFERENCE;
+      } else if ("similar".equals(name)) {
+        operation = LoadGenerator.Operation.MOST_SIMILAR_ITEMS;
+      } else {
+        throw new IllegalArgumentException("Unknown operation: " + name);
+      }
+      generator.setWeight(operation, weight);
+    }
+  }
+
+}
@@ -149,6 +149,12 @@ public class DenseVector extends AbstractVector {
     return this;
   }
 
+  /** Adds every entry of a {@link RandomAccessSparseVector}'s table straight into the backing array. */
+  void addAll(ScanningIntDoubleHashMap sparse) {
+    sparse.addAllTo(values, 1.0);
+    lengthSquared = -1;
+  }
+
   public Vector assign(DenseVector vector) {
     // make sure the data field has the correct length
     if (vector.values.length != this.values.length) {
@@ -56,6 +56,11 @@ final class OrderedIntDoubleMapping implements Serializable, Cloneable {
     return numMappings;
   }
   
+  /** Removes all mappings, keeping the allocated arrays. */
+  void clear() {
+    numMappings = 0;
+  }
+
   private void growTo(int newCapacity) {
     if (newCapacity > indices.length) {
       int[] newIndices = new int[newCapacity];
@@ -20,9 +20,8 @@ package org.apache.mahout.math;
 import java.util.Iterator;
 
 import com.google.common.collect.AbstractIterator;
+import org.apache.mahout.math.function.DoubleFunction;
 import org.apache.mahout.math.function.IntDoubleProcedure;
-import org.apache.mahout.math.list.IntArrayList;
-import org.apache.mahout.math.map.OpenIntDoubleHashMap;
 
 
 /** Implements vector that only stores non-zero doubles */
@@ -30,7 +29,7 @@ public class RandomAccessSparseVector extends AbstractVector {
 
   private static final int INITIAL_CAPACITY = 11;
 
-  private OpenIntDoubleHashMap values;
+  private ScanningIntDoubleHashMap values;
 
   /** For serialization purposes only. */
   public RandomAccessSparseVector() {
@@ -43,7 +42,7 @@ public class RandomAccessSparseVector extends AbstractVector {
 
   public RandomAccessSparseVector(int cardinality, int initialCapacity) {
     super(cardinality);
-    values = new OpenIntDoubleHashMap(initialCapacity);
+    values = new ScanningIntDoubleHashMap(initialCapacity);
   }
 
   public RandomAccessSparseVector(Vector other) {
@@ -55,14 +54,14 @@ public class RandomAccessSparseVector extends AbstractVector {
     }
   }
 
-  private RandomAccessSparseVector(int cardinality, OpenIntDoubleHashMap values) {
+  private RandomAccessSparseVector(int cardinality, ScanningIntDoubleHashMap values) {
     super(cardinality);
     this.values = values;
   }
 
   public RandomAccessSparseVector(RandomAccessSparseVector other, boolean shallowCopy) {
     super(other.size());
-    values = shallowCopy ? other.values : (OpenIntDoubleHashMap)other.values.clone();
+    values = shallowCopy ? other.values : (ScanningIntDoubleHashMap) other.values.clone();
   }
 
   @Override
@@ -73,7 +72,7 @@ public class RandomAccessSparseVector extends AbstractVector {
 
   @Override
   public RandomAccessSparseVector clone() {
-    return new RandomAccessSparseVector(size(), (OpenIntDoubleHashMap) values.clone());
+    return new RandomAccessSparseVector(size(), (ScanningIntDoubleHashMap) values.clone());
   }
 
   @Override
@@ -94,11 +93,37 @@ public class RandomAccessSparseVector extends AbstractVector {
     return result.toString();
   }
 
+  @Override
+  public Vector assign(double value) {
+    if (value != 0.0) {
+      return super.assign(value);
+    }
+    // keep the table so that refilling this vector does not have to grow it again
+    values.clearKeepingCapacity();
+    lengthSquared = -1.0;
+    return this;
+  }
+
+  @Override
+  public Vector assign(DoubleFunction function) {
+    if (function.apply(0.0) != 0.0) {
+      return super.assign(function);
+    }
+    values.assignNonZero(function);
+    lengthSquared = -1.0;
+    return this;
+  }
+
   @Override
   public Vector assign(Vector other) {
     if (size() != other.size()) {
       throw new CardinalityException(size(), other.size());
     }
+    if (other instanceof RandomAccessSparseVector) {
+      values = (ScanningIntDoubleHashMap) ((RandomAccessSparseVector) other).values.clone();
+      lengthSquared = -1.0;
+      return this;
+    }
     values.clear();
     Iterator<Element> it = other.iterateNonZero();
     Element e;
@@ -171,7 +196,11 @@ public class RandomAccessSparseVector extends AbstractVector {
     if (v.size() != size()) {
       throw new CardinalityException(size(), v.size());
     }
-    values.forEachPair(new AddToVector(v));
+    if (v instanceof DenseVector) {
+      ((DenseVector) v).addAll(values);
+      return;
+    }
+    values.forEachPair(new AddToProcedure(v));
   }
 
   @Override
@@ -182,60 +211,127 @@ public class RandomAccessSparseVector extends AbstractVector {
     if (this == x) {
       return dotSelf();
     }
-    
-    double result = 0;
+    if (x instanceof RandomAccessSparseVector) {
+      return values.dot(((RandomAccessSparseVector) x).values);
+    }
     if (x instanceof SequentialAccessSparseVector) {
+      double result = 0;
       Iterator<Element> iter = x.iterateNonZero();
       while (iter.hasNext()) {
         Element element = iter.next();
         result += element.get() * getQuick(element.index());
       }
       return result;
-    } else { 
-      Iterator<Element> iter = iterateNonZero();
-      while (iter.hasNext()) {
-        Element element = iter.next();
-        result += element.get() * x.getQuick(element.index());
-      }
-      return result;
     }
+    return values.dot(x);
+  }
+
+  @Override
+  public double dotSelf() {
+    return values.sumOfSquares();
+  }
+
+  @Override
+  public double getDistanceSquared(Vector v) {
+    if (size() != v.size()) {
+      throw new CardinalityException(size(), v.size());
+    }
+    if (lengthSquared >= 0.0) {
+      // a cached length makes the generic dot or lookup based formulations cheaper
+      return super.getDistanceSquared(v);
+    }
+    // same summation as the generic version, without going through the iterator
+    double d = values.distanceSquared(v, v.getLengthSquared());
+    assert d > -1.0e-9; // round-off errors should never be too far off!
+    return Math.abs(d);
+  }
+
+  @Override
+  public Vector plus(Vector x) {
+    if (size() != x.size()) {
+      throw new CardinalityException(size(), x.size());
+    }
+    if (!(x instanceof RandomAccessSparseVector)) {
+      return super.plus(x);
+    }
+    // copy the larger table and fold the smaller one into it
+    RandomAccessSparseVector larger = this;
+    RandomAccessSparseVector smaller = (RandomAccessSparseVector) x;
+    if (smaller.getNumNondefaultElements() > larger.getNumNondefaultElements()) {
+      larger = smaller;
+      smaller = this;
+    }
+    RandomAccessSparseVector result = larger.clone();
+    smaller.values.forEachPair(new AddToProcedure(result));
+    return result;
   }
 
+  /** Adds each (index, value) pair it is applied to into a target vector. */
+  private static final class AddToProcedure implements IntDoubleProcedure {
 
-  private static final class AddToVector implements IntDoubleProcedure {
-    private final Vector v;
-    private AddToVector(Vector v) {
-      this.v = v;
+    private final Vector target;
+
+    private AddToProcedure(Vector target) {
+      this.target = target;
     }
+
     @Override
-    public boolean apply(int key, double value) {
-      v.set(key, value + v.get(key));
+    public boolean apply(int index, double value) {
+      target.setQuick(index, target.getQuick(index) + value);
       return true;
     }
   }
 
+  /**
+   * Walks the hash table slots directly, in the same order as {@link ScanningIntDoubleHashMap#keys()}. Setting an
+   * element to zero removes it without shrinking the table, so the walk stays valid; inserting other indices into
+   * this vector while iterating is not supported.
+   */
   private final class NonDefaultIterator extends AbstractIterator<Element> {
 
-    private final RandomAccessElement element = new RandomAccessElement();
-    private final IntArrayList indices = new IntArrayList();
-    private int offset;
+    private final NonDefaultElement element = new NonDefaultElement();
 
     private NonDefaultIterator() {
-      values.keys(indices);
+      element.slot = values.tableSize();
     }
 
     @Override
     protected Element computeNext() {
-      if (offset >= indices.size()) {
+      int slot = values.previousFullSlot(element.slot);
+      if (slot < 0) {
         return endOfData();
       }
-      element.index = indices.get(offset);
-      offset++;
+      element.slot = slot;
       return element;
     }
 
   }
 
+  private final class NonDefaultElement implements Element {
+
+    int slot;
+
+    @Override
+    public double get() {
+      return values.valueAtSlot(slot);
+    }
+
+    @Override
+    public int index() {
+      return values.keyAtSlot(slot);
+    }
+
+    @Override
+    public void set(double value) {
+      lengthSquared = -1;
+      if (value == 0.0) {
+        values.removeSlot(slot);
+      } else {
+        values.setValueAtSlot(slot, value);
+      }
+    }
+  }
+
   private final class AllIterator extends AbstractIterator<Element> {
 
     private final RandomAccessElement element = new RandomAccessElement();
@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math;
+
+import java.util.Arrays;
+
+import org.apache.mahout.math.function.DoubleFunction;
+import org.apache.mahout.math.map.OpenIntDoubleHashMap;
+
+/**
+ * {@link OpenIntDoubleHashMap} with slot-level bulk operations, so that {@link RandomAccessSparseVector} can scan
+ * its table directly instead of copying keys out and looking each one up again. The released mahout-collections
+ * artifact has no such methods.
+ */
+final class ScanningIntDoubleHashMap extends OpenIntDoubleHashMap {
+
+  ScanningIntDoubleHashMap(int initialCapacity) {
+    super(initialCapacity);
+  }
+
+  int tableSize() {
+    return table.length;
+  }
+
+  /**
+   * @return the last slot {@code < slot} holding an association, or -1 if there is none. Scanning down from
+   *  {@link #tableSize()} visits associations in the same order as {@link #keys()}.
+   */
+  int previousFullSlot(int slot) {
+    byte[] stat = state;
+    for (int i = slot; i-- > 0;) {
+      if (stat[i] == FULL) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  int keyAtSlot(int slot) {
+    return table[slot];
+  }
+
+  double valueAtSlot(int slot) {
+    return values[slot];
+  }
+
+  void setValueAtSlot(int slot, double value) {
+    values[slot] = value;
+  }
+
+  /** Removes the association at the given slot without shrinking, so that a scan may continue past it. */
+  void removeSlot(int slot) {
+    if (state[slot] == FULL) {
+      state[slot] = REMOVED;
+      distinct--;
+    }
+  }
+
+  /** Removes all associations but, unlike {@link #clear()}, keeps the table at its current capacity. */
+  void clearKeepingCapacity() {
+    Arrays.fill(state, FREE);
+    distinct = 0;
+    freeEntries = state.length;
+  }
+
+  /**
+   * Replaces each value with {@code function.apply(value)} in place, removing associations whose new value is 0
+   * without shrinking the table.
+   */
+  void assignNonZero(DoubleFunction function) {
+    double[] vals = values;
+    byte[] stat = state;
+    for (int i = stat.length; i-- > 0;) {
+      if (stat[i] == FULL) {
+        double value = function.apply(vals[i]);
+        if (value == 0.0) {
+          stat[i] = REMOVED;
+          distinct--;
+        } else {
+          vals[i] = value;
+        }
+      }
+    }
+  }
+
+  /** Adds {@code multiplier * value} into {@code target[key]} for every association. */
+  void addAllTo(double[] target, double multiplier) {
+    int[] keys = table;
+    double[] vals = values;
+    byte[] stat = state;
+    for (int i = stat.length; i-- > 0;) {
+      if (stat[i] == FULL) {
+        target[keys[i]] += multiplier * vals[i];
+      }
+    }
+  }
+
+  /** @return the dot product of this map's values with {@code other}, looked up by key */
+  double dot(ScanningIntDoubleHashMap other) {
+    if (other.size() < size()) {
+      return other.dot(this);
+    }
+    int[] keys = table;
+    double[] vals = values;
+    byte[] stat = state;
+    double result = 0.0;
+    for (int i = stat.length; i-- > 0;) {
+      if (stat[i] == FULL) {
+        result += vals[i] * other.get(keys[i]);
+      }
+    }
+    return result;
+  }
+
+  /** @return the dot product of this map's values with {@code x}, read with {@link Vector#getQuick(int)} */
+  double dot(Vector x) {
+    int[] keys = table;
+    double[] vals = values;
+    byte[] stat = state;
+    double result = 0.0;
+    for (int i = stat.length; i-- > 0;) {
+      if (stat[i] == FULL) {
+        result += vals[i] * x.getQuick(keys[i]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return {@code xLengthSquared} plus {@code value * (value - 2 * x[key])} for every association, the squared
+   *  distance to {@code x}; accumulated in the same order as {@link AbstractVector#getDistanceSquared(Vector)}
+   */
+  double distanceSquared(Vector x, double xLengthSquared) {
+    int[] keys = table;
+    double[] vals = values;
+    byte[] stat = state;
+    double result = xLengthSquared;
+    for (int i = stat.length; i-- > 0;) {
+      if (stat[i] == FULL) {
+        double value = vals[i];
+        result += value * (value - 2.0 * x.getQuick(keys[i]));
+      }
+    }
+    return result;
+  }
+
+  double sumOfSquares() {
+    double[] vals = values;
+    byte[] stat = state;
+    double result = 0.0;
+    for (int i = stat.length; i-- > 0;) {
+      if (stat[i] == FULL) {
+        double value = vals[i];
+        result += value * value;
+      }
+    }
+    return result;
+  }
+
+}
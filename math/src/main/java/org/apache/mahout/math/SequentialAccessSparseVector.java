@@ -96,6 +96,16 @@ public class SequentialAccessSparseVector extends AbstractVector {
     return new SequentialAccessSparseVector(size(), values.clone());
   }
 
+  @Override
+  public Vector assign(double value) {
+    if (value != 0.0) {
+      return super.assign(value);
+    }
+    values.clear();
+    lengthSquared = -1.0;
+    return this;
+  }
+
   @Override
   public Vector assign(Vector other) {
     int size = size();
@@ -0,0 +1,238 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math.als;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+
+/**
+ * <p>Allocation-free variant of {@link AlternateLeastSquaresSolver}. Feature vectors are accumulated one at a time
+ * into a reusable k x k Gram matrix and right hand side, and the system is solved with an in-place Cholesky
+ * decomposition, so solving a row costs O(k<sup>2</sup> * nnz + k<sup>3</sup>) without creating any matrices.</p>
+ *
+ * <p>Besides the explicit ALS-WR formulation it supports the implicit feedback formulation from Hu, Koren and
+ * Volinsky, "Collaborative Filtering for Implicit Feedback Datasets": the workspace is initialized from a precomputed
+ * Y<sup>T</sup>Y and every observed entry only adds its (confidence - 1) correction.</p>
+ *
+ * <p>Typical use is {@link #reset()} (or {@link #reset(double[])}), a number of {@code add...} calls, then
+ * {@link #solve(double, double[])}. Solving destroys the accumulated state. Instances are not thread-safe, use one
+ * per thread.</p>
+ */
+public final class InPlaceAlternateLeastSquaresSolver {
+
+  private final int numFeatures;
+  /** row-major k x k, only the upper triangle is maintained */
+  private final double[] gram;
+  private final double[] rhs;
+  private final double[] scratch;
+  private int numExamples;
+
+  public InPlaceAlternateLeastSquaresSolver(int numFeatures) {
+    Preconditions.checkArgument(numFeatures > 0, "numFeatures must be positive");
+    this.numFeatures = numFeatures;
+    gram = new double[numFeatures * numFeatures];
+    rhs = new double[numFeatures];
+    scratch = new double[numFeatures];
+  }
+
+  public int getNumFeatures() {
+    return numFeatures;
+  }
+
+  /** @return the number of examples added since the last reset */
+  public int getNumExamples() {
+    return numExamples;
+  }
+
+  /** Clears the workspace for the explicit formulation. */
+  public void reset() {
+    Arrays.fill(gram, 0.0);
+    Arrays.fill(rhs, 0.0);
+    numExamples = 0;
+  }
+
+  /**
+   * Initializes the workspace with a precomputed Gram matrix, typically Y<sup>T</sup>Y from
+   * {@link #gramian(double[][], int)} for the implicit formulation.
+   *
+   * @param initialGram row-major k x k matrix, only its upper triangle is read
+   */
+  public void reset(double[] initialGram) {
+    Preconditions.checkArgument(initialGram.length == gram.length, "Gram matrix must be k x k");
+    System.arraycopy(initialGram, 0, gram, 0, gram.length);
+    Arrays.fill(rhs, 0.0);
+    numExamples = 0;
+  }
+
+  /** Adds an explicit rating: A += f f<sup>T</sup>, b += rating * f. */
+  public void addExplicit(double[] features, double rating) {
+    accumulate(features, 1.0, rating);
+  }
+
+  public void addExplicit(Vector features, double rating) {
+    addExplicit(toScratch(features), rating);
+  }
+
+  /**
+   * Adds an observed implicit entry with the given confidence (usually 1 + alpha * r):
+   * A += (confidence - 1) f f<sup>T</sup>, b += confidence * f. Assumes the workspace was initialized with
+   * Y<sup>T</sup>Y via {@link #reset(double[])}.
+   */
+  public void addImplicit(double[] features, double confidence) {
+    accumulate(features, confidence - 1.0, confidence);
+  }
+
+  public void addImplicit(Vector features, double confidence) {
+    addImplicit(toScratch(features), confidence);
+  }
+
+  private double[] toScratch(Vector features) {
+    Preconditions.checkArgument(features.size() == numFeatures, "Feature vector must have numFeatures entries");
+    for (int n = 0; n < numFeatures; n++) {
+      scratch[n] = features.getQuick(n);
+    }
+    return scratch;
+  }
+
+  private void accumulate(double[] features, double weight, double target) {
+    int k = numFeatures;
+    for (int i = 0; i < k; i++) {
+      double fi = features[i];
+      if (fi == 0.0) {
+        continue;
+      }
+      rhs[i] += target * fi;
+      if (weight != 0.0) {
+        double wfi = weight * fi;
+        int row = i * k;
+        for (int j = i; j < k; j++) {
+          gram[row + j] += wfi * features[j];
+        }
+      }
+    }
+    numExamples++;
+  }
+
+  /**
+   * Adds {@code regularization} to the diagonal and solves the accumulated system in place.
+   *
+   * @param result array of length k receiving the solution
+   * @return result
+   * @throws IllegalStateException if the regularized system is not positive definite
+   */
+  public double[] solve(double regularization, double[] result) {
+    Preconditions.checkArgument(result.length == numFeatures, "result must have numFeatures entries");
+    int k = numFeatures;
+    double[] a = gram;
+
+    /* Cholesky, A = U^T U, U overwrites the upper triangle */
+    for (int j = 0; j < k; j++) {
+      int rowJ = j * k;
+      double d = a[rowJ + j] + regularization;
+      for (int p = 0; p < j; p++) {
+        double upj = a[p * k + j];
+        d -= upj * upj;
+      }
+      if (d <= 0.0) {
+        throw new IllegalStateException("Regularized Gram matrix is not positive definite");
+      }
+      double ujj = Math.sqrt(d);
+      a[rowJ + j] = ujj;
+      for (int i = j + 1; i < k; i++) {
+        double s = a[rowJ + i];
+        for (int p = 0; p < j; p++) {
+          int rowP = p * k;
+          s -= a[rowP + j] * a[rowP + i];
+        }
+        a[rowJ + i] = s / ujj;
+      }
+    }
+
+    /* forward substitution U^T y = b */
+    for (int j = 0; j < k; j++) {
+      double s = rhs[j];
+      for (int p = 0; p < j; p++) {
+        s -= a[p * k + j] * result[p];
+      }
+      result[j] = s / a[j * k + j];
+    }
+    /* back substitution U x = y */
+    for (int j = k - 1; j >= 0; j--) {
+      int rowJ = j * k;
+      double s = result[j];
+      for (int p = j + 1; p < k; p++) {
+        s -= a[rowJ + p] * result[p];
+      }
+      result[j] = s / a[rowJ + j];
+    }
+    return result;
+  }
+
+  /**
+   * Drop-in equivalent of {@link AlternateLeastSquaresSolver#solve(List, Vector, double, int)}: ALS-WR with
+   * regularization lambda * n<sub>ui</sub>.
+   */
+  public Vector solve(List<Vector> featureVectors, Vector ratingVector, double lambda) {
+    Preconditions.checkNotNull(featureVectors, "Feature vectors cannot be null");
+    Preconditions.checkArgument(!featureVectors.isEmpty());
+    Preconditions.checkNotNull(ratingVector, "Rating vector cannot be null");
+    Preconditions.checkArgument(ratingVector.isSequentialAccess());
+    Preconditions.checkArgument(featureVectors.size() == ratingVector.getNumNondefaultElements());
+
+    reset();
+    Iterator<Vector.Element> ratings = ratingVector.iterateNonZero();
+    int n = 0;
+    while (ratings.hasNext()) {
+      addExplicit(featureVectors.get(n++), ratings.next().get());
+    }
+    return new DenseVector(solve(lambda * n, new double[numFeatures]), true);
+  }
+
+  /**
+   * Computes Y<sup>T</sup>Y for the given rows of Y.
+   *
+   * @return row-major k x k matrix
+   */
+  public static double[] gramian(double[][] rows, int numFeatures) {
+    double[] result = new double[numFeatures * numFeatures];
+    for (double[] row : rows) {
+      for (int i = 0; i < numFeatures; i++) {
+        double fi = row[i];
+        if (fi == 0.0) {
+          continue;
+        }
+        int offset = i * numFeatures;
+        for (int j = i; j < numFeatures; j++) {
+          result[offset + j] += fi * row[j];
+        }
+      }
+    }
+    for (int i = 0; i < numFeatures; i++) {
+      for (int j = 0; j < i; j++) {
+        result[i * numFeatures + j] = result[j * numFeatures + i];
+      }
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,516 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math.ssvd;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.MatrixSlice;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorIterable;
+
+/**
+ * In-core, multi-threaded counterpart of the distributed stochastic SVD
+ * solver (SSVDSolver in mahout-core) for matrices that fit in memory.
+ * <P>
+ *
+ * For an m x n matrix A it computes Y = A&Omega; with the seeded random
+ * projection of {@link Omega}, orthonormalizes it to Q, forms
+ * B<sup>T</sup> = A<sup>T</sup>Q and takes the eigen decomposition of
+ * BB<sup>T</sup>. Given the same seed, k and p the singular values match
+ * those of the distributed job up to round-off, and U and V match up to the
+ * signs of their columns. Unlike the distributed job it can also
+ * <LI>run q power iterations, Y = (AA<sup>T</sup>)<sup>q</sup>A&Omega;, which
+ * helps considerably when the singular values of A decay slowly;
+ * <LI>center the columns of A, which turns the decomposition into a PCA of the
+ * rows of A. Centering is applied implicitly, so sparse rows stay sparse.
+ * <P>
+ *
+ * Rows of A are held by reference, not copied. Each pass over A is split by
+ * rows across a fixed number of threads; besides A the solver needs about
+ * (m + n * threads) * (k + p) doubles.
+ * <P>
+ *
+ * The use pattern is the one of SSVDSolver: create the solver, set optional
+ * parameters, call {@link #run()} and fetch the results.
+ */
+public class InCoreSSVDSolver {
+
+  private final VectorIterable a;
+  private final long seed;
+  private final int k;
+  private final int p;
+  private int q;
+  private boolean pca;
+  private boolean computeU = true;
+  private boolean computeV = true;
+  private boolean cUHalfSigma;
+  private boolean cVHalfSigma;
+  private int numThreads = Runtime.getRuntime().availableProcessors();
+
+  private double[] svalues;
+  private Matrix u;
+  private Matrix v;
+  private Vector mean;
+
+  /**
+   * @param a
+   *          input matrix, any {@link Matrix} or other {@link VectorIterable}
+   *          that can be iterated several times. Its slices must be indexed
+   *          0 .. numRows()-1, and row i of U belongs to slice i; slices it
+   *          leaves out are taken as zero rows.
+   * @param seed
+   *          seed of the random projection
+   * @param k
+   *          desired rank
+   * @param p
+   *          oversampling parameter
+   */
+  public InCoreSSVDSolver(VectorIterable a, long seed, int k, int p) {
+    Preconditions.checkArgument(k > 0, "k must be positive");
+    Preconditions.checkArgument(p >= 0, "p must not be negative");
+    Preconditions.checkArgument(k + p <= Math.min(a.numRows(), a.numCols()),
+        "k + p must not exceed the smaller dimension of A");
+    this.a = a;
+    this.seed = seed;
+    this.k = k;
+    this.p = p;
+  }
+
+  /**
+   * Number of power iterations. Default is 0, which is what the distributed
+   * solver computes.
+   */
+  public void setQ(int q) {
+    Preconditions.checkArgument(q >= 0, "q must not be negative");
+    this.q = q;
+  }
+
+  /**
+   * If true, the column means are subtracted from A before decomposing it, so
+   * that V holds the principal components of the rows of A and U Sigma their
+   * scores. Default is false.
+   */
+  public void setPca(boolean pca) {
+    this.pca = pca;
+  }
+
+  public void setComputeU(boolean val) {
+    computeU = val;
+  }
+
+  public void setComputeV(boolean val) {
+    computeV = val;
+  }
+
+  /** compute U<sub>&sigma;</sub>=U* &Sigma;<sup>0.5</sup> instead of U */
+  public void setcUHalfSigma(boolean cUHat) {
+    this.cUHalfSigma = cUHat;
+  }
+
+  /** compute V<sub>&sigma;</sub>=V* &Sigma;<sup>0.5</sup> instead of V */
+  public void setcVHalfSigma(boolean cVHat) {
+    this.cVHalfSigma = cVHat;
+  }
+
+  /** Number of threads to use. Default is the number of available processors. */
+  public void setNumThreads(int numThreads) {
+    Preconditions.checkArgument(numThreads > 0, "numThreads must be positive");
+    this.numThreads = numThreads;
+  }
+
+  /**
+   * @return k+p singular values (largest to smallest)
+   */
+  public double[] getSingularValues() {
+    return svalues;
+  }
+
+  /** @return m x k matrix U, or null if not computed */
+  public Matrix getU() {
+    return u;
+  }
+
+  /** @return n x k matrix V, or null if not computed */
+  public Matrix getV() {
+    return v;
+  }
+
+  /** @return the column means of A if PCA was requested, null otherwise */
+  public Vector getMean() {
+    return mean;
+  }
+
+  public void run() throws InterruptedException {
+    int m = a.numRows();
+    int n = a.numCols();
+    int kp = k + p;
+
+    // row i of U belongs to the slice with index i; rows the iteration skips are zero
+    Vector[] rows = new Vector[m];
+    for (MatrixSlice slice : a) {
+      int index = slice.index();
+      Preconditions.checkArgument(index >= 0 && index < m,
+          "Row index %s is outside 0..%s; rows of A must be indexed by position", index, m - 1);
+      Preconditions.checkArgument(rows[index] == null, "Row index %s appears more than once", index);
+      rows[index] = slice.vector();
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    try {
+      double[] means = null;
+      double[] meanOmega = null;
+      if (pca) {
+        means = columnMeans(rows, n);
+        mean = new DenseVector(means, true);
+        meanOmega = new double[kp];
+        new Omega(seed, k, p).computeYRow(mean, meanOmega);
+      }
+
+      double[][] y = new double[m][];
+      project(pool, rows, y, meanOmega);
+      orthonormalize(y, kp);
+
+      for (int i = 0; i < q; i++) {
+        double[][] z = transposeTimes(pool, rows, y, n, kp, means);
+        orthonormalize(z, kp);
+        times(pool, rows, z, y, kp, means);
+        orthonormalize(y, kp);
+      }
+
+      double[][] bt = transposeTimes(pool, rows, y, n, kp, means);
+      EigenSolverWrapper eigenWrapper = new EigenSolverWrapper(gramian(pool, bt, kp));
+
+      double[] eigenva2 = eigenWrapper.getEigenValues();
+      svalues = new double[kp];
+      for (int i = 0; i < kp; i++) {
+        // round-off can leave tiny negative eigenvalues on rank deficient input
+        svalues[i] = Math.sqrt(Math.max(eigenva2[i], 0.0));
+      }
+      double[][] uHat = eigenWrapper.getUHat();
+
+      if (computeU) {
+        double[] scale = new double[k];
+        for (int i = 0; i < k; i++) {
+          scale[i] = cUHalfSigma ? Math.sqrt(svalues[i]) : 1.0;
+        }
+        u = rotate(pool, y, uHat, scale);
+      }
+      if (computeV) {
+        double[] scale = new double[k];
+        for (int i = 0; i < k; i++) {
+          double sigma = cVHalfSigma ? Math.sqrt(svalues[i]) : svalues[i];
+          scale[i] = sigma > 0.0 ? 1.0 / sigma : 0.0;
+        }
+        v = rotate(pool, bt, uHat, scale);
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static double[] columnMeans(Vector[] rows, int n) {
+    double[] means = new double[n];
+    for (Vector row : rows) {
+      if (row != null) {
+        Iterator<Vector.Element> it = row.iterateNonZero();
+        while (it.hasNext()) {
+          Vector.Element e = it.next();
+          means[e.index()] += e.get();
+        }
+      }
+    }
+    for (int j = 0; j < n; j++) {
+      means[j] /= rows.length;
+    }
+    return means;
+  }
+
+  /** Y = (A - 1 mean<sup>T</sup>) Omega, one {@link Omega} per thread. */
+  private void project(ExecutorService pool, final Vector[] rows, final double[][] y, final double[] meanOmega)
+    throws InterruptedException {
+    final int kp = k + p;
+    inParallel(pool, rows.length, new RangeTask() {
+      @Override
+      public void process(int chunk, int from, int to) {
+        Omega omega = new Omega(seed, k, p);
+        for (int i = from; i < to; i++) {
+          double[] yRow = new double[kp];
+          if (rows[i] != null) {
+            omega.computeYRow(rows[i], yRow);
+          }
+          if (meanOmega != null) {
+            for (int j = 0; j < kp; j++) {
+              yRow[j] -= meanOmega[j];
+            }
+          }
+          y[i] = yRow;
+        }
+      }
+    });
+  }
+
+  /**
+   * @return (A - 1 mean<sup>T</sup>)<sup>T</sup> Q as n rows of length kp.
+   *         Every thread accumulates into its own n x kp block.
+   */
+  private double[][] transposeTimes(ExecutorService pool, final Vector[] rows, final double[][] q, final int n,
+                                    final int kp, double[] means) throws InterruptedException {
+    final double[][][] partials = new double[numChunks(rows.length)][][];
+    inParallel(pool, rows.length, new RangeTask() {
+      @Override
+      public void process(int chunk, int from, int to) {
+        double[][] partial = new double[n][kp];
+        for (int i = from; i < to; i++) {
+          if (rows[i] == null) {
+            continue;
+          }
+          double[] qRow = q[i];
+          Iterator<Vector.Element> it = rows[i].iterateNonZero();
+          while (it.hasNext()) {
+            Vector.Element e = it.next();
+            double value = e.get();
+            double[] target = partial[e.index()];
+            for (int j = 0; j < kp; j++) {
+              target[j] += value * qRow[j];
+            }
+          }
+        }
+        partials[chunk] = partial;
+      }
+    });
+
+    final double[][] result = partials[0];
+    final double[] qColumnSums = means == null ? null : columnSums(q, kp);
+    final double[] centering = means;
+    inParallel(pool, n, new RangeTask() {
+      @Override
+      public void process(int chunk, int from, int to) {
+        for (int r = from; r < to; r++) {
+          double[] target = result[r];
+          for (int c = 1; c < partials.length; c++) {
+            double[] source = partials[c][r];
+            for (int j = 0; j < kp; j++) {
+              target[j] += source[j];
+            }
+          }
+          if (centering != null) {
+            for (int j = 0; j < kp; j++) {
+              target[j] -= centering[r] * qColumnSums[j];
+            }
+          }
+        }
+      }
+    });
+    return result;
+  }
+
+  /** Y = (A - 1 mean<sup>T</sup>) Z, overwriting the rows of y. */
+  private void times(ExecutorService pool, final Vector[] rows, final double[][] z, final double[][] y,
+                     final int kp, double[] means) throws InterruptedException {
+    final double[] meanZ = new double[kp];
+    if (means != null) {
+      for (int r = 0; r < means.length; r++) {
+        for (int j = 0; j < kp; j++) {
+          meanZ[j] += means[r] * z[r][j];
+        }
+      }
+    }
+    inParallel(pool, rows.length, new RangeTask() {
+      @Override
+      public void process(int chunk, int from, int to) {
+        for (int i = from; i < to; i++) {
+          double[] yRow = y[i];
+          for (int j = 0; j < kp; j++) {
+            yRow[j] = -meanZ[j];
+          }
+          if (rows[i] == null) {
+            continue;
+          }
+          Iterator<Vector.Element> it = rows[i].iterateNonZero();
+          while (it.hasNext()) {
+            Vector.Element e = it.next();
+            double value = e.get();
+            double[] zRow = z[e.index()];
+            for (int j = 0; j < kp; j++) {
+              yRow[j] += value * zRow[j];
+            }
+          }
+        }
+      }
+    });
+  }
+
+  /** @return B B<sup>T</sup> from the rows of B<sup>T</sup> */
+  private double[][] gramian(ExecutorService pool, final double[][] bt, final int kp) throws InterruptedException {
+    final double[][][] partials = new double[numChunks(bt.length)][][];
+    inParallel(pool, bt.length, new RangeTask() {
+      @Override
+      public void process(int chunk, int from, int to) {
+        double[][] partial = new double[kp][kp];
+        for (int r = from; r < to; r++) {
+          double[] btRow = bt[r];
+          for (int i = 0; i < kp; i++) {
+            double bi = btRow[i];
+            if (bi == 0.0) {
+              continue;
+            }
+            double[] target = partial[i];
+            for (int j = i; j < kp; j++) {
+              target[j] += bi * btRow[j];
+            }
+          }
+        }
+        partials[chunk] = partial;
+      }
+    });
+    double[][] bbt = partials[0];
+    for (int c = 1; c < partials.length; c++) {
+      for (int i = 0; i < kp; i++) {
+        for (int j = i; j < kp; j++) {
+          bbt[i][j] += partials[c][i][j];
+        }
+      }
+    }
+    for (int i = 0; i < kp; i++) {
+      for (int j = 0; j < i; j++) {
+        bbt[i][j] = bbt[j][i];
+      }
+    }
+    return bbt;
+  }
+
+  /** @return source * uHat restricted to the first k columns, column i scaled by scale[i] */
+  private Matrix rotate(ExecutorService pool, final double[][] source, final double[][] uHat,
+                        final double[] scale) throws InterruptedException {
+    final Matrix result = new DenseMatrix(source.length, k);
+    inParallel(pool, source.length, new RangeTask() {
+      @Override
+      public void process(int chunk, int from, int to) {
+        for (int r = from; r < to; r++) {
+          double[] row = source[r];
+          for (int i = 0; i < k; i++) {
+            double d = 0.0;
+            for (int j = 0; j < row.length; j++) {
+              d += row[j] * uHat[j][i];
+            }
+            result.setQuick(r, i, d * scale[i]);
+          }
+        }
+      }
+    });
+    return result;
+  }
+
+  private static double[] columnSums(double[][] rows, int numColumns) {
+    double[] sums = new double[numColumns];
+    for (double[] row : rows) {
+      for (int j = 0; j < numColumns; j++) {
+        sums[j] += row[j];
+      }
+    }
+    return sums;
+  }
+
+  /**
+   * Orthonormalizes the columns of the given row-major matrix in place with
+   * Gram-Schmidt, orthogonalizing every column twice to keep Q orthonormal to
+   * working precision. Columns that are numerically dependent on the previous
+   * ones are set to zero, which leaves zero singular values for rank
+   * deficient input.
+   */
+  static void orthonormalize(double[][] rows, int numColumns) {
+    for (int c = 0; c < numColumns; c++) {
+      double originalNorm = Math.sqrt(columnDot(rows, c, c));
+      for (int pass = 0; pass < 2; pass++) {
+        for (int prev = 0; prev < c; prev++) {
+          double d = columnDot(rows, prev, c);
+          if (d != 0.0) {
+            for (double[] row : rows) {
+              row[c] -= d * row[prev];
+            }
+          }
+        }
+      }
+      double norm = Math.sqrt(columnDot(rows, c, c));
+      double scale = norm > 1.0e-10 * originalNorm && norm > 0.0 ? 1.0 / norm : 0.0;
+      for (double[] row : rows) {
+        row[c] *= scale;
+      }
+    }
+  }
+
+  private static double columnDot(double[][] rows, int c1, int c2) {
+    double d = 0.0;
+    for (double[] row : rows) {
+      d += row[c1] * row[c2];
+    }
+    return d;
+  }
+
+  private int numChunks(int numRows) {
+    return Math.max(1, Math.min(numThreads, numRows));
+  }
+
+  /**
+   * Splits 0 .. numRows-1 into {@link #numChunks(int)} contiguous ranges and
+   * processes them on the pool, rethrowing the first failure.
+   */
+  private void inParallel(ExecutorService pool, int numRows, final RangeTask task) throws InterruptedException {
+    int numChunks = numChunks(numRows);
+    List<Future<Void>> futures = new ArrayList<Future<Void>>(numChunks);
+    for (int c = 0; c < numChunks; c++) {
+      final int chunk = c;
+      final int from = (int) ((long) numRows * c / numChunks);
+      final int to = (int) ((long) numRows * (c + 1) / numChunks);
+      futures.add(pool.submit(new Callable<Void>() {
+        @Override
+        public Void call() {
+          task.process(chunk, from, to);
+          return null;
+        }
+      }));
+    }
+    try {
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  private interface RangeTask {
+    void process(int chunk, int from, int to);
+  }
+
+}
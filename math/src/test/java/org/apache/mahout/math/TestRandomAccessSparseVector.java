@@ -17,6 +17,13 @@
 
 package org.apache.mahout.math;
 
+import java.util.Iterator;
+import java.util.Random;
+
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.function.Functions;
+import org.junit.Test;
+
 public final class TestRandomAccessSparseVector extends AbstractTestVector {
 
   @Override
@@ -24,4 +31,66 @@ public final class TestRandomAccessSparseVector extends AbstractTestVector {
     return new RandomAccessSparseVector(cardinality);
   }
 
+  @Test
+  public void testZeroingWhileIterating() {
+    RandomAccessSparseVector v = new RandomAccessSparseVector(1000);
+    for (int i = 0; i < 1000; i += 2) {
+      v.setQuick(i, i + 1);
+    }
+    Iterator<Vector.Element> it = v.iterateNonZero();
+    int seen = 0;
+    while (it.hasNext()) {
+      it.next().set(0.0);
+      seen++;
+    }
+    assertEquals(500, seen);
+    assertEquals(0, v.getNumNondefaultElements());
+    assertEquals(0.0, v.getLengthSquared(), EPSILON);
+    assertFalse(v.iterateNonZero().hasNext());
+  }
+
+  @Test
+  public void testBulkOpsAgainstDense() {
+    Random random = RandomUtils.getRandom();
+    RandomAccessSparseVector a = randomSparse(random, 200, 30);
+    RandomAccessSparseVector b = randomSparse(random, 200, 60);
+    Vector denseA = new DenseVector(a);
+    Vector denseB = new DenseVector(b);
+
+    assertEquals(denseA.dot(denseB), a.dot(b), EPSILON);
+    assertEquals(denseA.dot(denseB), b.dot(a), EPSILON);
+    assertEquals(denseA.dot(denseB), a.dot(denseB), EPSILON);
+    assertEquals(denseA.getLengthSquared(), a.getLengthSquared(), EPSILON);
+
+    assertEquals(denseA.getDistanceSquared(denseB), a.getDistanceSquared(b), EPSILON);
+    assertEquals(denseA.getDistanceSquared(denseB), b.getDistanceSquared(a), EPSILON);
+    assertEquals(denseA.getDistanceSquared(denseB), a.getDistanceSquared(denseB), EPSILON);
+
+    assertEquals(0.0, denseA.plus(denseB).getDistanceSquared(a.plus(b)), EPSILON);
+    assertEquals(0.0, denseA.plus(denseB).getDistanceSquared(b.plus(a)), EPSILON);
+    assertEquals(0, a.plus(a.times(-1.0)).getNumNondefaultElements());
+
+    Vector sum = denseB.clone();
+    a.addTo(sum);
+    assertEquals(0.0, denseA.plus(denseB).getDistanceSquared(sum), EPSILON);
+    Vector sparseSum = b.clone();
+    a.addTo(sparseSum);
+    assertEquals(0.0, denseA.plus(denseB).getDistanceSquared(sparseSum), EPSILON);
+
+    assertEquals(0.0, denseA.times(2.0).getDistanceSquared(a.clone().assign(Functions.mult(2.0))), EPSILON);
+    assertEquals(0, a.clone().assign(Functions.mult(0.0)).getNumNondefaultElements());
+
+    Vector copy = new RandomAccessSparseVector(200).assign(a);
+    a.setQuick(a.iterateNonZero().next().index(), 0.0);
+    assertEquals(0.0, copy.getDistanceSquared(denseA), EPSILON);
+  }
+
+  private static RandomAccessSparseVector randomSparse(Random random, int cardinality, int numNonZero) {
+    RandomAccessSparseVector v = new RandomAccessSparseVector(cardinality);
+    for (int i = 0; i < numNonZero; i++) {
+      v.setQuick(random.nextInt(cardinality), random.nextGaussian());
+    }
+    return v;
+  }
+
 }
@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math.als;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.MahoutTestCase;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.QRDecomposition;
+import org.apache.mahout.math.SequentialAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.junit.Test;
+
+public class InPlaceAlternateLeastSquaresSolverTest extends MahoutTestCase {
+
+  private static final int NUM_FEATURES = 7;
+
+  @Test
+  public void matchesAlternateLeastSquaresSolver() {
+    Random random = RandomUtils.getRandom();
+    InPlaceAlternateLeastSquaresSolver solver = new InPlaceAlternateLeastSquaresSolver(NUM_FEATURES);
+    for (int round = 0; round < 5; round++) {
+      int numRatings = 3 + random.nextInt(20);
+      List<Vector> featureVectors = new ArrayList<Vector>();
+      Vector ratings = new SequentialAccessSparseVector(numRatings);
+      for (int n = 0; n < numRatings; n++) {
+        featureVectors.add(randomVector(random));
+        ratings.setQuick(n, 1 + random.nextInt(5));
+      }
+      Vector expected = new AlternateLeastSquaresSolver().solve(featureVectors, ratings, 0.065, NUM_FEATURES);
+      Vector actual = solver.solve(featureVectors, ratings, 0.065);
+      assertEquals(0.0, expected.getDistanceSquared(actual), EPSILON);
+    }
+  }
+
+  @Test
+  public void implicitMatchesDenseFormulation() {
+    Random random = RandomUtils.getRandom();
+    int numItems = 30;
+    double alpha = 40.0;
+    double lambda = 0.1;
+    double[][] itemFeatures = new double[numItems][];
+    for (int i = 0; i < numItems; i++) {
+      itemFeatures[i] = randomArray(random);
+    }
+    double[] observed = new double[numItems];
+    for (int i = 0; i < numItems; i += 3) {
+      observed[i] = 1 + random.nextInt(10);
+    }
+
+    InPlaceAlternateLeastSquaresSolver solver = new InPlaceAlternateLeastSquaresSolver(NUM_FEATURES);
+    solver.reset(InPlaceAlternateLeastSquaresSolver.gramian(itemFeatures, NUM_FEATURES));
+    for (int i = 0; i < numItems; i++) {
+      if (observed[i] > 0) {
+        solver.addImplicit(itemFeatures[i], 1 + alpha * observed[i]);
+      }
+    }
+    double[] actual = solver.solve(lambda, new double[NUM_FEATURES]);
+
+    /* A = Y^T C Y + lambda I, b = Y^T C p */
+    Matrix a = new DenseMatrix(NUM_FEATURES, NUM_FEATURES);
+    Matrix b = new DenseMatrix(NUM_FEATURES, 1);
+    for (int i = 0; i < numItems; i++) {
+      double confidence = 1 + alpha * observed[i];
+      double preference = observed[i] > 0 ? 1 : 0;
+      for (int r = 0; r < NUM_FEATURES; r++) {
+        for (int c = 0; c < NUM_FEATURES; c++) {
+          a.setQuick(r, c, a.getQuick(r, c) + confidence * itemFeatures[i][r] * itemFeatures[i][c]);
+        }
+        b.setQuick(r, 0, b.getQuick(r, 0) + confidence * preference * itemFeatures[i][r]);
+      }
+    }
+    for (int r = 0; r < NUM_FEATURES; r++) {
+      a.setQuick(r, r, a.getQuick(r, r) + lambda);
+    }
+    Vector expected = new QRDecomposition(a).solve(b).getColumn(0);
+    assertEquals(0.0, expected.getDistanceSquared(new DenseVector(actual)), EPSILON);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void singularSystemIsRejected() {
+    InPlaceAlternateLeastSquaresSolver solver = new InPlaceAlternateLeastSquaresSolver(NUM_FEATURES);
+    solver.reset();
+    solver.addExplicit(new double[NUM_FEATURES], 1.0);
+    solver.solve(0.0, new double[NUM_FEATURES]);
+  }
+
+  private static Vector randomVector(Random random) {
+    return new DenseVector(randomArray(random));
+  }
+
+  private static double[] randomArray(Random random) {
+    double[] values = new double[NUM_FEATURES];
+    for (int n = 0; n < NUM_FEATURES; n++) {
+      values[n] = random.nextGaussian();
+    }
+    return values;
+  }
+
+}
@@ -0,0 +1,164 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math.ssvd;
+
+import java.util.Random;
+
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.MahoutTestCase;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.SequentialAccessSparseVector;
+import org.apache.mahout.math.SingularValueDecomposition;
+import org.apache.mahout.math.SparseRowMatrix;
+import org.apache.mahout.math.Vector;
+import org.junit.Test;
+
+public final class InCoreSSVDSolverTest extends MahoutTestCase {
+
+  @Test
+  public void testFullRankMatchesSvd() throws Exception {
+    Matrix a = randomSparseMatrix(120, 30);
+    InCoreSSVDSolver ssvd = new InCoreSSVDSolver(a, 1234L, 20, 10);
+    ssvd.setNumThreads(3);
+    ssvd.run();
+
+    double[] expected = new SingularValueDecomposition(a).getSingularValues();
+    double[] actual = ssvd.getSingularValues();
+    for (int i = 0; i < 30; i++) {
+      assertEquals(expected[i], actual[i], EPSILON);
+    }
+    assertOrthonormal(ssvd.getU());
+    assertOrthonormal(ssvd.getV());
+  }
+
+  @Test
+  public void testReconstructsLowRankMatrix() throws Exception {
+    Random random = RandomUtils.getRandom();
+    int m = 80;
+    int n = 40;
+    int rank = 4;
+    Matrix left = new DenseMatrix(m, rank);
+    Matrix right = new DenseMatrix(rank, n);
+    for (int r = 0; r < rank; r++) {
+      for (int i = 0; i < m; i++) {
+        left.setQuick(i, r, random.nextGaussian() * (rank - r));
+      }
+      for (int j = 0; j < n; j++) {
+        right.setQuick(r, j, random.nextGaussian());
+      }
+    }
+    Matrix a = left.times(right);
+
+    InCoreSSVDSolver ssvd = new InCoreSSVDSolver(a, 42L, rank, 3);
+    ssvd.setQ(1);
+    ssvd.run();
+
+    double[] expected = new SingularValueDecomposition(a).getSingularValues();
+    double[] actual = ssvd.getSingularValues();
+    for (int i = 0; i < rank; i++) {
+      assertEquals(expected[i], actual[i], EPSILON * expected[0]);
+    }
+    for (int i = rank; i < actual.length; i++) {
+      assertEquals(0.0, actual[i], EPSILON * expected[0]);
+    }
+
+    Matrix u = ssvd.getU();
+    Matrix v = ssvd.getV();
+    for (int i = 0; i < m; i++) {
+      for (int j = 0; j < n; j++) {
+        double reconstructed = 0.0;
+        for (int r = 0; r < rank; r++) {
+          reconstructed += u.getQuick(i, r) * actual[r] * v.getQuick(j, r);
+        }
+        assertEquals(a.getQuick(i, j), reconstructed, EPSILON * expected[0]);
+      }
+    }
+  }
+
+  @Test
+  public void testPcaMatchesSvdOfCenteredMatrix() throws Exception {
+    Matrix a = randomSparseMatrix(100, 20);
+    InCoreSSVDSolver ssvd = new InCoreSSVDSolver(a, 7L, 15, 5);
+    ssvd.setPca(true);
+    ssvd.setQ(2);
+    ssvd.run();
+
+    Vector mean = ssvd.getMean();
+    Matrix centered = new DenseMatrix(100, 20);
+    for (int i = 0; i < 100; i++) {
+      for (int j = 0; j < 20; j++) {
+        centered.setQuick(i, j, a.getQuick(i, j) - mean.getQuick(j));
+      }
+    }
+    for (int j = 0; j < 20; j++) {
+      assertEquals(0.0, centered.getColumn(j).zSum(), EPSILON);
+    }
+
+    double[] expected = new SingularValueDecomposition(centered).getSingularValues();
+    double[] actual = ssvd.getSingularValues();
+    for (int i = 0; i < 20; i++) {
+      assertEquals(expected[i], actual[i], EPSILON);
+    }
+  }
+
+  @Test
+  public void testThreadCountDoesNotMatter() throws Exception {
+    Matrix a = randomSparseMatrix(60, 25);
+    double[] previous = null;
+    for (int threads = 1; threads <= 4; threads++) {
+      InCoreSSVDSolver ssvd = new InCoreSSVDSolver(a, 99L, 5, 5);
+      ssvd.setNumThreads(threads);
+      ssvd.setComputeU(false);
+      ssvd.setComputeV(false);
+      ssvd.run();
+      assertNull(ssvd.getU());
+      double[] svalues = ssvd.getSingularValues();
+      if (previous != null) {
+        for (int i = 0; i < svalues.length; i++) {
+          assertEquals(previous[i], svalues[i], EPSILON);
+        }
+      }
+      previous = svalues;
+    }
+  }
+
+  private static Matrix randomSparseMatrix(int m, int n) {
+    Random random = RandomUtils.getRandom();
+    Matrix a = new SparseRowMatrix(new int[] {m, n});
+    for (int i = 0; i < m; i++) {
+      Vector row = new SequentialAccessSparseVector(n);
+      for (int j = 0; j < n / 3; j++) {
+        row.setQuick(random.nextInt(n), 50.0 * (random.nextDouble() - 0.5));
+      }
+      a.assignRow(i, row);
+    }
+    return a;
+  }
+
+  private static void assertOrthonormal(Matrix mx) {
+    int n = mx.columnSize();
+    for (int i = 0; i < n; i++) {
+      Vector ei = mx.getColumn(i);
+      for (int j = 0; j <= i; j++) {
+        assertEquals(i == j ? 1.0 : 0.0, ei.dot(mx.getColumn(j)), EPSILON);
+      }
+    }
+  }
+
+}
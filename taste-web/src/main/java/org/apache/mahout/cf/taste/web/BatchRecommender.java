@@ -0,0 +1,446 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.web;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.eval.LatencyHistogram;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Computes recommendations for many users at once, for {@link BatchRecommenderServlet}.</p>
+ *
+ * <p>Each user's recommendations are computed on a bounded pool of worker threads, with a bounded queue; users
+ * that don't fit in the queue are rejected rather than queued without limit. A caller waits only until its
+ * deadline and gets whatever has been computed by then. A user already being computed for another caller is not
+ * computed again, and computed recommendations are cached by user until {@link #refresh(Collection)}. Counters
+ * and latency histograms of all this are kept for monitoring.</p>
+ */
+public final class BatchRecommender implements Refreshable {
+
+  private static final Logger log = LoggerFactory.getLogger(BatchRecommender.class);
+
+  private final Recommender recommender;
+  private final ThreadPoolExecutor executor;
+  private final FastByIDMap<CachedRecommendations> cache;
+  private final ConcurrentMap<Long,Computation> inFlight;
+  private final RefreshHelper refreshHelper;
+  private volatile int generation;
+  private final long startTime;
+  private final AtomicLong numRequests;
+  private final AtomicLong numUsers;
+  private final AtomicLong numCacheHits;
+  private final AtomicLong numCoalesced;
+  private final AtomicLong numTimedOut;
+  private final AtomicLong numRejected;
+  private final AtomicLong numFailed;
+  private final LatencyHistogram requestLatencies;
+  private final LatencyHistogram recommendLatencies;
+
+  /**
+   * @param recommender computes the recommendations
+   * @param numThreads number of worker threads
+   * @param maxQueued number of users that may wait for a worker thread
+   * @param maxCacheSize number of users whose recommendations are cached
+   */
+  public BatchRecommender(Recommender recommender, int numThreads, int maxQueued, int maxCacheSize) {
+    Preconditions.checkArgument(recommender != null, "recommender is null");
+    Preconditions.checkArgument(numThreads >= 1, "numThreads must be at least 1");
+    Preconditions.checkArgument(maxQueued >= 1, "maxQueued must be at least 1");
+    Preconditions.checkArgument(maxCacheSize >= 1, "maxCacheSize must be at least 1");
+    this.recommender = recommender;
+    final AtomicInteger threadCount = new AtomicInteger();
+    executor = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(maxQueued), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "BatchRecommender-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    cache = new FastByIDMap<CachedRecommendations>(maxCacheSize, maxCacheSize);
+    inFlight = new ConcurrentHashMap<Long,Computation>();
+    refreshHelper = new RefreshHelper(new Callable<Void>() {
+      @Override
+      public Void call() {
+        clearCache();
+        return null;
+      }
+    });
+    refreshHelper.addDependency(recommender);
+    startTime = System.currentTimeMillis();
+    numRequests = new AtomicLong();
+    numUsers = new AtomicLong();
+    numCacheHits = new AtomicLong();
+    numCoalesced = new AtomicLong();
+    numTimedOut = new AtomicLong();
+    numRejected = new AtomicLong();
+    numFailed = new AtomicLong();
+    requestLatencies = new LatencyHistogram();
+    recommendLatencies = new LatencyHistogram();
+  }
+
+  public Recommender getRecommender() {
+    return recommender;
+  }
+
+  /**
+   * @param userIDs users to recommend to; duplicates are computed once
+   * @param howMany number of recommendations per user
+   * @param timeoutMillis how long to wait for recommendations
+   * @return recommendations of the users computed in time, and which users weren't
+   */
+  public BatchResult recommend(long[] userIDs, int howMany, long timeoutMillis) {
+    Preconditions.checkArgument(userIDs != null, "userIDs is null");
+    Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
+    Preconditions.checkArgument(timeoutMillis >= 0L, "timeoutMillis must be at least 0");
+    long start = System.nanoTime();
+    long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+    BatchResult result = new BatchResult();
+    FastByIDMap<Computation> pending = new FastByIDMap<Computation>();
+    for (long userID : userIDs) {
+      if (!result.add(userID)) {
+        continue;
+      }
+      List<RecommendedItem> cached = getCached(userID, howMany);
+      if (cached != null) {
+        numCacheHits.incrementAndGet();
+        result.recommendations.put(userID, cached);
+        continue;
+      }
+      Computation computation = compute(userID, howMany);
+      if (computation == null) {
+        numRejected.incrementAndGet();
+        result.rejected.add(userID);
+      } else {
+        pending.put(userID, computation);
+      }
+    }
+
+    boolean interrupted = false;
+    for (long userID : result.userIDs) {
+      Computation computation = pending.get(userID);
+      if (computation == null) {
+        continue;
+      }
+      try {
+        if (interrupted) {
+          throw new TimeoutException();
+        }
+        List<RecommendedItem> items = computation.get(Math.max(0L, deadline - System.nanoTime()),
+            TimeUnit.NANOSECONDS);
+        result.recommendations.put(userID, items.size() > howMany ? items.subList(0, howMany) : items);
+      } catch (TimeoutException te) {
+        numTimedOut.incrementAndGet();
+        result.timedOut.add(userID);
+      } catch (CancellationException ce) {
+        numRejected.incrementAndGet();
+        result.rejected.add(userID);
+      } catch (InterruptedException ie) {
+        interrupted = true;
+        numTimedOut.incrementAndGet();
+        result.timedOut.add(userID);
+      } catch (ExecutionException ee) {
+        if (ee.getCause() instanceof NoSuchUserException) {
+          log.debug("No such user {}", userID);
+        } else {
+          log.warn("Exception while recommending to user " + userID, ee.getCause());
+        }
+        numFailed.incrementAndGet();
+        result.failed.add(userID);
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    numRequests.incrementAndGet();
+    numUsers.addAndGet(result.userIDs.size());
+    synchronized (requestLatencies) {
+      requestLatencies.add(System.nanoTime() - start);
+    }
+    return result;
+  }
+
+  private List<RecommendedItem> getCached(long userID, int howMany) {
+    CachedRecommendations cached;
+    synchronized (cache) {
+      cached = cache.get(userID);
+    }
+    if (cached == null) {
+      return null;
+    }
+    if (cached.items.size() >= howMany) {
+      return cached.items.subList(0, howMany);
+    }
+    // there are no more recommendations than were asked for, so more wouldn't help
+    return cached.howMany >= howMany ? cached.items : null;
+  }
+
+  /**
+   * @return computation of the user's recommendations, possibly already under way, or null if the queue is full
+   */
+  private Computation compute(long userID, int howMany) {
+    int currentGeneration = generation;
+    Computation computation = new Computation(userID, howMany, currentGeneration);
+    while (true) {
+      Computation running = inFlight.get(userID);
+      // one begun before the last refresh may use old data, and one for fewer items won't do
+      if (running != null && running.startGeneration == currentGeneration && running.howMany >= howMany) {
+        numCoalesced.incrementAndGet();
+        return running;
+      }
+      if (running == null
+          ? inFlight.putIfAbsent(userID, computation) == null
+          : inFlight.replace(userID, running, computation)) {
+        break;
+      }
+    }
+    try {
+      executor.execute(computation);
+    } catch (RejectedExecutionException ree) {
+      // requests which joined it meanwhile see it cancelled, and count the user as rejected too
+      computation.cancel(false);
+      return null;
+    }
+    return computation;
+  }
+
+  private void clearCache() {
+    synchronized (cache) {
+      // computations begun before this won't be cached
+      generation++;
+      cache.clear();
+    }
+    log.info("Cleared cached recommendations");
+  }
+
+  /** Refreshes the {@link Recommender}, then forgets all cached recommendations. */
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshHelper.refresh(alreadyRefreshed);
+  }
+
+  /** Stops the worker threads. */
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  public long getUptimeMillis() {
+    return System.currentTimeMillis() - startTime;
+  }
+
+  /** @return number of {@link #recommend(long[], int, long)} calls */
+  public long getNumRequests() {
+    return numRequests.get();
+  }
+
+  /** @return number of distinct users asked for per request, summed over requests */
+  public long getNumUsers() {
+    return numUsers.get();
+  }
+
+  public long getNumCacheHits() {
+    return numCacheHits.get();
+  }
+
+  /** @return number of users whose recommendations were being computed already for another request */
+  public long getNumCoalesced() {
+    return numCoalesced.get();
+  }
+
+  public long getNumTimedOut() {
+    return numTimedOut.get();
+  }
+
+  public long getNumRejected() {
+    return numRejected.get();
+  }
+
+  public long getNumFailed() {
+    return numFailed.get();
+  }
+
+  /** @return number of users waiting for a worker thread */
+  public int getQueueSize() {
+    return executor.getQueue().size();
+  }
+
+  public int getCacheSize() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  /** @return copy of the histogram of whole request latencies */
+  public LatencyHistogram getRequestLatencies() {
+    LatencyHistogram copy = new LatencyHistogram();
+    synchronized (requestLatencies) {
+      copy.addAll(requestLatencies);
+    }
+    return copy;
+  }
+
+  /** @return copy of the histogram of latencies of the {@link Recommender} for one user */
+  public LatencyHistogram getRecommendLatencies() {
+    LatencyHistogram copy = new LatencyHistogram();
+    synchronized (recommendLatencies) {
+      copy.addAll(recommendLatencies);
+    }
+    return copy;
+  }
+
+  @Override
+  public String toString() {
+    return "BatchRecommender[recommender:" + recommender + ']';
+  }
+
+  /** Recommendations cached for a user, and how many were asked for. */
+  private static final class CachedRecommendations {
+
+    private final int howMany;
+    private final List<RecommendedItem> items;
+
+    private CachedRecommendations(int howMany, List<RecommendedItem> items) {
+      this.howMany = howMany;
+      this.items = items;
+    }
+  }
+
+  /** Computes one user's recommendations, which every request for the user waits on. */
+  private final class Computation extends FutureTask<List<RecommendedItem>> {
+
+    private final long userID;
+    private final int howMany;
+    private final int startGeneration;
+
+    private Computation(final long userID, final int howMany, final int startGeneration) {
+      super(new Callable<List<RecommendedItem>>() {
+        @Override
+        public List<RecommendedItem> call() throws TasteException {
+          long start = System.nanoTime();
+          List<RecommendedItem> items = recommender.recommend(userID, howMany);
+          synchronized (recommendLatencies) {
+            recommendLatencies.add(System.nanoTime() - start);
+          }
+          synchronized (cache) {
+            if (generation == startGeneration) {
+              cache.put(userID, new CachedRecommendations(howMany, items));
+            }
+          }
+          return items;
+        }
+      });
+      this.userID = userID;
+      this.howMany = howMany;
+      this.startGeneration = startGeneration;
+    }
+
+    @Override
+    protected void done() {
+      inFlight.remove(userID, this);
+    }
+  }
+
+  /**
+   * Recommendations for the users of one request that were computed in time, and the users that were not:
+   * because their recommendations took too long, because the queue was full, or because of an error.
+   */
+  public static final class BatchResult {
+
+    private final List<Long> userIDs;
+    private final FastIDSet seen;
+    private final FastByIDMap<List<RecommendedItem>> recommendations;
+    private final FastIDSet timedOut;
+    private final FastIDSet rejected;
+    private final FastIDSet failed;
+
+    private BatchResult() {
+      userIDs = Lists.newArrayList();
+      seen = new FastIDSet();
+      recommendations = new FastByIDMap<List<RecommendedItem>>();
+      timedOut = new FastIDSet();
+      rejected = new FastIDSet();
+      failed = new FastIDSet();
+    }
+
+    private boolean add(long userID) {
+      if (!seen.add(userID)) {
+        return false;
+      }
+      userIDs.add(userID);
+      return true;
+    }
+
+    /** @return distinct users asked for, in the order first asked for */
+    public List<Long> getUserIDs() {
+      return userIDs;
+    }
+
+    /** @return the user's recommendations, or null if they weren't computed in time */
+    public List<RecommendedItem> getRecommendations(long userID) {
+      return recommendations.get(userID);
+    }
+
+    public boolean isTimedOut(long userID) {
+      return timedOut.contains(userID);
+    }
+
+    public boolean isRejected(long userID) {
+      return rejected.contains(userID);
+    }
+
+    public boolean isFailed(long userID) {
+      return failed.contains(userID);
+    }
+
+    /** @return true if some users' recommendations are missing */
+    public boolean isPartial() {
+      return recommendations.size() < userIDs.size();
+    }
+  }
+
+}
@@ -0,0 +1,295 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.web;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.eval.LatencyHistogram;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * <p>A servlet which returns recommendations for many users per request, computed by a
+ * {@link BatchRecommender}. It answers at three paths:</p>
+ *
+ * <ul>
+ * <li><em>/recommend</em>, or no path: recommendations, as JSON. Parameters are <em>userIDs</em>, a
+ * comma-separated list of user IDs, and/or any number of <em>userID</em>; <em>howMany</em>, the number
+ * of recommendations per user; and optionally <em>timeout</em>, how many milliseconds to wait for them,
+ * at most the configured maximum. Users whose recommendations weren't ready in time are listed with a
+ * <em>status</em> of "timedOut", "rejected" or "failed" instead.</li>
+ * <li><em>/stats</em>: request, cache and latency counters, as JSON.</li>
+ * <li><em>/refresh</em>: refreshes the {@link Recommender} and empties the cache. Only answers POST.</li>
+ * </ul>
+ *
+ * <p>Malformed parameters, such as a user ID which isn't a number, a <em>howMany</em> less than 1 or a negative
+ * <em>timeout</em>, are answered with status 400.</p>
+ *
+ * <p>For example, assuming the servlet is mapped to <code>/batch/*</code>:<br/>
+ * <code>http://localhost:8080/taste/batch/recommend?userIDs=123,456,789&amp;howMany=10&amp;timeout=200</code></p>
+ *
+ * <p>Like {@link RecommenderServlet} it requires the <code>init-param</code> "recommender-class", and shares
+ * its {@link Recommender} through {@link RecommenderSingleton}. Optional <code>init-param</code>s are
+ * "threads", the number of worker threads (default: number of processors), "max-queued", the number of
+ * users that may wait for a worker (default 1000), "cache-size", the number of users whose recommendations
+ * are cached (default 10000), and "timeout-millis", the default and maximum wait (default 1000).</p>
+ */
+public final class BatchRecommenderServlet extends HttpServlet {
+
+  private static final int DEFAULT_HOW_MANY = 20;
+  private static final int DEFAULT_MAX_QUEUED = 1000;
+  private static final int DEFAULT_CACHE_SIZE = 10000;
+  private static final long DEFAULT_TIMEOUT_MILLIS = 1000L;
+  private static final Pattern COMMA = Pattern.compile(",");
+
+  private BatchRecommender batchRecommender;
+  private long maxTimeoutMillis;
+
+  @Override
+  public void init(ServletConfig config) throws ServletException {
+    super.init(config);
+    String recommenderClassName = config.getInitParameter("recommender-class");
+    if (recommenderClassName == null) {
+      throw new ServletException("Servlet init-param \"recommender-class\" is not defined");
+    }
+    try {
+      RecommenderSingleton.initializeIfNeeded(recommenderClassName);
+    } catch (TasteException te) {
+      throw new ServletException(te);
+    }
+    Recommender recommender = RecommenderSingleton.getInstance().getRecommender();
+    int numThreads = getIntParameter(config, "threads", Runtime.getRuntime().availableProcessors());
+    int maxQueued = getIntParameter(config, "max-queued", DEFAULT_MAX_QUEUED);
+    int cacheSize = getIntParameter(config, "cache-size", DEFAULT_CACHE_SIZE);
+    String timeoutString = config.getInitParameter("timeout-millis");
+    maxTimeoutMillis = timeoutString == null ? DEFAULT_TIMEOUT_MILLIS : Long.parseLong(timeoutString);
+    batchRecommender = new BatchRecommender(recommender, numThreads, maxQueued, cacheSize);
+  }
+
+  private static int getIntParameter(ServletConfig config, String name, int defaultValue) {
+    String value = config.getInitParameter(name);
+    return value == null ? defaultValue : Integer.parseInt(value);
+  }
+
+  @Override
+  public void destroy() {
+    batchRecommender.close();
+    super.destroy();
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request,
+                    HttpServletResponse response) throws ServletException {
+    handle(request, response, false);
+  }
+
+  private void handle(HttpServletRequest request, HttpServletResponse response, boolean post)
+    throws ServletException {
+    String path = request.getPathInfo();
+    try {
+      if (path == null || "/".equals(path) || "/recommend".equals(path)) {
+        recommend(request, response);
+      } else if ("/stats".equals(path)) {
+        writeStats(response);
+      } else if ("/refresh".equals(path)) {
+        if (post) {
+          batchRecommender.refresh(null);
+          writeJSONHeaders(response).println("{\"refreshed\":true}");
+        } else {
+          response.setHeader("Allow", "POST");
+          response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED, "refresh requires POST");
+        }
+      } else {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      }
+    } catch (IOException ioe) {
+      throw new ServletException(ioe);
+    }
+  }
+
+  private void recommend(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    long[] userIDs;
+    int howMany;
+    long timeoutMillis;
+    try {
+      userIDs = parseUserIDs(request);
+      String howManyString = request.getParameter("howMany");
+      howMany = howManyString == null ? DEFAULT_HOW_MANY : Integer.parseInt(howManyString);
+      String timeoutString = request.getParameter("timeout");
+      timeoutMillis = timeoutString == null ? maxTimeoutMillis
+          : Math.min(maxTimeoutMillis, Long.parseLong(timeoutString));
+    } catch (NumberFormatException nfe) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, nfe.getMessage());
+      return;
+    }
+    if (userIDs.length == 0) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "userIDs was not specified");
+      return;
+    }
+    if (howMany <= 0) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "howMany must be at least 1");
+      return;
+    }
+    if (timeoutMillis < 0L) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "timeout must not be negative");
+      return;
+    }
+
+    BatchRecommender.BatchResult result = batchRecommender.recommend(userIDs, howMany, timeoutMillis);
+
+    PrintWriter writer = writeJSONHeaders(response);
+    writer.print("{\"partial\":");
+    writer.print(result.isPartial());
+    writer.print(",\"users\":[");
+    boolean first = true;
+    for (long userID : result.getUserIDs()) {
+      if (!first) {
+        writer.print(',');
+      }
+      first = false;
+      writer.print("{\"userID\":");
+      writer.print(userID);
+      List<RecommendedItem> items = result.getRecommendations(userID);
+      if (items == null) {
+        writer.print(",\"status\":\"");
+        writer.print(result.isTimedOut(userID) ? "timedOut" : result.isRejected(userID) ? "rejected" : "failed");
+        writer.print("\"}");
+        continue;
+      }
+      writer.print(",\"recommendedItems\":[");
+      boolean firstItem = true;
+      for (RecommendedItem recommendedItem : items) {
+        float value = recommendedItem.getValue();
+        // JSON has no NaN or infinity
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+          continue;
+        }
+        if (!firstItem) {
+          writer.print(',');
+        }
+        firstItem = false;
+        writer.print("{\"value\":");
+        writer.print(value);
+        writer.print(",\"id\":");
+        writer.print(recommendedItem.getItemID());
+        writer.print('}');
+      }
+      writer.print("]}");
+    }
+    writer.println("]}");
+  }
+
+  /**
+   * @throws NumberFormatException if a user ID isn't a number
+   */
+  private static long[] parseUserIDs(HttpServletRequest request) {
+    String userIDsString = request.getParameter("userIDs");
+    String[] listed = userIDsString == null || userIDsString.length() == 0
+        ? new String[0] : COMMA.split(userIDsString);
+    String[] single = request.getParameterValues("userID");
+    int numSingle = single == null ? 0 : single.length;
+    long[] userIDs = new long[listed.length + numSingle];
+    for (int i = 0; i < listed.length; i++) {
+      userIDs[i] = Long.parseLong(listed[i].trim());
+    }
+    for (int i = 0; i < numSingle; i++) {
+      userIDs[listed.length + i] = Long.parseLong(single[i].trim());
+    }
+    return userIDs;
+  }
+
+  private void writeStats(HttpServletResponse response) throws IOException {
+    long uptimeMillis = batchRecommender.getUptimeMillis();
+    PrintWriter writer = writeJSONHeaders(response);
+    writer.print("{\"uptimeMillis\":");
+    writer.print(uptimeMillis);
+    writer.print(",\"requests\":");
+    writer.print(batchRecommender.getNumRequests());
+    writer.print(",\"users\":");
+    writer.print(batchRecommender.getNumUsers());
+    writer.print(",\"usersPerSecond\":");
+    writer.print(uptimeMillis == 0L ? 0.0 : 1000.0 * batchRecommender.getNumUsers() / uptimeMillis);
+    writer.print(",\"cacheHits\":");
+    writer.print(batchRecommender.getNumCacheHits());
+    writer.print(",\"coalesced\":");
+    writer.print(batchRecommender.getNumCoalesced());
+    writer.print(",\"timedOut\":");
+    writer.print(batchRecommender.getNumTimedOut());
+    writer.print(",\"rejected\":");
+    writer.print(batchRecommender.getNumRejected());
+    writer.print(",\"failed\":");
+    writer.print(batchRecommender.getNumFailed());
+    writer.print(",\"queueSize\":");
+    writer.print(batchRecommender.getQueueSize());
+    writer.print(",\"cacheSize\":");
+    writer.print(batchRecommender.getCacheSize());
+    writer.print(",\"requestLatency\":");
+    writeLatencies(writer, batchRecommender.getRequestLatencies());
+    writer.print(",\"recommendLatency\":");
+    writeLatencies(writer, batchRecommender.getRecommendLatencies());
+    writer.println('}');
+  }
+
+  private static void writeLatencies(PrintWriter writer, LatencyHistogram latencies) {
+    writer.print("{\"count\":");
+    writer.print(latencies.getCount());
+    if (latencies.getCount() > 0L) {
+      writer.print(",\"meanMicros\":");
+      writer.print(latencies.getMeanMicros());
+      writer.print(",\"p50Micros\":");
+      writer.print(latencies.getPercentileMicros(50.0));
+      writer.print(",\"p90Micros\":");
+      writer.print(latencies.getPercentileMicros(90.0));
+      writer.print(",\"p99Micros\":");
+      writer.print(latencies.getPercentileMicros(99.0));
+      writer.print(",\"p999Micros\":");
+      writer.print(latencies.getPercentileMicros(99.9));
+      writer.print(",\"maxMicros\":");
+      writer.print(latencies.getMaxMicros());
+    }
+    writer.print('}');
+  }
+
+  private static PrintWriter writeJSONHeaders(HttpServletResponse response) throws IOException {
+    response.setContentType("application/json");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-cache");
+    return response.getWriter();
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request,
+                     HttpServletResponse response) throws ServletException {
+    handle(request, response, true);
+  }
+
+  @Override
+  public String toString() {
+    return "BatchRecommenderServlet[batchRecommender:" + batchRecommender + ']';
+  }
+
+}
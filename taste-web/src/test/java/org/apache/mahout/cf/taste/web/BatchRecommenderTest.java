@@ -0,0 +1,196 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.web;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.recommender.GenericRecommendedItem;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.math.MahoutTestCase;
+import org.junit.After;
+import org.junit.Test;
+
+public final class BatchRecommenderTest extends MahoutTestCase {
+
+  private static final long LONG_TIMEOUT_MILLIS = 10000L;
+
+  private final CountDownLatch release = new CountDownLatch(1);
+  private BatchRecommender batchRecommender;
+
+  @Override
+  @After
+  public void tearDown() throws Exception {
+    release.countDown();
+    if (batchRecommender != null) {
+      batchRecommender.close();
+    }
+    super.tearDown();
+  }
+
+  @Test
+  public void testCachesUntilRefresh() {
+    StubRecommender recommender = new StubRecommender(release);
+    batchRecommender = new BatchRecommender(recommender, 2, 10, 10);
+    BatchRecommender.BatchResult result = batchRecommender.recommend(new long[] {1L, 2L, 1L}, 3, LONG_TIMEOUT_MILLIS);
+    assertEquals(Lists.newArrayList(1L, 2L), result.getUserIDs());
+    assertFalse(result.isPartial());
+    assertEquals(3, result.getRecommendations(1L).size());
+    assertEquals(2, recommender.calls.get());
+
+    result = batchRecommender.recommend(new long[] {1L}, 2, LONG_TIMEOUT_MILLIS);
+    assertEquals(2, result.getRecommendations(1L).size());
+    assertEquals(1L, batchRecommender.getNumCacheHits());
+    assertEquals(2, recommender.calls.get());
+
+    batchRecommender.refresh(null);
+    assertEquals(0, batchRecommender.getCacheSize());
+    result = batchRecommender.recommend(new long[] {1L}, 2, LONG_TIMEOUT_MILLIS);
+    assertEquals(2, result.getRecommendations(1L).size());
+    assertEquals(1L, batchRecommender.getNumCacheHits());
+    assertEquals(3, recommender.calls.get());
+  }
+
+  @Test
+  public void testReturnsWhatIsReadyByDeadline() {
+    StubRecommender recommender = new StubRecommender(release, 2L);
+    batchRecommender = new BatchRecommender(recommender, 2, 10, 10);
+    BatchRecommender.BatchResult result = batchRecommender.recommend(new long[] {1L, 2L}, 3, 200L);
+    assertTrue(result.isPartial());
+    assertEquals(3, result.getRecommendations(1L).size());
+    assertNull(result.getRecommendations(2L));
+    assertTrue(result.isTimedOut(2L));
+    assertEquals(1L, batchRecommender.getNumTimedOut());
+  }
+
+  @Test
+  public void testCoalesces() {
+    StubRecommender recommender = new StubRecommender(release, 1L);
+    batchRecommender = new BatchRecommender(recommender, 2, 10, 10);
+    assertTrue(batchRecommender.recommend(new long[] {1L}, 3, 0L).isTimedOut(1L));
+    assertTrue(batchRecommender.recommend(new long[] {1L}, 2, 0L).isTimedOut(1L));
+    assertEquals(1L, batchRecommender.getNumCoalesced());
+
+    release.countDown();
+    BatchRecommender.BatchResult result = batchRecommender.recommend(new long[] {1L}, 3, LONG_TIMEOUT_MILLIS);
+    assertEquals(3, result.getRecommendations(1L).size());
+    assertEquals(1, recommender.calls.get());
+  }
+
+  @Test
+  public void testDoesNotCoalesceAcrossRefresh() {
+    StubRecommender recommender = new StubRecommender(release, 1L);
+    batchRecommender = new BatchRecommender(recommender, 2, 10, 10);
+    assertTrue(batchRecommender.recommend(new long[] {1L}, 3, 0L).isTimedOut(1L));
+    batchRecommender.refresh(null);
+    assertTrue(batchRecommender.recommend(new long[] {1L}, 3, 0L).isTimedOut(1L));
+    assertEquals(0L, batchRecommender.getNumCoalesced());
+
+    release.countDown();
+    BatchRecommender.BatchResult result = batchRecommender.recommend(new long[] {1L}, 3, LONG_TIMEOUT_MILLIS);
+    assertEquals(3, result.getRecommendations(1L).size());
+    assertEquals(2, recommender.calls.get());
+  }
+
+  @Test
+  public void testRejectsWhenQueueIsFull() {
+    StubRecommender recommender = new StubRecommender(release, 1L, 2L, 3L);
+    batchRecommender = new BatchRecommender(recommender, 1, 1, 10);
+    BatchRecommender.BatchResult result = batchRecommender.recommend(new long[] {1L, 2L, 3L}, 3, 0L);
+    // user 1 goes straight to the only thread, user 2 fills the queue
+    assertTrue(result.isTimedOut(1L));
+    assertTrue(result.isTimedOut(2L));
+    assertTrue(result.isRejected(3L));
+    assertEquals(1L, batchRecommender.getNumRejected());
+  }
+
+  /** Recommends items 0, 1, ... to everyone, making the given users wait until released. */
+  private static final class StubRecommender implements Recommender {
+
+    private final CountDownLatch release;
+    private final FastIDSet slowUserIDs;
+    private final AtomicInteger calls;
+
+    private StubRecommender(CountDownLatch release, long... slowUserIDs) {
+      this.release = release;
+      this.slowUserIDs = new FastIDSet();
+      for (long userID : slowUserIDs) {
+        this.slowUserIDs.add(userID);
+      }
+      calls = new AtomicInteger();
+    }
+
+    @Override
+    public List<RecommendedItem> recommend(long userID, int howMany) throws TasteException {
+      calls.incrementAndGet();
+      if (slowUserIDs.contains(userID)) {
+        try {
+          release.await(LONG_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+          throw new TasteException(ie);
+        }
+      }
+      List<RecommendedItem> items = Lists.newArrayListWithCapacity(howMany);
+      for (int i = 0; i < howMany; i++) {
+        items.add(new GenericRecommendedItem(i, 1.0f));
+      }
+      return items;
+    }
+
+    @Override
+    public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) throws TasteException {
+      return recommend(userID, howMany);
+    }
+
+    @Override
+    public float estimatePreference(long userID, long itemID) {
+      return 1.0f;
+    }
+
+    @Override
+    public void setPreference(long userID, long itemID, float value) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void removePreference(long userID, long itemID) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public DataModel getDataModel() {
+      return null;
+    }
+
+    @Override
+    public void refresh(Collection<Refreshable> alreadyRefreshed) {
+      // nothing to refresh
+    }
+  }
+
+}